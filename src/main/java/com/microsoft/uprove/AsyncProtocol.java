@@ -0,0 +1,342 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs the protocol operations asynchronously, for callers such as
+ * event-loop services that must not block on them.
+ * <p>Each method starts an operation on an executor and returns a
+ * <code>CompletableFuture</code> completed with its result. Computations run
+ * on a compute executor, by default a pool of daemon threads bounded by the
+ * number of processors; {@link Device} calls, which typically wait on a
+ * smart card or a remote service, run on a device executor, by default an
+ * unbounded pool of daemon threads.</p>
+ * <p>Cancelling a future, or completing it by any other means such as
+ * <code>orTimeout</code>, cancels the operation: an operation that didn't
+ * start yet never runs, and a running one is interrupted, which stops
+ * parallel computations at their next synchronization point. A default
+ * timeout can be set with {@link #setTimeout(long)}.</p>
+ * <p>Issuer and Prover instances are not thread-safe: the operations of a
+ * given instance must be chained (for instance with
+ * <code>thenCompose</code>), not started concurrently.</p>
+ */
+public final class AsyncProtocol {
+
+    /**
+     * Creates named daemon threads.
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(final String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * The default compute executor, created on first use.
+     */
+    private static final class ComputeExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new DaemonThreadFactory("U-Prove async"));
+    }
+
+    /**
+     * The default device executor, created on first use.
+     */
+    private static final class DeviceExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new DaemonThreadFactory("U-Prove async device"));
+    }
+
+    private final Executor computeExecutor;
+    private final Executor deviceExecutor;
+    private volatile long timeout = 0;
+
+    /**
+     * Constructs a new instance using the default executors.
+     */
+    public AsyncProtocol() {
+        this(null, null);
+    }
+
+    /**
+     * Constructs a new instance.
+     * @param computeExecutor the executor running the computations, or
+     * <code>null</code> to use the default bounded pool.
+     * @param deviceExecutor the executor running the Device calls, or
+     * <code>null</code> to use the default unbounded pool.
+     */
+    public AsyncProtocol(final Executor computeExecutor,
+            final Executor deviceExecutor) {
+        this.computeExecutor = computeExecutor;
+        this.deviceExecutor = deviceExecutor;
+    }
+
+    /**
+     * Gets the default timeout.
+     * @return the timeout, in milliseconds, or <code>0</code> if none.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the timeout applied to the operations started afterwards. An
+     * operation still running when it expires is cancelled, and its future
+     * completes with a <code>TimeoutException</code>.
+     * @param timeout the timeout, in milliseconds, or <code>0</code> for
+     * none.
+     */
+    public void setTimeout(final long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must be >= 0");
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * Starts an operation.
+     * @param executor the executor, or <code>null</code> for the default.
+     * @param device <code>true</code> for a Device call.
+     * @param operation the operation.
+     * @return the future result of the operation.
+     */
+    private <T> CompletableFuture<T> submit(final Executor executor,
+            final boolean device, final Callable<T> operation) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        final FutureTask<T> task = new FutureTask<T>(operation) {
+            protected void done() {
+                if (isCancelled()) {
+                    future.cancel(false);
+                    return;
+                }
+                try {
+                    future.complete(get());
+                } catch (ExecutionException ee) {
+                    future.completeExceptionally(ee.getCause());
+                } catch (InterruptedException ie) {
+                    // can't happen, the task is done
+                    future.completeExceptionally(ie);
+                }
+            }
+        };
+        // any other completion (cancellation, timeout) cancels the task
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(final T result, final Throwable t) {
+                if (!task.isDone()) {
+                    task.cancel(true);
+                }
+            }
+        });
+        final long limit = timeout;
+        if (limit > 0) {
+            future.orTimeout(limit, TimeUnit.MILLISECONDS);
+        }
+        Executor e = executor;
+        if (e == null) {
+            e = device ? DeviceExecutorHolder.EXECUTOR
+                : ComputeExecutorHolder.EXECUTOR;
+        }
+        try {
+            e.execute(task);
+        } catch (RejectedExecutionException ree) {
+            future.completeExceptionally(ree);
+        }
+        return future;
+    }
+
+    /**
+     * Starts a computation.
+     * @param operation the computation.
+     * @return the future result of the computation.
+     */
+    private <T> CompletableFuture<T> compute(final Callable<T> operation) {
+        return submit(computeExecutor, false, operation);
+    }
+
+    /**
+     * Asynchronously runs {@link Issuer#precomputation()}.
+     * @param issuer an Issuer instance.
+     * @return a future completed when the precomputation is done.
+     */
+    public CompletableFuture<Void> precomputationAsync(final Issuer issuer) {
+        return compute(new Callable<Void>() {
+            public Void call() throws Exception {
+                issuer.precomputation();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously runs {@link Issuer#generateFirstMessage()}.
+     * @param issuer an Issuer instance.
+     * @return the future first message.
+     */
+    public CompletableFuture<byte[][]> generateFirstMessageAsync(
+            final Issuer issuer) {
+        return compute(new Callable<byte[][]>() {
+            public byte[][] call() throws Exception {
+                return issuer.generateFirstMessage();
+            }
+        });
+    }
+
+    /**
+     * Asynchronously runs {@link Issuer#generateThirdMessage(byte[][])}.
+     * @param issuer an Issuer instance.
+     * @param message2 the second message.
+     * @return the future third message.
+     */
+    public CompletableFuture<byte[][]> generateThirdMessageAsync(
+            final Issuer issuer, final byte[][] message2) {
+        return compute(new Callable<byte[][]>() {
+            public byte[][] call() throws Exception {
+                return issuer.generateThirdMessage(message2);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously runs {@link Prover#precomputation()}.
+     * @param prover a Prover instance.
+     * @return a future completed when the precomputation is done.
+     */
+    public CompletableFuture<Void> precomputationAsync(final Prover prover) {
+        return compute(new Callable<Void>() {
+            public Void call() throws Exception {
+                prover.precomputation();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously runs {@link Prover#generateSecondMessage(byte[][])}.
+     * @param prover a Prover instance.
+     * @param message1 the first message.
+     * @return the future second message.
+     */
+    public CompletableFuture<byte[][]> generateSecondMessageAsync(
+            final Prover prover, final byte[][] message1) {
+        return compute(new Callable<byte[][]>() {
+            public byte[][] call() throws Exception {
+                return prover.generateSecondMessage(message1);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously runs {@link Prover#generateTokens(byte[][])}.
+     * @param prover a Prover instance.
+     * @param message3 the third message.
+     * @return the future tokens.
+     */
+    public CompletableFuture<UProveKeyAndToken[]> generateTokensAsync(
+            final Prover prover, final byte[][] message3) {
+        return compute(new Callable<UProveKeyAndToken[]>() {
+            public UProveKeyAndToken[] call() throws Exception {
+                return prover.generateTokens(message3);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously runs
+     * {@link PresentationProtocol#generatePresentationProof(IssuerParameters, int[], byte[], byte[], UProveKeyAndToken, byte[][])}.
+     * @param ip the issuer parameters.
+     * @param disclosed the indices of the disclosed attributes.
+     * @param m the message.
+     * @param md the protocol message for the Device.
+     * @param upkt the U-Prove key and token.
+     * @param attributes the token attributes.
+     * @return the future presentation proof.
+     */
+    public CompletableFuture<PresentationProof> generatePresentationProofAsync(
+            final IssuerParameters ip, final int[] disclosed, final byte[] m,
+            final byte[] md, final UProveKeyAndToken upkt,
+            final byte[][] attributes) {
+        return compute(new Callable<PresentationProof>() {
+            public PresentationProof call() throws Exception {
+                return PresentationProtocol.generatePresentationProof(ip,
+                    disclosed, m, md, upkt, attributes);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously runs
+     * {@link PresentationProtocol#verifyPresentationProof(IssuerParameters, int[], byte[], byte[], UProveToken, PresentationProof)}.
+     * The future completes exceptionally with an
+     * {@link InvalidProofException} if the proof is invalid.
+     * @param ip the issuer parameters.
+     * @param disclosed the indices of the disclosed attributes.
+     * @param m the message.
+     * @param md the protocol message for the Device.
+     * @param upt the U-Prove token.
+     * @param pp the presentation proof.
+     * @return a future completed when the proof is verified.
+     */
+    public CompletableFuture<Void> verifyPresentationProofAsync(
+            final IssuerParameters ip, final int[] disclosed, final byte[] m,
+            final byte[] md, final UProveToken upt,
+            final PresentationProof pp) {
+        return compute(new Callable<Void>() {
+            public Void call() throws Exception {
+                PresentationProtocol.verifyPresentationProof(ip, disclosed, m,
+                    md, upt, pp);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously runs {@link Device#GetResponse(byte[], byte[])} on the
+     * device executor.
+     * @param device the Device.
+     * @param messageForDevice the message for the Device.
+     * @param partialChallengeDigest the partial challenge digest.
+     * @return the future Device response.
+     */
+    public CompletableFuture<byte[]> getDeviceResponseAsync(
+            final Device device, final byte[] messageForDevice,
+            final byte[] partialChallengeDigest) {
+        return submit(deviceExecutor, true, new Callable<byte[]>() {
+            public byte[] call() {
+                return device.GetResponse(messageForDevice,
+                    partialChallengeDigest);
+            }
+        });
+    }
+}
@@ -0,0 +1,262 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.microsoft.uprove.FieldZq.ZqElement;
+
+/*
+ * LOW-LEVEL IMPLEMENTATION CLASS. NOT PART OF PUBLIC API.
+ */
+
+/**
+ * Memoizes the attribute terms <code>x_i</code>, <code>g_i^x_i</code> and
+ * <code>z_i^x_i</code> (where <code>z_i</code> is the i-th Prover issuance
+ * value), as well as the token information term <code>x_t</code>.
+ * <p>Entries are keyed by the issuer parameters digest (which covers the
+ * parameters UID, group and public key), the attribute index and the
+ * attribute value, so that values shared by many tokens are hashed and
+ * exponentiated only once. The cache is disabled unless a size budget is
+ * configured; see {@link Config#setAttributeCacheSize(long)}.</p>
+ * <p>Cached elements are shared between threads and protocol instances: they
+ * may be used as arguments but must never be modified in place.</p>
+ */
+final class AttributeCache {
+
+    // fixed per-entry overhead estimate (objects, references, map node)
+    private static final int ENTRY_OVERHEAD = 160;
+
+    // the active cache, or null if disabled
+    private static volatile BoundedCache<Key, Terms> cache;
+    private static volatile boolean configured = false;
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private AttributeCache() {
+        super();
+    }
+
+    /**
+     * The cache key: (issuer parameters digest, index, value).
+     */
+    private static final class Key {
+        private final byte[] digest;
+        private final int index;
+        private final byte[] value;
+        private final int hash;
+
+        Key(final byte[] digest, final int index, final byte[] value) {
+            this.digest = digest;
+            this.index = index;
+            this.value = value;
+            int h = ByteArrays.hashCode(digest);
+            h = 31 * h + index;
+            h = 31 * h + ByteArrays.hashCode(value);
+            this.hash = h;
+        }
+
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key) obj;
+            return hash == k.hash
+                && index == k.index
+                && Arrays.equals(value, k.value)
+                && Arrays.equals(digest, k.digest);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The memoized terms of one attribute value.
+     */
+    static final class Terms {
+        private final int index;
+        private final ZqElement x;
+        private final int elementLength;
+        private volatile GroupElement[] generatorTerm;
+        private volatile GroupElement[] issuanceTerm;
+
+        Terms(final int index, final ZqElement x, final int elementLength) {
+            this.index = index;
+            this.x = x;
+            this.elementLength = elementLength;
+        }
+
+        /**
+         * Returns the attribute's <code>x</code> value.
+         * @return <code>x_i</code> (or <code>x_t</code>). Must not be
+         * modified.
+         */
+        ZqElement getX() {
+            return x;
+        }
+
+        /**
+         * Returns <code>g_i^x_i</code>, computing it on first use.
+         * @param ip the issuer parameters the terms were looked up with.
+         * @return the generator term. Must not be modified.
+         */
+        GroupElement getGeneratorTerm(final IssuerParametersInternal ip) {
+            final GroupElement base = ip.getPublicKey()[index];
+            final GroupElement[] t = generatorTerm;
+            if (t != null && t[0].equals(base)) {
+                return t[1];
+            }
+            // computing the same value twice is harmless
+            final GroupElement value = base.exponentiate(x);
+            generatorTerm = new GroupElement[] {base, value};
+            return value;
+        }
+
+        /**
+         * Returns <code>z_i^x_i</code>, computing it on first use. The
+         * Prover issuance values are not covered by the issuer parameters
+         * digest, so the base is compared before the cached term is reused.
+         * @param ip the issuer parameters the terms were looked up with.
+         * @return the Prover issuance term. Must not be modified.
+         */
+        GroupElement getIssuanceTerm(final IssuerParametersInternal ip) {
+            final GroupElement base = ip.getProverIssuanceValues()[index];
+            final GroupElement[] t = issuanceTerm;
+            if (t != null && t[0].equals(base)) {
+                return t[1];
+            }
+            final GroupElement value = base.exponentiate(x);
+            issuanceTerm = new GroupElement[] {base, value};
+            return value;
+        }
+    }
+
+    // weighs an entry: key material plus x and both group terms
+    private static final class TermsWeigher
+            implements BoundedCache.Weigher<Key, Terms> {
+        public long weigh(final Key key, final Terms value) {
+            return ENTRY_OVERHEAD + key.digest.length + key.value.length
+                + value.x.length() + 2L * value.elementLength;
+        }
+    }
+
+    // erases the cached copy of the attribute value
+    private static final class TermsEraser
+            implements BoundedCache.RemovalListener<Key, Terms> {
+        public void onRemoval(final Key key, final Terms value) {
+            ByteArrays.erase(key.value);
+        }
+    }
+
+    /**
+     * Returns the active cache, creating it according to the configured size
+     * if needed.
+     * @return the cache, or <code>null</code> if caching is disabled.
+     */
+    private static BoundedCache<Key, Terms> cache() {
+        if (!configured) {
+            synchronized (AttributeCache.class) {
+                if (!configured) {
+                    final long size = ConfigImpl.attributeCacheSize();
+                    cache = size > 0
+                        ? new BoundedCache<Key, Terms>(size,
+                            new TermsWeigher(), new TermsEraser())
+                        : null;
+                    configured = true;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Indicates whether the cache is enabled.
+     * @return <code>true</code> if attribute terms are being cached.
+     */
+    static boolean isEnabled() {
+        return cache() != null;
+    }
+
+    /**
+     * Discards the cache and its statistics; the next lookup recreates it
+     * according to the configured size.
+     */
+    static void reset() {
+        final BoundedCache<Key, Terms> old;
+        synchronized (AttributeCache.class) {
+            old = cache;
+            cache = null;
+            configured = false;
+        }
+        if (old != null) {
+            old.clear();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the cache's statistics.
+     * @return the cache statistics; all zero if the cache is disabled.
+     */
+    static CacheStatistics getStatistics() {
+        final BoundedCache<Key, Terms> c = cache();
+        return c != null
+            ? c.getStatistics()
+            : new CacheStatistics(0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Returns the terms of an attribute value, computing and caching them
+     * on a miss. The cache must be enabled.
+     * @param ip the issuer parameters.
+     * @param index the attribute index, one-based; <code>n+1</code> denotes
+     * the token information field.
+     * @param value the attribute (or token information) value.
+     * @return the attribute terms.
+     * @throws IOException if the value is malformed.
+     */
+    static Terms getTerms(final IssuerParametersInternal ip, final int index,
+            final byte[] value) throws IOException {
+        final BoundedCache<Key, Terms> c = cache();
+        assert c != null;
+
+        // a null value can only be looked up (and hashed) as empty
+        final byte[] v = value == null ? new byte[0] : value;
+        final boolean isTokenInformation =
+            index == ip.getEncodingBytes().length + 1;
+        if (!isTokenInformation && value == null
+            && ip.getEncodingBytes()[index - 1] == (byte) 0) {
+            throw new NullPointerException(
+                "Array A can't be null when e_index == 0");
+        }
+
+        final Key probe = new Key(ip.getIssuerParametersDigest(), index, v);
+        final Terms cached = c.get(probe);
+        if (cached != null) {
+            return cached;
+        }
+
+        final ZqElement x = isTokenInformation
+            ? ProtocolHelper.deriveXt(ip, value)
+            : ProtocolHelper.deriveXi(ip, index, value);
+        // the cache keeps its own copy of the value, erased on removal
+        return c.putIfAbsent(
+            new Key(ip.getIssuerParametersDigest(), index, v.clone()),
+            new Terms(index, x, ip.getGroup().getGenerator().length()));
+    }
+}
@@ -0,0 +1,268 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The value of a token attribute, which need not be held in memory.
+ * <p>Attributes hashed into the token (those with an encoding byte
+ * <code>e_i = 1</code>) are digested directly from their source, so large
+ * values such as photos or signed documents can be read from memory-mapped
+ * files or streams without being copied into a byte array. Attributes
+ * directly encoded into the token (<code>e_i = 0</code>) are at most as
+ * large as the group order and are always read into memory.</p>
+ * <p>A source created from a stream can only be read once; it can be used to
+ * compute a single issuance or presentation. All other sources can be reused,
+ * and must not be modified while in use.</p>
+ * @see IssuerProtocolParameters#setTokenAttributeSources(AttributeSource[])
+ * @see ProverProtocolParameters#setTokenAttributeSources(AttributeSource[])
+ */
+public abstract class AttributeSource {
+
+    /**
+     * Package-private constructor to prevent subclassing outside the SDK.
+     */
+    AttributeSource() {
+        super();
+    }
+
+    /**
+     * Returns the length of the attribute value, in bytes.
+     * @return the length of the attribute value.
+     */
+    public abstract long length();
+
+    /**
+     * Formats the attribute value into a hash, as
+     * {@link HashUpdater#update(byte[])} would.
+     * @param H the hash to update.
+     * @throws IOException if the value can't be read.
+     */
+    abstract void addToDigest(HashUpdater H) throws IOException;
+
+    /**
+     * Reads the whole attribute value into memory.
+     * @return the attribute value. Ownership of the referent is not given to
+     * the caller, who must not modify it.
+     * @throws IOException if the value can't be read.
+     */
+    abstract byte[] toByteArray() throws IOException;
+
+    /**
+     * Indicates whether the value is backed by a byte array, and can thus be
+     * retrieved without copy by {@link #toByteArray()}.
+     * @return <code>true</code> if the value is backed by a byte array.
+     */
+    boolean hasArray() {
+        return false;
+    }
+
+    /**
+     * Checks that a length fits in the protocol's 4-byte length prefix.
+     * @param length a length.
+     * @return <code>length</code> as an integer.
+     */
+    private static int checkLength(final long length) {
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid length: " + length);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer, leaving its position unchanged.
+     * @param buffer a buffer.
+     * @return the remaining bytes.
+     */
+    private static byte[] readBuffer(final ByteBuffer buffer) {
+        final byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    /**
+     * Returns a source for an attribute value held in a byte array.
+     * @param value the attribute value; <code>null</code> is allowed for
+     * hashed attributes, and is equivalent to an empty value. The array is
+     * not copied.
+     * @return an attribute source.
+     */
+    public static AttributeSource fromBytes(final byte[] value) {
+        return new AttributeSource() {
+            public long length() {
+                return value == null ? 0 : value.length;
+            }
+
+            void addToDigest(final HashUpdater H) {
+                H.update(value);
+            }
+
+            byte[] toByteArray() {
+                return value;
+            }
+
+            boolean hasArray() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a source for an attribute value held in the remaining bytes of
+     * a buffer, such as a buffer mapped from a file. The buffer's position is
+     * never modified.
+     * @param value the attribute value.
+     * @return an attribute source.
+     */
+    public static AttributeSource fromBuffer(final ByteBuffer value) {
+        if (value == null) {
+            throw new NullPointerException("value must not be null");
+        }
+        final ByteBuffer view = value.duplicate();
+        return new AttributeSource() {
+            public long length() {
+                return view.remaining();
+            }
+
+            void addToDigest(final HashUpdater H) {
+                H.update(view.duplicate());
+            }
+
+            byte[] toByteArray() {
+                return readBuffer(view);
+            }
+        };
+    }
+
+    /**
+     * Returns a source for an attribute value stored in a region of a file.
+     * The region is memory-mapped each time the value is read, so the file
+     * is not kept open between uses and must not be modified while in use.
+     * @param file the file.
+     * @param offset the offset of the value in the file.
+     * @param length the length of the value, in bytes.
+     * @return an attribute source.
+     */
+    public static AttributeSource fromFile(final File file, final long offset,
+            final long length) {
+        if (file == null) {
+            throw new NullPointerException("file must not be null");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("invalid offset: " + offset);
+        }
+        checkLength(length);
+        return new AttributeSource() {
+            public long length() {
+                return length;
+            }
+
+            private ByteBuffer map() throws IOException {
+                final RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    // the mapping remains valid once the file is closed
+                    return raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        offset, length);
+                } finally {
+                    raf.close();
+                }
+            }
+
+            void addToDigest(final HashUpdater H) throws IOException {
+                H.update(map());
+            }
+
+            byte[] toByteArray() throws IOException {
+                return readBuffer(map());
+            }
+        };
+    }
+
+    /**
+     * Returns a source for an attribute value stored in a file.
+     * @param file the file.
+     * @return an attribute source.
+     * @see #fromFile(File, long, long)
+     */
+    public static AttributeSource fromFile(final File file) {
+        return fromFile(file, 0, file.length());
+    }
+
+    /**
+     * Returns a source for an attribute value read from a stream. The
+     * source can only be read once.
+     * @param in the stream; it is read but not closed.
+     * @param length the length of the value, in bytes.
+     * @return an attribute source.
+     */
+    public static AttributeSource fromStream(final InputStream in,
+            final long length) {
+        if (in == null) {
+            throw new NullPointerException("in must not be null");
+        }
+        final int len = checkLength(length);
+        return new AttributeSource() {
+            private boolean consumed = false;
+
+            public long length() {
+                return len;
+            }
+
+            private void consume() {
+                if (consumed) {
+                    throw new IllegalStateException("stream already read");
+                }
+                consumed = true;
+            }
+
+            void addToDigest(final HashUpdater H) throws IOException {
+                consume();
+                H.update(in, len);
+            }
+
+            byte[] toByteArray() throws IOException {
+                consume();
+                final byte[] data = new byte[len];
+                int offset = 0;
+                while (offset < len) {
+                    final int read = in.read(data, offset, len - offset);
+                    if (read < 0) {
+                        throw new EOFException(
+                            "stream ended " + (len - offset) + " bytes early");
+                    }
+                    offset += read;
+                }
+                return data;
+            }
+        };
+    }
+
+    /**
+     * Wraps an array of attribute values.
+     * @param values the attribute values.
+     * @return an array of attribute sources.
+     */
+    static AttributeSource[] fromBytes(final byte[][] values) {
+        final AttributeSource[] sources = new AttributeSource[values.length];
+        for (int i = 0; i < values.length; i++) {
+            sources[i] = fromBytes(values[i]);
+        }
+        return sources;
+    }
+}
@@ -0,0 +1,188 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Specifies the Issuer protocol parameters for an issuance session whose
+ * tokens go to different recipients, each token having its own attributes,
+ * token information and Device public key.
+ * <p>The generated {@link Issuer} instance runs one session for all tokens:
+ * the first message holds the <code>2n</code> elements of the
+ * <code>n</code> tokens in the order they were added, the second message
+ * must hold the <code>n</code> challenges in the same order, and the third
+ * message holds the <code>n</code> responses. Each recipient runs the usual
+ * single-token Prover protocol on its own slice of the messages: elements
+ * <code>2i</code> and <code>2i+1</code> of the first message, and element
+ * <code>i</code> of the third.</p>
+ * <p>The per-token gamma values share their work: each distinct attribute
+ * (or token information) value is hashed and exponentiated once for the
+ * whole batch, and the products are spread over the executor.</p>
+ */
+public final class BatchIssuerProtocolParameters {
+
+    /**
+     * The parameters of one token.
+     */
+    static final class TokenSpec {
+        private final byte[][] attributes;
+        private final byte[] tokenInformation;
+        private final byte[] devicePublicKey;
+
+        TokenSpec(final byte[][] attributes, final byte[] tokenInformation,
+                final byte[] devicePublicKey) {
+            this.attributes = attributes;
+            this.tokenInformation = tokenInformation;
+            this.devicePublicKey = devicePublicKey;
+        }
+
+        byte[][] getAttributes() {
+            return attributes;
+        }
+
+        byte[] getTokenInformation() {
+            return tokenInformation;
+        }
+
+        byte[] getDevicePublicKey() {
+            return devicePublicKey;
+        }
+    }
+
+    private IssuerKeyAndParameters issuerKeyAndParameters;
+    private final List<TokenSpec> tokens = new ArrayList<TokenSpec>();
+    private IssuerCommonInput input;
+    private Executor executor; // = null;
+    private IssuerPrecomputationPool precomputationPool; // = null;
+
+    /**
+     * Constructs a <code>BatchIssuerProtocolParameters</code> instance.
+     * @param issuerKeyAndParameters the Issuer key and parameters.
+     */
+    public BatchIssuerProtocolParameters(
+            IssuerKeyAndParameters issuerKeyAndParameters) {
+        super();
+        this.issuerKeyAndParameters = issuerKeyAndParameters;
+    }
+
+    /**
+     * Gets the Issuer key and parameters.
+     * @return the Issuer key and parameters.
+     */
+    public IssuerKeyAndParameters getIssuerKeyAndParameters() {
+        return issuerKeyAndParameters;
+    }
+
+    /**
+     * Adds a token to the batch.
+     * @param tokenAttributes the token attributes.
+     * @param tokenInformation the token information value.
+     * @param devicePublicKey the Device public key, or <code>null</code> if
+     * the token is not Device-protected.
+     * @return the index of the token in the protocol messages.
+     */
+    public int addToken(byte[][] tokenAttributes, byte[] tokenInformation,
+            byte[] devicePublicKey) {
+        if (tokenAttributes == null || tokenInformation == null) {
+            throw new NullPointerException();
+        }
+        tokens.add(new TokenSpec(tokenAttributes, tokenInformation,
+            devicePublicKey));
+        input = null;
+        return tokens.size() - 1;
+    }
+
+    /**
+     * Gets the number of tokens in the batch.
+     * @return the number of tokens.
+     */
+    public int getNumberOfTokens() {
+        return tokens.size();
+    }
+
+    /**
+     * Returns the parameters of a token.
+     * @param index the token index.
+     * @return the token parameters.
+     */
+    TokenSpec getToken(final int index) {
+        return tokens.get(index);
+    }
+
+    /**
+     * Gets the executor running the per-token computations.
+     * @return the executor, or <code>null</code> if the SDK-wide executor is
+     * used.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor running the per-token computations, including the
+     * gamma values, overriding the SDK-wide setting of
+     * {@link Config#setParallelThreads(int)}.
+     * @param executor the executor, or <code>null</code> to use the SDK-wide
+     * executor.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the precomputation pool.
+     * @return the precomputation pool, or <code>null</code>.
+     */
+    public IssuerPrecomputationPool getPrecomputationPool() {
+        return precomputationPool;
+    }
+
+    /**
+     * Sets the pool from which the generated {@link Issuer} instances draw
+     * their precomputed <code>(w, g^w)</code> pairs.
+     * @param precomputationPool the pool, or <code>null</code> to compute
+     * all values during precomputation.
+     */
+    public void setPrecomputationPool(IssuerPrecomputationPool precomputationPool) {
+        this.precomputationPool = precomputationPool;
+    }
+
+    /**
+     * Tests the contents of <code>this</code> for validity, computing the
+     * per-token gamma values.
+     * @throws IllegalStateException if the parameters are invalid.
+     * @throws IOException if the parameters are malformed.
+     */
+    public void validate() throws IllegalStateException, IOException {
+        if (input == null) {
+            input = IssuerFactory.computeInput(this);
+        }
+    }
+
+    /**
+     * Generates an {@link Issuer} instance to run the issuance protocol for
+     * all the tokens of the batch.
+     * @return an <code>Issuer</code>.
+     * @throws IllegalStateException if the parameters are invalid.
+     * @throws IOException if the parameters are malformed.
+     * @see #validate()
+     */
+    public Issuer generate() throws IllegalStateException, IOException {
+        validate();
+        return IssuerFactory.generate(tokens.size(), input, executor,
+            precomputationPool);
+    }
+}
@@ -0,0 +1,298 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * LOW-LEVEL IMPLEMENTATION CLASS. NOT PART OF PUBLIC API.
+ */
+
+/**
+ * A thread-safe, size-bounded, least-recently-used cache.
+ * <p>The cache is split into independently locked segments selected by the
+ * key's hash code, so that concurrent lookups of different keys rarely
+ * contend. Each entry is weighed (in estimated bytes) when it is inserted,
+ * and each segment evicts its least recently used entries once its share of
+ * the total budget is exceeded. Entries heavier than a segment's share are
+ * never cached.</p>
+ * <p>Entries can also be given a time to live, after which they are treated
+ * as absent and dropped when next looked up or inserted.</p>
+ * <p>Keys must implement <code>equals</code> and <code>hashCode</code> based
+ * on their content and must not be modified once inserted.</p>
+ * @param <K> the key type.
+ * @param <V> the value type.
+ */
+final class BoundedCache<K, V> {
+
+    /**
+     * Estimates the memory held by a cache entry.
+     */
+    interface Weigher<K, V> {
+        /**
+         * Returns the estimated size of an entry, in bytes.
+         * @param key the entry's key.
+         * @param value the entry's value.
+         * @return a positive size estimate.
+         */
+        long weigh(K key, V value);
+    }
+
+    /**
+     * Notified when an entry leaves the cache, either because it was evicted
+     * or because the cache was cleared. Typically used to erase sensitive
+     * key or value material.
+     */
+    interface RemovalListener<K, V> {
+        /**
+         * Called after an entry was removed from the cache. The call is made
+         * while holding the lock of the entry's segment.
+         * @param key the entry's key.
+         * @param value the entry's value.
+         */
+        void onRemoval(K key, V value);
+    }
+
+    // the maximum number of segments; a power of two
+    private static final int MAX_SEGMENTS = 16;
+
+    // an entry's value along with its weight and expiry time
+    private static final class Node<V> {
+        final V value;
+        final long weight;
+        final long expires;
+
+        Node(final V value, final long weight, final long expires) {
+            this.value = value;
+            this.weight = weight;
+            this.expires = expires;
+        }
+    }
+
+    // a segment of the cache, guarded by its own monitor
+    private static final class Segment<K, V> {
+        final LinkedHashMap<K, Node<V>> map =
+            new LinkedHashMap<K, Node<V>>(16, 0.75f, true);
+        long weight;
+    }
+
+    // generic arrays can't be created directly
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K, V> Segment<K, V>[] newSegments(final int count) {
+        return new Segment[count];
+    }
+
+    private final Segment<K, V>[] segments;
+    private final long maximumWeight;
+    private final long segmentWeight;
+    private final long timeToLive;
+    private final Weigher<K, V> weigher;
+    private final RemovalListener<K, V> listener;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructs a new cache whose entries don't expire.
+     * @param maximumWeight the total size budget, in bytes.
+     * @param weigher the entry weigher.
+     * @param listener the removal listener, or <code>null</code>.
+     */
+    BoundedCache(final long maximumWeight, final Weigher<K, V> weigher,
+            final RemovalListener<K, V> listener) {
+        this(maximumWeight, 0, weigher, listener);
+    }
+
+    /**
+     * Constructs a new cache.
+     * @param maximumWeight the total size budget, in bytes.
+     * @param timeToLive the time, in milliseconds, after which an entry
+     * expires, or <code>0</code> if entries don't expire.
+     * @param weigher the entry weigher.
+     * @param listener the removal listener, or <code>null</code>.
+     */
+    BoundedCache(final long maximumWeight, final long timeToLive,
+            final Weigher<K, V> weigher,
+            final RemovalListener<K, V> listener) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException(
+                "maximumWeight must be > 0");
+        }
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException(
+                "timeToLive must be >= 0");
+        }
+        if (weigher == null) {
+            throw new NullPointerException("weigher must not be null");
+        }
+
+        // use fewer segments for small budgets so that each one can still
+        // hold a reasonable number of entries
+        int count = 1;
+        while (count < MAX_SEGMENTS && maximumWeight / (count * 2) >= 4096) {
+            count *= 2;
+        }
+        segments = newSegments(count);
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<K, V>();
+        }
+        this.maximumWeight = maximumWeight;
+        this.segmentWeight = maximumWeight / count;
+        this.timeToLive = timeToLive * 1000000L;
+        this.weigher = weigher;
+        this.listener = listener;
+    }
+
+    private Segment<K, V> segmentFor(final Object key) {
+        int h = key.hashCode();
+        // spread the high bits, since keys often hash byte arrays
+        h ^= (h >>> 16);
+        h ^= (h >>> 8);
+        return segments[h & (segments.length - 1)];
+    }
+
+    /**
+     * Indicates whether a node expired.
+     * @param node a node.
+     * @param now the current <code>System.nanoTime()</code>.
+     * @return <code>true</code> if <code>node</code> expired.
+     */
+    private boolean isExpired(final Node<V> node, final long now) {
+        return timeToLive != 0 && now - node.expires >= 0;
+    }
+
+    /**
+     * Removes an expired node from its segment. Must be called while holding
+     * the segment's lock.
+     * @param s the segment.
+     * @param key the node's key.
+     * @param node the expired node.
+     */
+    private void expire(final Segment<K, V> s, final K key,
+            final Node<V> node) {
+        s.map.remove(key);
+        s.weight -= node.weight;
+        if (listener != null) {
+            listener.onRemoval(key, node.value);
+        }
+    }
+
+    /**
+     * Returns the value cached under a key, recording a hit or a miss.
+     * @param key the key.
+     * @return the cached value, or <code>null</code> if there is none.
+     */
+    V get(final K key) {
+        final Segment<K, V> s = segmentFor(key);
+        Node<V> node;
+        synchronized (s) {
+            node = s.map.get(key);
+            if (node != null && isExpired(node, System.nanoTime())) {
+                expire(s, key, node);
+                node = null;
+            }
+        }
+        if (node == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return node.value;
+    }
+
+    /**
+     * Caches a value unless one is already cached under the same key.
+     * @param key the key.
+     * @param value the value.
+     * @return the value now cached under <code>key</code>, which is
+     * <code>value</code> unless another thread inserted one first. If the
+     * entry is too heavy to be cached, <code>value</code> is returned and
+     * the cache is unchanged.
+     */
+    V putIfAbsent(final K key, final V value) {
+        final long w = weigher.weigh(key, value);
+        if (w > segmentWeight) {
+            return value;
+        }
+        final Segment<K, V> s = segmentFor(key);
+        synchronized (s) {
+            final long now = System.nanoTime();
+            final Node<V> existing = s.map.get(key);
+            if (existing != null) {
+                if (!isExpired(existing, now)) {
+                    return existing.value;
+                }
+                expire(s, key, existing);
+            }
+            s.map.put(key, new Node<V>(value, w, now + timeToLive));
+            s.weight += w;
+
+            // evict least recently used entries until we're in budget
+            final Iterator<Map.Entry<K, Node<V>>> it =
+                s.map.entrySet().iterator();
+            while (s.weight > segmentWeight && it.hasNext()) {
+                final Map.Entry<K, Node<V>> eldest = it.next();
+                if (eldest.getKey() == key) {
+                    continue;
+                }
+                it.remove();
+                s.weight -= eldest.getValue().weight;
+                evictions.incrementAndGet();
+                if (listener != null) {
+                    listener.onRemoval(eldest.getKey(),
+                        eldest.getValue().value);
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Removes all entries from the cache. Statistics are preserved.
+     */
+    void clear() {
+        for (int i = 0; i < segments.length; i++) {
+            final Segment<K, V> s = segments[i];
+            synchronized (s) {
+                if (listener != null) {
+                    for (Map.Entry<K, Node<V>> e : s.map.entrySet()) {
+                        listener.onRemoval(e.getKey(), e.getValue().value);
+                    }
+                }
+                s.map.clear();
+                s.weight = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the cache's usage statistics.
+     * @return the cache statistics.
+     */
+    CacheStatistics getStatistics() {
+        long entries = 0;
+        long weight = 0;
+        for (int i = 0; i < segments.length; i++) {
+            final Segment<K, V> s = segments[i];
+            synchronized (s) {
+                entries += s.map.size();
+                weight += s.weight;
+            }
+        }
+        return new CacheStatistics(hits.get(), misses.get(), evictions.get(),
+            entries, weight, maximumWeight);
+    }
+}
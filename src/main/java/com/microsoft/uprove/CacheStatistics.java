@@ -0,0 +1,121 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+/**
+ * An immutable snapshot of the usage statistics of one of the SDK's
+ * internal caches.
+ * <p>The counters are sampled without stopping the cache, so a snapshot taken
+ * while other threads use the cache is only approximately consistent.</p>
+ */
+public final class CacheStatistics {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long entryCount;
+    private final long weight;
+    private final long maximumWeight;
+
+    /**
+     * Constructs a new <code>CacheStatistics</code> instance.
+     * @param hitCount the number of lookups that found an entry.
+     * @param missCount the number of lookups that did not find an entry.
+     * @param evictionCount the number of entries evicted to stay in budget.
+     * @param entryCount the number of entries currently cached.
+     * @param weight the current estimated size of the cache, in bytes.
+     * @param maximumWeight the size budget of the cache, in bytes.
+     */
+    CacheStatistics(final long hitCount, final long missCount,
+            final long evictionCount, final long entryCount,
+            final long weight, final long maximumWeight) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.entryCount = entryCount;
+        this.weight = weight;
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * Returns the number of lookups that found a cached entry.
+     * @return the hit count.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of lookups that did not find a cached entry.
+     * @return the miss count.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the ratio of hits to lookups, or <code>0</code> if no lookup
+     * was made.
+     * @return the hit rate, between <code>0</code> and <code>1</code>.
+     */
+    public double getHitRate() {
+        final long lookups = hitCount + missCount;
+        return lookups == 0 ? 0.0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * Returns the number of entries removed to keep the cache within its
+     * size budget.
+     * @return the eviction count.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of entries currently held in the cache.
+     * @return the entry count.
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Returns the estimated size of the cached entries, in bytes.
+     * @return the cache weight.
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Returns the size budget of the cache, in bytes.
+     * @return the maximum cache weight.
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Returns a string representation of the statistics.
+     * @return a string representation of the statistics.
+     */
+    public String toString() {
+        return new StringBuffer("CacheStatistics[hits=").append(hitCount)
+            .append(", misses=").append(missCount)
+            .append(", evictions=").append(evictionCount)
+            .append(", entries=").append(entryCount)
+            .append(", weight=").append(weight)
+            .append('/').append(maximumWeight)
+            .append(']').toString();
+    }
+}
@@ -0,0 +1,145 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the Issuer side of a large issuance session in fixed-size chunks.
+ * <p>Tokens are issued independently of each other, so a session of
+ * <code>n</code> tokens is equivalent to consecutive sessions over
+ * ranges of tokens sharing the same common input. A chunked session runs
+ * the protocol one chunk at a time: for each chunk, the Issuer generates
+ * the first message, receives the second message from a
+ * {@link ChunkedProver} and answers with the third message. Only the
+ * current chunk's values are held in memory, whatever the total number of
+ * tokens.</p>
+ * <p>Usage:</p>
+ * <pre>
+ * ChunkedIssuer issuer = ipp.generateChunked(1000);
+ * while (issuer.hasNextChunk()) {
+ *     send(issuer.generateFirstMessage());
+ *     send(issuer.generateThirdMessage(receive()));
+ * }
+ * </pre>
+ * @see IssuerProtocolParameters#generateChunked(int)
+ */
+public final class ChunkedIssuer {
+
+    private final int numberOfTokens;
+    private final int chunkSize;
+    private final IssuerCommonInput input;
+    private final Executor executor;
+    private final IssuerPrecomputationPool pool;
+    private int issued = 0;
+    private Issuer current;
+
+    /**
+     * Constructs a new chunked session.
+     * @param numberOfTokens the total number of tokens to issue.
+     * @param chunkSize the maximum number of tokens per chunk.
+     * @param input the Issuer common input.
+     * @param executor the executor, or <code>null</code>.
+     * @param pool the precomputation pool, or <code>null</code>.
+     */
+    ChunkedIssuer(final int numberOfTokens, final int chunkSize,
+            final IssuerCommonInput input, final Executor executor,
+            final IssuerPrecomputationPool pool) {
+        if (numberOfTokens <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException(
+                "numberOfTokens and chunkSize must be > 0");
+        }
+        this.numberOfTokens = numberOfTokens;
+        this.chunkSize = chunkSize;
+        this.input = input;
+        this.executor = executor;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the total number of tokens of the session.
+     * @return the number of tokens.
+     */
+    public int getNumberOfTokens() {
+        return numberOfTokens;
+    }
+
+    /**
+     * Returns the maximum number of tokens per chunk.
+     * @return the chunk size.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Returns the number of tokens issued so far, that is, whose third
+     * message was generated.
+     * @return the number of issued tokens.
+     */
+    public int getIssuedCount() {
+        return issued;
+    }
+
+    /**
+     * Indicates whether chunks remain to be issued.
+     * @return <code>true</code> if the session is not complete.
+     */
+    public boolean hasNextChunk() {
+        return issued < numberOfTokens;
+    }
+
+    /**
+     * Starts the next chunk and generates its first message.
+     * @return the first message of the chunk, for <code>2k</code> elements
+     * where <code>k</code> is the number of tokens of the chunk.
+     * @throws IOException if the message can't be generated.
+     * @throws IllegalStateException if the previous chunk wasn't completed,
+     * or if all tokens were issued.
+     */
+    public byte[][] generateFirstMessage() throws IOException {
+        if (current != null) {
+            throw new IllegalStateException("current chunk not completed");
+        }
+        if (!hasNextChunk()) {
+            throw new IllegalStateException("all chunks issued");
+        }
+        final int count = Math.min(chunkSize, numberOfTokens - issued);
+        final Issuer issuer =
+            IssuerFactory.generate(count, input, executor, pool);
+        final byte[][] message1 = issuer.generateFirstMessage();
+        current = issuer;
+        return message1;
+    }
+
+    /**
+     * Completes the current chunk by generating its third message. The
+     * chunk's values are dropped afterwards.
+     * @param message2 the second message of the chunk.
+     * @return the third message of the chunk.
+     * @throws IOException if the message can't be generated.
+     * @throws IllegalStateException if no chunk is in progress.
+     */
+    public byte[][] generateThirdMessage(final byte[][] message2)
+            throws IOException {
+        if (current == null) {
+            throw new IllegalStateException("no chunk in progress");
+        }
+        final IssuerImpl issuer = (IssuerImpl) current;
+        final byte[][] message3 = issuer.generateThirdMessage(message2);
+        issued += message3.length;
+        current = null;
+        issuer.erase();
+        return message3;
+    }
+}
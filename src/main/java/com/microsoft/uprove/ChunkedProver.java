@@ -0,0 +1,142 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the Prover side of a large issuance session in fixed-size chunks,
+ * against a {@link ChunkedIssuer}.
+ * <p>For each chunk, the Prover answers the Issuer's first message with the
+ * second message, then obtains the chunk's tokens from the third message.
+ * Only the current chunk's values are held in memory; the tokens can be
+ * stored as each chunk completes.</p>
+ * <p>Usage:</p>
+ * <pre>
+ * ChunkedProver prover = ppp.generateChunked(1000);
+ * while (prover.hasNextChunk()) {
+ *     send(prover.generateSecondMessage(receive()));
+ *     store(prover.generateTokens(receive()));
+ * }
+ * </pre>
+ * @see ProverProtocolParameters#generateChunked(int)
+ */
+public final class ChunkedProver {
+
+    private final int numberOfTokens;
+    private final int chunkSize;
+    private final ProverCommonInput input;
+    private final Executor executor;
+    private int obtained = 0;
+    private Prover current;
+
+    /**
+     * Constructs a new chunked session.
+     * @param numberOfTokens the total number of tokens to obtain.
+     * @param chunkSize the maximum number of tokens per chunk.
+     * @param input the Prover common input.
+     * @param executor the executor, or <code>null</code>.
+     */
+    ChunkedProver(final int numberOfTokens, final int chunkSize,
+            final ProverCommonInput input, final Executor executor) {
+        if (numberOfTokens <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException(
+                "numberOfTokens and chunkSize must be > 0");
+        }
+        this.numberOfTokens = numberOfTokens;
+        this.chunkSize = chunkSize;
+        this.input = input;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the total number of tokens of the session.
+     * @return the number of tokens.
+     */
+    public int getNumberOfTokens() {
+        return numberOfTokens;
+    }
+
+    /**
+     * Returns the maximum number of tokens per chunk.
+     * @return the chunk size.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Returns the number of tokens obtained so far.
+     * @return the number of obtained tokens.
+     */
+    public int getObtainedCount() {
+        return obtained;
+    }
+
+    /**
+     * Indicates whether chunks remain to be obtained.
+     * @return <code>true</code> if the session is not complete.
+     */
+    public boolean hasNextChunk() {
+        return obtained < numberOfTokens;
+    }
+
+    /**
+     * Starts the next chunk and generates its second message.
+     * @param message1 the first message of the chunk.
+     * @return the second message of the chunk.
+     * @throws IOException if the message can't be generated.
+     * @throws IllegalStateException if the previous chunk wasn't completed,
+     * or if all tokens were obtained.
+     * @throws IllegalArgumentException if the chunk has the wrong size.
+     */
+    public byte[][] generateSecondMessage(final byte[][] message1)
+            throws IOException {
+        if (current != null) {
+            throw new IllegalStateException("current chunk not completed");
+        }
+        if (!hasNextChunk()) {
+            throw new IllegalStateException("all chunks obtained");
+        }
+        final int count = Math.min(chunkSize, numberOfTokens - obtained);
+        if (message1.length != 2 * count) {
+            throw new IllegalArgumentException(
+                "wrong number of elements in message1");
+        }
+        final Prover prover = ProverFactory.generate(count, input, executor);
+        final byte[][] message2 = prover.generateSecondMessage(message1);
+        current = prover;
+        return message2;
+    }
+
+    /**
+     * Completes the current chunk and returns its tokens. The chunk's
+     * values are dropped afterwards.
+     * @param message3 the third message of the chunk.
+     * @return the tokens of the chunk.
+     * @throws IOException if the message is malformed.
+     * @throws IllegalStateException if no chunk is in progress, or if the
+     * Issuer's response is invalid.
+     */
+    public UProveKeyAndToken[] generateTokens(final byte[][] message3)
+            throws IOException {
+        if (current == null) {
+            throw new IllegalStateException("no chunk in progress");
+        }
+        final Prover prover = current;
+        current = null;
+        final UProveKeyAndToken[] tokens = prover.generateTokens(message3);
+        obtained += tokens.length;
+        return tokens;
+    }
+}
@@ -29,6 +29,11 @@ import com.microsoft.uprove.ConfigImpl;
  * <li><code>com.microsoft.uprove.securerandom.algorithm</code></li>
  * <li><code>com.microsoft.uprove.securerandom.provider</code></li>
  * <li><code>com.microsoft.uprove.messagedigest.provider</code></li>
+ * <li><code>com.microsoft.uprove.cache.attributes.size</code></li>
+ * <li><code>com.microsoft.uprove.cache.issuerparameters.size</code></li>
+ * <li><code>com.microsoft.uprove.cache.tokens.size</code></li>
+ * <li><code>com.microsoft.uprove.cache.tokens.ttl</code></li>
+ * <li><code>com.microsoft.uprove.parallel.threads</code></li>
  * </ul>
  * <p>If the SDK cannot access the named properties (because it has not been
  * granted the <code>"getProperty.&lt;property name>"</code>
@@ -101,6 +106,104 @@ import com.microsoft.uprove.ConfigImpl;
  * <li><b>Setter</b>: {@link #setMessageDigestProvider(String)}</li>
  * <li><b>Getter</b>: {@link #getMessageDigestProvider()}</li>
  * </ul>
+ *
+ * <p><b>Attribute cache</b><br>
+ * SDK users can enable a cache of attribute terms (the attribute value
+ * <code>x_i</code> and the exponentiations <code>g_i^x_i</code> derived from
+ * it), keyed by the issuer parameters, the attribute index and the attribute
+ * value. Populations where many tokens share attribute values (or token
+ * information) then avoid most of the hashing and exponentiations needed to
+ * compute the issuance and verification products. The option sets the
+ * cache's budget in (estimated) bytes; least recently used entries are
+ * evicted when it is exceeded. The cache is disabled by default, since it
+ * retains copies of attribute values in memory; evicted values are erased.
+ * Cache statistics are available via
+ * {@link #getAttributeCacheStatistics()}.</p>
+ * <p>Modification of this option at runtime via the <code>set</code> method
+ * takes effect immediately, discarding the cache content.</p>
+ * <ul>
+ * <li><b>Option Name</b>: <code>cache.attributes.size</code></li>
+ * <li><b>Default Value</b>: <code>0</code> (disabled)</li>
+ * <li><b>Security Property Name</b>:
+ * <code>com.microsoft.uprove.cache.attributes.size</code></li>
+ * <li><b>Setter</b>: {@link #setAttributeCacheSize(long)}</li>
+ * <li><b>Getter</b>: {@link #getAttributeCacheSize()}</li>
+ * </ul>
+ *
+ * <p><b>Issuer parameters cache</b><br>
+ * The SDK keeps the decoded form of recently used issuer parameters (the
+ * public key and Prover issuance value elements, the issuer parameters digest
+ * and the hash function prototype), keyed by the parameters UID and a digest
+ * of their content, and shares it among all the protocol entry points and
+ * threads. Parameters that were validated once are not validated again.
+ * Concurrent first uses of the same parameters decode them only once. The
+ * option sets the cache's budget in (estimated) bytes; least recently used
+ * entries are evicted when it is exceeded. Cache statistics are available
+ * via {@link #getIssuerParametersCacheStatistics()}.</p>
+ * <p>Modification of this option at runtime via the <code>set</code> method
+ * takes effect immediately, discarding the cache content.</p>
+ * <ul>
+ * <li><b>Option Name</b>: <code>cache.issuerparameters.size</code></li>
+ * <li><b>Default Value</b>: <code>4194304</code> (4 MB)</li>
+ * <li><b>Security Property Name</b>:
+ * <code>com.microsoft.uprove.cache.issuerparameters.size</code></li>
+ * <li><b>Setter</b>: {@link #setIssuerParametersCacheSize(long)}</li>
+ * <li><b>Getter</b>: {@link #getIssuerParametersCacheSize()}</li>
+ * </ul>
+ *
+ * <p><b>Verified token cache</b><br>
+ * SDK users can have the verifier remember, for a limited time, the tokens
+ * whose Issuer signature verified, so that a token presented again (for
+ * instance across the requests of a workflow) only has its presentation
+ * proof verified. Entries are keyed by a digest of the issuer parameters and
+ * of the whole token, and only valid tokens are inserted. The size option
+ * sets the cache's budget in (estimated) bytes, each entry taking about 200
+ * bytes; the time to live option sets how long, in milliseconds, a token is
+ * remembered. Cache statistics are available via
+ * {@link #getVerifiedTokenCacheStatistics()}.</p>
+ * <p>Since a cached token isn't checked against the issuer parameters again
+ * until its entry expires, the cache is disabled by default.</p>
+ * <p>Modification of these options at runtime via the <code>set</code>
+ * methods takes effect immediately, discarding the cache content.</p>
+ * <ul>
+ * <li><b>Option Name</b>: <code>cache.tokens.size</code></li>
+ * <li><b>Default Value</b>: <code>0</code> (disabled)</li>
+ * <li><b>Security Property Name</b>:
+ * <code>com.microsoft.uprove.cache.tokens.size</code></li>
+ * <li><b>Setter</b>: {@link #setVerifiedTokenCacheSize(long)}</li>
+ * <li><b>Getter</b>: {@link #getVerifiedTokenCacheSize()}</li>
+ * </ul>
+ * <ul>
+ * <li><b>Option Name</b>: <code>cache.tokens.ttl</code></li>
+ * <li><b>Default Value</b>: <code>300000</code> (5 minutes)</li>
+ * <li><b>Security Property Name</b>:
+ * <code>com.microsoft.uprove.cache.tokens.ttl</code></li>
+ * <li><b>Setter</b>: {@link #setVerifiedTokenCacheTimeToLive(long)}</li>
+ * <li><b>Getter</b>: {@link #getVerifiedTokenCacheTimeToLive()}</li>
+ * </ul>
+ *
+ * <p><b>Parallelism</b><br>
+ * SDK users can have the per-token computations of the issuance protocol
+ * spread over a shared pool of threads. A value of <code>1</code> runs all
+ * computations in the calling thread; a value of <code>0</code> uses one
+ * thread per available processor. An executor set on the protocol
+ * parameters (see
+ * {@link IssuerProtocolParameters#setExecutor(java.util.concurrent.Executor)}
+ * and
+ * {@link ProverProtocolParameters#setExecutor(java.util.concurrent.Executor)})
+ * takes precedence over the shared pool. The protocol messages do not depend
+ * on the number of threads.</p>
+ * <p>Modification of this option at runtime via the <code>set</code> method
+ * takes effect immediately; the previous pool is shut down once its pending
+ * work completes.</p>
+ * <ul>
+ * <li><b>Option Name</b>: <code>parallel.threads</code></li>
+ * <li><b>Default Value</b>: <code>1</code> (sequential)</li>
+ * <li><b>Security Property Name</b>:
+ * <code>com.microsoft.uprove.parallel.threads</code></li>
+ * <li><b>Setter</b>: {@link #setParallelThreads(int)}</li>
+ * <li><b>Getter</b>: {@link #getParallelThreads()}</li>
+ * </ul>
  */
 public final class Config {
 
@@ -236,4 +339,254 @@ public final class Config {
             throws SecurityException {
         ConfigImpl.setMessageDigestProvider(provider);
     }
+
+    /**
+     * Returns the maximum size of the attribute cache.
+     * <p>First, if there is a security manager, its
+     * <code>checkPermission</code> method is called with a
+     * <code>com.microsoft.uprove.UProveSDKPermission("getOption.cache.attributes.size")</code>
+     * permission.</p>
+     * @return the attribute cache size, in bytes; <code>0</code> if the
+     * cache is disabled.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access based on the current security policy.
+     * @see #setAttributeCacheSize(long)
+     * @see UProveSDKPermission
+     */
+    public static long getAttributeCacheSize() throws SecurityException {
+        return ConfigImpl.getAttributeCacheSize();
+    }
+
+    /**
+     * Sets the maximum size of the attribute cache. The current cache
+     * content and statistics are discarded.
+     * <p>First, if there is a security manager, its
+     * <code>checkPermission</code> method is called with a
+     * <code>com.microsoft.uprove.UProveSDKPermission("setOption.cache.attributes.size")</code>
+     * permission.</p>
+     * @param size the attribute cache size, in bytes, <code>0</code> to
+     * disable the cache, or a negative value to select the site-wide
+     * default.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access based on the current security policy.
+     * @see #getAttributeCacheSize()
+     * @see UProveSDKPermission
+     */
+    public static void setAttributeCacheSize(final long size)
+            throws SecurityException {
+        ConfigImpl.setAttributeCacheSize(size);
+    }
+
+    /**
+     * Returns a snapshot of the attribute cache's usage statistics.
+     * <p>First, if there is a security manager, its
+     * <code>checkPermission</code> method is called with a
+     * <code>com.microsoft.uprove.UProveSDKPermission("getOption.cache.attributes.size")</code>
+     * permission.</p>
+     * @return the attribute cache statistics; all zero if the cache is
+     * disabled.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access based on the current security policy.
+     * @see #setAttributeCacheSize(long)
+     */
+    public static CacheStatistics getAttributeCacheStatistics()
+            throws SecurityException {
+        return ConfigImpl.getAttributeCacheStatistics();
+    }
+
+    /**
+     * Returns the maximum size of the issuer parameters cache.
+     * <p>First, if there is a security manager, its
+     * <code>checkPermission</code> method is called with a
+     * <code>com.microsoft.uprove.UProveSDKPermission("getOption.cache.issuerparameters.size")</code>
+     * permission.</p>
+     * @return the issuer parameters cache size, in bytes; <code>0</code> if
+     * the cache is disabled.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access based on the current security policy.
+     * @see #setIssuerParametersCacheSize(long)
+     * @see UProveSDKPermission
+     */
+    public static long getIssuerParametersCacheSize()
+            throws SecurityException {
+        return ConfigImpl.getIssuerParametersCacheSize();
+    }
+
+    /**
+     * Sets the maximum size of the issuer parameters cache. The current
+     * cache content and statistics are discarded.
+     * <p>First, if there is a security manager, its
+     * <code>checkPermission</code> method is called with a
+     * <code>com.microsoft.uprove.UProveSDKPermission("setOption.cache.issuerparameters.size")</code>
+     * permission.</p>
+     * @param size the issuer parameters cache size, in bytes, <code>0</code>
+     * to disable the cache, or a negative value to select the site-wide
+     * default.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access based on the current security policy.
+     * @see #getIssuerParametersCacheSize()
+     * @see UProveSDKPermission
+     */
+    public static void setIssuerParametersCacheSize(final long size)
+            throws SecurityException {
+        ConfigImpl.setIssuerParametersCacheSize(size);
+    }
+
+    /**
+     * Returns a snapshot of the issuer parameters cache's usage statistics.
+     * <p>First, if there is a security manager, its
+     * <code>checkPermission</code> method is called with a
+     * <code>com.microsoft.uprove.UProveSDKPermission("getOption.cache.issuerparameters.size")</code>
+     * permission.</p>
+     * @return the issuer parameters cache statistics; all zero if the cache
+     * is disabled.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access based on the current security policy.
+     * @see #setIssuerParametersCacheSize(long)
+     */
+    public static CacheStatistics getIssuerParametersCacheStatistics()
+            throws SecurityException {
+        return ConfigImpl.getIssuerParametersCacheStatistics();
+    }
+
+    /**
+     * Returns the maximum size of the verified token cache.
+     * <p>First, if there is a security manager, its
+     * <code>checkPermission</code> method is called with a
+     * <code>com.microsoft.uprove.UProveSDKPermission("getOption.cache.tokens.size")</code>
+     * permission.</p>
+     * @return the verified token cache size, in bytes; <code>0</code> if the
+     * cache is disabled.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access based on the current security policy.
+     * @see #setVerifiedTokenCacheSize(long)
+     * @see UProveSDKPermission
+     */
+    public static long getVerifiedTokenCacheSize() throws SecurityException {
+        return ConfigImpl.getVerifiedTokenCacheSize();
+    }
+
+    /**
+     * Sets the maximum size of the verified token cache. The current cache
+     * content and statistics are discarded.
+     * <p>First, if there is a security manager, its
+     * <code>checkPermission</code> method is called with a
+     * <code>com.microsoft.uprove.UProveSDKPermission("setOption.cache.tokens.size")</code>
+     * permission.</p>
+     * @param size the verified token cache size, in bytes, <code>0</code> to
+     * disable the cache, or a negative value to select the site-wide default.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access based on the current security policy.
+     * @see #getVerifiedTokenCacheSize()
+     * @see UProveSDKPermission
+     */
+    public static void setVerifiedTokenCacheSize(final long size)
+            throws SecurityException {
+        ConfigImpl.setVerifiedTokenCacheSize(size);
+    }
+
+    /**
+     * Returns the time after which a verified token cache entry expires.
+     * <p>First, if there is a security manager, its
+     * <code>checkPermission</code> method is called with a
+     * <code>com.microsoft.uprove.UProveSDKPermission("getOption.cache.tokens.ttl")</code>
+     * permission.</p>
+     * @return the time to live, in milliseconds.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access based on the current security policy.
+     * @see #setVerifiedTokenCacheTimeToLive(long)
+     * @see UProveSDKPermission
+     */
+    public static long getVerifiedTokenCacheTimeToLive()
+            throws SecurityException {
+        return ConfigImpl.getVerifiedTokenCacheTimeToLive();
+    }
+
+    /**
+     * Sets the time after which a verified token cache entry expires. The
+     * current cache content and statistics are discarded.
+     * <p>First, if there is a security manager, its
+     * <code>checkPermission</code> method is called with a
+     * <code>com.microsoft.uprove.UProveSDKPermission("setOption.cache.tokens.ttl")</code>
+     * permission.</p>
+     * @param ttl the time to live, in milliseconds, or a value less than
+     * <code>1</code> to select the site-wide default.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access based on the current security policy.
+     * @see #getVerifiedTokenCacheTimeToLive()
+     * @see UProveSDKPermission
+     */
+    public static void setVerifiedTokenCacheTimeToLive(final long ttl)
+            throws SecurityException {
+        ConfigImpl.setVerifiedTokenCacheTimeToLive(ttl);
+    }
+
+    /**
+     * Returns a snapshot of the verified token cache's usage statistics.
+     * <p>First, if there is a security manager, its
+     * <code>checkPermission</code> method is called with a
+     * <code>com.microsoft.uprove.UProveSDKPermission("getOption.cache.tokens.size")</code>
+     * permission.</p>
+     * @return the verified token cache statistics; all zero if the cache is
+     * disabled.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access based on the current security policy.
+     * @see #setVerifiedTokenCacheSize(long)
+     */
+    public static CacheStatistics getVerifiedTokenCacheStatistics()
+            throws SecurityException {
+        return ConfigImpl.getVerifiedTokenCacheStatistics();
+    }
+
+    /**
+     * Returns the number of threads of the SDK's shared pool used to
+     * parallelize protocol computations.
+     * <p>First, if there is a security manager, its
+     * <code>checkPermission</code> method is called with a
+     * <code>com.microsoft.uprove.UProveSDKPermission("getOption.parallel.threads")</code>
+     * permission.</p>
+     * @return the number of threads; <code>1</code> if computations run in
+     * the calling thread.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access based on the current security policy.
+     * @see #setParallelThreads(int)
+     * @see UProveSDKPermission
+     */
+    public static int getParallelThreads() throws SecurityException {
+        return ConfigImpl.getParallelThreads();
+    }
+
+    /**
+     * Sets the number of threads of the SDK's shared pool used to
+     * parallelize protocol computations.
+     * <p>First, if there is a security manager, its
+     * <code>checkPermission</code> method is called with a
+     * <code>com.microsoft.uprove.UProveSDKPermission("setOption.parallel.threads")</code>
+     * permission.</p>
+     * @param threads the number of threads, <code>1</code> to run
+     * computations in the calling thread, <code>0</code> to use one thread
+     * per available processor, or a negative value to select the site-wide
+     * default.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access based on the current security policy.
+     * @see #getParallelThreads()
+     * @see UProveSDKPermission
+     */
+    public static void setParallelThreads(final int threads)
+            throws SecurityException {
+        ConfigImpl.setParallelThreads(threads);
+    }
 }
@@ -43,6 +43,16 @@ final class ConfigImpl {
         "messagedigest.provider";
     private static final String OPTION_MATH_PRIMECONFIDENCELEVEL =
         "math.primeconfidencelevel";
+    private static final String OPTION_CACHE_ATTRIBUTES_SIZE =
+        "cache.attributes.size";
+    private static final String OPTION_CACHE_ISSUERPARAMETERS_SIZE =
+        "cache.issuerparameters.size";
+    private static final String OPTION_CACHE_TOKENS_SIZE =
+        "cache.tokens.size";
+    private static final String OPTION_CACHE_TOKENS_TTL =
+        "cache.tokens.ttl";
+    private static final String OPTION_PARALLEL_THREADS =
+        "parallel.threads";
 
     // the base for all security properties we use
     private static final String SECURITY_PROPERTY_BASE =
@@ -57,6 +67,16 @@ final class ConfigImpl {
         SECURITY_PROPERTY_BASE + OPTION_MESSAGEDIGEST_PROVIDER;
     private static final String PROPERTY_MATH_PRIMECONFIDENCELEVEL =
         SECURITY_PROPERTY_BASE + OPTION_MATH_PRIMECONFIDENCELEVEL;
+    private static final String PROPERTY_CACHE_ATTRIBUTES_SIZE =
+        SECURITY_PROPERTY_BASE + OPTION_CACHE_ATTRIBUTES_SIZE;
+    private static final String PROPERTY_CACHE_ISSUERPARAMETERS_SIZE =
+        SECURITY_PROPERTY_BASE + OPTION_CACHE_ISSUERPARAMETERS_SIZE;
+    private static final String PROPERTY_CACHE_TOKENS_SIZE =
+        SECURITY_PROPERTY_BASE + OPTION_CACHE_TOKENS_SIZE;
+    private static final String PROPERTY_CACHE_TOKENS_TTL =
+        SECURITY_PROPERTY_BASE + OPTION_CACHE_TOKENS_TTL;
+    private static final String PROPERTY_PARALLEL_THREADS =
+        SECURITY_PROPERTY_BASE + OPTION_PARALLEL_THREADS;
 
     // prefixes for permission checks
     private static final String PREFIX_GET_OPTION = "getOption.";
@@ -71,6 +91,37 @@ final class ConfigImpl {
      */
     private static final int DEFAULT_PRIME_CONFIDENCE_LEVEL = 100;
 
+    /**
+     * The attribute cache is disabled by default, since it retains copies of
+     * attribute values in memory.
+     */
+    private static final long DEFAULT_ATTRIBUTE_CACHE_SIZE = 0;
+
+    /**
+     * Issuer parameters are public, so they are cached by default; 4 MB
+     * holds a few hundred typical parameter sets.
+     */
+    private static final long DEFAULT_ISSUER_PARAMETERS_CACHE_SIZE =
+        4L * 1024 * 1024;
+
+    /**
+     * The verified token cache is disabled by default, since a token whose
+     * Issuer key is revoked would still verify until its entry expires.
+     */
+    private static final long DEFAULT_VERIFIED_TOKEN_CACHE_SIZE = 0;
+
+    /**
+     * Verified tokens are remembered for 5 minutes by default, long enough
+     * for a multi-request workflow.
+     */
+    private static final long DEFAULT_VERIFIED_TOKEN_CACHE_TTL = 5L * 60 * 1000;
+
+    /**
+     * Protocol computations run in the calling thread by default, so that
+     * the SDK creates no threads unless asked to.
+     */
+    private static final int DEFAULT_PARALLEL_THREADS = 1;
+
     // configuration settings
     // note: we create a new string so that our "unset" value is distinct from
     // any value that we'll possibly get from the User. if we simply set
@@ -79,10 +130,18 @@ final class ConfigImpl {
     // given to us by a User.
     private static final String OPTION_UNSET = new String("option unset");
     private static final int LEVEL_UNSET = -1;
+    private static final long SIZE_UNSET = -1;
+    private static final long TTL_UNSET = -1;
+    private static final int THREADS_UNSET = -1;
     private static String secureRandomAlgorithm = OPTION_UNSET;
     private static String secureRandomProvider = OPTION_UNSET;
     private static String messageDigestProvider = OPTION_UNSET;
     private static int primeConfidenceLevel = LEVEL_UNSET;
+    private static long attributeCacheSize = SIZE_UNSET;
+    private static long issuerParametersCacheSize = SIZE_UNSET;
+    private static long verifiedTokenCacheSize = SIZE_UNSET;
+    private static long verifiedTokenCacheTimeToLive = TTL_UNSET;
+    private static int parallelThreads = THREADS_UNSET;
 
     /**
      * Private constructor to prevent instantiation or subclassing.
@@ -416,4 +475,423 @@ final class ConfigImpl {
             primeConfidenceLevel = level;
         }
     }
+
+    /*
+     * Attribute cache.
+     */
+    /**
+     * Returns the configured attribute cache size.
+     * @return the configured attribute cache size, in bytes.
+     */
+    static synchronized long attributeCacheSize() {
+        if (attributeCacheSize == SIZE_UNSET) {
+            final String defaultSize =
+                getDefault(PROPERTY_CACHE_ATTRIBUTES_SIZE);
+            // pessimistically choose the default
+            attributeCacheSize = DEFAULT_ATTRIBUTE_CACHE_SIZE;
+            // now try to parse the default
+            if (defaultSize != null && defaultSize.length() != 0) {
+                try {
+                    final long size = Long.parseLong(defaultSize);
+                    if (size >= 0) {
+                        attributeCacheSize = size;
+                    }
+                } catch (NumberFormatException nfe) {
+                    // stick with the default
+                }
+            }
+        }
+        return attributeCacheSize;
+    }
+
+    /**
+     * Returns the maximum size of the attribute cache.
+     * @return the attribute cache size, in bytes; <code>0</code> if the
+     * cache is disabled.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access to retrieve this configuration option's value.
+     */
+    public static long getAttributeCacheSize() throws SecurityException {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new UProveSDKPermission(PREFIX_GET_OPTION
+                + OPTION_CACHE_ATTRIBUTES_SIZE));
+        }
+
+        return attributeCacheSize();
+    }
+
+    /**
+     * Sets the maximum size of the attribute cache. The current cache
+     * content and statistics are discarded.
+     * @param size the attribute cache size, in bytes, <code>0</code> to
+     * disable the cache, or a negative value to select the site-wide
+     * default.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access to set this configuration option's value.
+     */
+    public static void setAttributeCacheSize(final long size)
+            throws SecurityException {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new UProveSDKPermission(PREFIX_SET_OPTION
+                + OPTION_CACHE_ATTRIBUTES_SIZE));
+        }
+
+        synchronized (ConfigImpl.class) {
+            attributeCacheSize = size < 0 ? SIZE_UNSET : size;
+        }
+        // the cache reads the size under its own lock, so reset it outside
+        // of ours
+        AttributeCache.reset();
+    }
+
+    /**
+     * Returns the usage statistics of the attribute cache.
+     * @return the attribute cache statistics.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access to retrieve the attribute cache size.
+     */
+    public static CacheStatistics getAttributeCacheStatistics()
+            throws SecurityException {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new UProveSDKPermission(PREFIX_GET_OPTION
+                + OPTION_CACHE_ATTRIBUTES_SIZE));
+        }
+
+        return AttributeCache.getStatistics();
+    }
+
+    /*
+     * Issuer parameters cache.
+     */
+    /**
+     * Returns the configured issuer parameters cache size.
+     * @return the configured issuer parameters cache size, in bytes.
+     */
+    static synchronized long issuerParametersCacheSize() {
+        if (issuerParametersCacheSize == SIZE_UNSET) {
+            final String defaultSize =
+                getDefault(PROPERTY_CACHE_ISSUERPARAMETERS_SIZE);
+            // pessimistically choose the default
+            issuerParametersCacheSize = DEFAULT_ISSUER_PARAMETERS_CACHE_SIZE;
+            // now try to parse the default
+            if (defaultSize != null && defaultSize.length() != 0) {
+                try {
+                    final long size = Long.parseLong(defaultSize);
+                    if (size >= 0) {
+                        issuerParametersCacheSize = size;
+                    }
+                } catch (NumberFormatException nfe) {
+                    // stick with the default
+                }
+            }
+        }
+        return issuerParametersCacheSize;
+    }
+
+    /**
+     * Returns the maximum size of the issuer parameters cache.
+     * @return the issuer parameters cache size, in bytes; <code>0</code> if
+     * the cache is disabled.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access to retrieve this configuration option's value.
+     */
+    public static long getIssuerParametersCacheSize()
+            throws SecurityException {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new UProveSDKPermission(PREFIX_GET_OPTION
+                + OPTION_CACHE_ISSUERPARAMETERS_SIZE));
+        }
+
+        return issuerParametersCacheSize();
+    }
+
+    /**
+     * Sets the maximum size of the issuer parameters cache. The current
+     * cache content and statistics are discarded.
+     * @param size the issuer parameters cache size, in bytes, <code>0</code>
+     * to disable the cache, or a negative value to select the site-wide
+     * default.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access to set this configuration option's value.
+     */
+    public static void setIssuerParametersCacheSize(final long size)
+            throws SecurityException {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new UProveSDKPermission(PREFIX_SET_OPTION
+                + OPTION_CACHE_ISSUERPARAMETERS_SIZE));
+        }
+
+        synchronized (ConfigImpl.class) {
+            issuerParametersCacheSize = size < 0 ? SIZE_UNSET : size;
+        }
+        // the cache reads the size under its own lock, so reset it outside
+        // of ours
+        IssuerParametersCache.reset();
+    }
+
+    /**
+     * Returns the usage statistics of the issuer parameters cache.
+     * @return the issuer parameters cache statistics.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access to retrieve the issuer parameters cache size.
+     */
+    public static CacheStatistics getIssuerParametersCacheStatistics()
+            throws SecurityException {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new UProveSDKPermission(PREFIX_GET_OPTION
+                + OPTION_CACHE_ISSUERPARAMETERS_SIZE));
+        }
+
+        return IssuerParametersCache.getStatistics();
+    }
+
+    /*
+     * Verified token cache.
+     */
+    /**
+     * Returns the configured verified token cache size.
+     * @return the configured verified token cache size, in bytes.
+     */
+    static synchronized long verifiedTokenCacheSize() {
+        if (verifiedTokenCacheSize == SIZE_UNSET) {
+            final String defaultSize = getDefault(PROPERTY_CACHE_TOKENS_SIZE);
+            // pessimistically choose the default
+            verifiedTokenCacheSize = DEFAULT_VERIFIED_TOKEN_CACHE_SIZE;
+            // now try to parse the default
+            if (defaultSize != null && defaultSize.length() != 0) {
+                try {
+                    final long size = Long.parseLong(defaultSize);
+                    if (size >= 0) {
+                        verifiedTokenCacheSize = size;
+                    }
+                } catch (NumberFormatException nfe) {
+                    // stick with the default
+                }
+            }
+        }
+        return verifiedTokenCacheSize;
+    }
+
+    /**
+     * Returns the maximum size of the verified token cache.
+     * @return the verified token cache size, in bytes; <code>0</code> if the
+     * cache is disabled.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access to retrieve this configuration option's value.
+     */
+    public static long getVerifiedTokenCacheSize() throws SecurityException {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new UProveSDKPermission(PREFIX_GET_OPTION
+                + OPTION_CACHE_TOKENS_SIZE));
+        }
+
+        return verifiedTokenCacheSize();
+    }
+
+    /**
+     * Sets the maximum size of the verified token cache. The current cache
+     * content and statistics are discarded.
+     * @param size the verified token cache size, in bytes, <code>0</code> to
+     * disable the cache, or a negative value to select the site-wide default.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access to set this configuration option's value.
+     */
+    public static void setVerifiedTokenCacheSize(final long size)
+            throws SecurityException {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new UProveSDKPermission(PREFIX_SET_OPTION
+                + OPTION_CACHE_TOKENS_SIZE));
+        }
+
+        synchronized (ConfigImpl.class) {
+            verifiedTokenCacheSize = size < 0 ? SIZE_UNSET : size;
+        }
+        // the cache reads the size under its own lock, so reset it outside
+        // of ours
+        VerifiedTokenCache.reset();
+    }
+
+    /**
+     * Returns the configured verified token cache time to live.
+     * @return the configured time to live, in milliseconds.
+     */
+    static synchronized long verifiedTokenCacheTimeToLive() {
+        if (verifiedTokenCacheTimeToLive == TTL_UNSET) {
+            final String defaultTTL = getDefault(PROPERTY_CACHE_TOKENS_TTL);
+            // pessimistically choose the default
+            verifiedTokenCacheTimeToLive = DEFAULT_VERIFIED_TOKEN_CACHE_TTL;
+            // now try to parse the default
+            if (defaultTTL != null && defaultTTL.length() != 0) {
+                try {
+                    final long ttl = Long.parseLong(defaultTTL);
+                    if (ttl > 0) {
+                        verifiedTokenCacheTimeToLive = ttl;
+                    }
+                } catch (NumberFormatException nfe) {
+                    // stick with the default
+                }
+            }
+        }
+        return verifiedTokenCacheTimeToLive;
+    }
+
+    /**
+     * Returns the time after which a verified token cache entry expires.
+     * @return the time to live, in milliseconds.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access to retrieve this configuration option's value.
+     */
+    public static long getVerifiedTokenCacheTimeToLive()
+            throws SecurityException {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new UProveSDKPermission(PREFIX_GET_OPTION
+                + OPTION_CACHE_TOKENS_TTL));
+        }
+
+        return verifiedTokenCacheTimeToLive();
+    }
+
+    /**
+     * Sets the time after which a verified token cache entry expires. The
+     * current cache content and statistics are discarded.
+     * @param ttl the time to live, in milliseconds, or a value less than
+     * <code>1</code> to select the site-wide default.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access to set this configuration option's value.
+     */
+    public static void setVerifiedTokenCacheTimeToLive(final long ttl)
+            throws SecurityException {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new UProveSDKPermission(PREFIX_SET_OPTION
+                + OPTION_CACHE_TOKENS_TTL));
+        }
+
+        synchronized (ConfigImpl.class) {
+            verifiedTokenCacheTimeToLive = ttl < 1 ? TTL_UNSET : ttl;
+        }
+        VerifiedTokenCache.reset();
+    }
+
+    /**
+     * Returns the usage statistics of the verified token cache.
+     * @return the verified token cache statistics.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access to retrieve the verified token cache size.
+     */
+    public static CacheStatistics getVerifiedTokenCacheStatistics()
+            throws SecurityException {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new UProveSDKPermission(PREFIX_GET_OPTION
+                + OPTION_CACHE_TOKENS_SIZE));
+        }
+
+        return VerifiedTokenCache.getStatistics();
+    }
+
+    /*
+     * Parallelism.
+     */
+    /**
+     * Returns the configured number of threads for parallel computations.
+     * @return the configured number of threads.
+     */
+    static synchronized int parallelThreads() {
+        if (parallelThreads == THREADS_UNSET) {
+            final String defaultThreads =
+                getDefault(PROPERTY_PARALLEL_THREADS);
+            // pessimistically choose the default
+            parallelThreads = DEFAULT_PARALLEL_THREADS;
+            // now try to parse the default
+            if (defaultThreads != null && defaultThreads.length() != 0) {
+                try {
+                    final int threads = Integer.parseInt(defaultThreads);
+                    if (threads == 0) {
+                        // one thread per available processor
+                        parallelThreads =
+                            Runtime.getRuntime().availableProcessors();
+                    } else if (threads > 0) {
+                        parallelThreads = threads;
+                    }
+                } catch (NumberFormatException nfe) {
+                    // stick with the default
+                }
+            }
+        }
+        return parallelThreads;
+    }
+
+    /**
+     * Returns the number of threads of the SDK's shared pool used to
+     * parallelize protocol computations.
+     * @return the number of threads; <code>1</code> if computations run in
+     * the calling thread.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access to retrieve this configuration option's value.
+     */
+    public static int getParallelThreads() throws SecurityException {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new UProveSDKPermission(PREFIX_GET_OPTION
+                + OPTION_PARALLEL_THREADS));
+        }
+
+        return parallelThreads();
+    }
+
+    /**
+     * Sets the number of threads of the SDK's shared pool used to
+     * parallelize protocol computations. The current pool is shut down once
+     * its pending work completes.
+     * @param threads the number of threads, <code>1</code> to run
+     * computations in the calling thread, <code>0</code> to use one thread
+     * per available processor, or a negative value to select the site-wide
+     * default.
+     * @throws SecurityException if a security manager exists and its
+     * {@link SecurityManager#checkPermission(java.security.Permission)}
+     * method denies access to set this configuration option's value.
+     */
+    public static void setParallelThreads(final int threads)
+            throws SecurityException {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new UProveSDKPermission(PREFIX_SET_OPTION
+                + OPTION_PARALLEL_THREADS));
+        }
+
+        synchronized (ConfigImpl.class) {
+            if (threads < 0) {
+                parallelThreads = THREADS_UNSET;
+            } else if (threads == 0) {
+                parallelThreads = Runtime.getRuntime().availableProcessors();
+            } else {
+                parallelThreads = threads;
+            }
+        }
+        // the pool reads the setting under its own lock, so reset it outside
+        // of ours
+        Parallel.reset();
+    }
 }
@@ -0,0 +1,82 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+
+import com.microsoft.uprove.FieldZq.ZqElement;
+
+/**
+ * Runs both sides of the issuance protocol in the same process, for
+ * provisioning services trusted with the Issuer key on behalf of their
+ * Provers.
+ * <p>The Issuer and the Prover exchange their messages as in-memory
+ * elements rather than encoded byte arrays: nothing is encoded, and the
+ * first message elements don't go through the group membership check,
+ * since they come straight from the Issuer computation. Both sides also
+ * share the internal form of the issuer parameters. The Prover still
+ * verifies the Issuer signatures, and the tokens are identical in format to
+ * tokens obtained through the regular protocol.</p>
+ */
+public final class FusedIssuance {
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private FusedIssuance() {
+        super();
+    }
+
+    /**
+     * Issues tokens in the calling process.
+     * @param ipp the Issuer protocol parameters.
+     * @param ppp the Prover protocol parameters, matching
+     * <code>ipp</code>.
+     * @return the tokens.
+     * @throws IOException if the parameters are malformed.
+     * @throws IllegalArgumentException if the Issuer and Prover parameters
+     * don't describe the same tokens.
+     */
+    public static UProveKeyAndToken[] issue(final IssuerProtocolParameters ipp,
+            final ProverProtocolParameters ppp) throws IOException {
+        if (ipp.getNumberOfTokens() != ppp.getNumberOfTokens()) {
+            throw new IllegalArgumentException(
+                "Issuer and Prover parameters differ in the number of tokens");
+        }
+        if (!ipp.getIssuerKeyAndParameters().getIssuerParameters().equals(
+                ppp.getIssuerParameters())) {
+            throw new IllegalArgumentException(
+                "Issuer and Prover parameters use different issuer parameters");
+        }
+        final int n = ipp.getNumberOfTokens();
+        final IssuerCommonInput issuerInput = IssuerFactory.computeInput(ipp);
+        final ProverCommonInput proverInput = ProverFactory.computeInput(ppp,
+            issuerInput.getIssuerParameters());
+        if (!issuerInput.getGamma().equals(proverInput.getGamma())) {
+            throw new IllegalArgumentException(
+                "Issuer and Prover parameters describe different tokens");
+        }
+
+        final IssuerImpl issuer = (IssuerImpl) IssuerFactory.generate(n,
+            issuerInput, ipp.getExecutor(), ipp.getPrecomputationPool());
+        final ProverImpl prover = (ProverImpl) ProverFactory.generate(n,
+            proverInput, ppp.getExecutor());
+        try {
+            final GroupElement[] message1 = issuer.generateFirstMessageElements();
+            final ZqElement[] message2 = prover.generateSecondMessage(message1);
+            final ZqElement[] message3 = issuer.generateThirdMessage(message2);
+            return prover.generateTokens(message3);
+        } finally {
+            issuer.erase();
+        }
+    }
+}
@@ -11,8 +11,12 @@
 
 package com.microsoft.uprove;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 
 /*
  * LOW-LEVEL IMPLEMENTATION CLASS. NOT PART OF PUBLIC API.
@@ -25,6 +29,10 @@ final class HashFormatter {
 
 	private OutputStream output;
 	private byte[] sizeBuffer = new byte[4];
+	// buffer used to copy streamed data, allocated on first use
+	private byte[] chunkBuffer;
+	
+	private static final int CHUNK_SIZE = 8192;
 	
 	public HashFormatter(final OutputStream output) throws NullPointerException, IOException {
         super();
@@ -72,4 +80,59 @@ final class HashFormatter {
         }
 	}
 
+	private byte[] chunkBuffer() {
+		if (chunkBuffer == null) {
+			chunkBuffer = new byte[CHUNK_SIZE];
+		}
+		return chunkBuffer;
+	}
+
+	public void encode(InputStream in, int len) throws IOException {
+		// same encoding as for an array, without buffering the data
+		encode(len);
+		byte[] buffer = chunkBuffer();
+		int remaining = len;
+		while (remaining > 0) {
+			int read = in.read(buffer, 0, Math.min(remaining, buffer.length));
+			if (read < 0) {
+				throw new EOFException("stream ended " + remaining + " bytes early");
+			}
+			output.write(buffer, 0, read);
+			remaining -= read;
+		}
+	}
+
+	public void encode(ReadableByteChannel in, int len) throws IOException {
+		encode(len);
+		ByteBuffer buffer = ByteBuffer.wrap(chunkBuffer());
+		int remaining = len;
+		while (remaining > 0) {
+			buffer.clear();
+			buffer.limit(Math.min(remaining, buffer.capacity()));
+			int read = in.read(buffer);
+			if (read < 0) {
+				throw new EOFException("channel ended " + remaining + " bytes early");
+			}
+			output.write(buffer.array(), 0, read);
+			remaining -= read;
+		}
+	}
+
+	public void encode(ByteBuffer data) throws IOException {
+		int len = data.remaining();
+		if (data.hasArray()) {
+			encode(data.array(), data.arrayOffset() + data.position(), len);
+			data.position(data.limit());
+			return;
+		}
+		// direct or mapped buffer: copy it out in chunks
+		encode(len);
+		byte[] buffer = chunkBuffer();
+		while (data.hasRemaining()) {
+			int n = Math.min(data.remaining(), buffer.length);
+			data.get(buffer, 0, n);
+			output.write(buffer, 0, n);
+		}
+	}
+
 }
@@ -12,7 +12,10 @@
 package com.microsoft.uprove;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -172,6 +175,33 @@ final class HashFunctionImpl implements HashFunction {
         }
     }
 
+    /* (non-Javadoc)
+     * @see com.microsoft.uprove.HashUpdater#update(java.io.InputStream, int)
+     */
+    public void update(final InputStream in, final int len)
+            throws IOException {
+        formatter.encode(in, len);
+    }
+
+    /* (non-Javadoc)
+     * @see com.microsoft.uprove.HashUpdater#update(java.nio.channels.ReadableByteChannel, int)
+     */
+    public void update(final ReadableByteChannel in, final int len)
+            throws IOException {
+        formatter.encode(in, len);
+    }
+
+    /* (non-Javadoc)
+     * @see com.microsoft.uprove.HashUpdater#update(java.nio.ByteBuffer)
+     */
+    public void update(final ByteBuffer data) {
+        try {
+            formatter.encode(data);
+        } catch (IOException e) {
+            throw wrapIOException(e);    // impossible
+        }
+    }
+
     /* (non-Javadoc)
      * @see com.microsoft.uprove.crypto.HashUpdater#update(BigInteger)
      */
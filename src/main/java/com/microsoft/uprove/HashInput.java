@@ -0,0 +1,178 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+ * LOW-LEVEL IMPLEMENTATION CLASS. NOT PART OF PUBLIC API.
+ */
+
+/**
+ * An opaque protocol value (such as the presentation message) that is added
+ * to a hash as a length-prefixed byte sequence, without requiring the whole
+ * value to be held in a byte array.
+ * <p>Inputs backed by a stream or a channel can only be hashed once.</p>
+ */
+abstract class HashInput {
+
+    /**
+     * Constructor for subclasses.
+     */
+    HashInput() {
+        super();
+    }
+
+    /**
+     * Returns the length of the value, in bytes.
+     * @return the length of the value.
+     */
+    abstract int length();
+
+    /**
+     * Formats the value into a hash, as {@link HashUpdater#update(byte[])}
+     * would.
+     * @param H the hash to update.
+     * @throws IOException if the value can't be read.
+     * @throws IllegalStateException if the value was already consumed.
+     */
+    abstract void addToDigest(HashUpdater H) throws IOException;
+
+    /**
+     * Checks that a length fits in the protocol's 4-byte length prefix.
+     * @param length a length.
+     * @return <code>length</code> as an integer.
+     */
+    private static int checkLength(final long length) {
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid length: " + length);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Wraps a byte array. A <code>null</code> array is hashed as an empty
+     * one.
+     * @param data the value.
+     * @return a hash input.
+     */
+    static HashInput wrap(final byte[] data) {
+        return new HashInput() {
+            int length() {
+                return data == null ? 0 : data.length;
+            }
+
+            void addToDigest(final HashUpdater H) {
+                H.update(data);
+            }
+        };
+    }
+
+    /**
+     * Wraps the remaining bytes of a buffer. The buffer's position is not
+     * modified, so the input may be hashed more than once.
+     * @param data the value.
+     * @return a hash input.
+     */
+    static HashInput wrap(final ByteBuffer data) {
+        if (data == null) {
+            throw new NullPointerException("data must not be null");
+        }
+        final ByteBuffer view = data.duplicate();
+        return new HashInput() {
+            int length() {
+                return view.remaining();
+            }
+
+            void addToDigest(final HashUpdater H) {
+                H.update(view.duplicate());
+            }
+        };
+    }
+
+    /**
+     * Wraps a stream holding a value of known length.
+     * @param in the stream; it is read but not closed.
+     * @param length the number of bytes to read from the stream.
+     * @return a hash input that can be hashed once.
+     */
+    static HashInput wrap(final InputStream in, final long length) {
+        if (in == null) {
+            throw new NullPointerException("in must not be null");
+        }
+        final int len = checkLength(length);
+        return new HashInput() {
+            private boolean consumed = false;
+
+            int length() {
+                return len;
+            }
+
+            void addToDigest(final HashUpdater H) throws IOException {
+                if (consumed) {
+                    throw new IllegalStateException("stream already read");
+                }
+                consumed = true;
+                H.update(in, len);
+            }
+        };
+    }
+
+    /**
+     * Wraps a channel holding a value of known length.
+     * @param in the channel; it is read but not closed.
+     * @param length the number of bytes to read from the channel.
+     * @return a hash input that can be hashed once.
+     */
+    static HashInput wrap(final ReadableByteChannel in, final long length) {
+        if (in == null) {
+            throw new NullPointerException("in must not be null");
+        }
+        final int len = checkLength(length);
+        return new HashInput() {
+            private boolean consumed = false;
+
+            int length() {
+                return len;
+            }
+
+            void addToDigest(final HashUpdater H) throws IOException {
+                if (consumed) {
+                    throw new IllegalStateException("channel already read");
+                }
+                consumed = true;
+                H.update(in, len);
+            }
+        };
+    }
+
+    /**
+     * Wraps a channel, reading from its current position up to its size.
+     * @param in the channel; it is read but not closed.
+     * @return a hash input that can be hashed once.
+     * @throws IOException if the channel's size can't be determined.
+     * @throws IllegalArgumentException if the channel is not a
+     * <code>FileChannel</code>, so that its size is unknown.
+     */
+    static HashInput wrap(final ReadableByteChannel in) throws IOException {
+        if (!(in instanceof FileChannel)) {
+            throw new IllegalArgumentException(
+                "the length of a non-file channel must be specified");
+        }
+        final FileChannel fc = (FileChannel) in;
+        return wrap(in, fc.size() - fc.position());
+    }
+}
@@ -11,7 +11,11 @@
 
 package com.microsoft.uprove;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 
 
 /**
@@ -47,6 +51,36 @@ interface HashUpdater {
      */
     void update(byte[] opaque, int offset, int len);
 
+    /**
+     * Formats a sequence of bytes read from a stream into a hash. The data
+     * is formatted as if it had been passed to {@link #update(byte[])}, but
+     * is never held in memory in its entirety.
+     * @param in the stream from which the data is read.
+     * @param len the number of bytes to read and hash.
+     * @throws IOException if the stream can't be read, or ends before
+     * <code>len</code> bytes were read.
+     */
+    void update(InputStream in, int len) throws IOException;
+
+    /**
+     * Formats a sequence of bytes read from a channel into a hash. The data
+     * is formatted as if it had been passed to {@link #update(byte[])}, but
+     * is never held in memory in its entirety.
+     * @param in the channel from which the data is read.
+     * @param len the number of bytes to read and hash.
+     * @throws IOException if the channel can't be read, or ends before
+     * <code>len</code> bytes were read.
+     */
+    void update(ReadableByteChannel in, int len) throws IOException;
+
+    /**
+     * Formats the remaining bytes of a buffer into a hash. The data is
+     * formatted as if it had been passed to {@link #update(byte[])}. The
+     * buffer's position is advanced to its limit.
+     * @param data the data to add to a hash.
+     */
+    void update(ByteBuffer data);
+
     /**
      * Formats a big integer value into a hash.
      * @param i the <code>BigInteger</code> to add to the hash.
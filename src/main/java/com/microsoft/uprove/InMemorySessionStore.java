@@ -0,0 +1,107 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link SessionStore} keeping the session states in memory, for a single
+ * node or as a local tier in front of a shared store.
+ * <p>Expired states are purged every {@link #PURGE_INTERVAL} insertions, or
+ * on demand by {@link #purge()}.</p>
+ */
+public final class InMemorySessionStore implements SessionStore {
+
+    /**
+     * The number of insertions between two purges of the expired states.
+     */
+    public static final int PURGE_INTERVAL = 1024;
+
+    /**
+     * A stored state.
+     */
+    private static final class Entry {
+        final byte[] state;
+        final long expiry;
+
+        Entry(final byte[] state, final long expiry) {
+            this.state = state;
+            this.expiry = expiry;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> states =
+        new ConcurrentHashMap<String, Entry>();
+    private final AtomicInteger puts = new AtomicInteger();
+
+    /**
+     * Constructs a new, empty store.
+     */
+    public InMemorySessionStore() {
+        super();
+    }
+
+    /* (non-Javadoc)
+     * @see com.microsoft.uprove.SessionStore#put(java.lang.String, byte[], long)
+     */
+    public void put(final String sessionID, final byte[] state,
+            final long expiry) {
+        if (sessionID == null || state == null) {
+            throw new NullPointerException();
+        }
+        states.put(sessionID, new Entry(state, expiry));
+        if (puts.incrementAndGet() % PURGE_INTERVAL == 0) {
+            purge();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.microsoft.uprove.SessionStore#remove(java.lang.String)
+     */
+    public byte[] remove(final String sessionID) {
+        final Entry entry = states.remove(sessionID);
+        if (entry == null || System.currentTimeMillis() > entry.expiry) {
+            return null;
+        }
+        return entry.state;
+    }
+
+    /**
+     * Removes the expired states.
+     * @return the number of removed states.
+     */
+    public int purge() {
+        final long now = System.currentTimeMillis();
+        int count = 0;
+        for (final Iterator<Map.Entry<String, Entry>> it =
+                states.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, Entry> entry = it.next();
+            if (now > entry.getValue().expiry
+                && states.remove(entry.getKey(), entry.getValue())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of stored sessions, including the expired ones
+     * not purged yet.
+     * @return the number of stored sessions.
+     */
+    public int size() {
+        return states.size();
+    }
+}
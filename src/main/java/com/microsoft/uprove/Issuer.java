@@ -12,9 +12,16 @@
 package com.microsoft.uprove;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * An interface for the Issuer-side of the U-Prove issuance protocol.
+ * <p>The messages can be exchanged either as arrays of variable-length
+ * encoded elements, or in contiguous buffers where each element is
+ * left-padded with zeros to the maximum encoded size of its group or field.
+ * The buffer methods avoid allocating an array per element and accept
+ * direct buffers, so messages can be read from and written to socket
+ * buffers in place. Both forms can be mixed within a session.</p>
  */
 public interface Issuer {
 
@@ -43,11 +50,54 @@ public interface Issuer {
     byte[][] generateFirstMessage() throws IOException;
 
     /**
-     * Generates the third issuance message.
+     * Generates the third issuance message. The session's secret values are
+     * erased afterwards, so the third message is generated only once.
      * @param message2 the second issuance message.
      * @return the third issuance message.
      * @throws IOException if an encoding error occurs.
+     * @throws IllegalStateException if the first message wasn't generated,
+     * or if the third message was already generated.
      */
     byte[][] generateThirdMessage(final byte[][] message2) throws IOException;
 
+    /**
+     * Returns the length of the fixed-width encoding of the first message.
+     * @return the length, in bytes.
+     */
+    int getFirstMessageLength();
+
+    /**
+     * Generates the first issuance message into a buffer, using the
+     * fixed-width encoding.
+     * @param message1 the buffer receiving the message, whose position is
+     * advanced by {@link #getFirstMessageLength()}.
+     * @throws IOException if an encoding error occurs.
+     * @throws java.nio.BufferOverflowException if the buffer is too small;
+     * nothing is generated in that case.
+     */
+    void generateFirstMessage(ByteBuffer message1) throws IOException;
+
+    /**
+     * Returns the length of the fixed-width encoding of the third message,
+     * which is also the length of the second message.
+     * @return the length, in bytes.
+     */
+    int getThirdMessageLength();
+
+    /**
+     * Generates the third issuance message into a buffer, using the
+     * fixed-width encoding.
+     * @param message2 the buffer holding the second message, whose position
+     * is advanced past it.
+     * @param message3 the buffer receiving the message, whose position is
+     * advanced by {@link #getThirdMessageLength()}.
+     * @throws IOException if an encoding error occurs.
+     * @throws java.nio.BufferUnderflowException if <code>message2</code> is
+     * too short.
+     * @throws java.nio.BufferOverflowException if <code>message3</code> is
+     * too small; nothing is generated in that case.
+     */
+    void generateThirdMessage(ByteBuffer message2, ByteBuffer message3)
+        throws IOException;
+
 }
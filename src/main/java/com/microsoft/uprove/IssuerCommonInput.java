@@ -18,7 +18,9 @@ import com.microsoft.uprove.FieldZq.ZqElement;
  */
 class IssuerCommonInput {
 	private GroupElement gamma;
+	private GroupElement[] gammas;
 	private ZqElement y0;
+	private IssuerParametersInternal ipi;
 
 	public IssuerCommonInput() {
 	}
@@ -39,4 +41,25 @@ class IssuerCommonInput {
 		this.y0 = y0;
 	}
 
+	/**
+	 * Returns the per-token gamma values of a batch session.
+	 * @return the gamma values, or <code>null</code> if all tokens share
+	 * {@link #getGamma()}.
+	 */
+	public GroupElement[] getGammas() {
+		return gammas;
+	}
+
+	public void setGammas(GroupElement[] gammas) {
+		this.gammas = gammas;
+	}
+
+	public IssuerParametersInternal getIssuerParameters() {
+		return ipi;
+	}
+
+	public void setIssuerParameters(IssuerParametersInternal ipi) {
+		this.ipi = ipi;
+	}
+
 }
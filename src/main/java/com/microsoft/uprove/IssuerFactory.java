@@ -12,6 +12,11 @@
 package com.microsoft.uprove;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import com.microsoft.uprove.FieldZq.ZqElement;
 
@@ -36,6 +41,25 @@ class IssuerFactory {
     static Issuer generate(
             final int numberOfTokens,
             final IssuerCommonInput input) {
+        return generate(numberOfTokens, input, null, null);
+    }
+
+    /**
+     * Generates a new {@link Issuer} instance whose per-token computations
+     * are spread over an executor.
+     * @param numberOfTokens the number of tokens to issue.
+     * @param input the Issuer common input.
+     * @param executor the executor, or <code>null</code> to use the SDK-wide
+     * executor configured by {@link Config#setParallelThreads(int)}.
+     * @param pool the pool to draw <code>(w, g^w)</code> pairs from, or
+     * <code>null</code>.
+     * @return an Issuer instance.
+     */
+    static Issuer generate(
+            final int numberOfTokens,
+            final IssuerCommonInput input,
+            final Executor executor,
+            final IssuerPrecomputationPool pool) {
         if (numberOfTokens <= 0) {
             throw new IllegalArgumentException("numberOfTokens must be > 0");
         }
@@ -44,7 +68,7 @@ class IssuerFactory {
         }
 
         return new IssuerImpl(numberOfTokens,
-        		(IssuerCommonInput) input);
+        		(IssuerCommonInput) input, Parallel.select(executor), pool);
     }
 
     static IssuerCommonInput computeInput(
@@ -58,8 +82,11 @@ class IssuerFactory {
 
         
         // compute gamma
-    	ZqElement[] x = ProtocolHelper.computeXArray(ip, parameters.getTokenAttributes(), parameters.getTokenInformation());
-    	GroupElement gamma = ProtocolHelper.computeProduct(ip.getPublicKey(), x); 
+    	AttributeSource[] attributes = parameters.getAttributeSources();
+    	int[] indices = ProtocolHelper.getAllIndices(attributes.length);
+    	AttributeCache.Terms[] terms = ProtocolHelper.getAttributeTerms(ip, indices, attributes, parameters.getTokenInformation());
+    	ZqElement[] x = ProtocolHelper.computeXArray(ip, indices, attributes, parameters.getTokenInformation(), terms);
+    	GroupElement gamma = ProtocolHelper.computeAttributeProduct(ip, false, indices, parameters.getTokenInformation(), x, null, terms); 
     	if (parameters.getDevicePublicKey() != null) {
     		if (!ip.supportsDevice()) {
     			throw new IllegalArgumentException("Issuer parameters do not support Device-protection");
@@ -70,8 +97,127 @@ class IssuerFactory {
         
         // y0
     	input.setY0(ip.getGroup().getZq().getPositiveElement(parameters.getIssuerKeyAndParameters().getPrivateKey()));
+    	input.setIssuerParameters(ip);
         
         return input;
     }
 
+    /**
+     * An attribute term of a batch: an index and a value.
+     */
+    private static final class TermKey {
+        private final int index;
+        private final byte[] value;
+        private final int hash;
+
+        TermKey(final int index, final byte[] value) {
+            this.index = index;
+            this.value = value;
+            this.hash = 31 * index + ByteArrays.hashCode(value);
+        }
+
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof TermKey)) {
+                return false;
+            }
+            final TermKey k = (TermKey) obj;
+            return hash == k.hash && index == k.index
+                && Arrays.equals(value, k.value);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Computes the Issuer input of a batch session: one gamma per token.
+     * Each distinct term <code>g_i^x_i</code> is computed once for the whole
+     * batch, then the per-token products are computed in parallel.
+     * @param parameters the batch parameters.
+     * @return the Issuer input.
+     * @throws IOException if the parameters are malformed.
+     */
+    static IssuerCommonInput computeInput(
+            final BatchIssuerProtocolParameters parameters)
+        throws IllegalStateException, IOException {
+
+        final int n = parameters.getNumberOfTokens();
+        if (n == 0) {
+            throw new IllegalStateException("no tokens in the batch");
+        }
+        final IssuerParametersInternal ip = IssuerParametersInternal.generate(
+        		parameters.getIssuerKeyAndParameters().getIssuerParameters());
+        final PrimeOrderGroup Gq = ip.getGroup();
+        final GroupElement[] g = ip.getPublicKey();
+        final int numberOfAttributes = ip.getEncodingBytes().length;
+        final int tIndex = numberOfAttributes + 1;
+
+        // collect the distinct terms
+        final HashMap<TermKey, Integer> termIndices = new HashMap<TermKey, Integer>();
+        final List<TermKey> keys = new ArrayList<TermKey>();
+        final int[][] tokenTerms = new int[n][];
+        for (int t = 0; t < n; t++) {
+            final BatchIssuerProtocolParameters.TokenSpec token = parameters.getToken(t);
+            final byte[][] attributes = token.getAttributes();
+            if (attributes.length != numberOfAttributes) {
+                throw new IllegalArgumentException("token " + t
+                    + " has the wrong number of attributes");
+            }
+            if (token.getDevicePublicKey() != null && !ip.supportsDevice()) {
+                throw new IllegalArgumentException("Issuer parameters do not support Device-protection");
+            }
+            tokenTerms[t] = new int[numberOfAttributes + 1];
+            for (int i = 0; i <= numberOfAttributes; i++) {
+                final TermKey key = i < numberOfAttributes
+                    ? new TermKey(i + 1, attributes[i])
+                    : new TermKey(tIndex, token.getTokenInformation());
+                Integer index = termIndices.get(key);
+                if (index == null) {
+                    index = Integer.valueOf(keys.size());
+                    termIndices.put(key, index);
+                    keys.add(key);
+                }
+                tokenTerms[t][i] = index.intValue();
+            }
+        }
+
+        final Executor executor = Parallel.select(parameters.getExecutor());
+        final GroupElement[] terms = new GroupElement[keys.size()];
+        Parallel.forEach(executor, terms.length, new Parallel.RangeTask() {
+            public void run(int from, int to) throws IOException {
+                for (int k = from; k < to; k++) {
+                    final TermKey key = keys.get(k);
+                    final ZqElement x = key.index == tIndex
+                        ? ProtocolHelper.computeXt(ip, key.value)
+                        : ProtocolHelper.computeXi(ip, key.index, key.value);
+                    terms[k] = g[key.index].exponentiate(x);
+                }
+            }
+        });
+        final GroupElement[] gammas = new GroupElement[n];
+        Parallel.forEach(executor, n, new Parallel.RangeTask() {
+            public void run(int from, int to) throws IOException {
+                for (int t = from; t < to; t++) {
+                    final GroupElement gamma = Gq.getIdentity();
+                    gamma.multiplyAssign(g[0]);
+                    for (int i = 0; i < tokenTerms[t].length; i++) {
+                        gamma.multiplyAssign(terms[tokenTerms[t][i]]);
+                    }
+                    final byte[] hd = parameters.getToken(t).getDevicePublicKey();
+                    if (hd != null) {
+                        gamma.multiplyAssign(Gq.getElement(hd));
+                    }
+                    gammas[t] = gamma;
+                }
+            }
+        });
+
+        final IssuerCommonInput input = new IssuerCommonInput();
+        input.setGammas(gammas);
+        input.setY0(Gq.getZq().getPositiveElement(parameters.getIssuerKeyAndParameters().getPrivateKey()));
+        input.setIssuerParameters(ip);
+        return input;
+    }
+
 }
@@ -12,6 +12,11 @@
 package com.microsoft.uprove;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
 import com.microsoft.uprove.FieldZq.ZqElement;
 
 class IssuerImpl implements Issuer {
@@ -23,6 +28,9 @@ class IssuerImpl implements Issuer {
         static final State INIT = new State("initial");
         static final State COMPUTED = new State("precomputed");
         static final State FIRST = new State("first message");
+        static final State SUSPENDED = new State("suspended");
+        static final State THIRD = new State("third message");
+        static final State ERASED = new State("erased");
         private final String name;
         private State(final String name) { super(); this.name = name; }
         public String toString() { return name; }
@@ -34,20 +42,135 @@ class IssuerImpl implements Issuer {
 	private GroupElement[] sigmaA;
 	private GroupElement[] sigmaB;
 	private PrimeOrderGroup Gq;
+	private Executor executor;
+	private IssuerPrecomputationPool pool;
 	private State state;
 	
 	public IssuerImpl(int numberOfTokens, IssuerCommonInput input) {
+		this(numberOfTokens, input, null, null);
+	}
+
+	/**
+	 * Constructs an Issuer instance whose per-token computations are spread
+	 * over an executor. The random values <code>w</code> are drawn in the
+	 * calling thread, so the protocol messages only depend on them.
+	 * @param numberOfTokens the number of tokens to issue.
+	 * @param input the Issuer common input.
+	 * @param executor the executor, or <code>null</code> to compute in the
+	 * calling thread.
+	 * @param pool the pool to draw <code>(w, g^w)</code> pairs from, or
+	 * <code>null</code> to compute them during precomputation.
+	 */
+	IssuerImpl(int numberOfTokens, IssuerCommonInput input, Executor executor,
+			IssuerPrecomputationPool pool) {
         if (numberOfTokens <= 0) {
             throw new IllegalArgumentException("numberOfTokens must be > 0");
         }
         this.numberOfTokens = numberOfTokens;
         this.input = input;
-        Gq = input.getGamma().getGroup();
+        this.executor = executor;
+        if (input.getGammas() != null) {
+            if (input.getGammas().length != numberOfTokens) {
+                throw new IllegalArgumentException(
+                    "wrong number of gamma values");
+            }
+            Gq = input.getGammas()[0].getGroup();
+        } else {
+            Gq = input.getGamma().getGroup();
+        }
+        if (pool != null && !pool.getGroup().equals(Gq)) {
+            throw new IllegalArgumentException(
+                "precomputation pool uses a different group");
+        }
+        this.pool = pool;
         
         // set the state
         this.state = State.INIT;
 	}
 
+    /**
+     * Constructs an Issuer instance resuming a suspended session, ready to
+     * generate the third message.
+     * @param input the Issuer common input; only <code>y0</code> and the
+     * issuer parameters are needed.
+     * @param w the session's <code>w</code> values.
+     */
+    private IssuerImpl(IssuerCommonInput input, ZqElement[] w) {
+        this.numberOfTokens = w.length;
+        this.input = input;
+        this.w = w;
+        Gq = input.getIssuerParameters().getGroup();
+        this.state = State.FIRST;
+    }
+
+    /**
+     * Resumes a suspended session.
+     * @param ipi the issuer parameters.
+     * @param y0 the Issuer private key.
+     * @param w the session's <code>w</code> values.
+     * @return an Issuer instance ready to generate the third message.
+     * @see #suspend()
+     */
+    static IssuerImpl resume(IssuerParametersInternal ipi, ZqElement y0,
+            ZqElement[] w) {
+        IssuerCommonInput input = new IssuerCommonInput();
+        input.setY0(y0);
+        input.setIssuerParameters(ipi);
+        return new IssuerImpl(input, w);
+    }
+
+    /**
+     * Returns the issuer parameters of the session.
+     * @return the issuer parameters.
+     */
+    IssuerParametersInternal getIssuerParameters() {
+        return input.getIssuerParameters();
+    }
+
+    /**
+     * Suspends the session after the first message, handing its
+     * <code>w</code> values over to the caller. This instance can't be used
+     * afterwards, so that the session is only resumed once.
+     * @return the <code>w</code> values.
+     * @throws IllegalStateException if the first message wasn't generated.
+     * @see #resume(IssuerParametersInternal, ZqElement, ZqElement[])
+     */
+    ZqElement[] suspend() {
+        checkState(State.FIRST);
+        ZqElement[] suspended = w;
+        w = null;
+        sigmaA = null;
+        sigmaB = null;
+        state = State.SUSPENDED;
+        return suspended;
+    }
+
+    /**
+     * Returns an estimate of the memory held by the session's per-token
+     * values, once precomputed.
+     * @return the estimated size, in bytes.
+     */
+    long getMemoryEstimate() {
+        // w, sigmaA and sigmaB, plus a rough per-object overhead
+        return (long) numberOfTokens * (Gq.getZq().getMaxEncodedElementSize()
+            + 2L * Gq.getMaxEncodedElementSize() + 3 * 48);
+    }
+
+    /**
+     * Drops the session's secret values and makes this instance unusable.
+     * The elements are immutable, so this only releases the references to
+     * them; the values themselves are reclaimed by the garbage collector.
+     */
+    void erase() {
+        if (w != null) {
+            Arrays.fill(w, null);
+            w = null;
+        }
+        sigmaA = null;
+        sigmaB = null;
+        state = State.ERASED;
+    }
+
     /**
      * Check to make sure we're in the proper state.
      * @param expected the expected state.
@@ -70,23 +193,58 @@ class IssuerImpl implements Issuer {
         checkState(State.INIT);
 
 		FieldZq Zq = Gq.getZq();
-		if (preGenW == null) {
+		sigmaA = new GroupElement[numberOfTokens];
+		sigmaB = new GroupElement[numberOfTokens];
+		// pooled sigmaA values are already computed
+		final boolean pooled = preGenW == null && pool != null;
+		if (pooled) {
+			w = new ZqElement[numberOfTokens];
+			pool.take(w, sigmaA);
+		} else if (preGenW == null) {
 			w = Zq.getRandomElements(numberOfTokens, false);
 		} else {
 			w = ProtocolHelper.getZqElementArray(Zq, preGenW);
 		}
-		sigmaA = new GroupElement[numberOfTokens];
-		sigmaB = new GroupElement[numberOfTokens];
-		for (int i=0; i<numberOfTokens; i++) {
-			sigmaA[i] = Gq.getGenerator().exponentiate(w[i]); 
-			sigmaB[i] = input.getGamma().exponentiate(w[i]);
-		}
+		final GroupElement g = Gq.getGenerator();
+		final GroupElement gamma = input.getGamma();
+		// batch sessions have one gamma per token
+		final GroupElement[] gammas = input.getGammas();
+		Parallel.forEach(executor, numberOfTokens, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for (int i=from; i<to; i++) {
+					if (!pooled) {
+						sigmaA[i] = g.exponentiate(w[i]); 
+					}
+					sigmaB[i] = (gammas != null ? gammas[i] : gamma).exponentiate(w[i]);
+				}
+			}
+		});
 
 		// advance the state
         state = State.COMPUTED;
 	}
 	
 	public byte[][] generateFirstMessage() throws IOException {
+		final GroupElement[] sigmaPair = generateFirstMessageElements();
+        final byte[][] message1 = new byte[numberOfTokens*2][];
+        Parallel.forEach(executor, numberOfTokens, new Parallel.RangeTask() {
+        	public void run(int from, int to) {
+        		for (int i=from; i<to; i++) {
+        			message1[2*i] = sigmaPair[2*i].toByteArray(); 
+        			message1[2*i+1] = sigmaPair[2*i+1].toByteArray(); 
+        		}
+        	}
+        });
+        return message1;
+	}
+
+	/**
+	 * Generates the first message without encoding it.
+	 * @return the <code>sigmaA</code> and <code>sigmaB</code> values,
+	 * interleaved. They must not be modified.
+	 * @throws IOException if the precomputation fails.
+	 */
+	GroupElement[] generateFirstMessageElements() throws IOException {
         // check the state
         if (state == State.INIT) {
         	precomputation();
@@ -98,12 +256,39 @@ class IssuerImpl implements Issuer {
         state = State.FIRST;
 
         // return the sigmaA and sigmaB values
-        byte[][] message1 = new byte[numberOfTokens*2][];
+        final GroupElement[] sigmaPair = new GroupElement[numberOfTokens*2];
         for (int i=0; i<numberOfTokens; i++) {
-        	message1[2*i] = sigmaA[i].toByteArray(); 
-        	message1[2*i+1] = sigmaB[i].toByteArray(); 
+        	sigmaPair[2*i] = sigmaA[i];
+        	sigmaPair[2*i+1] = sigmaB[i];
         }
-        return message1;
+        return sigmaPair;
+	}
+
+	public int getFirstMessageLength() {
+		return 2 * numberOfTokens * Gq.getMaxEncodedElementSize();
+	}
+
+	public void generateFirstMessage(ByteBuffer message1) throws IOException {
+		if (message1.remaining() < getFirstMessageLength()) {
+			throw new BufferOverflowException();
+		}
+		ProtocolHelper.putFixedWidth(message1, generateFirstMessageElements(),
+				Gq.getMaxEncodedElementSize());
+	}
+
+	public int getThirdMessageLength() {
+		return numberOfTokens * Gq.getZq().getMaxEncodedElementSize();
+	}
+
+	public void generateThirdMessage(ByteBuffer message2, ByteBuffer message3) throws IOException {
+        checkState(State.FIRST);
+		if (message3.remaining() < getThirdMessageLength()) {
+			throw new BufferOverflowException();
+		}
+		final FieldZq Zq = Gq.getZq();
+		ProtocolHelper.putFixedWidth(message3, generateThirdMessage(
+				ProtocolHelper.getZqElementArray(Zq, message2, numberOfTokens)),
+				Zq.getMaxEncodedElementSize());
 	}
 
 	public byte[][] generateThirdMessage(byte[][] message2) throws IOException {
@@ -114,12 +299,41 @@ class IssuerImpl implements Issuer {
         if (message2.length != numberOfTokens) {
         	throw new IllegalArgumentException("wrong number of elements in message2");
         }
+        return ProtocolHelper.getEncodedArray(generateThirdMessage(
+        		ProtocolHelper.getZqElementArray(Gq.getZq(), message2)));
+	}
+
+	/**
+	 * Generates the third message without encoding it.
+	 * @param sigmaC the <code>sigmaC</code> values.
+	 * @return the <code>sigmaR</code> values.
+	 * @throws IOException if the computation fails.
+	 */
+	ZqElement[] generateThirdMessage(final ZqElement[] sigmaC) throws IOException {
+        // check the state
+        checkState(State.FIRST);
+
+        // check message
+        if (sigmaC.length != numberOfTokens) {
+        	throw new IllegalArgumentException("wrong number of elements in message2");
+        }
         
-		ZqElement[] sigmaC = ProtocolHelper.getZqElementArray(Gq.getZq(), message2);
-        byte[][] sigmaR = new byte[numberOfTokens][];
-		for (int i=0; i<numberOfTokens; i++) {
-			sigmaR[i] = sigmaC[i].multiply(input.getY0()).add(w[i]).toByteArray();
-		}
+        final ZqElement[] sigmaR = new ZqElement[numberOfTokens];
+        final ZqElement y0 = input.getY0();
+        final ZqElement[] w = this.w;
+        try {
+			Parallel.forEach(executor, numberOfTokens, new Parallel.RangeTask() {
+				public void run(int from, int to) {
+					for (int i=from; i<to; i++) {
+						sigmaR[i] = sigmaC[i].multiply(y0).add(w[i]);
+					}
+				}
+			});
+        } finally {
+        	// answering a second message with the same w reveals y0
+        	erase();
+        	state = State.THIRD;
+        }
 		return sigmaR;
 	}
 
@@ -0,0 +1,338 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/*
+ * LOW-LEVEL IMPLEMENTATION CLASS. NOT PART OF PUBLIC API.
+ */
+
+/**
+ * Keeps the prepared (decoded) form of recently used issuer parameters, so
+ * that the protocol entry points don't decode the public key elements and
+ * recompute the issuer parameters digest and hash prototype on every call.
+ * <p>Entries are keyed by the parameters UID, the group and a SHA-256 digest
+ * of the remaining content, so that parameters modified after use, or
+ * different parameters reusing a UID, are prepared separately. Concurrent
+ * lookups of parameters that aren't cached yet prepare them once, the other
+ * threads waiting for the result. The cache size is configured with
+ * {@link Config#setIssuerParametersCacheSize(long)}.</p>
+ * <p>Prepared parameters are shared between threads and protocol instances:
+ * they and their elements must never be modified.</p>
+ */
+final class IssuerParametersCache {
+
+    // fixed per-entry overhead estimate (objects, references, map node)
+    private static final int ENTRY_OVERHEAD = 512;
+
+    // per-element overhead estimate (element and BigInteger objects)
+    private static final int ELEMENT_OVERHEAD = 64;
+
+    // the active cache, or null if disabled
+    private static volatile BoundedCache<Key, IssuerParametersInternal> cache;
+    private static volatile boolean configured = false;
+
+    // the preparations in progress
+    private static final ConcurrentHashMap<Key, FutureTask<IssuerParametersInternal>>
+        pending = new ConcurrentHashMap<Key, FutureTask<IssuerParametersInternal>>();
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private IssuerParametersCache() {
+        super();
+    }
+
+    /**
+     * The cache key: (UID, group, content digest).
+     */
+    private static final class Key {
+        private final byte[] uid;
+        private final PrimeOrderGroup group;
+        private final byte[] digest;
+        private final int hash;
+
+        Key(final byte[] uid, final PrimeOrderGroup group,
+                final byte[] digest) {
+            this.uid = uid;
+            this.group = group;
+            this.digest = digest;
+            int h = ByteArrays.hashCode(uid);
+            h = 31 * h + ByteArrays.hashCode(digest);
+            this.hash = h;
+        }
+
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key) obj;
+            return hash == k.hash
+                && Arrays.equals(digest, k.digest)
+                && Arrays.equals(uid, k.uid)
+                && group.equals(k.group);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // weighs an entry: the encoded elements, their decoded values and the
+    // byte fields
+    private static final class ParametersWeigher
+            implements BoundedCache.Weigher<Key, IssuerParametersInternal> {
+        public long weigh(final Key key, final IssuerParametersInternal value) {
+            final int elementLength = value.getGroup().getMaxEncodedElementSize();
+            final int elements = value.getPublicKey().length
+                + value.getProverIssuanceValues().length;
+            return ENTRY_OVERHEAD + key.uid.length + key.digest.length
+                + value.getEncodingBytes().length
+                + value.getSpecification().length
+                + (long) elements * (elementLength + ELEMENT_OVERHEAD);
+        }
+    }
+
+    /**
+     * Returns the active cache, creating it according to the configured size
+     * if needed.
+     * @return the cache, or <code>null</code> if caching is disabled.
+     */
+    private static BoundedCache<Key, IssuerParametersInternal> cache() {
+        if (!configured) {
+            synchronized (IssuerParametersCache.class) {
+                if (!configured) {
+                    final long size = ConfigImpl.issuerParametersCacheSize();
+                    cache = size > 0
+                        ? new BoundedCache<Key, IssuerParametersInternal>(
+                            size, new ParametersWeigher(), null)
+                        : null;
+                    configured = true;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Discards the cache and its statistics; the next lookup recreates it
+     * according to the configured size.
+     */
+    static void reset() {
+        final BoundedCache<Key, IssuerParametersInternal> old;
+        synchronized (IssuerParametersCache.class) {
+            old = cache;
+            cache = null;
+            configured = false;
+        }
+        if (old != null) {
+            old.clear();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the cache's statistics.
+     * @return the cache statistics; all zero if the cache is disabled.
+     */
+    static CacheStatistics getStatistics() {
+        final BoundedCache<Key, IssuerParametersInternal> c = cache();
+        return c != null
+            ? c.getStatistics()
+            : new CacheStatistics(0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Returns the prepared form of issuer parameters, preparing and caching
+     * it on a miss.
+     * @param ip the issuer parameters.
+     * @return the prepared issuer parameters. Must not be modified.
+     * @throws IOException if the issuer parameters are malformed.
+     */
+    static IssuerParametersInternal get(final IssuerParameters ip)
+            throws IOException {
+        final BoundedCache<Key, IssuerParametersInternal> c = cache();
+        if (c == null || ip.getParametersUID() == null
+            || ip.getGroup() == null) {
+            return IssuerParametersInternal.decode(ip);
+        }
+
+        final Key key = new Key(ip.getParametersUID().clone(), ip.getGroup(),
+            digest(ip));
+        final IssuerParametersInternal cached = c.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // the copy guards the cached form against later changes to ip
+        final IssuerParameters copy = copy(ip);
+        final FutureTask<IssuerParametersInternal> task =
+            new FutureTask<IssuerParametersInternal>(
+                new Callable<IssuerParametersInternal>() {
+                    public IssuerParametersInternal call() throws IOException {
+                        return c.putIfAbsent(key,
+                            IssuerParametersInternal.decode(copy));
+                    }
+                });
+        // a lookup racing with the end of a preparation may prepare the
+        // parameters again; the cache keeps the first result
+        FutureTask<IssuerParametersInternal> running =
+            pending.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                pending.remove(key, task);
+            }
+        }
+        return await(running);
+    }
+
+    /**
+     * Waits for a preparation, without being interruptible.
+     * @param task the preparation.
+     * @return the prepared issuer parameters.
+     * @throws IOException if the issuer parameters are malformed.
+     */
+    private static IssuerParametersInternal await(
+            final FutureTask<IssuerParametersInternal> task)
+            throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                } catch (ExecutionException ee) {
+                    final Throwable cause = ee.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    final IOException ioe = new IOException(
+                        "can't prepare issuer parameters");
+                    ioe.initCause(cause);
+                    throw ioe;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Copies the fields of issuer parameters.
+     * @param ip the issuer parameters.
+     * @return a copy of <code>ip</code>, sharing no arrays with it.
+     */
+    private static IssuerParameters copy(final IssuerParameters ip) {
+        final IssuerParameters copy = new IssuerParameters();
+        copy.setParametersUID(clone(ip.getParametersUID()));
+        copy.setGroup(ip.getGroup());
+        copy.setHashAlgorithmUID(ip.getHashAlgorithmUID());
+        copy.setPublicKey(clone(ip.getPublicKey()));
+        copy.setEncodingBytes(clone(ip.getEncodingBytes()));
+        copy.setProverIssuanceValues(clone(ip.getProverIssuanceValues()));
+        copy.setSpecification(clone(ip.getSpecification()));
+        return copy;
+    }
+
+    private static byte[] clone(final byte[] value) {
+        return value == null ? null : (byte[]) value.clone();
+    }
+
+    private static byte[][] clone(final byte[][] values) {
+        if (values == null) {
+            return null;
+        }
+        final byte[][] copy = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            copy[i] = clone(values[i]);
+        }
+        return copy;
+    }
+
+    /**
+     * Computes the digest of the content of issuer parameters, other than
+     * the UID and the group.
+     * @param ip the issuer parameters.
+     * @return the SHA-256 digest of the length-prefixed fields.
+     */
+    private static byte[] digest(final IssuerParameters ip) {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            final AssertionError ae = new AssertionError("SHA-256 unavailable");
+            ae.initCause(nsae);
+            throw ae;
+        }
+        final String hashAlgorithmUID = ip.getHashAlgorithmUID();
+        try {
+            update(md, hashAlgorithmUID == null
+                ? null : hashAlgorithmUID.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException uee) {
+            final AssertionError ae = new AssertionError("UTF-8 unsupported");
+            ae.initCause(uee);
+            throw ae;
+        }
+        update(md, ip.getPublicKey());
+        update(md, ip.getEncodingBytes());
+        update(md, ip.getProverIssuanceValues());
+        update(md, ip.getSpecification());
+        return md.digest();
+    }
+
+    // a null field is hashed as the length -1
+    private static void update(final MessageDigest md, final int length) {
+        md.update((byte) (length >>> 24));
+        md.update((byte) (length >>> 16));
+        md.update((byte) (length >>> 8));
+        md.update((byte) length);
+    }
+
+    private static void update(final MessageDigest md, final byte[] value) {
+        update(md, value == null ? -1 : value.length);
+        if (value != null) {
+            md.update(value);
+        }
+    }
+
+    private static void update(final MessageDigest md, final byte[][] values) {
+        update(md, values == null ? -1 : values.length);
+        if (values != null) {
+            for (int i = 0; i < values.length; i++) {
+                update(md, values[i]);
+            }
+        }
+    }
+}
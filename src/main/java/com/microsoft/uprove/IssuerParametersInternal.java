@@ -43,9 +43,10 @@ class IssuerParametersInternal {
     private byte[] specification;
     
     // private protocol data
-    private byte[] issuerParametersDigest;
-    private HashFunction hashPrototype;
-    private boolean triedCloningPrototype = false;
+    private volatile byte[] issuerParametersDigest;
+    private volatile boolean validated = false;
+    private volatile HashFunction hashPrototype;
+    private volatile boolean triedCloningPrototype = false;
     
     public IssuerParametersInternal() {
 		super();
@@ -232,6 +233,10 @@ class IssuerParametersInternal {
      * the group.
      */	
 	void validate() throws IllegalStateException {
+		if (validated) {
+			// prepared parameters are shared; see IssuerParametersCache
+			return;
+		}
         // validate the group
         group.validate();
 
@@ -249,8 +254,37 @@ class IssuerParametersInternal {
                 throw new IllegalStateException("Public key element " + i + " is not in group");
             }
         }
+        validated = true;
 	}
 	
+    /**
+     * Tries to create the hash function prototype. Synchronized so that
+     * protocol instances running on several threads can share the
+     * parameters.
+     */
+    private synchronized void initHashPrototype() {
+    	if (triedCloningPrototype) {
+    		return;
+    	}
+        // see if we can use the chosen hashAlgorithm and if we can clone
+        // a prototype rather than creating a new one each time around.
+        HashFunction hf = null;
+        HashFunction clone = null;
+        try {
+            hf = HashFunctionImpl.getInstance(hashAlgorithmUID, group.getZq());
+            clone = (HashFunction) hf.clone();
+        } catch (CloneNotSupportedException cnse) {
+            // oh well, can't use a prototype
+        } catch (NoSuchAlgorithmException e) {
+            // defer notifying the user until they try to get an instance
+        } catch (NoSuchProviderException e) {
+            // defer notifying the user until they try to get an instance
+        }
+        // if we were able to clone a prototype, keep it around for later
+        hashPrototype = (clone == null ? null : hf);
+        triedCloningPrototype = true;
+    }
+
 	   /**
      * Instantiate a new <code>HashFunction</code> object using the
      * hash algorithm specified in the parameters (obtainable by
@@ -261,26 +295,8 @@ class IssuerParametersInternal {
     HashFunction getHashFunction() {
 
     	if (!triedCloningPrototype) {
-    		// this is the first time this method is called, let's try to create a prototype
-
-         	// see if we can use the chosen hashAlgorithm and if we can clone
-             // a prototype rather than creating a new one each time around.
-             HashFunction hf = null;
-             HashFunction clone = null;
-             try {
-                 hf = HashFunctionImpl.getInstance(hashAlgorithmUID, group.getZq());
-                 clone = (HashFunction) hf.clone();
-             } catch (CloneNotSupportedException cnse) {
-                 // oh well, can't use a prototype
-             } catch (NoSuchAlgorithmException e) {
-                 // defer notifying the user until they try to get an instance
-             } catch (NoSuchProviderException e) {
-                 // defer notifying the user until they try to get an instance
-             }
-             // if we were able to clone a prototype, keep it around for later
-             hashPrototype = (clone == null ? null : hf);
-             triedCloningPrototype = true;
-         }
+    		initHashPrototype();
+    	}
     	
     	// clone the prototype if possible
         if (hashPrototype != null) {
@@ -310,8 +326,9 @@ class IssuerParametersInternal {
     }
 
     byte[] getIssuerParametersDigest() {
-    	if (this.issuerParametersDigest != null) {
-    		return this.issuerParametersDigest;
+    	final byte[] digest = this.issuerParametersDigest;
+    	if (digest != null) {
+    		return digest;
     	}
     	
     	// compute the issuer parameters digest
@@ -345,12 +362,24 @@ class IssuerParametersInternal {
     }
 
     /**
-     * Generates an internal representation of an issuer parameters.
+     * Returns the internal representation of an issuer parameters, shared
+     * through the issuer parameters cache when it is enabled.
      * @param ip the issuer parameters.
-     * @return an internal representation of the issuer parameters.
+     * @return an internal representation of the issuer parameters. Must not
+     * be modified.
      * @throws IOException if the issuer parameters are malformed.
      */
     static IssuerParametersInternal generate(IssuerParameters ip) throws IOException {
+    	return IssuerParametersCache.get(ip);
+    }
+
+    /**
+     * Decodes an issuer parameters into a new internal representation.
+     * @param ip the issuer parameters.
+     * @return an internal representation of the issuer parameters.
+     * @throws IOException if the issuer parameters are malformed.
+     */
+    static IssuerParametersInternal decode(IssuerParameters ip) throws IOException {
     	IssuerParametersInternal ipi = new IssuerParametersInternal();
     	ipi.setParametersUID(ip.getParametersUID());
     	ipi.setEncodingBytes(ip.getEncodingBytes());
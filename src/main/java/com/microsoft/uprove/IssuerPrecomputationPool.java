@@ -0,0 +1,172 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.microsoft.uprove.FieldZq.ZqElement;
+
+/**
+ * A pool of precomputed Issuer randomizers <code>(w, g^w)</code>.
+ * <p>The first issuance message needs, for every token, a random
+ * <code>w</code>, <code>sigmaA = g^w</code> and <code>sigmaB =
+ * gamma^w</code>. The first two do not depend on the session, so they can be
+ * computed offline: Issuer instances generated from protocol parameters
+ * referencing a pool (see
+ * {@link IssuerProtocolParameters#setPrecomputationPool(IssuerPrecomputationPool)})
+ * draw them from the pool and only compute <code>gamma^w</code> online.</p>
+ * <p>The pool is refilled in the background to its high watermark whenever a
+ * draw leaves it under its low watermark. If it runs empty, sessions
+ * generate the missing pairs themselves. Each pair is handed out once; pairs
+ * still pooled when the pool is closed are erased. A pool may be shared by
+ * any number of threads and issuer parameters using the same group.</p>
+ */
+public final class IssuerPrecomputationPool {
+
+    /**
+     * A pooled pair. The encoding of <code>w</code> is kept, rather than the
+     * element, so that it can be erased.
+     */
+    static final class Pair {
+        private final byte[] w;
+        private final GroupElement sigmaA;
+
+        Pair(final byte[] w, final GroupElement sigmaA) {
+            this.w = w;
+            this.sigmaA = sigmaA;
+        }
+    }
+
+    private final PrimeOrderGroup group;
+    private final PrecomputationPool<Pair> pool;
+
+    /**
+     * Constructs a new, empty pool refilled by daemon threads.
+     * @param ip the issuer parameters defining the group.
+     * @param lowWatermark the pool size under which a refill starts.
+     * @param highWatermark the pool size at which a refill stops.
+     * @throws IllegalArgumentException if the watermarks are invalid.
+     * @see #fill()
+     */
+    public IssuerPrecomputationPool(final IssuerParameters ip,
+            final int lowWatermark, final int highWatermark) {
+        this(ip, lowWatermark, highWatermark, null);
+    }
+
+    /**
+     * Constructs a new, empty pool.
+     * @param ip the issuer parameters defining the group.
+     * @param lowWatermark the pool size under which a refill starts.
+     * @param highWatermark the pool size at which a refill stops.
+     * @param executor the executor running the refills, or <code>null</code>
+     * to start a daemon thread for each refill.
+     * @throws IllegalArgumentException if the watermarks are invalid.
+     * @see #fill()
+     */
+    public IssuerPrecomputationPool(final IssuerParameters ip,
+            final int lowWatermark, final int highWatermark,
+            final Executor executor) {
+        this.group = ip.getGroup();
+        final FieldZq Zq = group.getZq();
+        final GroupElement g = group.getGenerator();
+        this.pool = new PrecomputationPool<Pair>(
+                "U-Prove issuer precomputation", lowWatermark, highWatermark,
+                executor) {
+            Pair generate() {
+                final ZqElement w = Zq.getRandomElement(false);
+                return new Pair(w.toByteArray(), g.exponentiate(w));
+            }
+
+            void erase(final Pair value) {
+                ByteArrays.erase(value.w);
+            }
+        };
+    }
+
+    /**
+     * Fills the pool to its high watermark in the calling thread, for
+     * instance to warm it up before accepting sessions.
+     * @throws IOException if a pair can't be generated.
+     */
+    public void fill() throws IOException {
+        pool.fill();
+    }
+
+    /**
+     * Closes the pool, erasing the pooled pairs. Issuer instances drawing
+     * from a closed pool fail with an <code>IllegalStateException</code>.
+     */
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * Returns the number of pairs in the pool.
+     * @return the pool size.
+     */
+    public int size() {
+        return pool.size();
+    }
+
+    /**
+     * Returns the pool size under which a background refill starts.
+     * @return the low watermark.
+     */
+    public int getLowWatermark() {
+        return pool.getLowWatermark();
+    }
+
+    /**
+     * Returns the pool size at which a background refill stops.
+     * @return the high watermark.
+     */
+    public int getHighWatermark() {
+        return pool.getHighWatermark();
+    }
+
+    /**
+     * Returns a snapshot of the pool's usage statistics.
+     * @return the pool statistics.
+     */
+    public PoolStatistics getStatistics() {
+        return pool.getStatistics();
+    }
+
+    /**
+     * Returns the group of the pooled pairs.
+     * @return the group.
+     */
+    PrimeOrderGroup getGroup() {
+        return group;
+    }
+
+    /**
+     * Draws randomizers for a session. The pooled encodings of
+     * <code>w</code> are erased once decoded.
+     * @param w receives the <code>w</code> values.
+     * @param sigmaA receives the matching <code>g^w</code> values.
+     * @throws IOException if a missing pair can't be generated.
+     */
+    void take(final ZqElement[] w, final GroupElement[] sigmaA)
+            throws IOException {
+        final List<Pair> pairs = pool.take(w.length);
+        final FieldZq Zq = group.getZq();
+        for (int i = 0; i < w.length; i++) {
+            final Pair pair = pairs.get(i);
+            w[i] = Zq.getPositiveElement(pair.w);
+            sigmaA[i] = pair.sigmaA;
+            ByteArrays.erase(pair.w);
+        }
+    }
+}
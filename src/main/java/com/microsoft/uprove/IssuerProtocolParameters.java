@@ -12,6 +12,7 @@
 package com.microsoft.uprove;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 /**
  * Specifies the Issuer protocol parameters for the issuance protocol. 
@@ -21,9 +22,12 @@ public final class IssuerProtocolParameters {
 	private int numberOfTokens = 1;
 	private IssuerKeyAndParameters issuerKeyAndParameters = null;
     private byte[][] tokenAttributes; // = null;
+    private AttributeSource[] tokenAttributeSources; // = null;
     private byte[] tokenInformation;
 	private byte[] devicePublicKey;
     private IssuerCommonInput input;
+    private Executor executor; // = null;
+    private IssuerPrecomputationPool precomputationPool; // = null;
 
 
     /**
@@ -71,7 +75,8 @@ public final class IssuerProtocolParameters {
 
 	/**
 	 * Gets the token attributes.
-	 * @return the token attributes.
+	 * @return the token attributes, or <code>null</code> if the attributes
+	 * were set as {@link AttributeSource}s.
 	 */
 	public byte[][] getTokenAttributes() {
 		return tokenAttributes;
@@ -83,6 +88,41 @@ public final class IssuerProtocolParameters {
 	 */
 	public void setTokenAttributes(byte[][] tokenAttributes) {
 		this.tokenAttributes = tokenAttributes;
+		this.tokenAttributeSources = null;
+	}
+
+	/**
+	 * Gets the token attribute sources.
+	 * @return the token attribute sources, or <code>null</code> if the
+	 * attributes were set as byte arrays.
+	 */
+	public AttributeSource[] getTokenAttributeSources() {
+		return tokenAttributeSources;
+	}
+
+	/**
+	 * Sets the token attributes from attribute sources, so that large hashed
+	 * attributes need not be held in memory. This replaces any attributes set
+	 * by {@link #setTokenAttributes(byte[][])}.
+	 * @param tokenAttributeSources the token attribute sources.
+	 */
+	public void setTokenAttributeSources(AttributeSource[] tokenAttributeSources) {
+		this.tokenAttributeSources = tokenAttributeSources;
+		this.tokenAttributes = null;
+	}
+
+	/**
+	 * Returns the token attributes as sources, whichever way they were set.
+	 * @return the token attribute sources.
+	 */
+	AttributeSource[] getAttributeSources() {
+		if (tokenAttributeSources != null) {
+			return tokenAttributeSources;
+		}
+		if (tokenAttributes == null) {
+			throw new NullPointerException("token attributes must be set");
+		}
+		return AttributeSource.fromBytes(tokenAttributes);
 	}
 
 	/**
@@ -142,6 +182,47 @@ public final class IssuerProtocolParameters {
 		this.devicePublicKey = devicePublicKey;
 	}
     
+    /**
+     * Gets the executor running the per-token computations.
+     * @return the executor, or <code>null</code> if the SDK-wide executor is
+     * used.
+     */
+    public Executor getExecutor() {
+    	return executor;
+    }
+
+    /**
+     * Sets the executor running the per-token computations of the generated
+     * {@link Issuer} instances, overriding the SDK-wide setting of
+     * {@link Config#setParallelThreads(int)}. The calling thread takes part
+     * in the computations, and the protocol messages do not depend on the
+     * executor.
+     * @param executor the executor, or <code>null</code> to use the SDK-wide
+     * executor.
+     */
+    public void setExecutor(Executor executor) {
+    	this.executor = executor;
+    }
+
+    /**
+     * Gets the precomputation pool.
+     * @return the precomputation pool, or <code>null</code>.
+     */
+    public IssuerPrecomputationPool getPrecomputationPool() {
+    	return precomputationPool;
+    }
+
+    /**
+     * Sets the pool from which the generated {@link Issuer} instances draw
+     * their precomputed <code>(w, g^w)</code> pairs, leaving only
+     * <code>gamma^w</code> to compute when the session starts.
+     * @param precomputationPool the pool, or <code>null</code> to compute
+     * all values during precomputation.
+     */
+    public void setPrecomputationPool(IssuerPrecomputationPool precomputationPool) {
+    	this.precomputationPool = precomputationPool;
+    }
+
     /**
      * Tests the contents of <code>this</code> for validity. 
      * @throws IllegalStateException if the parameters are invalid.
@@ -168,7 +249,24 @@ public final class IssuerProtocolParameters {
         validate();
         // then generate the Issuer instance
         return IssuerFactory.generate(numberOfTokens,
-                                           input);
+                                           input, executor, precomputationPool);
+    }
+
+    /**
+     * Generates a {@link ChunkedIssuer} instance to run the issuance protocol
+     * in chunks of at most <code>chunkSize</code> tokens, bounding the
+     * memory used by sessions issuing many tokens.
+     * @param chunkSize the maximum number of tokens per chunk.
+     * @return a <code>ChunkedIssuer</code>.
+     * @throws IllegalStateException if the parameters are invalid.
+     * @throws IOException if the parameters are malformed.
+     * @see ProverProtocolParameters#generateChunked(int)
+     */
+    public ChunkedIssuer generateChunked(final int chunkSize)
+        throws IllegalStateException, IOException {
+        validate();
+        return new ChunkedIssuer(numberOfTokens, chunkSize,
+                                 input, executor, precomputationPool);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,386 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the Issuer sessions waiting for the second message.
+ * <p>Sessions are added once their first message is sent and are identified
+ * by a random session identifier. A session ends when its third message is
+ * generated, when it is cancelled, or when it expires; in all cases the
+ * Issuer instance is erased and dropped, so abandoned sessions don't hold
+ * on to their secret values. Expiry is driven by a timer wheel run by a
+ * daemon thread.</p>
+ * <p>The estimated memory held by the sessions is capped by a budget: when
+ * adding a session would exceed it, the session is rejected (and erased)
+ * rather than evicting sessions in progress, so that an overloaded issuer
+ * sheds new work. The session table is lock-striped, so a manager can be
+ * shared by any number of threads.</p>
+ */
+public final class IssuerSessionManager {
+
+    // the number of lock stripes of the session table (a power of two)
+    private static final int STRIPES = 32;
+
+    // the number of slots of the timer wheel; a session is due about half
+    // a turn after it is added
+    private static final int WHEEL_SIZE = 64;
+
+    // the minimum timer tick, in milliseconds
+    private static final long MIN_TICK = 10;
+
+    /**
+     * A registered session.
+     */
+    private static final class Entry {
+        private final String sessionID;
+        private final long deadline;
+        private final long size;
+        private IssuerImpl issuer;
+
+        Entry(final String sessionID, final IssuerImpl issuer,
+                final long deadline, final long size) {
+            this.sessionID = sessionID;
+            this.issuer = issuer;
+            this.deadline = deadline;
+            this.size = size;
+        }
+    }
+
+    private final long ttl;
+    private final long memoryBudget;
+    private final long tick;
+    private final long start = System.nanoTime();
+    private final HashMap<String, Entry>[] stripes;
+    private final List<Entry>[] wheel;
+    private long currentTick = 0;
+    private final Timer timer;
+    private volatile boolean closed = false;
+
+    private final AtomicLong memoryUsage = new AtomicLong();
+    private final AtomicLong activeCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Constructs a new session manager.
+     * @param ttl the time, in milliseconds, after which a session expires.
+     * @param memoryBudget the maximum estimated memory, in bytes, held by the
+     * sessions.
+     * @throws IllegalArgumentException if a parameter isn't positive.
+     */
+    public IssuerSessionManager(final long ttl, final long memoryBudget) {
+        if (ttl <= 0 || memoryBudget <= 0) {
+            throw new IllegalArgumentException(
+                "ttl and memoryBudget must be > 0");
+        }
+        this.ttl = ttl;
+        this.memoryBudget = memoryBudget;
+        this.tick = Math.max(MIN_TICK, 2 * ttl / WHEEL_SIZE);
+        stripes = newStripes();
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new HashMap<String, Entry>();
+        }
+        wheel = newWheel();
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayList<Entry>();
+        }
+        timer = new Timer("U-Prove issuer session expiry", true);
+        timer.scheduleAtFixedRate(new TimerTask() {
+            public void run() {
+                advance();
+            }
+        }, tick, tick);
+    }
+
+    // generic arrays can't be created directly
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static HashMap<String, Entry>[] newStripes() {
+        return new HashMap[STRIPES];
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<Entry>[] newWheel() {
+        return new List[WHEEL_SIZE];
+    }
+
+    /**
+     * Returns the lock stripe of a session.
+     * @param sessionID a session identifier.
+     * @return the stripe holding the session.
+     */
+    private HashMap<String, Entry> stripe(final String sessionID) {
+        int h = sessionID.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (STRIPES - 1)];
+    }
+
+    /**
+     * Removes a session from the table; a session found expired is erased.
+     * @param sessionID a session identifier.
+     * @return the Issuer instance of the session, or <code>null</code> if
+     * the session doesn't exist or expired. The caller erases it once used.
+     */
+    private IssuerImpl remove(final String sessionID) {
+        final HashMap<String, Entry> stripe = stripe(sessionID);
+        final Entry entry;
+        final IssuerImpl issuer;
+        synchronized (stripe) {
+            entry = stripe.remove(sessionID);
+            if (entry == null) {
+                return null;
+            }
+            issuer = entry.issuer;
+            entry.issuer = null;
+        }
+        memoryUsage.addAndGet(-entry.size);
+        activeCount.decrementAndGet();
+        if (System.nanoTime() - entry.deadline >= 0) {
+            // expired, but not yet collected by the timer
+            issuer.erase();
+            expiredCount.incrementAndGet();
+            return null;
+        }
+        return issuer;
+    }
+
+    /**
+     * Expires the sessions of the current wheel slot and advances the wheel.
+     */
+    private void advance() {
+        final List<Entry> due = new ArrayList<Entry>();
+        final long now = System.nanoTime();
+        synchronized (wheel) {
+            final List<Entry> slot =
+                wheel[(int) (currentTick % WHEEL_SIZE)];
+            for (final Iterator<Entry> it = slot.iterator(); it.hasNext();) {
+                final Entry entry = it.next();
+                if (now - entry.deadline >= 0) {
+                    it.remove();
+                    due.add(entry);
+                }
+            }
+            currentTick++;
+        }
+        for (int i = 0; i < due.size(); i++) {
+            final Entry entry = due.get(i);
+            final HashMap<String, Entry> stripe = stripe(entry.sessionID);
+            final IssuerImpl issuer;
+            synchronized (stripe) {
+                if (stripe.get(entry.sessionID) != entry) {
+                    // already completed or cancelled
+                    continue;
+                }
+                stripe.remove(entry.sessionID);
+                issuer = entry.issuer;
+                entry.issuer = null;
+            }
+            issuer.erase();
+            memoryUsage.addAndGet(-entry.size);
+            activeCount.decrementAndGet();
+            expiredCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Adds a session. The Issuer instance must have generated the first
+     * message, and must only be used through this manager afterwards.
+     * @param issuer an Issuer instance.
+     * @return the session identifier.
+     * @throws IllegalStateException if the memory budget would be exceeded,
+     * in which case the Issuer instance is erased, or if the manager is
+     * closed.
+     * @throws IllegalArgumentException if the Issuer instance was not
+     * generated by the SDK.
+     */
+    public String add(final Issuer issuer) {
+        if (!(issuer instanceof IssuerImpl)) {
+            throw new IllegalArgumentException("unsupported Issuer instance");
+        }
+        final IssuerImpl impl = (IssuerImpl) issuer;
+        if (closed) {
+            impl.erase();
+            throw new IllegalStateException("session manager is closed");
+        }
+        final long size = impl.getMemoryEstimate();
+        if (memoryUsage.addAndGet(size) > memoryBudget) {
+            memoryUsage.addAndGet(-size);
+            rejectedCount.incrementAndGet();
+            impl.erase();
+            throw new IllegalStateException("session memory budget exceeded");
+        }
+        activeCount.incrementAndGet();
+
+        final String sessionID = IssuerSessions.newSessionID();
+        final Entry entry = new Entry(sessionID, impl,
+            System.nanoTime() + ttl * 1000000L, size);
+        // the tick numbered k runs (k + 1) ticks after the manager started
+        final long tickNanos = tick * 1000000L;
+        final long due = (entry.deadline - start + tickNanos - 1) / tickNanos - 1;
+        final HashMap<String, Entry> stripe = stripe(sessionID);
+        synchronized (stripe) {
+            // close() sets the flag before sweeping the stripes, so a
+            // session added after the sweep would never be erased
+            if (closed) {
+                memoryUsage.addAndGet(-size);
+                activeCount.decrementAndGet();
+                impl.erase();
+                throw new IllegalStateException("session manager is closed");
+            }
+            stripe.put(sessionID, entry);
+        }
+        synchronized (wheel) {
+            // entries found in their slot a turn early are kept by the
+            // deadline check
+            wheel[(int) (Math.max(due, currentTick) % WHEEL_SIZE)].add(entry);
+        }
+        return sessionID;
+    }
+
+    /**
+     * Generates the third message of a session and ends it. The session is
+     * removed before the message is computed, so it is answered only once.
+     * @param sessionID the session identifier.
+     * @param message2 the second message.
+     * @return the third message.
+     * @throws IOException if the message can't be generated.
+     * @throws IllegalStateException if the session doesn't exist, either
+     * because it expired or because it already ended.
+     */
+    public byte[][] generateThirdMessage(final String sessionID,
+            final byte[][] message2) throws IOException {
+        final IssuerImpl issuer = remove(sessionID);
+        if (issuer == null) {
+            throw new IllegalStateException(
+                "no such session (expired or already ended)");
+        }
+        try {
+            return issuer.generateThirdMessage(message2);
+        } finally {
+            issuer.erase();
+            completedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Cancels a session.
+     * @param sessionID the session identifier.
+     * @return <code>true</code> if the session was cancelled,
+     * <code>false</code> if it doesn't exist.
+     */
+    public boolean cancel(final String sessionID) {
+        final IssuerImpl issuer = remove(sessionID);
+        if (issuer == null) {
+            return false;
+        }
+        issuer.erase();
+        cancelledCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Closes the manager, stopping the expiry timer and cancelling the
+     * active sessions.
+     */
+    public void close() {
+        closed = true;
+        timer.cancel();
+        for (int i = 0; i < STRIPES; i++) {
+            final List<String> sessionIDs;
+            synchronized (stripes[i]) {
+                sessionIDs = new ArrayList<String>(stripes[i].keySet());
+            }
+            for (int j = 0; j < sessionIDs.size(); j++) {
+                cancel(sessionIDs.get(j));
+            }
+        }
+        synchronized (wheel) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[i].clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the time after which a session expires.
+     * @return the time to live, in milliseconds.
+     */
+    public long getTimeToLive() {
+        return ttl;
+    }
+
+    /**
+     * Returns the maximum estimated memory held by the sessions.
+     * @return the memory budget, in bytes.
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Returns the estimated memory currently held by the sessions.
+     * @return the memory usage, in bytes.
+     */
+    public long getMemoryUsage() {
+        return memoryUsage.get();
+    }
+
+    /**
+     * Returns the number of active sessions.
+     * @return the active session count.
+     */
+    public long getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * Returns the number of sessions that ended with a third message.
+     * @return the completed session count.
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * Returns the number of sessions that expired.
+     * @return the expired session count.
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Returns the number of sessions that were cancelled.
+     * @return the cancelled session count.
+     */
+    public long getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    /**
+     * Returns the number of sessions rejected because of the memory budget.
+     * @return the rejected session count.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
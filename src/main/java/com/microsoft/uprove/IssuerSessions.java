@@ -0,0 +1,329 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.microsoft.uprove.FieldZq.ZqElement;
+
+/**
+ * Suspends issuance sessions between the first and the third message, so
+ * that the third message can be generated by any node sharing the session
+ * store and the session key.
+ * <p>Between the two messages, an Issuer session only needs its
+ * <code>w</code> values. {@link #suspend(Issuer)} seals them with AES-GCM
+ * under the session key, bound to the issuer parameters and to a fresh
+ * session identifier, and saves them in the store; {@link #resume(String,
+ * IssuerKeyAndParameters)} removes them from the store, checks and decrypts
+ * them, and returns an Issuer instance ready to answer the second message.
+ * Nodes can therefore be added or restarted without losing sessions in
+ * flight.</p>
+ * <p>A session can be resumed only once: generating third messages for two
+ * different second messages with the same <code>w</code> reveals the Issuer
+ * private key. This relies on the store handing each state out at most
+ * once; see {@link SessionStore}.</p>
+ * <p>A session expires after a time to live: its state carries its creation
+ * time and is rejected afterwards, and the store is told when it may drop
+ * it, so that sessions whose Prover never answers don't accumulate.</p>
+ */
+public final class IssuerSessions {
+
+    /**
+     * The default time, in milliseconds, after which a suspended session
+     * expires.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000;
+
+    // the encoding version of the session state
+    private static final byte VERSION = 2;
+
+    // the lengths, in bytes, of the session identifiers and the GCM nonces
+    private static final int ID_LENGTH = 16;
+    private static final int IV_LENGTH = 12;
+
+    // the length, in bits, of the GCM authentication tag
+    private static final int TAG_LENGTH = 128;
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final SessionStore store;
+    private final SecretKeySpec key;
+    private final long timeToLive;
+
+    /**
+     * Constructs a new <code>IssuerSessions</code> instance whose sessions
+     * expire after {@link #DEFAULT_TIME_TO_LIVE}.
+     * @param store the store shared by the nodes resuming sessions.
+     * @param key the AES key (16, 24 or 32 bytes) sealing the session
+     * states, shared by the nodes resuming sessions.
+     * @throws IllegalArgumentException if the key length is invalid.
+     */
+    public IssuerSessions(final SessionStore store, final byte[] key) {
+        this(store, key, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Constructs a new <code>IssuerSessions</code> instance.
+     * @param store the store shared by the nodes resuming sessions.
+     * @param key the AES key (16, 24 or 32 bytes) sealing the session
+     * states, shared by the nodes resuming sessions.
+     * @param timeToLive the time, in milliseconds, after which a suspended
+     * session expires. The nodes' clocks must agree to well within it.
+     * @throws IllegalArgumentException if the key length is invalid, or if
+     * <code>timeToLive</code> isn't positive.
+     */
+    public IssuerSessions(final SessionStore store, final byte[] key,
+            final long timeToLive) {
+        if (store == null || key == null) {
+            throw new NullPointerException();
+        }
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalArgumentException("invalid AES key length: "
+                + key.length);
+        }
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("timeToLive must be > 0");
+        }
+        this.store = store;
+        this.key = new SecretKeySpec(key, "AES");
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Returns the time after which a suspended session expires.
+     * @return the time to live, in milliseconds.
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Suspends an Issuer session and saves its state in the store. The
+     * Issuer instance can't be used afterwards.
+     * @param issuer an Issuer instance that generated the first message.
+     * @return the identifier of the suspended session.
+     * @throws IOException if the state can't be sealed or stored.
+     * @throws IllegalStateException if the first message wasn't generated.
+     */
+    public String suspend(final Issuer issuer) throws IOException {
+        final String sessionID = newSessionID();
+        final byte[] sealed = seal(issuer, sessionID);
+        store.put(sessionID, sealed, System.currentTimeMillis() + timeToLive);
+        return sessionID;
+    }
+
+    /**
+     * Generates a random, unguessable session identifier.
+     * @return a new session identifier.
+     */
+    static String newSessionID() {
+        final byte[] id = RandomSourceImpl.getRandomBytes(ID_LENGTH);
+        final StringBuffer sessionID = new StringBuffer(2 * ID_LENGTH);
+        for (int i = 0; i < id.length; i++) {
+            sessionID.append(HEX_DIGITS[(id[i] >> 4) & 0x0f])
+                .append(HEX_DIGITS[id[i] & 0x0f]);
+        }
+        return sessionID.toString();
+    }
+
+    /**
+     * Resumes a suspended session, removing its state from the store.
+     * @param sessionID the identifier returned by {@link #suspend(Issuer)}.
+     * @param ikap the Issuer key and parameters of the session.
+     * @return an Issuer instance ready to generate the third message.
+     * @throws IOException if the state can't be retrieved, or was tampered
+     * with.
+     * @throws IllegalStateException if the session doesn't exist, either
+     * because it expired or because it was already resumed.
+     * @throws IllegalArgumentException if the session was issued under
+     * different issuer parameters.
+     */
+    public Issuer resume(final String sessionID,
+            final IssuerKeyAndParameters ikap) throws IOException {
+        final byte[] sealed = store.remove(sessionID);
+        if (sealed == null) {
+            throw new IllegalStateException(
+                "no such session (expired or already resumed)");
+        }
+        return unseal(sealed, sessionID, ikap);
+    }
+
+    /**
+     * Seals the state of an Issuer session, without storing it. The Issuer
+     * instance can't be used afterwards.
+     * <p><b>Warning:</b> a sealed state can be unsealed any number of times;
+     * callers storing it themselves must make sure it is unsealed only
+     * once.</p>
+     * @param issuer an Issuer instance that generated the first message.
+     * @param sessionID the session identifier the state is bound to.
+     * @return the sealed session state.
+     * @throws IOException if the state can't be sealed.
+     * @throws IllegalStateException if the first message wasn't generated.
+     */
+    public byte[] seal(final Issuer issuer, final String sessionID)
+            throws IOException {
+        if (!(issuer instanceof IssuerImpl)) {
+            throw new IllegalArgumentException("unsupported Issuer instance");
+        }
+        final IssuerImpl impl = (IssuerImpl) issuer;
+        final IssuerParametersInternal ipi = impl.getIssuerParameters();
+        final int wLength = ipi.getGroup().getZq().getMaxEncodedElementSize();
+        final ZqElement[] w = impl.suspend();
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            64 + w.length * wLength);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final byte[] digest = ipi.getIssuerParametersDigest();
+        out.writeByte(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        out.writeShort(digest.length);
+        out.write(digest);
+        out.writeInt(w.length);
+        out.writeShort(wLength);
+        final byte[] encoded = new byte[wLength];
+        for (int i = 0; i < w.length; i++) {
+            final byte[] value = w[i].toByteArray();
+            // left-pad to a fixed width
+            final int pad = wLength - value.length;
+            for (int j = 0; j < pad; j++) {
+                encoded[j] = 0;
+            }
+            System.arraycopy(value, 0, encoded, pad, value.length);
+            out.write(encoded);
+            ByteArrays.erase(value);
+        }
+        ByteArrays.erase(encoded);
+        out.flush();
+        final byte[] plaintext = bytes.toByteArray();
+
+        final byte[] iv = RandomSourceImpl.getRandomBytes(IV_LENGTH);
+        try {
+            final byte[] ciphertext =
+                cipher(Cipher.ENCRYPT_MODE, iv, sessionID).doFinal(plaintext);
+            final byte[] sealed = new byte[IV_LENGTH + ciphertext.length];
+            System.arraycopy(iv, 0, sealed, 0, IV_LENGTH);
+            System.arraycopy(ciphertext, 0, sealed, IV_LENGTH,
+                ciphertext.length);
+            return sealed;
+        } catch (GeneralSecurityException gse) {
+            final IOException ioe = new IOException("can't seal session");
+            ioe.initCause(gse);
+            throw ioe;
+        } finally {
+            ByteArrays.erase(plaintext);
+        }
+    }
+
+    /**
+     * Unseals the state of an Issuer session.
+     * <p><b>Warning:</b> this method doesn't prevent a state from being
+     * unsealed more than once; see {@link #seal(Issuer, String)}.</p>
+     * @param sealed the sealed session state.
+     * @param sessionID the session identifier the state is bound to.
+     * @param ikap the Issuer key and parameters of the session.
+     * @return an Issuer instance ready to generate the third message.
+     * @throws IOException if the state was tampered with, or is bound to
+     * another session.
+     * @throws IllegalStateException if the session expired.
+     * @throws IllegalArgumentException if the session was issued under
+     * different issuer parameters.
+     */
+    public Issuer unseal(final byte[] sealed, final String sessionID,
+            final IssuerKeyAndParameters ikap) throws IOException {
+        if (sealed.length < IV_LENGTH) {
+            throw new IOException("invalid session state");
+        }
+        final byte[] iv = new byte[IV_LENGTH];
+        System.arraycopy(sealed, 0, iv, 0, IV_LENGTH);
+        final byte[] plaintext;
+        try {
+            plaintext = cipher(Cipher.DECRYPT_MODE, iv, sessionID).doFinal(
+                sealed, IV_LENGTH, sealed.length - IV_LENGTH);
+        } catch (GeneralSecurityException gse) {
+            final IOException ioe = new IOException("invalid session state");
+            ioe.initCause(gse);
+            throw ioe;
+        }
+
+        try {
+            final IssuerParametersInternal ipi =
+                IssuerParametersInternal.generate(ikap.getIssuerParameters());
+            final FieldZq Zq = ipi.getGroup().getZq();
+            final DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(plaintext));
+            if (in.readByte() != VERSION) {
+                throw new IOException("unsupported session state version");
+            }
+            if (System.currentTimeMillis() - in.readLong() > timeToLive) {
+                throw new IllegalStateException("session expired");
+            }
+            final byte[] digest = new byte[in.readUnsignedShort()];
+            in.readFully(digest);
+            if (!Arrays.equals(digest, ipi.getIssuerParametersDigest())) {
+                throw new IllegalArgumentException(
+                    "session was issued under different issuer parameters");
+            }
+            final int n = in.readInt();
+            final int wLength = in.readUnsignedShort();
+            if (n < 1 || (long) n * wLength > plaintext.length) {
+                throw new IOException("invalid session state");
+            }
+            final ZqElement[] w = new ZqElement[n];
+            final byte[] encoded = new byte[wLength];
+            for (int i = 0; i < n; i++) {
+                in.readFully(encoded);
+                w[i] = Zq.getPositiveElement(encoded);
+            }
+            ByteArrays.erase(encoded);
+            return IssuerImpl.resume(ipi,
+                Zq.getPositiveElement(ikap.getPrivateKey()), w);
+        } finally {
+            ByteArrays.erase(plaintext);
+        }
+    }
+
+    /**
+     * Returns a cipher bound to a session.
+     * @param mode the cipher mode.
+     * @param iv the GCM nonce.
+     * @param sessionID the session identifier, authenticated as additional
+     * data.
+     * @return an initialized cipher.
+     * @throws GeneralSecurityException if the cipher is unavailable.
+     */
+    private Cipher cipher(final int mode, final byte[] iv,
+            final String sessionID) throws GeneralSecurityException {
+        final Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH, iv));
+        try {
+            cipher.updateAAD(sessionID.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException uee) {
+            final AssertionError ae = new AssertionError("UTF-8 unsupported");
+            ae.initCause(uee);
+            throw ae;
+        }
+        return cipher;
+    }
+}
@@ -0,0 +1,305 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * A {@link SessionStore} keeping the session states in a memory-mapped file,
+ * so that they survive a restart and can be shared by the processes of a
+ * host.
+ * <p>The file is a fixed-size hash table of slots, each holding a session
+ * identifier (at most {@link #MAX_ID_LENGTH} bytes in UTF-8), an expiry time
+ * and a state of at most <code>maxStateLength</code> bytes. The slots of
+ * expired states are reclaimed by later insertions, so abandoned sessions
+ * don't fill the file. Every operation holds an
+ * exclusive lock on the file, so concurrent processes never hand out the
+ * same state twice. Removed states are overwritten with zeros and flushed
+ * to the file before they are returned, so a crash can't bring them back.</p>
+ */
+public final class MappedFileSessionStore implements SessionStore {
+
+    /**
+     * The maximum length of a session identifier, in bytes.
+     */
+    public static final int MAX_ID_LENGTH = 64;
+
+    // slot status values
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte REMOVED = 2;
+
+    // slot layout: status, id length, id, expiry, state length, state
+    private static final int ID_LENGTH_OFFSET = 1;
+    private static final int ID_OFFSET = 2;
+    private static final int EXPIRY_OFFSET = ID_OFFSET + MAX_ID_LENGTH;
+    private static final int STATE_LENGTH_OFFSET = EXPIRY_OFFSET + 8;
+    private static final int STATE_OFFSET = STATE_LENGTH_OFFSET + 4;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int slotLength;
+    private final int maxStateLength;
+
+    /**
+     * Opens a store, creating the file if needed. A store must always be
+     * opened with the same slot count and maximum state length.
+     * @param file the backing file.
+     * @param slotCount the maximum number of stored sessions.
+     * @param maxStateLength the maximum length of a session state, in bytes.
+     * @throws IOException if the file can't be opened or mapped.
+     * @throws IllegalArgumentException if a size is invalid, or if the
+     * file has a different size.
+     */
+    public MappedFileSessionStore(final File file, final int slotCount,
+            final int maxStateLength) throws IOException {
+        if (slotCount < 1 || maxStateLength < 1) {
+            throw new IllegalArgumentException("invalid store size");
+        }
+        this.slotCount = slotCount;
+        this.maxStateLength = maxStateLength;
+        this.slotLength = STATE_OFFSET + maxStateLength;
+        final long size = (long) slotCount * slotLength;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("store too large: " + size);
+        }
+        this.file = new RandomAccessFile(file, "rw");
+        try {
+            final long existing = this.file.length();
+            if (existing != 0 && existing != size) {
+                throw new IllegalArgumentException(
+                    "file size " + existing + " doesn't match the store size "
+                    + size);
+            }
+            this.channel = this.file.getChannel();
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException ioe) {
+            this.file.close();
+            throw ioe;
+        } catch (RuntimeException re) {
+            this.file.close();
+            throw re;
+        }
+    }
+
+    /**
+     * Encodes a session identifier.
+     * @param sessionID a session identifier.
+     * @return the UTF-8 encoding of the identifier.
+     */
+    private static byte[] encodeID(final String sessionID) {
+        final byte[] id;
+        try {
+            id = sessionID.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            final AssertionError ae = new AssertionError("UTF-8 unsupported");
+            ae.initCause(uee);
+            throw ae;
+        }
+        if (id.length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("session ID too long");
+        }
+        return id;
+    }
+
+    /**
+     * Indicates whether a slot holds the given identifier.
+     * @param offset the slot offset.
+     * @param id the encoded identifier.
+     * @return <code>true</code> if the slot is used by <code>id</code>.
+     */
+    private boolean holds(final int offset, final byte[] id) {
+        if (buffer.get(offset) != USED
+            || buffer.get(offset + ID_LENGTH_OFFSET) != id.length) {
+            return false;
+        }
+        for (int i = 0; i < id.length; i++) {
+            if (buffer.get(offset + ID_OFFSET + i) != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the slot holding an identifier.
+     * @param id the encoded identifier.
+     * @return the slot offset, or <code>-1</code> if absent.
+     */
+    private int find(final byte[] id) {
+        final int start = (ByteArrays.hashCode(id) & 0x7fffffff) % slotCount;
+        for (int i = 0; i < slotCount; i++) {
+            final int offset = ((start + i) % slotCount) * slotLength;
+            final byte status = buffer.get(offset);
+            if (status == EMPTY) {
+                return -1;
+            }
+            if (holds(offset, id)) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Overwrites a slot's identifier and state with zeros.
+     * @param offset the slot offset.
+     */
+    private void clear(final int offset) {
+        for (int i = ID_LENGTH_OFFSET; i < slotLength; i++) {
+            buffer.put(offset + i, (byte) 0);
+        }
+    }
+
+    /**
+     * Marks a slot as removed. When no used slot follows it before the next
+     * empty one, no probe sequence runs across its run of removed slots, and
+     * the whole run is turned back into empty slots so that the probe
+     * sequences stay short.
+     * @param offset the slot offset.
+     */
+    private void release(final int offset) {
+        buffer.put(offset, REMOVED);
+        final int slot = offset / slotLength;
+        int last = slot;
+        for (int i = 1; i < slotCount; i++) {
+            final byte status =
+                buffer.get(((slot + i) % slotCount) * slotLength);
+            if (status == USED) {
+                return;
+            }
+            if (status == EMPTY) {
+                break;
+            }
+            last = (slot + i) % slotCount;
+        }
+        for (int i = 0; i < slotCount; i++) {
+            final int previous =
+                ((last - i + slotCount) % slotCount) * slotLength;
+            if (buffer.get(previous) != REMOVED) {
+                break;
+            }
+            buffer.put(previous, EMPTY);
+        }
+    }
+
+    /**
+     * Indicates whether a slot holds an expired state.
+     * @param offset the slot offset.
+     * @param now the current time, in milliseconds since the epoch.
+     * @return <code>true</code> if the slot is used by an expired state.
+     */
+    private boolean expired(final int offset, final long now) {
+        return buffer.get(offset) == USED
+            && now > buffer.getLong(offset + EXPIRY_OFFSET);
+    }
+
+    /* (non-Javadoc)
+     * @see com.microsoft.uprove.SessionStore#put(java.lang.String, byte[], long)
+     */
+    public synchronized void put(final String sessionID, final byte[] state,
+            final long expiry) throws IOException {
+        final byte[] id = encodeID(sessionID);
+        if (state.length > maxStateLength) {
+            throw new IllegalArgumentException("session state too long");
+        }
+        final FileLock lock = channel.lock();
+        try {
+            int offset = find(id);
+            if (offset < 0) {
+                // first slot that isn't in use, or whose state expired,
+                // along the probe sequence
+                final long now = System.currentTimeMillis();
+                final int start =
+                    (ByteArrays.hashCode(id) & 0x7fffffff) % slotCount;
+                for (int i = 0; i < slotCount && offset < 0; i++) {
+                    final int candidate =
+                        ((start + i) % slotCount) * slotLength;
+                    if (buffer.get(candidate) != USED
+                        || expired(candidate, now)) {
+                        offset = candidate;
+                    }
+                }
+                if (offset < 0) {
+                    throw new IOException("session store is full");
+                }
+            }
+            clear(offset);
+            buffer.put(offset + ID_LENGTH_OFFSET, (byte) id.length);
+            for (int i = 0; i < id.length; i++) {
+                buffer.put(offset + ID_OFFSET + i, id[i]);
+            }
+            buffer.putLong(offset + EXPIRY_OFFSET, expiry);
+            buffer.putInt(offset + STATE_LENGTH_OFFSET, state.length);
+            for (int i = 0; i < state.length; i++) {
+                buffer.put(offset + STATE_OFFSET + i, state[i]);
+            }
+            buffer.put(offset, USED);
+        } finally {
+            lock.release();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.microsoft.uprove.SessionStore#remove(java.lang.String)
+     */
+    public synchronized byte[] remove(final String sessionID)
+            throws IOException {
+        final byte[] id = encodeID(sessionID);
+        final FileLock lock = channel.lock();
+        try {
+            final int offset = find(id);
+            if (offset < 0) {
+                return null;
+            }
+            if (expired(offset, System.currentTimeMillis())) {
+                clear(offset);
+                release(offset);
+                buffer.force();
+                return null;
+            }
+            final int length = buffer.getInt(offset + STATE_LENGTH_OFFSET);
+            if (length < 0 || length > maxStateLength) {
+                throw new IOException("corrupted session store");
+            }
+            final byte[] state = new byte[length];
+            for (int i = 0; i < length; i++) {
+                state[i] = buffer.get(offset + STATE_OFFSET + i);
+            }
+            clear(offset);
+            release(offset);
+            // the state must not survive a crash once it's handed out
+            buffer.force();
+            return state;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Writes the stored states to the file and closes it. The store can't
+     * be used afterwards.
+     * @throws IOException if the file can't be written or closed.
+     */
+    public synchronized void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+}
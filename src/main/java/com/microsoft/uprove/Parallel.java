@@ -0,0 +1,229 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * LOW-LEVEL IMPLEMENTATION CLASS. NOT PART OF PUBLIC API.
+ */
+
+/**
+ * Runs per-token protocol work in parallel by splitting a range of token
+ * indices into contiguous partitions, one task per partition.
+ * <p>The calling thread takes part in the work: it runs every partition not
+ * yet started by a worker thread, so a busy or saturated executor slows the
+ * computation down but never blocks it.</p>
+ */
+final class Parallel {
+
+    /**
+     * Work on a range of indices.
+     */
+    interface RangeTask {
+        /**
+         * Processes the indices <code>from</code> (inclusive) to
+         * <code>to</code> (exclusive).
+         * @param from the first index.
+         * @param to one past the last index.
+         * @throws IOException if the work fails.
+         */
+        void run(int from, int to) throws IOException;
+    }
+
+    // the number of partitions per available processor, to even out the
+    // load when some partitions finish early
+    private static final int PARTITIONS_PER_THREAD = 2;
+
+    // the SDK-wide pool, or null if parallelism is disabled
+    private static ForkJoinPool pool;
+    private static boolean configured = false;
+
+    /**
+     * One partition of the range, run exactly once by whichever thread
+     * claims it first.
+     */
+    private static final class Partition implements Runnable {
+        private final RangeTask task;
+        private final int from;
+        private final int to;
+        private final Throwable[] failure;
+        private final CountDownLatch done;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        Partition(final RangeTask task, final int from, final int to,
+                final Throwable[] failure, final CountDownLatch done) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.failure = failure;
+            this.done = done;
+        }
+
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                task.run(from, to);
+            } catch (Throwable t) {
+                synchronized (failure) {
+                    if (failure[0] == null) {
+                        failure[0] = t;
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private Parallel() {
+        super();
+    }
+
+    /**
+     * Returns the SDK-wide executor, creating it according to the configured
+     * number of threads if needed.
+     * @return the shared executor, or <code>null</code> if the SDK is
+     * configured to run sequentially.
+     * @see Config#setParallelThreads(int)
+     */
+    static synchronized Executor sharedExecutor() {
+        if (!configured) {
+            final int threads = ConfigImpl.parallelThreads();
+            pool = threads > 1 ? new ForkJoinPool(threads) : null;
+            configured = true;
+        }
+        return pool;
+    }
+
+    /**
+     * Discards the SDK-wide executor; the next use recreates it according to
+     * the configured number of threads. Work already submitted to the old
+     * executor completes normally.
+     */
+    static void reset() {
+        final ForkJoinPool old;
+        synchronized (Parallel.class) {
+            old = pool;
+            pool = null;
+            configured = false;
+        }
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * Selects the executor for a protocol instance.
+     * @param executor the executor set on the protocol parameters, or
+     * <code>null</code>.
+     * @return <code>executor</code> if not <code>null</code>, the SDK-wide
+     * executor otherwise.
+     */
+    static Executor select(final Executor executor) {
+        return executor != null ? executor : sharedExecutor();
+    }
+
+    /**
+     * Returns the number of threads an executor is expected to provide.
+     * @param executor an executor.
+     * @return the expected parallelism.
+     */
+    private static int parallelism(final Executor executor) {
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getParallelism();
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Runs a task over the indices <code>0</code> to <code>count - 1</code>.
+     * The partitions are disjoint, so tasks writing to distinct array slots
+     * need no further synchronization; all writes are visible to the
+     * calling thread once this method returns.
+     * @param executor the executor to use, or <code>null</code> to run the
+     * whole range in the calling thread.
+     * @param count the number of indices.
+     * @param task the task.
+     * @throws IOException if a partition throws it.
+     */
+    static void forEach(final Executor executor, final int count,
+            final RangeTask task) throws IOException {
+        final int partitions = executor == null
+            ? 1
+            : Math.min(count, parallelism(executor) * PARTITIONS_PER_THREAD);
+        if (partitions <= 1) {
+            task.run(0, count);
+            return;
+        }
+
+        final Throwable[] failure = new Throwable[1];
+        final CountDownLatch done = new CountDownLatch(partitions);
+        final Partition[] parts = new Partition[partitions];
+        for (int p = 0; p < partitions; p++) {
+            parts[p] = new Partition(task,
+                (int) ((long) count * p / partitions),
+                (int) ((long) count * (p + 1) / partitions),
+                failure, done);
+        }
+        for (int p = 1; p < partitions; p++) {
+            try {
+                executor.execute(parts[p]);
+            } catch (RejectedExecutionException ree) {
+                // the partition is picked up below
+            }
+        }
+
+        // the calling thread runs the first partition, then any partition no
+        // worker has started yet, so that progress never depends on the
+        // executor having an idle thread
+        for (int p = 0; p < partitions; p++) {
+            parts[p].run();
+        }
+        try {
+            done.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            final InterruptedIOException iioe =
+                new InterruptedIOException("interrupted while waiting");
+            iioe.initCause(ie);
+            throw iioe;
+        }
+
+        final Throwable t;
+        synchronized (failure) {
+            t = failure[0];
+        }
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            final AssertionError ae = new AssertionError("Impossible exception");
+            ae.initCause(t);
+            throw ae;
+        }
+    }
+}
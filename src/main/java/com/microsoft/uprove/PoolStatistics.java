@@ -0,0 +1,137 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+/**
+ * An immutable snapshot of the usage statistics of a precomputation pool.
+ * <p>The counters are sampled without stopping the pool, so a snapshot taken
+ * while other threads use the pool is only approximately consistent.</p>
+ * @see IssuerPrecomputationPool#getStatistics()
+ * @see ProverPrecomputationPool#getStatistics()
+ */
+public final class PoolStatistics {
+
+    private final long size;
+    private final long lowWatermark;
+    private final long highWatermark;
+    private final long servedCount;
+    private final long inlineCount;
+    private final long generatedCount;
+    private final long discardedCount;
+
+    /**
+     * Constructs a new <code>PoolStatistics</code> instance.
+     * @param size the number of values currently pooled.
+     * @param lowWatermark the pool size under which a refill starts.
+     * @param highWatermark the pool size at which a refill stops.
+     * @param servedCount the number of values drawn from the pool.
+     * @param inlineCount the number of values generated by sessions because
+     * the pool was empty.
+     * @param generatedCount the number of values generated for the pool.
+     * @param discardedCount the number of pooled values erased unused.
+     */
+    PoolStatistics(final long size, final long lowWatermark,
+            final long highWatermark, final long servedCount,
+            final long inlineCount, final long generatedCount,
+            final long discardedCount) {
+        this.size = size;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.servedCount = servedCount;
+        this.inlineCount = inlineCount;
+        this.generatedCount = generatedCount;
+        this.discardedCount = discardedCount;
+    }
+
+    /**
+     * Returns the number of values currently held in the pool.
+     * @return the pool size.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the pool size under which a background refill starts.
+     * @return the low watermark.
+     */
+    public long getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * Returns the pool size at which a background refill stops.
+     * @return the high watermark.
+     */
+    public long getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Returns the number of values drawn from the pool.
+     * @return the served count.
+     */
+    public long getServedCount() {
+        return servedCount;
+    }
+
+    /**
+     * Returns the number of values sessions had to generate themselves
+     * because the pool was empty.
+     * @return the inline count.
+     */
+    public long getInlineCount() {
+        return inlineCount;
+    }
+
+    /**
+     * Returns the ratio of values drawn from the pool to values needed, or
+     * <code>0</code> if no value was needed.
+     * @return the hit rate, between <code>0</code> and <code>1</code>.
+     */
+    public double getHitRate() {
+        final long needed = servedCount + inlineCount;
+        return needed == 0 ? 0.0 : (double) servedCount / needed;
+    }
+
+    /**
+     * Returns the number of values generated for the pool, in the
+     * background or by an explicit fill.
+     * @return the generated count.
+     */
+    public long getGeneratedCount() {
+        return generatedCount;
+    }
+
+    /**
+     * Returns the number of pooled values erased without being used.
+     * @return the discarded count.
+     */
+    public long getDiscardedCount() {
+        return discardedCount;
+    }
+
+    /**
+     * Returns a string representation of the statistics.
+     * @return a string representation of the statistics.
+     */
+    public String toString() {
+        return new StringBuffer("PoolStatistics[size=").append(size)
+            .append(", watermarks=").append(lowWatermark)
+            .append('/').append(highWatermark)
+            .append(", served=").append(servedCount)
+            .append(", inline=").append(inlineCount)
+            .append(", generated=").append(generatedCount)
+            .append(", discarded=").append(discardedCount)
+            .append(']').toString();
+    }
+}
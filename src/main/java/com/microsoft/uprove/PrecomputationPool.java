@@ -0,0 +1,241 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * LOW-LEVEL IMPLEMENTATION CLASS. NOT PART OF PUBLIC API.
+ */
+
+/**
+ * A pool of precomputed, session-independent protocol values.
+ * <p>When a draw leaves fewer than the low watermark of values in the pool,
+ * a background task generates values until the high watermark is reached.
+ * Draws never wait for the background task: values missing from the pool
+ * are generated in the calling thread. Values discarded when the pool is
+ * closed are erased.</p>
+ * @param <T> the type of the pooled values.
+ */
+abstract class PrecomputationPool<T> {
+
+    private final String name;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final Executor executor;
+    private final LinkedList<T> values = new LinkedList<T>();
+    private boolean refilling = false;
+    private boolean closed = false;
+
+    private final AtomicLong servedCount = new AtomicLong();
+    private final AtomicLong inlineCount = new AtomicLong();
+    private final AtomicLong generatedCount = new AtomicLong();
+    private final AtomicLong discardedCount = new AtomicLong();
+
+    /**
+     * Constructs a new, empty pool.
+     * @param name the name given to background refill threads.
+     * @param lowWatermark the pool size under which a refill starts.
+     * @param highWatermark the pool size at which a refill stops.
+     * @param executor the executor running refills, or <code>null</code> to
+     * start a daemon thread for each refill.
+     * @throws IllegalArgumentException if the watermarks are invalid.
+     */
+    PrecomputationPool(final String name, final int lowWatermark,
+            final int highWatermark, final Executor executor) {
+        if (lowWatermark < 0 || highWatermark < 1
+            || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("invalid watermarks: "
+                + lowWatermark + ", " + highWatermark);
+        }
+        this.name = name;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.executor = executor;
+    }
+
+    /**
+     * Generates a new value.
+     * @return a new value.
+     * @throws IOException if the value can't be generated.
+     */
+    abstract T generate() throws IOException;
+
+    /**
+     * Erases the secret parts of a value that will not be used.
+     * @param value the value.
+     */
+    abstract void erase(T value);
+
+    /**
+     * Draws values from the pool, generating the missing ones in the calling
+     * thread, and starts a refill if the pool runs low.
+     * @param count the number of values to draw.
+     * @return <code>count</code> values, each handed out only once.
+     * @throws IOException if a missing value can't be generated.
+     * @throws IllegalStateException if the pool is closed.
+     */
+    final List<T> take(final int count) throws IOException {
+        final List<T> taken = new ArrayList<T>(count);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("pool is closed");
+            }
+            while (taken.size() < count && !values.isEmpty()) {
+                taken.add(values.removeFirst());
+            }
+        }
+        servedCount.addAndGet(taken.size());
+        inlineCount.addAndGet(count - taken.size());
+        startRefill();
+        while (taken.size() < count) {
+            taken.add(generate());
+        }
+        return taken;
+    }
+
+    /**
+     * Generates values in the calling thread until the pool holds its high
+     * watermark.
+     * @throws IOException if a value can't be generated.
+     */
+    final void fill() throws IOException {
+        while (addGenerated()) {
+            // keep going
+        }
+    }
+
+    /**
+     * Generates one value and adds it to the pool, unless the pool is full
+     * or closed.
+     * @return <code>true</code> if more values are needed.
+     * @throws IOException if the value can't be generated.
+     */
+    private boolean addGenerated() throws IOException {
+        synchronized (this) {
+            if (closed || values.size() >= highWatermark) {
+                return false;
+            }
+        }
+        final T value = generate();
+        generatedCount.incrementAndGet();
+        synchronized (this) {
+            if (!closed && values.size() < highWatermark) {
+                values.addLast(value);
+                return values.size() < highWatermark;
+            }
+        }
+        erase(value);
+        discardedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Starts a background refill if the pool is under its low watermark and
+     * no refill is running.
+     */
+    private void startRefill() {
+        synchronized (this) {
+            if (closed || refilling || values.size() >= lowWatermark) {
+                return;
+            }
+            refilling = true;
+        }
+        final Runnable refill = new Runnable() {
+            public void run() {
+                try {
+                    while (addGenerated()) {
+                        // keep going
+                    }
+                } catch (IOException ioe) {
+                    // give up; the next draw generates inline and retries
+                } catch (RuntimeException re) {
+                    // likewise
+                } finally {
+                    synchronized (PrecomputationPool.this) {
+                        refilling = false;
+                    }
+                }
+            }
+        };
+        try {
+            if (executor != null) {
+                executor.execute(refill);
+            } else {
+                final Thread t = new Thread(refill, name);
+                t.setDaemon(true);
+                t.start();
+            }
+        } catch (RejectedExecutionException ree) {
+            synchronized (this) {
+                refilling = false;
+            }
+        }
+    }
+
+    /**
+     * Closes the pool, erasing the values it holds. Values generated by a
+     * running refill are erased as they complete.
+     */
+    final void close() {
+        final List<T> discarded;
+        synchronized (this) {
+            closed = true;
+            discarded = new ArrayList<T>(values);
+            values.clear();
+        }
+        for (int i = 0; i < discarded.size(); i++) {
+            erase(discarded.get(i));
+        }
+        discardedCount.addAndGet(discarded.size());
+    }
+
+    /**
+     * Returns the number of values in the pool.
+     * @return the pool size.
+     */
+    final synchronized int size() {
+        return values.size();
+    }
+
+    /**
+     * Returns the pool size under which a refill starts.
+     * @return the low watermark.
+     */
+    final int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * Returns the pool size at which a refill stops.
+     * @return the high watermark.
+     */
+    final int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Returns a snapshot of the pool's statistics.
+     * @return the pool statistics.
+     */
+    final PoolStatistics getStatistics() {
+        return new PoolStatistics(size(), lowWatermark, highWatermark,
+            servedCount.get(), inlineCount.get(), generatedCount.get(),
+            discardedCount.get());
+    }
+}
@@ -0,0 +1,136 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+
+import com.microsoft.uprove.FieldZq.ZqElement;
+
+/**
+ * A U-Prove key and token prepared for repeated presentations.
+ * <p>Preparing a token decodes the issuer parameters and the token, computes
+ * the token identifier <code>UIDt</code>, the attribute values
+ * <code>x_1, ..., x_n, x_t</code> and parses the token private key once.
+ * Each presentation proof generated from the prepared token then only
+ * performs the per-proof computations.</p>
+ * <p>A prepared token holds the private key and the attribute values; it
+ * should be protected like the {@link UProveKeyAndToken} it was created
+ * from. It may be used by several threads concurrently.</p>
+ * @see PresentationProtocol#prepareToken(IssuerParameters, UProveKeyAndToken, byte[][])
+ */
+public final class PreparedToken {
+
+    private final IssuerParametersInternal ipi;
+    private final UProveKeyAndToken upkt;
+    private final UProveTokenInternal upti;
+    private final byte[] tokenID;
+    private final AttributeSource[] attributes;
+    private final ZqElement[] x;
+    private final ZqElement privateKey;
+
+    /**
+     * Constructs a new prepared token.
+     * @param ip the issuer parameters under which the token was issued.
+     * @param upkt the U-Prove key and token.
+     * @param attributes the sources of all token attributes.
+     * @throws IOException if an argument is malformed, or if an attribute
+     * can't be read.
+     */
+    PreparedToken(final IssuerParameters ip, final UProveKeyAndToken upkt,
+            final AttributeSource[] attributes) throws IOException {
+        if (upkt == null) {
+            throw new NullPointerException("upkt must not be null");
+        }
+        this.ipi = IssuerParametersInternal.generate(ip);
+        if (attributes.length != ipi.getEncodingBytes().length) {
+            throw new IllegalArgumentException(
+                "attributes must hold " + ipi.getEncodingBytes().length
+                + " values");
+        }
+        this.upkt = upkt;
+        this.upti = UProveTokenInternal.generate(ipi, upkt.getToken());
+        this.tokenID = ProtocolHelper.computeTokenID(ipi, upti);
+        this.attributes = (AttributeSource[]) attributes.clone();
+        this.x = ProtocolHelper.computeXArray(ipi,
+            ProtocolHelper.getAllIndices(attributes.length), attributes,
+            upti.getTokenInformation());
+        this.privateKey = ipi.getGroup().getZq().getPositiveElement(
+            upkt.getTokenPrivateKey());
+    }
+
+    /**
+     * Returns the U-Prove key and token this object was prepared from.
+     * @return the U-Prove key and token.
+     */
+    public UProveKeyAndToken getKeyAndToken() {
+        return upkt;
+    }
+
+    /**
+     * Returns the token identifier <code>UIDt</code>.
+     * @return the token identifier.
+     */
+    public byte[] getTokenID() {
+        return (byte[]) tokenID.clone();
+    }
+
+    /**
+     * Returns the internal issuer parameters.
+     * @return the issuer parameters.
+     */
+    IssuerParametersInternal getIssuerParametersInternal() {
+        return ipi;
+    }
+
+    /**
+     * Returns the decoded token.
+     * @return the decoded token.
+     */
+    UProveTokenInternal getTokenInternal() {
+        return upti;
+    }
+
+    /**
+     * Returns the token identifier without copying it.
+     * @return the token identifier. Must not be modified.
+     */
+    byte[] getTokenIDInternal() {
+        return tokenID;
+    }
+
+    /**
+     * Returns the value of an attribute, for disclosure.
+     * @param index the attribute index, one-based.
+     * @return the attribute value. Must not be modified.
+     * @throws IOException if the attribute can't be read.
+     */
+    byte[] getAttribute(final int index) throws IOException {
+        return attributes[index - 1].toByteArray();
+    }
+
+    /**
+     * Returns the x array: <code>x[0] = 1, x[1..n], x[n+1] = x_t</code>.
+     * @return the x array. Neither the array nor its elements may be
+     * modified.
+     */
+    ZqElement[] getX() {
+        return x;
+    }
+
+    /**
+     * Returns the token private key.
+     * @return the token private key. Must not be modified.
+     */
+    ZqElement getPrivateKey() {
+        return privateKey;
+    }
+}
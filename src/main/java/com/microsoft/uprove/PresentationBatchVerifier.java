@@ -0,0 +1,229 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Verifies a batch of presentation proofs, reporting exactly which ones are
+ * invalid.
+ * <p>Proofs are added with the {@link VerificationPolicy} they must
+ * satisfy, and {@link #verify()} checks them all. Work shared by the batch
+ * is only done once: each policy carries its prepared issuer parameters and
+ * generators, and the signature of a token presented in several proofs of
+ * the batch is verified once. The remaining per-proof checks are spread
+ * over an executor.</p>
+ * <p>A presentation proof commits to its first message through a hash, so
+ * proofs can't be merged into a single randomized equation; every proof is
+ * checked individually, which also identifies the invalid ones without a
+ * second pass.</p>
+ */
+public final class PresentationBatchVerifier {
+
+    /**
+     * A proof to verify.
+     */
+    private static final class Item {
+        final VerificationPolicy policy;
+        final byte[] m;
+        final byte[] md;
+        final UProveToken upt;
+        final PresentationProof pp;
+        int signature;
+
+        Item(final VerificationPolicy policy, final byte[] m, final byte[] md,
+                final UProveToken upt, final PresentationProof pp) {
+            this.policy = policy;
+            this.m = m;
+            this.md = md;
+            this.upt = upt;
+            this.pp = pp;
+        }
+    }
+
+    /**
+     * A token signature to verify, identified by the token and the issuer
+     * parameters.
+     */
+    private static final class Signature {
+        final IssuerParametersInternal ipi;
+        final UProveToken upt;
+
+        Signature(final IssuerParametersInternal ipi, final UProveToken upt) {
+            this.ipi = ipi;
+            this.upt = upt;
+        }
+
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Signature)) {
+                return false;
+            }
+            final Signature s = (Signature) obj;
+            return ipi == s.ipi && upt.equals(s.upt);
+        }
+
+        public int hashCode() {
+            return 31 * System.identityHashCode(ipi) + upt.hashCode();
+        }
+    }
+
+    private final List<Item> items = new ArrayList<Item>();
+    private Exception[] failures;
+    private Executor executor; // = null;
+
+    /**
+     * Constructs an empty batch.
+     */
+    public PresentationBatchVerifier() {
+        super();
+    }
+
+    /**
+     * Adds a proof to the batch.
+     * @param policy the policy the proof must satisfy.
+     * @param m the protocol message.
+     * @param md the protocol message for the Device.
+     * @param upt the U-Prove token.
+     * @param pp the presentation proof.
+     * @return the index of the proof in the batch.
+     */
+    public int add(final VerificationPolicy policy, final byte[] m,
+            final byte[] md, final UProveToken upt,
+            final PresentationProof pp) {
+        if (policy == null || upt == null || pp == null) {
+            throw new NullPointerException();
+        }
+        items.add(new Item(policy, m, md, upt, pp));
+        failures = null;
+        return items.size() - 1;
+    }
+
+    /**
+     * Returns the number of proofs in the batch.
+     * @return the batch size.
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Gets the executor running the verifications.
+     * @return the executor, or <code>null</code> if the SDK-wide executor is
+     * used.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor running the verifications.
+     * @param executor the executor, or <code>null</code> to use the SDK-wide
+     * executor.
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Verifies the proofs of the batch.
+     * @return the indices of the invalid proofs, in increasing order; an
+     * empty array if all proofs are valid.
+     * @throws IOException if a verification was interrupted.
+     */
+    public int[] verify() throws IOException {
+        final int n = items.size();
+
+        // the distinct token signatures
+        final HashMap<Signature, Integer> indices =
+            new HashMap<Signature, Integer>();
+        final List<Signature> signatures = new ArrayList<Signature>();
+        for (int i = 0; i < n; i++) {
+            final Item item = items.get(i);
+            final Signature s = new Signature(
+                item.policy.getIssuerParametersInternal(), item.upt);
+            Integer index = indices.get(s);
+            if (index == null) {
+                index = Integer.valueOf(signatures.size());
+                indices.put(s, index);
+                signatures.add(s);
+            }
+            item.signature = index.intValue();
+        }
+
+        final Executor e = Parallel.select(executor);
+        final Exception[] signatureFailures = new Exception[signatures.size()];
+        Parallel.forEach(e, signatures.size(), new Parallel.RangeTask() {
+            public void run(final int from, final int to) {
+                for (int i = from; i < to; i++) {
+                    final Signature s = signatures.get(i);
+                    signatureFailures[i] = TokenBatchVerifier.check(s.ipi, s.upt);
+                }
+            }
+        });
+
+        final Exception[] result = new Exception[n];
+        Parallel.forEach(e, n, new Parallel.RangeTask() {
+            public void run(final int from, final int to) {
+                for (int i = from; i < to; i++) {
+                    final Item item = items.get(i);
+                    result[i] = signatureFailures[item.signature];
+                    if (result[i] != null) {
+                        continue;
+                    }
+                    try {
+                        PresentationProtocol.verifyProof(item.policy,
+                            HashInput.wrap(item.m), item.md, item.upt,
+                            item.pp, true);
+                    } catch (InvalidProofException ipe) {
+                        result[i] = ipe;
+                    } catch (IOException ioe) {
+                        result[i] = ioe;
+                    } catch (RuntimeException re) {
+                        result[i] = re;
+                    }
+                }
+            }
+        });
+        failures = result;
+
+        int count = 0;
+        final int[] failed = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (result[i] != null) {
+                failed[count++] = i;
+            }
+        }
+        return Arrays.copyOf(failed, count);
+    }
+
+    /**
+     * Returns the reason a proof was found invalid by the last
+     * verification.
+     * @param index the index of the proof.
+     * @return an {@link InvalidProofException} for an invalid proof, another
+     * exception for a malformed one, or <code>null</code> if the proof is
+     * valid.
+     * @throws IllegalStateException if the batch wasn't verified since the
+     * last proof was added.
+     */
+    public Exception getFailure(final int index) {
+        if (failures == null) {
+            throw new IllegalStateException("batch not verified");
+        }
+        return failures[index];
+    }
+}
@@ -0,0 +1,120 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.util.Arrays;
+
+import com.microsoft.uprove.FieldZq.ZqElement;
+
+/**
+ * The precomputed, message-independent part of a presentation proof for a
+ * prepared token and a set of disclosed attributes.
+ * <p>A coupon holds the randomizers <code>w</code> of a proof and the hash
+ * <code>a</code> of their commitment, which is the costly part of the proof
+ * generation. Coupons are generated ahead of time with
+ * {@link PresentationProtocol#generateCoupons(PreparedToken, int[], int)}
+ * and turned into a proof by
+ * {@link PresentationProtocol#generatePresentationProof(PresentationCoupon, byte[], byte[])},
+ * which only hashes the message and computes the responses.</p>
+ * <p>A coupon can be used only once: two proofs generated from the same
+ * randomizers reveal the token private key and the undisclosed attributes.
+ * It is erased when used, and should be erased with {@link #erase()} when
+ * it is discarded unused. Coupons are kept in memory only; they should be
+ * protected like the prepared token they were generated from.</p>
+ */
+public final class PresentationCoupon {
+
+    private final PreparedToken token;
+    private final int[] disclosed;
+    private final int[] undisclosed;
+    private final byte[] a;
+    private ZqElement[] w;
+
+    /**
+     * Constructs a new coupon.
+     * @param token the prepared token.
+     * @param disclosed the disclosed attribute indices.
+     * @param undisclosed the undisclosed attribute indices.
+     * @param w the randomizers.
+     * @param a the initial proof message.
+     */
+    PresentationCoupon(final PreparedToken token, final int[] disclosed,
+            final int[] undisclosed, final ZqElement[] w, final byte[] a) {
+        this.token = token;
+        this.disclosed = disclosed;
+        this.undisclosed = undisclosed;
+        this.w = w;
+        this.a = a;
+    }
+
+    /**
+     * Returns the prepared token the coupon was generated for.
+     * @return the prepared token.
+     */
+    public PreparedToken getPreparedToken() {
+        return token;
+    }
+
+    /**
+     * Returns the disclosed attribute indices the coupon was generated for.
+     * @return the disclosed attribute indices.
+     */
+    public int[] getDisclosed() {
+        return (int[]) disclosed.clone();
+    }
+
+    /**
+     * Indicates whether the coupon was used or erased.
+     * @return <code>true</code> if the coupon can't be used anymore.
+     */
+    public synchronized boolean isUsed() {
+        return w == null;
+    }
+
+    /**
+     * Erases the coupon, which can't be used afterwards. Does nothing if the
+     * coupon was already used or erased.
+     */
+    public synchronized void erase() {
+        if (w != null) {
+            Arrays.fill(w, null);
+            w = null;
+        }
+    }
+
+    /**
+     * Takes the randomizers out of the coupon, marking it as used.
+     * @return the randomizers.
+     * @throws IllegalStateException if the coupon was already used or
+     * erased.
+     */
+    synchronized ZqElement[] consume() {
+        if (w == null) {
+            throw new IllegalStateException("coupon already used or erased");
+        }
+        final ZqElement[] randomizers = w;
+        w = null;
+        return randomizers;
+    }
+
+    int[] disclosed() {
+        return disclosed;
+    }
+
+    int[] undisclosed() {
+        return undisclosed;
+    }
+
+    byte[] getA() {
+        return a;
+    }
+}
@@ -12,6 +12,9 @@
 package com.microsoft.uprove;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Arrays;
 import com.microsoft.uprove.FieldZq.ZqElement;
 import com.microsoft.uprove.ProtocolHelper.GenerateChallengeOutput;
@@ -56,13 +59,154 @@ public class PresentationProtocol {
      * @throws IOException if an argument is malformed.
      */
 	public static PresentationProof generatePresentationProof(IssuerParameters ip, int[] disclosed, byte[] m, byte[] md, UProveKeyAndToken upkt, byte[][] attributes, byte[][] preGenW) throws IOException {
+		return generateProof(ip, disclosed, HashInput.wrap(m), md, upkt, AttributeSource.fromBytes(attributes), preGenW);
+	}
+
+    /**
+     * Generates a presentation proof from attribute sources. Undisclosed
+     * hashed attributes are digested directly from their source; disclosed
+     * attributes are read into memory, since they are part of the proof.
+     * @param ip the issuer parameters under which the U-Prove token was issued.
+     * @param disclosed the ordered list of disclosed token attribute indices.
+     * @param m the protocol message.
+     * @param md the protocol message for Device.
+     * @param upkt the U-Prove key and token to use.
+     * @param attributes the sources of all token attributes.
+     * @return a presentation proof.
+     * @throws IOException if an argument is malformed, or if an attribute
+     * can't be read.
+     */
+	public static PresentationProof generatePresentationProof(IssuerParameters ip, int[] disclosed, byte[] m, byte[] md, UProveKeyAndToken upkt, AttributeSource[] attributes) throws IOException {
+		return generateProof(ip, disclosed, HashInput.wrap(m), md, upkt, attributes, null);
+	}
+
+    /**
+     * Generates a presentation proof for a message read from a stream. The
+     * message is hashed as it is read, so it is never buffered in memory.
+     * @param ip the issuer parameters under which the U-Prove token was issued.
+     * @param disclosed the ordered list of disclosed token attribute indices.
+     * @param m the stream holding the protocol message; it is read but not closed.
+     * @param mLength the length of the protocol message, in bytes.
+     * @param md the protocol message for Device.
+     * @param upkt the U-Prove key and token to use.
+     * @param attributes the list of all token attributes.
+     * @return a presentation proof.
+     * @throws IOException if an argument is malformed, or if the message can't
+     * be read or is shorter than <code>mLength</code>.
+     */
+	public static PresentationProof generatePresentationProof(IssuerParameters ip, int[] disclosed, InputStream m, long mLength, byte[] md, UProveKeyAndToken upkt, byte[][] attributes) throws IOException {
+		return generateProof(ip, disclosed, HashInput.wrap(m, mLength), md, upkt, AttributeSource.fromBytes(attributes), null);
+	}
+
+    /**
+     * Generates a presentation proof for a message read from a file channel,
+     * from its current position to its end. The message is hashed as it is
+     * read, so it is never buffered in memory.
+     * @param ip the issuer parameters under which the U-Prove token was issued.
+     * @param disclosed the ordered list of disclosed token attribute indices.
+     * @param m the channel holding the protocol message; it must be a
+     * {@link java.nio.channels.FileChannel}, and is read but not closed.
+     * @param md the protocol message for Device.
+     * @param upkt the U-Prove key and token to use.
+     * @param attributes the list of all token attributes.
+     * @return a presentation proof.
+     * @throws IOException if an argument is malformed, or if the message can't
+     * be read.
+     */
+	public static PresentationProof generatePresentationProof(IssuerParameters ip, int[] disclosed, ReadableByteChannel m, byte[] md, UProveKeyAndToken upkt, byte[][] attributes) throws IOException {
+		return generateProof(ip, disclosed, HashInput.wrap(m), md, upkt, AttributeSource.fromBytes(attributes), null);
+	}
+
+    /**
+     * Generates a presentation proof for a message held in a buffer, such as
+     * a memory-mapped file. The remaining bytes of the buffer form the
+     * message; the buffer's position is not modified.
+     * @param ip the issuer parameters under which the U-Prove token was issued.
+     * @param disclosed the ordered list of disclosed token attribute indices.
+     * @param m the protocol message.
+     * @param md the protocol message for Device.
+     * @param upkt the U-Prove key and token to use.
+     * @param attributes the list of all token attributes.
+     * @return a presentation proof.
+     * @throws IOException if an argument is malformed.
+     */
+	public static PresentationProof generatePresentationProof(IssuerParameters ip, int[] disclosed, ByteBuffer m, byte[] md, UProveKeyAndToken upkt, byte[][] attributes) throws IOException {
+		return generateProof(ip, disclosed, HashInput.wrap(m), md, upkt, AttributeSource.fromBytes(attributes), null);
+	}
+
+	private static PresentationProof generateProof(IssuerParameters ip, int[] disclosed, HashInput m, byte[] md, UProveKeyAndToken upkt, AttributeSource[] attributes, byte[][] preGenW) throws IOException {
+		// the disclosed attributes are part of the proof, so read them
+		// first; a stream-backed source can only be read once
+		AttributeSource[] sources = (AttributeSource[]) attributes.clone();
+		for (int i=0; i<disclosed.length; i++) {
+			sources[disclosed[i]-1] = AttributeSource.fromBytes(sources[disclosed[i]-1].toByteArray()); // attributes array is zero-based
+		}
+		return generateProof(new PreparedToken(ip, upkt, sources), disclosed, m, md, preGenW);
+	}
+
+    /**
+     * Prepares a U-Prove key and token for repeated presentations.
+     * @param ip the issuer parameters under which the U-Prove token was issued.
+     * @param upkt the U-Prove key and token.
+     * @param attributes the list of all token attributes.
+     * @return a prepared token.
+     * @throws IOException if an argument is malformed.
+     */
+	public static PreparedToken prepareToken(IssuerParameters ip, UProveKeyAndToken upkt, byte[][] attributes) throws IOException {
+		return new PreparedToken(ip, upkt, AttributeSource.fromBytes(attributes));
+	}
+
+    /**
+     * Prepares a U-Prove key and token for repeated presentations, from
+     * attribute sources. The attributes are hashed once, when the token is
+     * prepared; disclosed attributes are read again for each proof, so
+     * stream-backed sources are only suitable for attributes that are never
+     * disclosed.
+     * @param ip the issuer parameters under which the U-Prove token was issued.
+     * @param upkt the U-Prove key and token.
+     * @param attributes the sources of all token attributes.
+     * @return a prepared token.
+     * @throws IOException if an argument is malformed, or if an attribute
+     * can't be read.
+     */
+	public static PreparedToken prepareToken(IssuerParameters ip, UProveKeyAndToken upkt, AttributeSource[] attributes) throws IOException {
+		return new PreparedToken(ip, upkt, attributes);
+	}
+
+    /**
+     * Generates a presentation proof from a prepared token.
+     * @param pt the prepared U-Prove key and token to use.
+     * @param disclosed the ordered list of disclosed token attribute indices.
+     * @param m the protocol message.
+     * @param md the protocol message for Device.
+     * @return a presentation proof.
+     * @throws IOException if an argument is malformed.
+     */
+	public static PresentationProof generatePresentationProof(PreparedToken pt, int[] disclosed, byte[] m, byte[] md) throws IOException {
+		return generateProof(pt, disclosed, HashInput.wrap(m), md, null);
+	}
+
+    /**
+     * Generates a presentation proof from a prepared token.
+     * @param pt the prepared U-Prove key and token to use.
+     * @param disclosed the ordered list of disclosed token attribute indices.
+     * @param m the protocol message.
+     * @param md the protocol message for Device.
+	 * @param preGenW a list of pre-generated <code>w</code> values.
+     * @return a presentation proof.
+     * @throws IOException if an argument is malformed.
+     */
+	public static PresentationProof generatePresentationProof(PreparedToken pt, int[] disclosed, byte[] m, byte[] md, byte[][] preGenW) throws IOException {
+		return generateProof(pt, disclosed, HashInput.wrap(m), md, preGenW);
+	}
+
+	private static PresentationProof generateProof(PreparedToken pt, int[] disclosed, HashInput m, byte[] md, byte[][] preGenW) throws IOException {
 		
-			IssuerParametersInternal ipi = IssuerParametersInternal.generate(ip);  
-			UProveTokenInternal upti = UProveTokenInternal.generate(ipi, upkt.getToken());
+			IssuerParametersInternal ipi = pt.getIssuerParametersInternal();
+			UProveTokenInternal upti = pt.getTokenInternal();
 			
 			PrimeOrderGroup Gq = ipi.getGroup();
 			FieldZq Zq = Gq.getZq();
-			ZqElement[] x = ProtocolHelper.computeXArray(ipi, attributes, upti.getTokenInformation());
 			int n = ipi.getEncodingBytes().length;
 			int nUndisclosed = n - disclosed.length;
 			int numRandomizer = nUndisclosed + 1 + (upti.isDeviceProtected() ? 1 : 0);
@@ -78,11 +222,28 @@ public class PresentationProtocol {
 				w = ProtocolHelper.getZqElementArray(Zq, preGenW);
 			}
 
-			GroupElement[] bases = new GroupElement[numRandomizer];
+			return generateResponses(pt, disclosed, undisclosed, m, md, w, generateCommitment(pt, undisclosed, w));
+		}
+
+	/**
+	 * Computes the initial proof message <code>a</code>, the hash of
+	 * <code>h^w_0 * g_u_1^w_u_1 * ... * g_u_l^w_u_l [* g_d^w_d * a_d]</code>.
+	 * @param pt the prepared token.
+	 * @param undisclosed the undisclosed attribute indices.
+	 * @param w the randomizers.
+	 * @return the initial proof message.
+	 * @throws IOException if the Device witness is malformed.
+	 */
+	private static byte[] generateCommitment(PreparedToken pt, int[] undisclosed, ZqElement[] w) throws IOException {
+			IssuerParametersInternal ipi = pt.getIssuerParametersInternal();
+			UProveTokenInternal upti = pt.getTokenInternal();
+			PrimeOrderGroup Gq = ipi.getGroup();
+			
+			GroupElement[] bases = new GroupElement[w.length];
 			bases[0] = upti.getPublicKey();
 			int bIndex = 1;
 			GroupElement[] g = ipi.getPublicKey();
-			for (int i=0; i<nUndisclosed; i++) {
+			for (int i=0; i<undisclosed.length; i++) {
 				bases[bIndex++] = g[undisclosed[i]];
 			}
 			if (upti.isDeviceProtected()) {
@@ -95,18 +256,40 @@ public class PresentationProtocol {
 			
 			HashFunction H = ipi.getHashFunction();
 			H.update(temp);
-			byte[] a = H.getByteDigest();
+			return H.getByteDigest();
+		}
+
+	/**
+	 * Computes the challenge and the responses of a proof, given its
+	 * randomizers and initial proof message.
+	 * @param pt the prepared token.
+	 * @param disclosed the disclosed attribute indices.
+	 * @param undisclosed the undisclosed attribute indices.
+	 * @param m the protocol message.
+	 * @param md the protocol message for Device.
+	 * @param w the randomizers.
+	 * @param a the initial proof message.
+	 * @return a presentation proof.
+	 * @throws IOException if an argument is malformed.
+	 */
+	private static PresentationProof generateResponses(PreparedToken pt, int[] disclosed, int[] undisclosed, HashInput m, byte[] md, ZqElement[] w, byte[] a) throws IOException {
+			IssuerParametersInternal ipi = pt.getIssuerParametersInternal();
+			UProveTokenInternal upti = pt.getTokenInternal();
+			FieldZq Zq = ipi.getGroup().getZq();
+			ZqElement[] x = pt.getX();
+			int nUndisclosed = undisclosed.length;
+			int numRandomizer = w.length;
 			
 			byte[][] disclosedAttributes = new byte[disclosed.length][];
 			ZqElement[] disclosedX = new ZqElement[disclosed.length];
 			for (int i=0; i<disclosed.length; i++) {
-				disclosedAttributes[i] = attributes[disclosed[i]-1]; // attributes array is zero-based
+				disclosedAttributes[i] = pt.getAttribute(disclosed[i]);
 				disclosedX[i] = x[disclosed[i]];
 			}
 			
-			GenerateChallengeOutput gco = ProtocolHelper.genChallenge(ipi, upti, a, m, md, disclosed, disclosedX);
+			GenerateChallengeOutput gco = ProtocolHelper.genChallenge(ipi, pt.getTokenIDInternal(), upti.isDeviceProtected(), a, m, md, disclosed, disclosedX);
 			ZqElement c = gco.getC();
-			ZqElement r0 = c.multiply(Zq.getPositiveElement(upkt.getTokenPrivateKey())).add(w[0]);
+			ZqElement r0 = c.multiply(pt.getPrivateKey()).add(w[0]);
 			ZqElement[] r = new ZqElement[nUndisclosed];
 			for (int i=0; i<nUndisclosed; i++) {
 				r[i] = c.negate().multiply(x[undisclosed[i]]).add(w[i+1]);
@@ -119,6 +302,99 @@ public class PresentationProtocol {
 			return new PresentationProof(disclosedAttributes, a, r0.toByteArray(), ProtocolHelper.getEncodedArray(r), upti.isDeviceProtected() ? rd.toByteArray() : null);
 		}
 
+    /**
+     * Generates presentation coupons for a prepared token, to be turned into
+     * presentation proofs disclosing the given attributes once the message
+     * is known. The randomizers and their commitment are computed on the
+     * SDK-wide executor (see {@link Config#setParallelThreads(int)}).
+     * @param pt the prepared U-Prove key and token to use.
+     * @param disclosed the ordered list of disclosed token attribute indices.
+     * @param count the number of coupons to generate.
+     * @return the coupons.
+     * @throws IOException if an argument is malformed.
+     * @throws IllegalArgumentException if the token is Device-protected,
+     * since the Device generates its own witness for each proof.
+     */
+	public static PresentationCoupon[] generateCoupons(final PreparedToken pt, int[] disclosed, int count) throws IOException {
+		if (pt.getTokenInternal().isDeviceProtected()) {
+			throw new IllegalArgumentException("coupons can't be generated for Device-protected tokens");
+		}
+		if (count < 0) {
+			throw new IllegalArgumentException("count must be >= 0");
+		}
+		final IssuerParametersInternal ipi = pt.getIssuerParametersInternal();
+		final int[] d = (int[]) disclosed.clone();
+		final int[] undisclosed = ProtocolHelper.getUndisclosedIndices(ipi.getEncodingBytes().length, d);
+		final PresentationCoupon[] coupons = new PresentationCoupon[count];
+		Parallel.forEach(Parallel.select(null), count, new Parallel.RangeTask() {
+			public void run(final int from, final int to) throws IOException {
+				FieldZq Zq = ipi.getGroup().getZq();
+				for (int i=from; i<to; i++) {
+					ZqElement[] w = Zq.getRandomElements(undisclosed.length + 1, false);
+					coupons[i] = new PresentationCoupon(pt, d, undisclosed, w, generateCommitment(pt, undisclosed, w));
+				}
+			}
+		});
+		return coupons;
+	}
+
+    /**
+     * Generates a presentation proof from a coupon, which is used up.
+     * @param coupon an unused presentation coupon.
+     * @param m the protocol message.
+     * @param md the protocol message for Device.
+     * @return a presentation proof disclosing the attributes the coupon was
+     * generated for.
+     * @throws IOException if an argument is malformed.
+     * @throws IllegalStateException if the coupon was already used or
+     * erased.
+     */
+	public static PresentationProof generatePresentationProof(PresentationCoupon coupon, byte[] m, byte[] md) throws IOException {
+		ZqElement[] w = coupon.consume();
+		try {
+			return generateResponses(coupon.getPreparedToken(), coupon.disclosed(), coupon.undisclosed(), HashInput.wrap(m), md, w, coupon.getA());
+		} finally {
+			Arrays.fill(w, null);
+		}
+	}
+
+    /**
+     * Generates the presentation proofs of several tokens on the same
+     * message, for instance when a relying party asks for tokens from
+     * several issuers at once. The proofs are generated on the SDK-wide
+     * executor (see {@link Config#setParallelThreads(int)}); the proofs of
+     * Device-protected tokens are generated one at a time in the calling
+     * thread, since the registered Device answers one proof at a time.
+     * @param tokens the prepared U-Prove keys and tokens to use.
+     * @param disclosed the ordered lists of disclosed attribute indices, one
+     * per token.
+     * @param m the protocol message.
+     * @param md the protocol message for Device.
+     * @return the presentation proofs, in the order of the tokens.
+     * @throws IOException if an argument is malformed.
+     */
+	public static PresentationProof[] generatePresentationProofs(final PreparedToken[] tokens, final int[][] disclosed, final byte[] m, final byte[] md) throws IOException {
+		if (tokens.length != disclosed.length) {
+			throw new IllegalArgumentException("tokens and disclosed must have the same length");
+		}
+		final PresentationProof[] proofs = new PresentationProof[tokens.length];
+		Parallel.forEach(Parallel.select(null), tokens.length, new Parallel.RangeTask() {
+			public void run(final int from, final int to) throws IOException {
+				for (int i=from; i<to; i++) {
+					if (!tokens[i].getTokenInternal().isDeviceProtected()) {
+						proofs[i] = generateProof(tokens[i], disclosed[i], HashInput.wrap(m), md, null);
+					}
+				}
+			}
+		});
+		for (int i=0; i<tokens.length; i++) {
+			if (tokens[i].getTokenInternal().isDeviceProtected()) {
+				proofs[i] = generateProof(tokens[i], disclosed[i], HashInput.wrap(m), md, null);
+			}
+		}
+		return proofs;
+	}
+
 	/**
 	 * Verifies a presentation proof.
 	 * @param ip the issuer parameters under which the U-Prove token was issued.
@@ -130,64 +406,250 @@ public class PresentationProtocol {
 	 * @throws IOException if an argument is malformed.
 	 */
 	public static void verifyPresentationProof(IssuerParameters ip, int[] disclosed, byte[] m, byte[] md, UProveToken upt, PresentationProof pp) throws InvalidProofException, IOException {
+		verifyProof(ip, disclosed, HashInput.wrap(m), md, upt, pp);
+	}
+
+	/**
+	 * Verifies a presentation proof on a message read from a stream. The
+	 * message is hashed as it is read, so it is never buffered in memory.
+	 * @param ip the issuer parameters under which the U-Prove token was issued.
+     * @param disclosed the ordered list of disclosed token attribute indices.
+     * @param m the stream holding the protocol message; it is read but not closed.
+     * @param mLength the length of the protocol message, in bytes.
+     * @param md the protocol message for Device.
+	 * @param upt the U-Prove token.
+	 * @param pp the presentation proof.
+	 * @throws InvalidProofException if the proof is invalid.
+	 * @throws IOException if an argument is malformed, or if the message can't
+	 * be read or is shorter than <code>mLength</code>.
+	 */
+	public static void verifyPresentationProof(IssuerParameters ip, int[] disclosed, InputStream m, long mLength, byte[] md, UProveToken upt, PresentationProof pp) throws InvalidProofException, IOException {
+		verifyProof(ip, disclosed, HashInput.wrap(m, mLength), md, upt, pp);
+	}
+
+	/**
+	 * Verifies a presentation proof on a message read from a file channel,
+	 * from its current position to its end. The message is hashed as it is
+	 * read, so it is never buffered in memory.
+	 * @param ip the issuer parameters under which the U-Prove token was issued.
+     * @param disclosed the ordered list of disclosed token attribute indices.
+     * @param m the channel holding the protocol message; it must be a
+     * {@link java.nio.channels.FileChannel}, and is read but not closed.
+     * @param md the protocol message for Device.
+	 * @param upt the U-Prove token.
+	 * @param pp the presentation proof.
+	 * @throws InvalidProofException if the proof is invalid.
+	 * @throws IOException if an argument is malformed, or if the message can't
+	 * be read.
+	 */
+	public static void verifyPresentationProof(IssuerParameters ip, int[] disclosed, ReadableByteChannel m, byte[] md, UProveToken upt, PresentationProof pp) throws InvalidProofException, IOException {
+		verifyProof(ip, disclosed, HashInput.wrap(m), md, upt, pp);
+	}
+
+	/**
+	 * Verifies a presentation proof on a message held in a buffer, such as a
+	 * memory-mapped file. The remaining bytes of the buffer form the message;
+	 * the buffer's position is not modified.
+	 * @param ip the issuer parameters under which the U-Prove token was issued.
+     * @param disclosed the ordered list of disclosed token attribute indices.
+     * @param m the protocol message.
+     * @param md the protocol message for Device.
+	 * @param upt the U-Prove token.
+	 * @param pp the presentation proof.
+	 * @throws InvalidProofException if the proof is invalid.
+	 * @throws IOException if an argument is malformed.
+	 */
+	public static void verifyPresentationProof(IssuerParameters ip, int[] disclosed, ByteBuffer m, byte[] md, UProveToken upt, PresentationProof pp) throws InvalidProofException, IOException {
+		verifyProof(ip, disclosed, HashInput.wrap(m), md, upt, pp);
+	}
+
+	/**
+	 * Verifies a presentation proof against a policy prepared by
+	 * {@link VerificationPolicy}.
+	 * @param policy the verification policy.
+	 * @param m the protocol message.
+	 * @param md the protocol message for Device.
+	 * @param upt the U-Prove token.
+	 * @param pp the presentation proof.
+	 * @throws InvalidProofException if the proof is invalid.
+	 * @throws IOException if an argument is malformed.
+	 */
+	public static void verifyPresentationProof(VerificationPolicy policy, byte[] m, byte[] md, UProveToken upt, PresentationProof pp) throws InvalidProofException, IOException {
+		verifyProof(policy, HashInput.wrap(m), md, upt, pp);
+	}
+
+	/**
+	 * Verifies the presentation proofs of several tokens on the same
+	 * message. The issuer parameters are prepared once per distinct
+	 * parameters and disclosed attributes; see
+	 * {@link #verifyPresentationProofs(VerificationPolicy[], byte[], byte[], UProveToken[], PresentationProof[])}.
+	 * @param ip the issuer parameters under which each token was issued.
+	 * @param disclosed the ordered lists of disclosed attribute indices, one
+	 * per token.
+	 * @param m the protocol message.
+	 * @param md the protocol message for Device.
+	 * @param upt the U-Prove tokens.
+	 * @param pp the presentation proofs, in the order of the tokens.
+	 * @throws InvalidProofException if a proof is invalid.
+	 * @throws IOException if an argument is malformed.
+	 */
+	public static void verifyPresentationProofs(IssuerParameters[] ip, int[][] disclosed, byte[] m, byte[] md, UProveToken[] upt, PresentationProof[] pp) throws InvalidProofException, IOException {
+		if (ip.length != disclosed.length) {
+			throw new IllegalArgumentException("ip and disclosed must have the same length");
+		}
+		verifyPresentationProofs(getVerificationPolicies(ip, disclosed), m, md, upt, pp);
+	}
+
+	/**
+	 * Returns the verification policies of several tokens, sharing one
+	 * policy among the tokens with equal issuer parameters and disclosed
+	 * attributes.
+	 * @param ip the issuer parameters under which each token was issued.
+	 * @param disclosed the ordered lists of disclosed attribute indices, one
+	 * per token.
+	 * @return the verification policies, one per token.
+	 * @throws IOException if an argument is malformed.
+	 */
+	static VerificationPolicy[] getVerificationPolicies(IssuerParameters[] ip, int[][] disclosed) throws IOException {
+		VerificationPolicy[] policies = new VerificationPolicy[ip.length];
+		for (int i=0; i<ip.length; i++) {
+			for (int j=0; j<i && policies[i] == null; j++) {
+				if (ip[j].equals(ip[i]) && Arrays.equals(disclosed[j], disclosed[i])) {
+					policies[i] = policies[j];
+				}
+			}
+			if (policies[i] == null) {
+				policies[i] = new VerificationPolicy(ip[i], disclosed[i]);
+			}
+		}
+		return policies;
+	}
+
+	/**
+	 * Verifies the presentation proofs of several tokens on the same
+	 * message. The proofs are verified together by a
+	 * {@link PresentationBatchVerifier} on the SDK-wide executor (see
+	 * {@link Config#setParallelThreads(int)}), the signature of a token
+	 * presented more than once being verified once.
+	 * @param policies the policy each proof must satisfy.
+	 * @param m the protocol message.
+	 * @param md the protocol message for Device.
+	 * @param upt the U-Prove tokens.
+	 * @param pp the presentation proofs, in the order of the tokens.
+	 * @throws InvalidProofException if a proof is invalid; the message
+	 * gives the index of the first invalid proof.
+	 * @throws IOException if an argument is malformed.
+	 */
+	public static void verifyPresentationProofs(VerificationPolicy[] policies, byte[] m, byte[] md, UProveToken[] upt, PresentationProof[] pp) throws InvalidProofException, IOException {
+		if (policies.length != upt.length || policies.length != pp.length) {
+			throw new IllegalArgumentException("policies, upt and pp must have the same length");
+		}
+		PresentationBatchVerifier batch = new PresentationBatchVerifier();
+		for (int i=0; i<policies.length; i++) {
+			batch.add(policies[i], m, md, upt[i], pp[i]);
+		}
+		int[] failed = batch.verify();
+		if (failed.length == 0) {
+			return;
+		}
+		Exception failure = batch.getFailure(failed[0]);
+		if (failure instanceof InvalidProofException) {
+			throw new InvalidProofException("proof " + failed[0] + ": " + failure.getMessage());
+		}
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		IOException ioe = new IOException("proof " + failed[0] + " can't be verified");
+		ioe.initCause(failure);
+		throw ioe;
+	}
+
+	private static void verifyProof(IssuerParameters ip, int[] disclosed, HashInput m, byte[] md, UProveToken upt, PresentationProof pp) throws InvalidProofException, IOException {
+		verifyProof(new VerificationPolicy(ip, IssuerParametersInternal.generate(ip), disclosed), m, md, upt, pp);
+	}
+
+	static void verifyProof(VerificationPolicy policy, HashInput m, byte[] md, UProveToken upt, PresentationProof pp) throws InvalidProofException, IOException {
+		verifyProof(policy, m, md, upt, pp, false);
+	}
+
+	/**
+	 * Verifies a presentation proof against a policy.
+	 * @param tokenVerified <code>true</code> if the token signature was
+	 * already verified under the policy's issuer parameters.
+	 */
+	static void verifyProof(VerificationPolicy policy, HashInput m, byte[] md, UProveToken upt, PresentationProof pp, boolean tokenVerified) throws InvalidProofException, IOException {
 		
-		IssuerParametersInternal ipi = IssuerParametersInternal.generate(ip);
+		IssuerParametersInternal ipi = policy.getIssuerParametersInternal();
+		int[] disclosed = policy.disclosed();
 		UProveTokenInternal upti = UProveTokenInternal.generate(ipi, upt);
 		
 		// arg validation
 		if (disclosed.length != pp.getDisclosedAttributes().length) {
 			throw new InvalidProofException("Mismatch in number of disclosed attributes");
 		}
+		if (policy.getUndisclosedBases().length != pp.getR().length) {
+			throw new InvalidProofException("Mismatch in number of undisclosed attributes");
+		}
 		if (!Arrays.equals(upti.getIssuerParametersUID(), ipi.getParametersUID())) {
 			throw new IllegalArgumentException("Issuer parameters UID does not match the one referenced in the token.");
 		}
-		if (!ProtocolHelper.isTokenSignatureValid(ipi, upti)) {
-			throw new InvalidProofException("token signature is invalid.");
+		if (!tokenVerified) {
+			// skip the signature of a token verified recently
+			VerifiedTokenCache.Key key = VerifiedTokenCache.key(ipi, upt);
+			if (!VerifiedTokenCache.isVerified(key)) {
+				if (!ProtocolHelper.isTokenSignatureValid(ipi, upti)) {
+					throw new InvalidProofException("token signature is invalid.");
+				}
+				VerifiedTokenCache.verified(key);
+			}
 		}
 	
 		// [1, x_d_1, ..., x_d_k, x_t]
-		ZqElement[] disclosedX = ProtocolHelper.computeXArray(ipi, disclosed, pp.getDisclosedAttributes(), upti.getTokenInformation());
-		ZqElement c = ProtocolHelper.genChallenge(ipi, upti, pp.getA(), m, md, disclosed, (ZqElement[]) Arrays.copyOfRange(disclosedX, 1, disclosedX.length-1)).getC();
-		
-		GroupElement[] g = ipi.getPublicKey();
-		int tIndex = g.length - (upti.isDeviceProtected() ? 2 : 1);
-		GroupElement[] disclosedG = new GroupElement[disclosed.length + 2];
-		// g_0
-		disclosedG[0] = g[0];
-		// g_t
-		disclosedG[disclosedG.length-1] = g[tIndex];
-		for (int i=0; i<disclosed.length; i++) {
-			disclosedG[i+1] = g[disclosed[i]];
-		}
-		GroupElement temp1 = ProtocolHelper.computeProduct(disclosedG, disclosedX).exponentiate(c.negate());
+		AttributeSource[] disclosedAttributes = AttributeSource.fromBytes(pp.getDisclosedAttributes());
+		AttributeCache.Terms[] terms = ProtocolHelper.getAttributeTerms(ipi, disclosed, disclosedAttributes, upti.getTokenInformation());
+		ZqElement[] disclosedX = ProtocolHelper.computeXArray(ipi, disclosed, disclosedAttributes, upti.getTokenInformation(), terms);
+		ZqElement c = ProtocolHelper.genChallenge(ipi, ProtocolHelper.computeTokenID(ipi, upti), upti.isDeviceProtected(), pp.getA(), m, md, disclosed, (ZqElement[]) Arrays.copyOfRange(disclosedX, 1, disclosedX.length-1), policy.newDisclosedDigest()).getC();
 		
 		PrimeOrderGroup Gq = ipi.getGroup();
 		FieldZq Zq = Gq.getZq();
-		int[] undisclosed = ProtocolHelper.getUndisclosedIndices(ipi.getEncodingBytes().length, disclosed);
-		int basesLength = undisclosed.length + (upti.isDeviceProtected() ? 2 : 1);
+		ZqElement negC = c.negate();
+		GroupElement[] disclosedBases = policy.getDisclosedBases();
+		GroupElement[] undisclosedBases = policy.getUndisclosedBases();
+		ZqElement r[] = ProtocolHelper.getZqElementArray(Zq, pp.getR());
+
+		// (g_0 * g_d_1^x_d_1 * ... * g_d_k^x_d_k * g_t^x_t)^-c * h^r_0 * g_u_1^r_u_1 * ... * g_u_l^r_u_l [* g_d^r_d]
+		// is evaluated as a single product, -c being folded into the
+		// disclosed exponents, unless the disclosed terms are cached
+		boolean cached = terms != null;
+		int disclosedLength = cached ? 0 : disclosedBases.length;
+		int basesLength = disclosedLength + undisclosedBases.length + (upti.isDeviceProtected() ? 2 : 1);
 		GroupElement[] bases = new GroupElement[basesLength];
-		bases[0] = upti.getPublicKey();
-		for (int i=0; i<undisclosed.length; i++) {
-			bases[i+1] = g[undisclosed[i]];
-		}
-		ZqElement[] combinedR = new ZqElement[basesLength];
+		ZqElement[] exponents = new ZqElement[basesLength];
 		int index = 0;
-		combinedR[index++] = Zq.getPositiveElement(pp.getR0());
-		ZqElement r[] = ProtocolHelper.getZqElementArray(Zq, pp.getR());
+		for (int i=0; i<disclosedLength; i++) {
+			bases[index] = disclosedBases[i];
+			exponents[index++] = disclosedX[i].multiply(negC);
+		}
+		bases[index] = upti.getPublicKey();
+		exponents[index++] = Zq.getPositiveElement(pp.getR0());
 		for (int i=0; i<r.length; i++) {
-			combinedR[index++] = r[i];
+			bases[index] = undisclosedBases[i];
+			exponents[index++] = r[i];
 		}
 		if (upti.isDeviceProtected()) {
-			bases[basesLength-1] = ipi.getDeviceGenerator();
-			combinedR[index++] = Zq.getPositiveElement(pp.getRd());		
+			bases[index] = ipi.getDeviceGenerator();
+			exponents[index++] = Zq.getPositiveElement(pp.getRd());
+		}
+		GroupElement hashInput = ProtocolHelper.computeProduct(bases, exponents);
+		if (cached) {
+			// the cached terms g_d_i^x_d_i leave a single exponentiation
+			hashInput.multiplyAssign(ProtocolHelper.computeAttributeProduct(ipi, false, disclosed, upti.getTokenInformation(), disclosedX, disclosedBases, terms).exponentiate(negC));
 		}
-		GroupElement temp2 = ProtocolHelper.computeProduct(bases, combinedR);
 		
 		HashFunction H = ipi.getHashFunction();
-		GroupElement hashInput = temp1.multiply(temp2); 
-		if (upti.isDeviceProtected()) {
-			hashInput.multiply(ipi.getDeviceGenerator().exponentiate(Zq.getPositiveElement(pp.getRd())));
-		}
 		H.update(hashInput);
 		byte[] a = H.getByteDigest();
 		if (!Arrays.equals(pp.getA(), a)) {
@@ -13,6 +13,9 @@ package com.microsoft.uprove;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import com.microsoft.uprove.FieldZq.ZqElement;
 
 /**
@@ -56,6 +59,25 @@ final class ProtocolHelper {
      * @return the xt element.
      */
     static ZqElement computeXt(IssuerParametersInternal ip, byte[] tokenInformation) {
+    	if (AttributeCache.isEnabled()) {
+    		try {
+    			return AttributeCache.getTerms(ip, ip.getEncodingBytes().length + 1, tokenInformation).getX();
+    		} catch (IOException e) {
+    			AssertionError ae = new AssertionError("Impossible exception");
+    			ae.initCause(e);
+    			throw ae;
+    		}
+    	}
+    	return deriveXt(ip, tokenInformation);
+    }
+    
+    /**
+     * Computes the protocol value xt, bypassing the attribute cache.
+     * @param ip the issuer parameters.
+     * @param tokenInformation the token information field value.
+     * @return the xt element.
+     */
+    static ZqElement deriveXt(IssuerParametersInternal ip, byte[] tokenInformation) {
     	HashFunction H = ip.getHashFunction();
     	
     	// 0x01
@@ -79,6 +101,50 @@ final class ProtocolHelper {
      * @throws IOException
      */
     static ZqElement computeXi(IssuerParametersInternal ip, int index, byte[] A) throws IOException {
+    	if (AttributeCache.isEnabled()) {
+    		return AttributeCache.getTerms(ip, index, A).getX();
+    	}
+    	return deriveXi(ip, index, A);
+    }
+
+    /**
+     * Computes the protocol value xi from an attribute source. Hashed
+     * attributes are digested directly from the source; only sources backed
+     * by a byte array are looked up in the attribute cache.
+     * @param ip the issuer parameters.
+     * @param index the attribute index, one-based.
+     * @param A the source of the attribute value A_index.
+     * @return the x_index element.
+     * @throws IOException if the attribute can't be read.
+     */
+    static ZqElement computeXi(IssuerParametersInternal ip, int index, AttributeSource A) throws IOException {
+    	if (A.hasArray()) {
+    		return computeXi(ip, index, A.toByteArray());
+    	}
+    	byte ei = ip.getEncodingBytes()[index-1];
+    	if (ei == (byte)1) {
+    		if (A.length() == 0) {
+    			return ip.getGroup().getZq().getZero();
+    		}
+    		HashFunction H = ip.getHashFunction();
+    		A.addToDigest(H);
+    		return H.getZqDigest();
+    	} else if (ei == (byte)0) {
+    		return ip.getGroup().getZq().getPositiveElement(A.toByteArray());
+    	} else {
+    		throw new IllegalArgumentException("unsupported encoding byte value: " + ei);
+    	}
+    }
+
+    /**
+     * Computes the protocol value xi, bypassing the attribute cache.
+     * @param ip the issuer parameters.
+     * @param index the attribute index, one-based.
+     * @param A the attribute value A_index.
+     * @return the x_index element.
+     * @throws IOException
+     */
+    static ZqElement deriveXi(IssuerParametersInternal ip, int index, byte[] A) throws IOException {
     	byte ei = ip.getEncodingBytes()[index-1];
     	if (ei == (byte)1) {
     		if (A == null || A.length == 0) {
@@ -156,11 +222,7 @@ final class ProtocolHelper {
      */
     static ZqElement[] computeXArray(IssuerParametersInternal ip, byte[][] attributes, byte[] tokenInformation) throws IOException {
         // the attribute indices run from 1 to n
-    	int[] attributeIndices = new int[attributes.length];
-        for (int i=0; i<attributes.length; i++) {
-        	attributeIndices[i] = i+1;
-        }
-    	return computeXArray(ip, attributeIndices, attributes, tokenInformation);
+    	return computeXArray(ip, getAllIndices(attributes.length), attributes, tokenInformation);
     }
 
     /**
@@ -174,6 +236,32 @@ final class ProtocolHelper {
      * @throws IOException
      */
     static ZqElement[] computeXArray(IssuerParametersInternal ip, int[] attributeIndices, byte[][] attributes, byte[] tokenInformation) throws IOException {
+    	return computeXArray(ip, attributeIndices, AttributeSource.fromBytes(attributes), tokenInformation);
+    }
+
+    /**
+     * Computes the x array from an array of attribute sources. The returned array contains:
+     * x[0] = 1, x[1] = a[0], ..., x[n] = a[-1n], x[n+1] = xt
+     * @param ip the issuer parameters
+	 * @param attributeIndices the indices of the attributes
+     * @param attributes the attribute sources
+     * @param tokenInformation the token information field
+     * @return the x array
+     * @throws IOException
+     */
+    static ZqElement[] computeXArray(IssuerParametersInternal ip, int[] attributeIndices, AttributeSource[] attributes, byte[] tokenInformation) throws IOException {
+    	return computeXArray(ip, attributeIndices, attributes, tokenInformation, null);
+    }
+
+    /**
+     * Computes the x array from an array of attribute sources, reading the
+     * x_i from previously looked up attribute cache terms; see
+     * {@link #computeXArray(IssuerParametersInternal, int[], AttributeSource[], byte[])}.
+     * @param terms the terms returned by
+     * {@link #getAttributeTerms(IssuerParametersInternal, int[], AttributeSource[], byte[])},
+     * or <code>null</code> to compute the x_i.
+     */
+    static ZqElement[] computeXArray(IssuerParametersInternal ip, int[] attributeIndices, AttributeSource[] attributes, byte[] tokenInformation, AttributeCache.Terms[] terms) throws IOException {
     	if (attributeIndices.length != attributes.length) {
     		throw new IllegalArgumentException("attributeIndices and attributes array must have the same length");
     	}
@@ -183,13 +271,140 @@ final class ProtocolHelper {
         ZqElement[] x = new ZqElement[n];
         x[0] = ip.getGroup().getZq().getOne();
         for (int index=1; index<n-1; index++) {
-        	x[index] = computeXi(ip, attributeIndices[index-1], attributes[index-1]);
+        	if (terms != null && terms[index-1] != null) {
+        		x[index] = terms[index-1].getX();
+        	} else {
+        		x[index] = computeXi(ip, attributeIndices[index-1], attributes[index-1]);
+        	}
         }
-        x[n-1] = computeXt(ip, tokenInformation);
+        x[n-1] = terms != null ? terms[n-2].getX() : computeXt(ip, tokenInformation);
         
         return x;
     }
 
+    /**
+     * Looks up the attribute cache terms of the given attributes and token
+     * information once, so the x array and the attribute products can share
+     * them.
+     * @param ip the issuer parameters.
+     * @param attributeIndices the indices of the attributes.
+     * @param attributes the attribute sources.
+     * @param tokenInformation the token information field.
+     * @return the terms <code>[T_i1, ..., T_ik, T_t]</code>, with
+     * <code>null</code> for the sources not backed by a byte array; or
+     * <code>null</code> if the attribute cache is disabled.
+     * @throws IOException
+     */
+    static AttributeCache.Terms[] getAttributeTerms(IssuerParametersInternal ip, int[] attributeIndices, AttributeSource[] attributes, byte[] tokenInformation) throws IOException {
+    	if (!AttributeCache.isEnabled()) {
+    		return null;
+    	}
+    	AttributeCache.Terms[] terms = new AttributeCache.Terms[attributes.length + 1];
+    	for (int i=0; i<attributes.length; i++) {
+    		if (attributes[i].hasArray()) {
+    			terms[i] = AttributeCache.getTerms(ip, attributeIndices[i], attributes[i].toByteArray());
+    		}
+    	}
+    	terms[attributes.length] = AttributeCache.getTerms(ip, ip.getEncodingBytes().length + 1, tokenInformation);
+    	return terms;
+    }
+
+    /**
+     * Computes the product <code>b_0 * b_i1^x_i1 * ... * b_ik^x_ik * b_t^x_t</code>
+     * over the given attribute indices, where the bases <code>b</code> are
+     * either the Issuer public key elements or the Prover issuance values.
+     * When the attribute cache is enabled, the exponentiations are looked up
+     * in (or added to) the cache, and the product reduces to multiplications.
+     * @param ip the issuer parameters.
+     * @param issuanceValues <code>true</code> to use the Prover issuance values
+     * as bases, <code>false</code> to use the Issuer public key.
+     * @param attributeIndices the indices of the attributes.
+     * @param attributes the attributes array.
+     * @param tokenInformation the token information field.
+     * @param x the x array of the attributes, as returned by
+     * {@link #computeXArray(IssuerParametersInternal, int[], byte[][], byte[])}.
+     * @return the product.
+     * @throws IOException
+     */
+    static GroupElement computeAttributeProduct(IssuerParametersInternal ip, boolean issuanceValues, int[] attributeIndices, byte[][] attributes, byte[] tokenInformation, ZqElement[] x) throws IOException {
+    	return computeAttributeProduct(ip, issuanceValues, attributeIndices, AttributeSource.fromBytes(attributes), tokenInformation, x);
+    }
+
+    /**
+     * Computes the product <code>b_0 * b_i1^x_i1 * ... * b_ik^x_ik * b_t^x_t</code>
+     * over the given attribute sources; see
+     * {@link #computeAttributeProduct(IssuerParametersInternal, boolean, int[], byte[][], byte[], ZqElement[])}.
+     * Only sources backed by a byte array are looked up in the attribute cache.
+     */
+    static GroupElement computeAttributeProduct(IssuerParametersInternal ip, boolean issuanceValues, int[] attributeIndices, AttributeSource[] attributes, byte[] tokenInformation, ZqElement[] x) throws IOException {
+    	return computeAttributeProduct(ip, issuanceValues, attributeIndices, attributes, tokenInformation, x, null);
+    }
+
+    /**
+     * Computes the product <code>b_0 * b_i1^x_i1 * ... * b_ik^x_ik * b_t^x_t</code>
+     * over the given attribute sources, using prepared bases when the
+     * attribute cache is disabled; see
+     * {@link #computeAttributeProduct(IssuerParametersInternal, boolean, int[], byte[][], byte[], ZqElement[])}.
+     * @param bases the bases <code>[b_0, b_i1, ..., b_ik, b_t]</code>, or
+     * <code>null</code> to look them up.
+     */
+    static GroupElement computeAttributeProduct(IssuerParametersInternal ip, boolean issuanceValues, int[] attributeIndices, AttributeSource[] attributes, byte[] tokenInformation, ZqElement[] x, GroupElement[] bases) throws IOException {
+    	return computeAttributeProduct(ip, issuanceValues, attributeIndices, tokenInformation, x, bases, getAttributeTerms(ip, attributeIndices, attributes, tokenInformation));
+    }
+
+    /**
+     * Computes the product <code>b_0 * b_i1^x_i1 * ... * b_ik^x_ik * b_t^x_t</code>
+     * from previously looked up attribute cache terms; see
+     * {@link #computeAttributeProduct(IssuerParametersInternal, boolean, int[], AttributeSource[], byte[], ZqElement[], GroupElement[])}.
+     * @param terms the terms returned by
+     * {@link #getAttributeTerms(IssuerParametersInternal, int[], AttributeSource[], byte[])},
+     * or <code>null</code> to exponentiate the bases.
+     */
+    static GroupElement computeAttributeProduct(IssuerParametersInternal ip, boolean issuanceValues, int[] attributeIndices, byte[] tokenInformation, ZqElement[] x, GroupElement[] bases, AttributeCache.Terms[] terms) {
+    	GroupElement[] g = issuanceValues ? ip.getProverIssuanceValues() : ip.getPublicKey();
+    	int tIndex = ip.getEncodingBytes().length + 1;
+    	
+    	if (terms == null) {
+    		if (bases != null) {
+    			return computeProduct(bases, x);
+    		}
+    		bases = new GroupElement[attributeIndices.length + 2];
+    		bases[0] = g[0];
+    		for (int i=0; i<attributeIndices.length; i++) {
+    			bases[i+1] = g[attributeIndices[i]];
+    		}
+    		bases[bases.length-1] = g[tIndex];
+    		return computeProduct(bases, x);
+    	}
+    	
+    	GroupElement product = ip.getGroup().getIdentity();
+    	product.multiplyAssign(g[0]);
+    	for (int i=0; i<attributeIndices.length; i++) {
+    		if (terms[i] == null) {
+    			// large values are not worth keeping in the cache
+    			product.multiplyAssign(g[attributeIndices[i]].exponentiate(x[i+1]));
+    			continue;
+    		}
+    		product.multiplyAssign(issuanceValues ? terms[i].getIssuanceTerm(ip) : terms[i].getGeneratorTerm(ip));
+    	}
+    	AttributeCache.Terms t = terms[attributeIndices.length];
+    	product.multiplyAssign(issuanceValues ? t.getIssuanceTerm(ip) : t.getGeneratorTerm(ip));
+    	return product;
+    }
+
+    /**
+     * Returns the attribute indices <code>1, ..., n</code>.
+     * @param n the number of attributes.
+     * @return the attribute indices.
+     */
+    static int[] getAllIndices(int n) {
+    	int[] indices = new int[n];
+    	for (int i=0; i<n; i++) {
+    		indices[i] = i+1;
+    	}
+    	return indices;
+    }
+
     static class GenerateChallengeOutput {
     	private ZqElement c;
     	private byte[] mdPrime;
@@ -208,8 +423,56 @@ final class ProtocolHelper {
     	}
     }
     
-    static GenerateChallengeOutput genChallenge(IssuerParametersInternal ip, UProveTokenInternal upti, byte[] a, byte[] m, byte[] md, int[] disclosed, ZqElement[] disclosedX) {
-    	byte[] UIDt = computeTokenID(ip, upti);
+    static GenerateChallengeOutput genChallenge(IssuerParametersInternal ip, UProveTokenInternal upti, byte[] a, HashInput m, byte[] md, int[] disclosed, ZqElement[] disclosedX) throws IOException {
+    	return genChallenge(ip, computeTokenID(ip, upti), upti.isDeviceProtected(), a, m, md, disclosed, disclosedX);
+    }
+
+    /**
+     * Computes the presentation challenge for a token whose identifier is
+     * already known.
+     * @param ip the issuer parameters.
+     * @param UIDt the token identifier.
+     * @param isDeviceProtected true if the token is Device-protected.
+     * @param a the initial proof message.
+     * @param m the protocol message.
+     * @param md the protocol message for Device.
+     * @param disclosed the disclosed attribute indices.
+     * @param disclosedX the x values of the disclosed attributes.
+     * @return the challenge, and for Device-protected tokens, the message
+     * to pass to the Device.
+     * @throws IOException if the message can't be read.
+     */
+    static GenerateChallengeOutput genChallenge(IssuerParametersInternal ip, byte[] UIDt, boolean isDeviceProtected, byte[] a, HashInput m, byte[] md, int[] disclosed, ZqElement[] disclosedX) throws IOException {
+    	return genChallenge(ip, UIDt, isDeviceProtected, a, m, md, disclosed, disclosedX, getDisclosedDigest(ip, disclosed));
+    }
+
+    /**
+     * Starts the digest of the disclosed attributes, hashing the parts that
+     * only depend on the disclosed indices.
+     * @param ip the issuer parameters.
+     * @param disclosed the disclosed attribute indices.
+     * @return a hash function to pass to
+     * {@link #genChallenge(IssuerParametersInternal, byte[], boolean, byte[], HashInput, byte[], int[], ZqElement[], HashFunction)}.
+     */
+    static HashFunction getDisclosedDigest(IssuerParametersInternal ip, int[] disclosed) {
+    	HashFunction H = ip.getHashFunction();
+    	H.update(disclosed.length);
+    	for (int i=0; i<disclosed.length; i++) {
+    		H.update(disclosed[i]);
+    	}
+    	H.update(ip.getEncodingBytes().length);
+    	return H;
+    }
+
+    /**
+     * Computes the presentation challenge, continuing a digest of the
+     * disclosed attributes.
+     * @param H the hash function returned by
+     * {@link #getDisclosedDigest(IssuerParametersInternal, int[])} for the
+     * same disclosed indices, or a clone of it.
+     * @see #genChallenge(IssuerParametersInternal, byte[], boolean, byte[], HashInput, byte[], int[], ZqElement[])
+     */
+    static GenerateChallengeOutput genChallenge(IssuerParametersInternal ip, byte[] UIDt, boolean isDeviceProtected, byte[] a, HashInput m, byte[] md, int[] disclosed, ZqElement[] disclosedX, HashFunction H) throws IOException {
     	int n = ip.getEncodingBytes().length;
     	ZqElement[] f = new ZqElement[n]; // null
     	for (int i=0; i<disclosed.length ; i++) {
@@ -217,12 +480,6 @@ final class ProtocolHelper {
     		f[index-1] = disclosedX[i]; 
     	}
     	
-    	HashFunction H = ip.getHashFunction();
-    	H.update(disclosed.length);
-    	for (int i=0; i<disclosed.length; i++) {
-    		H.update(disclosed[i]);
-    	}
-    	H.update(f.length);
     	for (int i=0; i<f.length; i++) {
     		if (f[i] == null) {
     			H.updateNull();
@@ -235,10 +492,10 @@ final class ProtocolHelper {
     	H.reset();
     	byte[] mdPrime = null;
     	ZqElement c = null;
-    	if (upti.isDeviceProtected()) {
+    	if (isDeviceProtected) {
     		H.update(UIDt);
     		H.update(a);
-    		H.update(m);
+    		m.addToDigest(H);
     		H.update(F);
     		mdPrime = H.getByteDigest();
     		H.reset();
@@ -248,7 +505,7 @@ final class ProtocolHelper {
     	} else {
     		H.update(UIDt);
     		H.update(a);
-    		H.update(m);
+    		m.addToDigest(H);
     		H.update(F);
     		c = H.getZqDigest();
     	}
@@ -312,6 +569,90 @@ final class ProtocolHelper {
     	}
     	return encoded;
     }
+
+    /**
+     * Writes elements to a buffer, each left-padded with zeros to a fixed
+     * width. Nothing is written if the buffer is too small.
+     * @param dst the buffer, whose position is advanced past the elements.
+     * @param elements the elements.
+     * @param width the encoded width of an element.
+     * @throws BufferOverflowException if <code>dst</code> has less than
+     * <code>elements.length * width</code> bytes remaining.
+     */
+    static void putFixedWidth(ByteBuffer dst, Element[] elements, int width) {
+    	if (dst.remaining() < (long) elements.length * width) {
+    		throw new BufferOverflowException();
+    	}
+    	for (int i=0; i<elements.length; i++) {
+    		byte[] encoded = elements[i].toByteArray();
+    		if (encoded.length > width) {
+    			// can't happen for a valid element
+    			throw new IllegalArgumentException("element too large");
+    		}
+    		for (int j=encoded.length; j<width; j++) {
+    			dst.put((byte) 0);
+    		}
+    		dst.put(encoded);
+    	}
+    }
+
+    /**
+     * Checks that a buffer holds enough fixed-width encoded elements.
+     * @param src the buffer.
+     * @param n the number of elements.
+     * @param width the encoded width of an element.
+     * @throws BufferUnderflowException if <code>src</code> has less than
+     * <code>n * width</code> bytes remaining.
+     */
+    private static void checkRemaining(ByteBuffer src, int n, int width) {
+    	if (src.remaining() < (long) n * width) {
+    		throw new BufferUnderflowException();
+    	}
+    }
+
+    /**
+     * Reads fixed-width encoded Zq elements from a buffer.
+     * @param Zq the field.
+     * @param src the buffer, whose position is advanced past the elements.
+     * @param n the number of elements.
+     * @return the elements.
+     * @throws BufferUnderflowException if <code>src</code> has less than
+     * <code>n * Zq.getMaxEncodedElementSize()</code> bytes remaining.
+     * @throws IOException if an element is out of range.
+     */
+    static ZqElement[] getZqElementArray(FieldZq Zq, ByteBuffer src, int n) throws IOException {
+    	final int width = Zq.getMaxEncodedElementSize();
+    	checkRemaining(src, n, width);
+    	final byte[] encoded = new byte[width];
+    	ZqElement[] elements = new ZqElement[n];
+    	for (int i=0; i<n; i++) {
+    		src.get(encoded);
+    		elements[i] = Zq.getPositiveElement(encoded);
+    	}
+    	return elements;
+    }
+
+    /**
+     * Reads fixed-width encoded group elements from a buffer.
+     * @param Gq the group.
+     * @param src the buffer, whose position is advanced past the elements.
+     * @param n the number of elements.
+     * @return the elements.
+     * @throws BufferUnderflowException if <code>src</code> has less than
+     * <code>n * Gq.getMaxEncodedElementSize()</code> bytes remaining.
+     * @throws IOException if an element is invalid.
+     */
+    static GroupElement[] getGroupElementArray(PrimeOrderGroup Gq, ByteBuffer src, int n) throws IOException {
+    	final int width = Gq.getMaxEncodedElementSize();
+    	checkRemaining(src, n, width);
+    	final byte[] encoded = new byte[width];
+    	GroupElement[] elements = new GroupElement[n];
+    	for (int i=0; i<n; i++) {
+    		src.get(encoded);
+    		elements[i] = Gq.getElement(encoded);
+    	}
+    	return elements;
+    }
     
     /**
      */
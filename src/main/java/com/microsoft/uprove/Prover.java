@@ -12,9 +12,13 @@
 package com.microsoft.uprove;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * An interface for the Prover-side of the U-Prove issuance protocol. 
+ * <p>The messages can be exchanged either as arrays of variable-length
+ * encoded elements, or in contiguous fixed-width buffers; see
+ * {@link Issuer}.</p>
  */
 public interface Prover {
 
@@ -51,4 +55,38 @@ public interface Prover {
      */
     UProveKeyAndToken[] generateTokens(final byte[][] message3) throws IOException;
 
+    /**
+     * Returns the length of the fixed-width encoding of the second message.
+     * @return the length, in bytes.
+     */
+    int getSecondMessageLength();
+
+    /**
+     * Generates the second issuance message into a buffer, using the
+     * fixed-width encoding.
+     * @param message1 the buffer holding the first message, whose position
+     * is advanced past it.
+     * @param message2 the buffer receiving the message, whose position is
+     * advanced by {@link #getSecondMessageLength()}.
+     * @throws IOException if an encoding error occurs.
+     * @throws java.nio.BufferUnderflowException if <code>message1</code> is
+     * too short.
+     * @throws java.nio.BufferOverflowException if <code>message2</code> is
+     * too small; nothing is generated in that case.
+     */
+    void generateSecondMessage(ByteBuffer message1, ByteBuffer message2)
+        throws IOException;
+
+    /**
+     * Generates the U-Prove keys and tokens from a third message using the
+     * fixed-width encoding.
+     * @param message3 the buffer holding the third message, whose position
+     * is advanced past it.
+     * @return an array of U-Prove keys and tokens.
+     * @throws IOException if an encoding error occurs.
+     * @throws java.nio.BufferUnderflowException if <code>message3</code> is
+     * too short.
+     */
+    UProveKeyAndToken[] generateTokens(ByteBuffer message3) throws IOException;
+
 }
@@ -12,6 +12,7 @@
 package com.microsoft.uprove;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 import com.microsoft.uprove.FieldZq.ZqElement;
 
@@ -30,6 +31,22 @@ class ProverFactory {
     static Prover generate(
             final int numberOfTokens,
             final ProverCommonInput input) {
+        return generate(numberOfTokens, input, null);
+    }
+
+    /**
+     * Generates a new {@link Prover} instance whose per-token computations
+     * are spread over an executor.
+     * @param numberOfTokens the number of tokens to obtain.
+     * @param input the Prover common input.
+     * @param executor the executor, or <code>null</code> to use the SDK-wide
+     * executor configured by {@link Config#setParallelThreads(int)}.
+     * @return a Prover instance.
+     */
+    static Prover generate(
+            final int numberOfTokens,
+            final ProverCommonInput input,
+            final Executor executor) {
         if (numberOfTokens <= 0) {
             throw new IllegalArgumentException("numberOfTokens must be > 0");
         }
@@ -38,7 +55,7 @@ class ProverFactory {
         }
 
         return new ProverImpl(numberOfTokens,
-        		(ProverCommonInput) input);
+        		(ProverCommonInput) input, Parallel.select(executor));
     }
 
     static ProverCommonInput computeInput(
@@ -46,12 +63,30 @@ class ProverFactory {
         throws IOException {
     	
     	assert parameters != null;
-        IssuerParametersInternal ipi = IssuerParametersInternal.generate(parameters.getIssuerParameters());
+    	return computeInput(parameters,
+    			IssuerParametersInternal.generate(parameters.getIssuerParameters()));
+    }
+
+    /**
+     * Computes the Prover input using already generated issuer parameters.
+     * @param parameters the Prover protocol parameters.
+     * @param ipi the internal form of the issuer parameters.
+     * @return the Prover input.
+     * @throws IOException if the parameters are malformed.
+     */
+    static ProverCommonInput computeInput(
+            final ProverProtocolParameters parameters,
+            final IssuerParametersInternal ipi)
+        throws IOException {
+
     	ProverCommonInput input = new ProverCommonInput();
     	
-    	ZqElement[] x = ProtocolHelper.computeXArray(ipi,parameters.getTokenAttributes(), parameters.getTokenInformation());
-    	GroupElement gamma = ProtocolHelper.computeProduct(ipi.getPublicKey(), x); 
-    	GroupElement sigmaZ = ProtocolHelper.computeProduct(ipi.getProverIssuanceValues(), x);
+    	AttributeSource[] attributes = parameters.getAttributeSources();
+    	int[] indices = ProtocolHelper.getAllIndices(attributes.length);
+    	AttributeCache.Terms[] terms = ProtocolHelper.getAttributeTerms(ipi, indices, attributes, parameters.getTokenInformation());
+    	ZqElement[] x = ProtocolHelper.computeXArray(ipi, indices, attributes, parameters.getTokenInformation(), terms);
+    	GroupElement gamma = ProtocolHelper.computeAttributeProduct(ipi, false, indices, parameters.getTokenInformation(), x, null, terms); 
+    	GroupElement sigmaZ = ProtocolHelper.computeAttributeProduct(ipi, true, indices, parameters.getTokenInformation(), x, null, terms);
     	if (parameters.getDevicePublicKey() != null || parameters.getDeviceZetaParameter() != null) {
     		if (parameters.getDevicePublicKey() == null || parameters.getDeviceZetaParameter() == null) {
     			throw new NullPointerException("Missing Device parameter");
@@ -12,10 +12,18 @@
 package com.microsoft.uprove;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
 import com.microsoft.uprove.FieldZq.ZqElement;
 
 class ProverImpl implements Prover {
 
+    // the bit length of the random weights used in batch verification; a
+    // batch accepts an invalid response with probability 2^-(BITS-1)
+    private static final int BATCH_WEIGHT_BITS = 128;
+
     /**
      * Type-safe enum for the state machine.
      */
@@ -32,10 +40,26 @@ class ProverImpl implements Prover {
 	private ProverCommonInput input;
 	ZqElement[] alpha, alphaInverse, beta1, beta2, sigmaCPrime;
 	GroupElement[] h, sigmaAPrime, sigmaBPrime, sigmaZPrime, ta, tb;
+	private Executor executor;
 	
 	private State state;
     
 	public ProverImpl(int numberOfTokens, ProverCommonInput input) {
+		this(numberOfTokens, input, null);
+	}
+
+	/**
+	 * Constructs a Prover instance whose per-token computations are spread
+	 * over an executor. The random values <code>alpha</code>,
+	 * <code>beta1</code> and <code>beta2</code> are drawn in the calling
+	 * thread and each partition of tokens uses its own hash function, so the
+	 * results only depend on the random values.
+	 * @param numberOfTokens the number of tokens to obtain.
+	 * @param input the Prover common input.
+	 * @param executor the executor, or <code>null</code> to compute in the
+	 * calling thread.
+	 */
+	ProverImpl(int numberOfTokens, ProverCommonInput input, Executor executor) {
         if (numberOfTokens <= 0) {
             throw new IllegalArgumentException("numberOfTokens must be > 0");
         }
@@ -44,6 +68,7 @@ class ProverImpl implements Prover {
         }
         this.numberOfTokens = numberOfTokens;
         this.input = input;
+        this.executor = executor;
         
         // set the state
         this.state = State.INIT;
@@ -73,22 +98,6 @@ class ProverImpl implements Prover {
 
 		IssuerParametersInternal ip = input.getIssuerParameters();
 		FieldZq Zq = ip.getGroup().getZq();
-		if (preGenAlpha == null) {
-			alpha = Zq.getRandomElements(numberOfTokens, true);
-		} else {
-			alpha = ProtocolHelper.getZqElementArray(Zq, preGenAlpha);
-		}
-		if (preGenBeta1 == null) {
-			beta1 = Zq.getRandomElements(numberOfTokens, false);
-		} else {
-			beta1 = ProtocolHelper.getZqElementArray(Zq, preGenBeta1);
-		}
-		if (preGenBeta2 == null) {
-			beta2 = Zq.getRandomElements(numberOfTokens, false);
-		} else {
-			beta2 = ProtocolHelper.getZqElementArray(Zq, preGenBeta2);
-		}
-
 		alphaInverse = new ZqElement[numberOfTokens];
     	sigmaCPrime = new ZqElement[numberOfTokens];
 		h = new GroupElement[numberOfTokens];
@@ -98,24 +107,89 @@ class ProverImpl implements Prover {
 		ta = new GroupElement[numberOfTokens];
 		tb = new GroupElement[numberOfTokens];
 
-		GroupElement g0 = ip.getPublicKey()[0];
-		GroupElement g = ip.getGroup().getGenerator();
-		for (int i=0; i<numberOfTokens; i++) {
-			h[i] = input.getGamma().exponentiate(alpha[i]);
-			sigmaZPrime[i] = input.getSigmaZ().exponentiate(alpha[i]);
-			GroupElement[] base = new GroupElement[] {g0, g};
-			ZqElement[] exponents = new ZqElement[] {beta1[i], beta2[i]};
-			ta[i] = ProtocolHelper.computeProduct(base, exponents);
-			base = new GroupElement[] {sigmaZPrime[i], h[i]};
-			tb[i] = ProtocolHelper.computeProduct(base, exponents);
-			alphaInverse[i] = alpha[i].inverse();
+		// pooled randomizers come with alpha^-1 and ta already computed
+		final ProverPrecomputationPool pool = input.getProverParams().getPrecomputationPool();
+		final boolean pooled = pool != null
+			&& preGenAlpha == null && preGenBeta1 == null && preGenBeta2 == null;
+		if (pooled) {
+			if (!pool.matches(ip)) {
+				throw new IllegalArgumentException("precomputation pool uses different issuer parameters");
+			}
+			alpha = new ZqElement[numberOfTokens];
+			beta1 = new ZqElement[numberOfTokens];
+			beta2 = new ZqElement[numberOfTokens];
+			pool.take(alpha, beta1, beta2, alphaInverse, ta);
+		} else {
+			if (preGenAlpha == null) {
+				alpha = Zq.getRandomElements(numberOfTokens, true);
+			} else {
+				alpha = ProtocolHelper.getZqElementArray(Zq, preGenAlpha);
+			}
+			if (preGenBeta1 == null) {
+				beta1 = Zq.getRandomElements(numberOfTokens, false);
+			} else {
+				beta1 = ProtocolHelper.getZqElementArray(Zq, preGenBeta1);
+			}
+			if (preGenBeta2 == null) {
+				beta2 = Zq.getRandomElements(numberOfTokens, false);
+			} else {
+				beta2 = ProtocolHelper.getZqElementArray(Zq, preGenBeta2);
+			}
 		}
 
+		final GroupElement g0 = ip.getPublicKey()[0];
+		final GroupElement g = ip.getGroup().getGenerator();
+		Parallel.forEach(executor, numberOfTokens, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for (int i=from; i<to; i++) {
+					h[i] = input.getGamma().exponentiate(alpha[i]);
+					sigmaZPrime[i] = input.getSigmaZ().exponentiate(alpha[i]);
+					ZqElement[] exponents = new ZqElement[] {beta1[i], beta2[i]};
+					if (!pooled) {
+						GroupElement[] base = new GroupElement[] {g0, g};
+						ta[i] = ProtocolHelper.computeProduct(base, exponents);
+						alphaInverse[i] = alpha[i].inverse();
+					}
+					GroupElement[] base = new GroupElement[] {sigmaZPrime[i], h[i]};
+					tb[i] = ProtocolHelper.computeProduct(base, exponents);
+				}
+			}
+		});
+
 		// advance the state
         state = State.COMPUTED;
 	}
     
     public byte[][] generateSecondMessage(byte[][] message1) throws IOException {
+    	if (message1.length != numberOfTokens*2) {
+    		throw new IllegalArgumentException("wrong number elements in message1");
+    	}
+    	return ProtocolHelper.getEncodedArray(generateSecondMessage(
+    			ProtocolHelper.getGroupElementArray(input.getIssuerParameters().getGroup(), message1)));
+    }
+
+    public int getSecondMessageLength() {
+    	return numberOfTokens * input.getIssuerParameters().getGroup().getZq().getMaxEncodedElementSize();
+    }
+
+    public void generateSecondMessage(ByteBuffer message1, ByteBuffer message2) throws IOException {
+    	if (message2.remaining() < getSecondMessageLength()) {
+    		throw new BufferOverflowException();
+    	}
+    	final PrimeOrderGroup Gq = input.getIssuerParameters().getGroup();
+    	ProtocolHelper.putFixedWidth(message2, generateSecondMessage(
+    			ProtocolHelper.getGroupElementArray(Gq, message1, numberOfTokens*2)),
+    			Gq.getZq().getMaxEncodedElementSize());
+    }
+
+    /**
+     * Generates the second message from decoded first message elements.
+     * @param sigmaPair the <code>sigmaA</code> and <code>sigmaB</code>
+     * values, interleaved. They must be group members and are not modified.
+     * @return the <code>sigmaC</code> values.
+     * @throws IOException if an element can't be hashed.
+     */
+    ZqElement[] generateSecondMessage(final GroupElement[] sigmaPair) throws IOException {
         // check the state
         if (state == State.INIT) {
         	precomputation();
@@ -123,66 +197,160 @@ class ProverImpl implements Prover {
             checkState(State.COMPUTED);
         }
 
-    	if (message1.length != numberOfTokens*2) {
+    	if (sigmaPair.length != numberOfTokens*2) {
     		throw new IllegalArgumentException("wrong number elements in message1");
     	}
 
-    	IssuerParametersInternal ip = input.getIssuerParameters(); 
-    	GroupElement[] sigmaPair = ProtocolHelper.getGroupElementArray(ip.getGroup(), message1);
-    	ZqElement[] sigmaC = new ZqElement[numberOfTokens];
-    	HashFunction H = ip.getHashFunction();    	
-    	for (int i=0; i<numberOfTokens; i++) {
-    		sigmaAPrime[i] = ta[i].multiply(sigmaPair[2*i]);
-    		sigmaBPrime[i] = tb[i].multiply(sigmaPair[2*i+1].exponentiate(alpha[i]));
-    		H.update(h[i]);
-    		H.update(input.getProverParams().getProverInformation());
-    		H.update(sigmaZPrime[i]);
-    		H.update(sigmaAPrime[i]);
-    		H.update(sigmaBPrime[i]);
-        	sigmaCPrime[i] = H.getZqDigest();
-        	sigmaC[i] = sigmaCPrime[i].add(beta1[i]);
-    	}
+    	final IssuerParametersInternal ip = input.getIssuerParameters(); 
+    	final ZqElement[] sigmaC = new ZqElement[numberOfTokens];
+    	final byte[] proverInformation = input.getProverParams().getProverInformation();
+    	Parallel.forEach(executor, numberOfTokens, new Parallel.RangeTask() {
+    		public void run(int from, int to) {
+    			// hash functions are stateful; each partition needs its own
+    			HashFunction H = ip.getHashFunction();    	
+    			for (int i=from; i<to; i++) {
+    				sigmaAPrime[i] = ta[i].multiply(sigmaPair[2*i]);
+    				sigmaBPrime[i] = tb[i].multiply(sigmaPair[2*i+1].exponentiate(alpha[i]));
+    				H.update(h[i]);
+    				H.update(proverInformation);
+    				H.update(sigmaZPrime[i]);
+    				H.update(sigmaAPrime[i]);
+    				H.update(sigmaBPrime[i]);
+    				sigmaCPrime[i] = H.getZqDigest();
+    				sigmaC[i] = sigmaCPrime[i].add(beta1[i]);
+    			}
+    		}
+    	});
 
         // advance the state
         state = State.SECOND;
     	
-    	return ProtocolHelper.getEncodedArray(sigmaC);
+    	return sigmaC;
+	}
+
+	/**
+	 * Verifies the issuer signatures of all tokens at once. Each token's
+	 * check <code>sigmaA'sigmaB' = (g h)^sigmaR' (g0 sigmaZ')^-sigmaC'</code>
+	 * is raised to a short random weight <code>d</code>, and since
+	 * <code>h = gamma^alpha</code> and <code>sigmaZ' = sigmaZ^alpha</code>,
+	 * the product of the right-hand sides collapses to
+	 * <code>g^(sum d sigmaR') g0^-(sum d sigmaC') gamma^(sum alpha d sigmaR')
+	 * sigmaZ^-(sum alpha d sigmaC')</code>.
+	 * @param sigmaRPrime the sigmaR' values.
+	 * @return <code>true</code> if all signatures are valid, except with
+	 * negligible probability; <code>false</code> if at least one is invalid.
+	 * @throws IOException if a weight can't be encoded.
+	 */
+	private boolean verifyBatch(final ZqElement[] sigmaRPrime) throws IOException {
+		final IssuerParametersInternal ip = input.getIssuerParameters();
+		final FieldZq Zq = ip.getGroup().getZq();
+		final int bits = Math.min(BATCH_WEIGHT_BITS, Zq.getQ().bitLength() - 1);
+		final ZqElement[] d = new ZqElement[numberOfTokens];
+		for (int i=0; i<numberOfTokens; i++) {
+			// odd weights are never zero
+			d[i] = Zq.getElement(RandomSourceImpl.getRandomBigInteger(bits).setBit(0));
+		}
+
+		final GroupElement[] lhs = new GroupElement[numberOfTokens];
+		final ZqElement[] dr = new ZqElement[numberOfTokens];
+		final ZqElement[] dc = new ZqElement[numberOfTokens];
+		Parallel.forEach(executor, numberOfTokens, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for (int i=from; i<to; i++) {
+					lhs[i] = sigmaAPrime[i].multiply(sigmaBPrime[i]).exponentiate(d[i]);
+					dr[i] = d[i].multiply(sigmaRPrime[i]);
+					dc[i] = d[i].multiply(sigmaCPrime[i]);
+				}
+			}
+		});
+
+		final GroupElement left = ip.getGroup().getIdentity();
+		final ZqElement sumDR = Zq.getZero();
+		final ZqElement sumDC = Zq.getZero();
+		final ZqElement sumAlphaDR = Zq.getZero();
+		final ZqElement sumAlphaDC = Zq.getZero();
+		for (int i=0; i<numberOfTokens; i++) {
+			left.multiplyAssign(lhs[i]);
+			sumDR.addAssign(dr[i]);
+			sumDC.addAssign(dc[i]);
+			sumAlphaDR.addAssign(alpha[i].multiply(dr[i]));
+			sumAlphaDC.addAssign(alpha[i].multiply(dc[i]));
+		}
+		GroupElement[] base = new GroupElement[] {
+				ip.getGroup().getGenerator(), ip.getPublicKey()[0],
+				input.getGamma(), input.getSigmaZ()};
+		ZqElement[] exponents = new ZqElement[] {
+				sumDR, sumDC.negate(), sumAlphaDR, sumAlphaDC.negate()};
+		return left.equals(ProtocolHelper.computeProduct(base, exponents));
 	}
 
 	public UProveKeyAndToken[] generateTokens(byte[][] message3) throws IOException {
+    	if (message3.length != numberOfTokens) {
+    		throw new IllegalArgumentException("wrong number elements in message3");
+    	}
+    	return generateTokens(ProtocolHelper.getZqElementArray(
+    			input.getIssuerParameters().getGroup().getZq(), message3));
+	}
+
+	public UProveKeyAndToken[] generateTokens(ByteBuffer message3) throws IOException {
+        checkState(State.SECOND);
+		return generateTokens(ProtocolHelper.getZqElementArray(
+				input.getIssuerParameters().getGroup().getZq(), message3, numberOfTokens));
+	}
+
+	/**
+	 * Generates the tokens from decoded third message elements.
+	 * @param sigmaR the <code>sigmaR</code> values.
+	 * @return the tokens.
+	 * @throws IOException if a signature can't be verified.
+	 */
+	UProveKeyAndToken[] generateTokens(final ZqElement[] sigmaR) throws IOException {
         // check the state
         checkState(State.SECOND);
 		
-    	if (message3.length != numberOfTokens) {
+    	if (sigmaR.length != numberOfTokens) {
     		throw new IllegalArgumentException("wrong number elements in message3");
     	}
 
-    	UProveKeyAndToken[] upkt = new UProveKeyAndToken[numberOfTokens];
-		IssuerParametersInternal ip = input.getIssuerParameters();
-        ZqElement[] sigmaR = ProtocolHelper.getZqElementArray(ip.getGroup().getZq(), message3);
-		GroupElement g0 = ip.getPublicKey()[0];
-		GroupElement g = ip.getGroup().getGenerator();
-    	for (int i=0; i<numberOfTokens; i++) {
-    		ZqElement sigmaRPrime = sigmaR[i].add(beta2[i]); 
-    		
-    		// verify issuer signature
-    		GroupElement[] base = new GroupElement[] {g.multiply(h[i]), g0.multiply(sigmaZPrime[i])};
-			ZqElement[] exponents = new ZqElement[] {sigmaRPrime, sigmaCPrime[i].negate()};
-			if (!sigmaAPrime[i].multiply(sigmaBPrime[i]).equals(
-    				ProtocolHelper.computeProduct(base, exponents))) {
-    			throw new IllegalStateException("invalid response");
-    		}
-			upkt[i] = new UProveKeyAndToken(new UProveToken(
-					ip.getParametersUID(),
-					h[i].toByteArray(),
-					input.getProverParams().getTokenInformation(),
-					input.getProverParams().getProverInformation(),
-					sigmaZPrime[i].toByteArray(),
-					sigmaCPrime[i].toByteArray(),
-					sigmaRPrime.toByteArray(),
-					input.getProverParams().getDevicePublicKey() != null), 
-					alphaInverse[i].toByteArray());
-    	}
+    	final UProveKeyAndToken[] upkt = new UProveKeyAndToken[numberOfTokens];
+		final IssuerParametersInternal ip = input.getIssuerParameters();
+		final GroupElement g0 = ip.getPublicKey()[0];
+		final GroupElement g = ip.getGroup().getGenerator();
+		final ZqElement[] sigmaRPrime = new ZqElement[numberOfTokens];
+		for (int i=0; i<numberOfTokens; i++) {
+			sigmaRPrime[i] = sigmaR[i].add(beta2[i]); 
+		}
+		
+		// if the batch verifies, all issuer signatures are valid; otherwise
+		// the individual checks find the invalid one
+		final boolean verified = input.getProverParams().isBatchVerification()
+			&& numberOfTokens > 1 && verifyBatch(sigmaRPrime);
+		Parallel.forEach(executor, numberOfTokens, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for (int i=from; i<to; i++) {
+					// verify issuer signature
+					if (!verified) {
+						GroupElement[] base = new GroupElement[] {g.multiply(h[i]), g0.multiply(sigmaZPrime[i])};
+						ZqElement[] exponents = new ZqElement[] {sigmaRPrime[i], sigmaCPrime[i].negate()};
+						if (!sigmaAPrime[i].multiply(sigmaBPrime[i]).equals(
+								ProtocolHelper.computeProduct(base, exponents))) {
+							throw new IllegalStateException("invalid response");
+						}
+					}
+					upkt[i] = new UProveKeyAndToken(new UProveToken(
+							// the issuer parameters may be shared
+							(byte[]) ip.getParametersUID().clone(),
+							h[i].toByteArray(),
+							input.getProverParams().getTokenInformation(),
+							input.getProverParams().getProverInformation(),
+							sigmaZPrime[i].toByteArray(),
+							sigmaCPrime[i].toByteArray(),
+							sigmaRPrime[i].toByteArray(),
+							input.getProverParams().getDevicePublicKey() != null), 
+							alphaInverse[i].toByteArray());
+				}
+			}
+		});
 		
     	return upkt;
 	}
@@ -0,0 +1,212 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.microsoft.uprove.FieldZq.ZqElement;
+
+/**
+ * A pool of precomputed Prover randomizers for one set of issuer parameters.
+ * <p>For every token, the Prover draws random <code>alpha</code>,
+ * <code>beta1</code> and <code>beta2</code> and computes
+ * <code>alpha^-1</code> and <code>ta = g0^beta1 g^beta2</code>; none of these
+ * depend on the token attributes. Provers generated from protocol parameters
+ * referencing a pool (see
+ * {@link ProverProtocolParameters#setPrecomputationPool(ProverPrecomputationPool)})
+ * draw them from the pool and only compute the attribute-dependent values
+ * <code>h</code>, <code>sigmaZ'</code> and <code>tb</code> when the session
+ * starts.</p>
+ * <p>The pool is refilled in the background to its high watermark whenever a
+ * draw leaves it under its low watermark. If it runs empty, sessions
+ * generate the missing values themselves. Each set of values is handed out
+ * once; values still pooled when the pool is closed are erased. A pool may be
+ * shared by any number of threads.</p>
+ */
+public final class ProverPrecomputationPool {
+
+    /**
+     * A pooled set of randomizers. The encodings of the secret values are
+     * kept, rather than the elements, so that they can be erased.
+     */
+    static final class Randomizers {
+        private final byte[] alpha;
+        private final byte[] beta1;
+        private final byte[] beta2;
+        private final byte[] alphaInverse;
+        private final GroupElement ta;
+
+        Randomizers(final byte[] alpha, final byte[] beta1,
+                final byte[] beta2, final byte[] alphaInverse,
+                final GroupElement ta) {
+            this.alpha = alpha;
+            this.beta1 = beta1;
+            this.beta2 = beta2;
+            this.alphaInverse = alphaInverse;
+            this.ta = ta;
+        }
+
+        void erase() {
+            ByteArrays.erase(alpha);
+            ByteArrays.erase(beta1);
+            ByteArrays.erase(beta2);
+            ByteArrays.erase(alphaInverse);
+        }
+    }
+
+    private final PrimeOrderGroup group;
+    private final GroupElement g0;
+    private final PrecomputationPool<Randomizers> pool;
+
+    /**
+     * Constructs a new, empty pool refilled by daemon threads.
+     * @param ip the issuer parameters.
+     * @param lowWatermark the pool size under which a refill starts.
+     * @param highWatermark the pool size at which a refill stops.
+     * @throws IOException if the issuer parameters are malformed.
+     * @throws IllegalArgumentException if the watermarks are invalid.
+     * @see #fill()
+     */
+    public ProverPrecomputationPool(final IssuerParameters ip,
+            final int lowWatermark, final int highWatermark)
+            throws IOException {
+        this(ip, lowWatermark, highWatermark, null);
+    }
+
+    /**
+     * Constructs a new, empty pool.
+     * @param ip the issuer parameters.
+     * @param lowWatermark the pool size under which a refill starts.
+     * @param highWatermark the pool size at which a refill stops.
+     * @param executor the executor running the refills, or <code>null</code>
+     * to start a daemon thread for each refill.
+     * @throws IOException if the issuer parameters are malformed.
+     * @throws IllegalArgumentException if the watermarks are invalid.
+     * @see #fill()
+     */
+    public ProverPrecomputationPool(final IssuerParameters ip,
+            final int lowWatermark, final int highWatermark,
+            final Executor executor) throws IOException {
+        final IssuerParametersInternal ipi =
+            IssuerParametersInternal.generate(ip);
+        this.group = ipi.getGroup();
+        this.g0 = ipi.getPublicKey()[0];
+        final FieldZq Zq = group.getZq();
+        final GroupElement g = group.getGenerator();
+        this.pool = new PrecomputationPool<Randomizers>(
+                "U-Prove prover precomputation", lowWatermark, highWatermark,
+                executor) {
+            Randomizers generate() {
+                final ZqElement alpha = Zq.getRandomElement(true);
+                final ZqElement beta1 = Zq.getRandomElement(false);
+                final ZqElement beta2 = Zq.getRandomElement(false);
+                final GroupElement ta = ProtocolHelper.computeProduct(
+                    new GroupElement[] {g0, g},
+                    new ZqElement[] {beta1, beta2});
+                return new Randomizers(alpha.toByteArray(),
+                    beta1.toByteArray(), beta2.toByteArray(),
+                    alpha.inverse().toByteArray(), ta);
+            }
+
+            void erase(final Randomizers value) {
+                value.erase();
+            }
+        };
+    }
+
+    /**
+     * Fills the pool to its high watermark in the calling thread, for
+     * instance to warm it up before starting sessions.
+     * @throws IOException if the values can't be generated.
+     */
+    public void fill() throws IOException {
+        pool.fill();
+    }
+
+    /**
+     * Closes the pool, erasing the pooled values. Provers drawing from a
+     * closed pool fail with an <code>IllegalStateException</code>.
+     */
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * Returns the number of sets of randomizers in the pool.
+     * @return the pool size.
+     */
+    public int size() {
+        return pool.size();
+    }
+
+    /**
+     * Returns the pool size under which a background refill starts.
+     * @return the low watermark.
+     */
+    public int getLowWatermark() {
+        return pool.getLowWatermark();
+    }
+
+    /**
+     * Returns the pool size at which a background refill stops.
+     * @return the high watermark.
+     */
+    public int getHighWatermark() {
+        return pool.getHighWatermark();
+    }
+
+    /**
+     * Returns a snapshot of the pool's usage statistics.
+     * @return the pool statistics.
+     */
+    public PoolStatistics getStatistics() {
+        return pool.getStatistics();
+    }
+
+    /**
+     * Indicates whether the pooled values were computed for the given issuer
+     * parameters, i.e. for the same group and generator <code>g0</code>.
+     * @param ip the issuer parameters.
+     * @return <code>true</code> if the pool can serve <code>ip</code>.
+     */
+    boolean matches(final IssuerParametersInternal ip) {
+        return group.equals(ip.getGroup()) && g0.equals(ip.getPublicKey()[0]);
+    }
+
+    /**
+     * Draws randomizers for a session. The pooled encodings are erased once
+     * decoded.
+     * @param alpha receives the <code>alpha</code> values.
+     * @param beta1 receives the <code>beta1</code> values.
+     * @param beta2 receives the <code>beta2</code> values.
+     * @param alphaInverse receives the <code>alpha^-1</code> values.
+     * @param ta receives the <code>g0^beta1 g^beta2</code> values.
+     * @throws IOException if missing values can't be generated.
+     */
+    void take(final ZqElement[] alpha, final ZqElement[] beta1,
+            final ZqElement[] beta2, final ZqElement[] alphaInverse,
+            final GroupElement[] ta) throws IOException {
+        final List<Randomizers> values = pool.take(alpha.length);
+        final FieldZq Zq = group.getZq();
+        for (int i = 0; i < alpha.length; i++) {
+            final Randomizers r = values.get(i);
+            alpha[i] = Zq.getPositiveElement(r.alpha);
+            beta1[i] = Zq.getPositiveElement(r.beta1);
+            beta2[i] = Zq.getPositiveElement(r.beta2);
+            alphaInverse[i] = Zq.getPositiveElement(r.alphaInverse);
+            ta[i] = r.ta;
+            r.erase();
+        }
+    }
+}
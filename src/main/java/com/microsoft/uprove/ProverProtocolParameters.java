@@ -12,6 +12,7 @@
 package com.microsoft.uprove;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 /**
  * Specifies the Prover protocol parameters for the issuance protocol. 
@@ -21,11 +22,15 @@ public final class ProverProtocolParameters {
 	private int numberOfTokens = 1;
 	private IssuerParameters issuerParameters = null;
     private byte[][] tokenAttributes; // = null;
+    private AttributeSource[] tokenAttributeSources; // = null;
     private byte[] tokenInformation;
     private byte[] proverInformation;
     private ProverCommonInput input;
 	private byte[] deviceZetaParameter;
 	private byte[] devicePublicKey;
+    private Executor executor; // = null;
+    private boolean batchVerification; // = false;
+    private ProverPrecomputationPool precomputationPool; // = null;
 
     /**
      * Constructs a <code>ProverProtocolParameters</code> instance. 
@@ -73,7 +78,8 @@ public final class ProverProtocolParameters {
 
 	/**
 	 * Gets the token attributes.
-	 * @return the token attributes.
+	 * @return the token attributes, or <code>null</code> if the attributes
+	 * were set as {@link AttributeSource}s.
 	 */
 	public byte[][] getTokenAttributes() {
 		return tokenAttributes;
@@ -85,6 +91,41 @@ public final class ProverProtocolParameters {
 	 */
 	public void setTokenAttributes(byte[][] tokenAttributes) {
 		this.tokenAttributes = tokenAttributes;
+		this.tokenAttributeSources = null;
+	}
+
+	/**
+	 * Gets the token attribute sources.
+	 * @return the token attribute sources, or <code>null</code> if the
+	 * attributes were set as byte arrays.
+	 */
+	public AttributeSource[] getTokenAttributeSources() {
+		return tokenAttributeSources;
+	}
+
+	/**
+	 * Sets the token attributes from attribute sources, so that large hashed
+	 * attributes need not be held in memory. This replaces any attributes set
+	 * by {@link #setTokenAttributes(byte[][])}.
+	 * @param tokenAttributeSources the token attribute sources.
+	 */
+	public void setTokenAttributeSources(AttributeSource[] tokenAttributeSources) {
+		this.tokenAttributeSources = tokenAttributeSources;
+		this.tokenAttributes = null;
+	}
+
+	/**
+	 * Returns the token attributes as sources, whichever way they were set.
+	 * @return the token attribute sources.
+	 */
+	AttributeSource[] getAttributeSources() {
+		if (tokenAttributeSources != null) {
+			return tokenAttributeSources;
+		}
+		if (tokenAttributes == null) {
+			throw new NullPointerException("token attributes must be set");
+		}
+		return AttributeSource.fromBytes(tokenAttributes);
 	}
 
 	/**
@@ -167,6 +208,71 @@ public final class ProverProtocolParameters {
 		this.deviceZetaParameter = deviceZetaParameter;
 	}
 
+    /**
+     * Gets the executor running the per-token computations.
+     * @return the executor, or <code>null</code> if the SDK-wide executor is
+     * used.
+     */
+    public Executor getExecutor() {
+    	return executor;
+    }
+
+    /**
+     * Sets the executor running the per-token computations of the generated
+     * {@link Prover} instances, overriding the SDK-wide setting of
+     * {@link Config#setParallelThreads(int)}. The calling thread takes part
+     * in the computations, and the results do not depend on the executor.
+     * @param executor the executor, or <code>null</code> to use the SDK-wide
+     * executor.
+     */
+    public void setExecutor(Executor executor) {
+    	this.executor = executor;
+    }
+
+    /**
+     * Indicates whether the issued tokens are verified in a batch.
+     * @return <code>true</code> if batch verification is enabled.
+     */
+    public boolean isBatchVerification() {
+    	return batchVerification;
+    }
+
+    /**
+     * Enables or disables batch verification of the issued tokens. When
+     * enabled, the Issuer's responses for all tokens are checked with a
+     * single randomized equation, which costs about a quarter of the
+     * individual checks; the tokens are checked one by one only if the
+     * batch fails, to find the invalid response. A batch may accept an
+     * invalid response with negligible probability, provided the Issuer's
+     * first message holds valid group elements.
+     * @param batchVerification <code>true</code> to enable batch
+     * verification.
+     */
+    public void setBatchVerification(boolean batchVerification) {
+    	this.batchVerification = batchVerification;
+    }
+
+    /**
+     * Gets the precomputation pool.
+     * @return the precomputation pool, or <code>null</code>.
+     */
+    public ProverPrecomputationPool getPrecomputationPool() {
+    	return precomputationPool;
+    }
+
+    /**
+     * Sets the pool from which the generated {@link Prover} instances draw
+     * their precomputed attribute-independent randomizers, leaving only
+     * <code>h</code>, <code>sigmaZ'</code> and <code>tb</code> to compute
+     * when the session starts. The pool must have been created for the same
+     * issuer parameters.
+     * @param precomputationPool the pool, or <code>null</code> to compute
+     * all values during precomputation.
+     */
+    public void setPrecomputationPool(ProverPrecomputationPool precomputationPool) {
+    	this.precomputationPool = precomputationPool;
+    }
+
     /**
      * Tests the contents of <code>this</code> for validity.
      * @throws IllegalStateException if the parameters are invalid.
@@ -191,7 +297,23 @@ public final class ProverProtocolParameters {
         // first validate the parameters
         validate();
         // then generate the Prover instance
-        return ProverFactory.generate(numberOfTokens, input);
+        return ProverFactory.generate(numberOfTokens, input, executor);
+    }
+
+    /**
+     * Generates a {@link ChunkedProver} instance to run the issuance protocol
+     * in chunks of at most <code>chunkSize</code> tokens, against a
+     * {@link ChunkedIssuer} using the same chunk size.
+     * @param chunkSize the maximum number of tokens per chunk.
+     * @return a <code>ChunkedProver</code>.
+     * @throws IllegalStateException if the parameters are invalid.
+     * @throws IOException if the parameters are malformed.
+     * @see IssuerProtocolParameters#generateChunked(int)
+     */
+    public ChunkedProver generateChunked(final int chunkSize)
+        throws IOException {
+        validate();
+        return new ChunkedProver(numberOfTokens, chunkSize, input, executor);
     }
 
 }
\ No newline at end of file
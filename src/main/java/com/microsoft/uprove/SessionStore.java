@@ -0,0 +1,53 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+
+/**
+ * Storage for suspended issuance sessions, shared by the nodes that may
+ * resume them.
+ * <p>The stored states are encrypted and authenticated by
+ * {@link IssuerSessions}; a store only needs to keep them by session
+ * identifier. It must however guarantee that {@link #remove(String)} hands a
+ * given state out at most once, even to concurrent callers on different
+ * nodes: answering two different second messages with the same session
+ * state reveals the Issuer private key.</p>
+ * <p>Each state comes with an expiry time, after which {@link IssuerSessions}
+ * rejects it anyway; a store must not hand out an expired state, and should
+ * reclaim the room it takes, so that abandoned sessions don't fill it.</p>
+ * @see InMemorySessionStore
+ * @see MappedFileSessionStore
+ */
+public interface SessionStore {
+
+    /**
+     * Stores the state of a suspended session.
+     * @param sessionID the session identifier.
+     * @param state the encrypted session state. The store may keep the
+     * array; the caller does not modify it afterwards.
+     * @param expiry the time, in milliseconds since the epoch (see
+     * {@link System#currentTimeMillis()}), after which the state may be
+     * dropped.
+     * @throws IOException if the state can't be stored.
+     */
+    void put(String sessionID, byte[] state, long expiry) throws IOException;
+
+    /**
+     * Atomically retrieves and removes the state of a suspended session.
+     * @param sessionID the session identifier.
+     * @return the encrypted session state, or <code>null</code> if the store
+     * holds no state for <code>sessionID</code>, or if it expired.
+     * @throws IOException if the state can't be retrieved.
+     */
+    byte[] remove(String sessionID) throws IOException;
+}
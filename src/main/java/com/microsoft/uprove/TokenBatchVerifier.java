@@ -0,0 +1,188 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Verifies the Issuer signatures of a batch of U-Prove tokens issued under
+ * the same issuer parameters, for instance when importing a wallet,
+ * reporting exactly which tokens are invalid.
+ * <p>The issuer parameters are prepared once for the batch, tokens added
+ * more than once are verified once, and the verifications are spread over
+ * an executor. Valid tokens are recorded in the verified token cache, if it
+ * is enabled (see {@link Config#setVerifiedTokenCacheSize(long)}).</p>
+ * <p>The signature of a token is a Fiat-Shamir proof: its challenge
+ * <code>sigma_c'</code> is the hash of the group elements
+ * <code>g^sigma_r' g_0^-sigma_c'</code> and
+ * <code>h^sigma_r' sigma_z'^-sigma_c'</code>, so these elements must be
+ * computed exactly for each token and can't be folded into a single
+ * randomized equation.</p>
+ */
+public final class TokenBatchVerifier {
+
+    private final IssuerParametersInternal ipi;
+    private final List<UProveToken> tokens = new ArrayList<UProveToken>();
+    private Exception[] failures;
+    private Executor executor; // = null;
+
+    /**
+     * Constructs an empty batch.
+     * @param ip the issuer parameters of the tokens.
+     * @throws IOException if the issuer parameters are malformed.
+     */
+    public TokenBatchVerifier(final IssuerParameters ip) throws IOException {
+        this.ipi = IssuerParametersInternal.generate(ip);
+    }
+
+    /**
+     * Adds a token to the batch.
+     * @param upt a U-Prove token.
+     * @return the index of the token in the batch.
+     */
+    public int add(final UProveToken upt) {
+        if (upt == null) {
+            throw new NullPointerException();
+        }
+        tokens.add(upt);
+        failures = null;
+        return tokens.size() - 1;
+    }
+
+    /**
+     * Returns the number of tokens in the batch.
+     * @return the batch size.
+     */
+    public int size() {
+        return tokens.size();
+    }
+
+    /**
+     * Gets the executor running the verifications.
+     * @return the executor, or <code>null</code> if the SDK-wide executor is
+     * used.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor running the verifications.
+     * @param executor the executor, or <code>null</code> to use the SDK-wide
+     * executor.
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Verifies the token signatures of the batch.
+     * @return the indices of the invalid tokens, in increasing order; an
+     * empty array if all tokens are valid.
+     * @throws IOException if a verification was interrupted.
+     */
+    public int[] verify() throws IOException {
+        final int n = tokens.size();
+
+        // the distinct tokens
+        final HashMap<UProveToken, Integer> indices =
+            new HashMap<UProveToken, Integer>();
+        final List<UProveToken> distinct = new ArrayList<UProveToken>();
+        final int[] slot = new int[n];
+        for (int i = 0; i < n; i++) {
+            final UProveToken upt = tokens.get(i);
+            Integer index = indices.get(upt);
+            if (index == null) {
+                index = Integer.valueOf(distinct.size());
+                indices.put(upt, index);
+                distinct.add(upt);
+            }
+            slot[i] = index.intValue();
+        }
+
+        final Exception[] results = new Exception[distinct.size()];
+        Parallel.forEach(Parallel.select(executor), distinct.size(),
+            new Parallel.RangeTask() {
+                public void run(final int from, final int to) {
+                    for (int i = from; i < to; i++) {
+                        results[i] = check(ipi, distinct.get(i));
+                    }
+                }
+            });
+
+        failures = new Exception[n];
+        int count = 0;
+        final int[] failed = new int[n];
+        for (int i = 0; i < n; i++) {
+            failures[i] = results[slot[i]];
+            if (failures[i] != null) {
+                failed[count++] = i;
+            }
+        }
+        return Arrays.copyOf(failed, count);
+    }
+
+    /**
+     * Returns the reason a token was found invalid by the last
+     * verification.
+     * @param index the index of the token.
+     * @return an {@link InvalidProofException} for an invalid signature,
+     * another exception for a malformed token, or <code>null</code> if the
+     * token is valid.
+     * @throws IllegalStateException if the batch wasn't verified since the
+     * last token was added.
+     */
+    public Exception getFailure(final int index) {
+        if (failures == null) {
+            throw new IllegalStateException("batch not verified");
+        }
+        return failures[index];
+    }
+
+    /**
+     * Checks the Issuer signature of a token.
+     * @param ipi the issuer parameters.
+     * @param upt the token.
+     * @return <code>null</code> if the signature is valid, the reason
+     * otherwise.
+     */
+    static Exception check(final IssuerParametersInternal ipi,
+            final UProveToken upt) {
+        try {
+            final UProveTokenInternal upti =
+                UProveTokenInternal.generate(ipi, upt);
+            if (!Arrays.equals(upti.getIssuerParametersUID(),
+                    ipi.getParametersUID())) {
+                return new IllegalArgumentException("Issuer parameters UID "
+                    + "does not match the one referenced in the token.");
+            }
+            final VerifiedTokenCache.Key key = VerifiedTokenCache.key(ipi, upt);
+            if (VerifiedTokenCache.isVerified(key)) {
+                return null;
+            }
+            if (!ProtocolHelper.isTokenSignatureValid(ipi, upti)) {
+                return new InvalidProofException("token signature is invalid.");
+            }
+            VerifiedTokenCache.verified(key);
+            return null;
+        } catch (IOException ioe) {
+            return ioe;
+        } catch (RuntimeException re) {
+            return re;
+        }
+    }
+}
@@ -77,6 +77,79 @@ import java.security.BasicPermission;
  * <td>This allows code to set the implementation of all digest algorithms.
  * Malicious code could use a provider with known bad implementations.</td>
  * </tr>
+ *
+ * <tr>
+ * <td>getOption.cache.attributes.size</td>
+ * <td>Access to the size and usage statistics of the attribute cache.</td>
+ * <td>The statistics reveal whether recently processed attribute values
+ * were already cached. This could help malicious code learn whether a
+ * guessed attribute value was recently used.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>setOption.cache.attributes.size</td>
+ * <td>Modification of the size of the attribute cache.</td>
+ * <td>This allows code to enable the cache, which retains attribute values
+ * in memory, or to disable it and degrade performance.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>getOption.cache.issuerparameters.size</td>
+ * <td>Access to the size and usage statistics of the issuer parameters
+ * cache.</td>
+ * <td>The statistics reveal whether issuer parameters were recently used.
+ * This could help malicious code learn which Issuers the application deals
+ * with.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>setOption.cache.issuerparameters.size</td>
+ * <td>Modification of the size of the issuer parameters cache.</td>
+ * <td>This allows code to discard the cache content, or to shrink the cache
+ * so that the issuer parameters are decoded and validated again on every use,
+ * degrading performance.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>getOption.cache.tokens.size</td>
+ * <td>Access to the size and usage statistics of the verified token
+ * cache.</td>
+ * <td rowspan="2">The statistics reveal whether tokens were recently
+ * verified. This could help malicious code learn whether a given token was
+ * recently presented.</td>
+ * </tr>
+ * <tr>
+ * <td>getOption.cache.tokens.ttl</td>
+ * <td>Access to the time after which a verified token is checked
+ * again.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>setOption.cache.tokens.size</td>
+ * <td>Modification of the size of the verified token cache.</td>
+ * <td rowspan="2">These change how tokens are verified. Malicious code could
+ * enable the cache, or lengthen the time to live, so that tokens are not
+ * checked against the issuer parameters again for a long time, or disable
+ * the cache and degrade performance.</td>
+ * </tr>
+ * <tr>
+ * <td>setOption.cache.tokens.ttl</td>
+ * <td>Modification of the time after which a verified token is checked
+ * again.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>getOption.parallel.threads</td>
+ * <td>Access to the number of threads of the SDK's shared pool.</td>
+ * <td>This reveals little beyond the host's configuration.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>setOption.parallel.threads</td>
+ * <td>Modification of the number of threads of the SDK's shared pool.</td>
+ * <td>This allows code to make the SDK create many threads, or to disable
+ * parallelism and degrade performance.</td>
+ * </tr>
  * </table>
  */
 public final class UProveSDKPermission extends BasicPermission {
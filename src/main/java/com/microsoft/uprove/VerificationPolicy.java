@@ -0,0 +1,205 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A presentation policy, the issuer parameters and set of disclosed
+ * attributes that presentation proofs are verified against, prepared for
+ * verifying any number of proofs.
+ * <p>The policy computes once what only depends on the issuer parameters
+ * and the disclosed indices: the undisclosed indices, the generators
+ * combined with the disclosed and undisclosed attributes, and the part of
+ * the disclosed attribute digest covering the indices. Each verification
+ * then only hashes and exponentiates the values of the proof and the
+ * token.</p>
+ * <p>A policy is immutable and can be shared by any number of threads.</p>
+ */
+public final class VerificationPolicy {
+
+    private final IssuerParameters ip;
+    private final IssuerParametersInternal ipi;
+    private final int[] disclosed;
+    private final int[] undisclosed;
+    private final GroupElement[] disclosedBases;
+    private final GroupElement[] undisclosedBases;
+    private final HashFunction disclosedDigest;
+
+    /**
+     * Prepares a policy.
+     * @param ip the issuer parameters of the verified tokens.
+     * @param disclosed the disclosed attribute indices, in increasing order.
+     * @throws IOException if the issuer parameters are malformed.
+     * @throws IllegalArgumentException if an index is out of range or the
+     * indices aren't increasing.
+     */
+    public VerificationPolicy(final IssuerParameters ip, final int[] disclosed)
+            throws IOException {
+        this(ip, IssuerParametersInternal.generate(ip), disclosed);
+    }
+
+    /**
+     * Prepares a policy from prepared issuer parameters.
+     * @param ip the issuer parameters of the verified tokens.
+     * @param ipi the internal form of <code>ip</code>.
+     * @param disclosed the disclosed attribute indices, in increasing order.
+     * @throws IllegalArgumentException if an index is out of range or the
+     * indices aren't increasing.
+     */
+    VerificationPolicy(final IssuerParameters ip,
+            final IssuerParametersInternal ipi, final int[] disclosed) {
+        final int n = ipi.getEncodingBytes().length;
+        for (int i = 0; i < disclosed.length; i++) {
+            if (disclosed[i] < 1 || disclosed[i] > n
+                || (i > 0 && disclosed[i] <= disclosed[i - 1])) {
+                throw new IllegalArgumentException(
+                    "disclosed indices must be increasing and between 1 and "
+                    + n);
+            }
+        }
+        this.ip = ip;
+        this.ipi = ipi;
+        this.disclosed = (int[]) disclosed.clone();
+        this.undisclosed =
+            ProtocolHelper.getUndisclosedIndices(n, this.disclosed);
+
+        final GroupElement[] g = ipi.getPublicKey();
+        // [g_0, g_d_1, ..., g_d_k, g_t]
+        disclosedBases = new GroupElement[this.disclosed.length + 2];
+        disclosedBases[0] = g[0];
+        for (int i = 0; i < this.disclosed.length; i++) {
+            disclosedBases[i + 1] = g[this.disclosed[i]];
+        }
+        disclosedBases[disclosedBases.length - 1] = g[n + 1];
+        // [g_u_1, ..., g_u_l]
+        undisclosedBases = new GroupElement[undisclosed.length];
+        for (int i = 0; i < undisclosed.length; i++) {
+            undisclosedBases[i] = g[undisclosed[i]];
+        }
+        disclosedDigest =
+            ProtocolHelper.getDisclosedDigest(ipi, this.disclosed);
+    }
+
+    /**
+     * Returns the issuer parameters of the policy.
+     * @return the issuer parameters.
+     */
+    public IssuerParameters getIssuerParameters() {
+        return ip;
+    }
+
+    /**
+     * Returns the disclosed attribute indices.
+     * @return a copy of the disclosed indices.
+     */
+    public int[] getDisclosed() {
+        return (int[]) disclosed.clone();
+    }
+
+    /**
+     * Returns the undisclosed attribute indices.
+     * @return a copy of the undisclosed indices.
+     */
+    public int[] getUndisclosed() {
+        return (int[]) undisclosed.clone();
+    }
+
+    /**
+     * Verifies a presentation proof against this policy.
+     * @param m the protocol message.
+     * @param md the protocol message for the Device.
+     * @param upt the U-Prove token.
+     * @param pp the presentation proof.
+     * @throws InvalidProofException if the proof is invalid.
+     * @throws IOException if an argument is malformed.
+     * @see PresentationProtocol#verifyPresentationProof(IssuerParameters, int[], byte[], byte[], UProveToken, PresentationProof)
+     */
+    public void verify(final byte[] m, final byte[] md, final UProveToken upt,
+            final PresentationProof pp)
+            throws InvalidProofException, IOException {
+        PresentationProtocol.verifyProof(this, HashInput.wrap(m), md, upt, pp);
+    }
+
+    /**
+     * Verifies a presentation proof on a message held in a buffer against
+     * this policy. The remaining bytes of the buffer form the message; the
+     * buffer's position is not modified.
+     * @param m the protocol message.
+     * @param md the protocol message for the Device.
+     * @param upt the U-Prove token.
+     * @param pp the presentation proof.
+     * @throws InvalidProofException if the proof is invalid.
+     * @throws IOException if an argument is malformed.
+     */
+    public void verify(final ByteBuffer m, final byte[] md,
+            final UProveToken upt, final PresentationProof pp)
+            throws InvalidProofException, IOException {
+        PresentationProtocol.verifyProof(this, HashInput.wrap(m), md, upt, pp);
+    }
+
+    /**
+     * Verifies a presentation proof on a message read from a stream against
+     * this policy. The message is hashed as it is read.
+     * @param m the stream holding the protocol message; it is read but not
+     * closed.
+     * @param mLength the length of the protocol message, in bytes.
+     * @param md the protocol message for the Device.
+     * @param upt the U-Prove token.
+     * @param pp the presentation proof.
+     * @throws InvalidProofException if the proof is invalid.
+     * @throws IOException if an argument is malformed, or if the message
+     * can't be read or is shorter than <code>mLength</code>.
+     */
+    public void verify(final InputStream m, final long mLength,
+            final byte[] md, final UProveToken upt, final PresentationProof pp)
+            throws InvalidProofException, IOException {
+        PresentationProtocol.verifyProof(this, HashInput.wrap(m, mLength), md,
+            upt, pp);
+    }
+
+    /*
+     * Package-private accessors for the verification; the arrays must not
+     * be modified.
+     */
+
+    IssuerParametersInternal getIssuerParametersInternal() {
+        return ipi;
+    }
+
+    int[] disclosed() {
+        return disclosed;
+    }
+
+    GroupElement[] getDisclosedBases() {
+        return disclosedBases;
+    }
+
+    GroupElement[] getUndisclosedBases() {
+        return undisclosedBases;
+    }
+
+    /**
+     * Returns a hash function having digested the disclosed indices.
+     * @return a new hash function.
+     */
+    HashFunction newDisclosedDigest() {
+        try {
+            return (HashFunction) disclosedDigest.clone();
+        } catch (CloneNotSupportedException cnse) {
+            // hash the indices again
+            return ProtocolHelper.getDisclosedDigest(ipi, disclosed);
+        }
+    }
+}
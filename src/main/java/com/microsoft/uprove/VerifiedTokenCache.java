@@ -0,0 +1,199 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/*
+ * LOW-LEVEL IMPLEMENTATION CLASS. NOT PART OF PUBLIC API.
+ */
+
+/**
+ * Remembers the tokens whose Issuer signature was recently verified, so that
+ * a token presented repeatedly only pays for the presentation proof.
+ * <p>Entries are keyed by a SHA-256 digest of the issuer parameters UID and
+ * digest and of every field of the token, as encoded. The token identifier
+ * alone isn't used: it doesn't cover the Prover information or the token
+ * information, so a token altered in these fields would share the
+ * identifier of a valid one. Only tokens whose signature verified are
+ * inserted, so a cache entry can't be obtained for an invalid token. The
+ * cache size and entry lifetime are configured with
+ * {@link Config#setVerifiedTokenCacheSize(long)} and
+ * {@link Config#setVerifiedTokenCacheTimeToLive(long)}.</p>
+ */
+final class VerifiedTokenCache {
+
+    // per-entry overhead estimate (key, node and map entry objects)
+    private static final int ENTRY_OVERHEAD = 160;
+
+    // the active cache, or null if disabled
+    private static volatile BoundedCache<Key, Boolean> cache;
+    private static volatile boolean configured = false;
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private VerifiedTokenCache() {
+        super();
+    }
+
+    /**
+     * The cache key: the digest of the issuer parameters and the token.
+     */
+    static final class Key {
+        private final byte[] digest;
+        private final int hash;
+
+        Key(final byte[] digest) {
+            this.digest = digest;
+            this.hash = ByteArrays.hashCode(digest);
+        }
+
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key) obj;
+            return hash == k.hash && Arrays.equals(digest, k.digest);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // weighs an entry: the key digest and the fixed overhead
+    private static final class KeyWeigher
+            implements BoundedCache.Weigher<Key, Boolean> {
+        public long weigh(final Key key, final Boolean value) {
+            return ENTRY_OVERHEAD + key.digest.length;
+        }
+    }
+
+    /**
+     * Returns the active cache, creating it according to the configured size
+     * and time to live if needed.
+     * @return the cache, or <code>null</code> if caching is disabled.
+     */
+    private static BoundedCache<Key, Boolean> cache() {
+        if (!configured) {
+            synchronized (VerifiedTokenCache.class) {
+                if (!configured) {
+                    final long size = ConfigImpl.verifiedTokenCacheSize();
+                    cache = size > 0
+                        ? new BoundedCache<Key, Boolean>(size,
+                            ConfigImpl.verifiedTokenCacheTimeToLive(),
+                            new KeyWeigher(), null)
+                        : null;
+                    configured = true;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Discards the cache and its statistics; the next lookup recreates it
+     * according to the configured size and time to live.
+     */
+    static void reset() {
+        final BoundedCache<Key, Boolean> old;
+        synchronized (VerifiedTokenCache.class) {
+            old = cache;
+            cache = null;
+            configured = false;
+        }
+        if (old != null) {
+            old.clear();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the cache's statistics.
+     * @return the cache statistics; all zero if the cache is disabled.
+     */
+    static CacheStatistics getStatistics() {
+        final BoundedCache<Key, Boolean> c = cache();
+        return c != null
+            ? c.getStatistics()
+            : new CacheStatistics(0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Returns the cache key of a token.
+     * @param ipi the issuer parameters.
+     * @param upt the token.
+     * @return the key, or <code>null</code> if the cache is disabled.
+     */
+    static Key key(final IssuerParametersInternal ipi, final UProveToken upt) {
+        if (cache() == null) {
+            return null;
+        }
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            final AssertionError ae = new AssertionError("SHA-256 unavailable");
+            ae.initCause(nsae);
+            throw ae;
+        }
+        update(md, ipi.getParametersUID());
+        update(md, ipi.getIssuerParametersDigest());
+        update(md, upt.getIssuerParametersUID());
+        update(md, upt.getPublicKey());
+        update(md, upt.getTokenInformation());
+        update(md, upt.getProverInformation());
+        update(md, upt.getSigmaZ());
+        update(md, upt.getSigmaC());
+        update(md, upt.getSigmaR());
+        md.update(upt.isDeviceProtected() ? (byte) 1 : (byte) 0);
+        return new Key(md.digest());
+    }
+
+    /**
+     * Indicates whether a token's signature was recently verified.
+     * @param key the token's key, or <code>null</code>.
+     * @return <code>true</code> if the token is cached.
+     */
+    static boolean isVerified(final Key key) {
+        final BoundedCache<Key, Boolean> c = cache;
+        return key != null && c != null && c.get(key) != null;
+    }
+
+    /**
+     * Records that a token's signature verified.
+     * @param key the token's key, or <code>null</code>.
+     */
+    static void verified(final Key key) {
+        final BoundedCache<Key, Boolean> c = cache;
+        if (key != null && c != null) {
+            c.putIfAbsent(key, Boolean.TRUE);
+        }
+    }
+
+    // a null field is hashed as the length -1
+    private static void update(final MessageDigest md, final byte[] value) {
+        final int length = value == null ? -1 : value.length;
+        md.update((byte) (length >>> 24));
+        md.update((byte) (length >>> 16));
+        md.update((byte) (length >>> 8));
+        md.update((byte) length);
+        if (value != null) {
+            md.update(value);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove.net;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/*
+ * LOW-LEVEL IMPLEMENTATION CLASS. NOT PART OF PUBLIC API.
+ */
+
+/**
+ * The framing of the issuance protocol messages.
+ * <p>Each frame is laid out as follows, all integers being big-endian:</p>
+ * <pre>
+ * int    length    the number of bytes following this field
+ * int    session   the session identifier, chosen by the client
+ * byte   type      the frame type
+ * int    count     the number of elements
+ * count times:
+ *   int  length    the element length
+ *   byte[length]   the element
+ * </pre>
+ * <p>A connection carries any number of interleaved sessions. A client
+ * starts a session with a {@link #REQUEST} frame, to which the server
+ * answers with a {@link #FIRST} frame; the client then sends the
+ * {@link #SECOND} frame and the server answers with the {@link #THIRD}
+ * frame, ending the session. Either side may answer with an {@link #ERROR}
+ * frame, holding one UTF-8 encoded element, which also ends the
+ * session.</p>
+ */
+final class Frames {
+
+    /** Starts a session; the elements are passed to the handler. */
+    static final byte REQUEST = 1;
+    /** The first issuance message. */
+    static final byte FIRST = 2;
+    /** The second issuance message. */
+    static final byte SECOND = 3;
+    /** The third issuance message. */
+    static final byte THIRD = 4;
+    /** An error, ending the session. */
+    static final byte ERROR = 5;
+
+    /** The maximum frame length accepted. */
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    // session, type and count
+    private static final int HEADER_LENGTH = 4 + 1 + 4;
+
+    /**
+     * A decoded frame.
+     */
+    static final class Frame {
+        final int session;
+        final byte type;
+        final byte[][] elements;
+
+        Frame(final int session, final byte type, final byte[][] elements) {
+            this.session = session;
+            this.type = type;
+            this.elements = elements;
+        }
+
+        /**
+         * Returns the message of an error frame.
+         * @return the error message.
+         */
+        String getErrorMessage() {
+            if (elements.length != 1) {
+                return "unknown error";
+            }
+            try {
+                return new String(elements[0], "UTF-8");
+            } catch (UnsupportedEncodingException uee) {
+                throw new AssertionError(uee);
+            }
+        }
+    }
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private Frames() {
+        super();
+    }
+
+    /**
+     * Encodes a frame.
+     * @param session the session identifier.
+     * @param type the frame type.
+     * @param elements the elements.
+     * @return the encoded frame, ready to be written.
+     */
+    static ByteBuffer encode(final int session, final byte type,
+            final byte[][] elements) {
+        int length = HEADER_LENGTH;
+        for (int i = 0; i < elements.length; i++) {
+            length += 4 + elements[i].length;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length).putInt(session).put(type)
+            .putInt(elements.length);
+        for (int i = 0; i < elements.length; i++) {
+            buffer.putInt(elements[i].length).put(elements[i]);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes an error frame.
+     * @param session the session identifier.
+     * @param message the error message.
+     * @return the encoded frame.
+     */
+    static ByteBuffer encodeError(final int session, final String message) {
+        try {
+            return encode(session, ERROR, new byte[][] {
+                (message == null ? "error" : message).getBytes("UTF-8")});
+        } catch (UnsupportedEncodingException uee) {
+            throw new AssertionError(uee);
+        }
+    }
+
+    /**
+     * Decodes a frame from a buffer, if it holds a whole frame.
+     * @param buffer a buffer in read mode. Its position is advanced past the
+     * frame if one is decoded.
+     * @return the frame, or <code>null</code> if the buffer doesn't hold a
+     * whole frame yet.
+     * @throws IOException if the frame is malformed.
+     */
+    static Frame decode(final ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4) {
+            return null;
+        }
+        final int length = buffer.getInt(buffer.position());
+        checkLength(length);
+        if (buffer.remaining() < 4 + length) {
+            return null;
+        }
+        final int end = buffer.position() + 4 + length;
+        buffer.position(buffer.position() + 4);
+        final int session = buffer.getInt();
+        final byte type = buffer.get();
+        final int count = buffer.getInt();
+        if (count < 0 || count > (end - buffer.position()) / 4) {
+            throw new IOException("invalid element count: " + count);
+        }
+        final byte[][] elements = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            if (end - buffer.position() < 4) {
+                throw new IOException("truncated frame");
+            }
+            final int elementLength = buffer.getInt();
+            if (elementLength < 0 || elementLength > end - buffer.position()) {
+                throw new IOException("invalid element length");
+            }
+            elements[i] = new byte[elementLength];
+            buffer.get(elements[i]);
+        }
+        if (buffer.position() != end) {
+            throw new IOException("trailing bytes in frame");
+        }
+        return new Frame(session, type, elements);
+    }
+
+    /**
+     * Returns the length of the frame starting a buffer, if known.
+     * @param buffer a buffer in read mode.
+     * @return the total frame length, or <code>-1</code> if the buffer
+     * holds less than the length field.
+     * @throws IOException if the length is invalid.
+     */
+    static int frameLength(final ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4) {
+            return -1;
+        }
+        final int length = buffer.getInt(buffer.position());
+        checkLength(length);
+        return 4 + length;
+    }
+
+    /**
+     * Reads a frame from a stream.
+     * @param in the stream.
+     * @return the frame.
+     * @throws IOException if the frame can't be read or is malformed.
+     */
+    static Frame read(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        checkLength(length);
+        final byte[] frame = new byte[4 + length];
+        ByteBuffer.wrap(frame).putInt(length);
+        in.readFully(frame, 4, length);
+        return decode(ByteBuffer.wrap(frame));
+    }
+
+    /**
+     * Writes a frame to a stream. The stream is not flushed.
+     * @param out the stream.
+     * @param session the session identifier.
+     * @param type the frame type.
+     * @param elements the elements.
+     * @throws IOException if the frame can't be written.
+     */
+    static void write(final DataOutputStream out, final int session,
+            final byte type, final byte[][] elements) throws IOException {
+        final ByteBuffer frame = encode(session, type, elements);
+        out.write(frame.array(), 0, frame.limit());
+    }
+
+    /**
+     * Checks a frame length field.
+     * @param length the length field.
+     * @throws IOException if the length is invalid.
+     */
+    private static void checkLength(final int length) throws IOException {
+        if (length < HEADER_LENGTH || length > MAX_FRAME_LENGTH) {
+            throw new IOException("invalid frame length: " + length);
+        }
+    }
+}
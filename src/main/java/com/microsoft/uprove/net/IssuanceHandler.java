@@ -0,0 +1,37 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove.net;
+
+import java.io.IOException;
+
+import com.microsoft.uprove.IssuerProtocolParameters;
+
+/**
+ * Decides what an {@link IssuanceServer} issues in a session.
+ * <p>Handlers are called from the server's worker threads, possibly
+ * concurrently, and must be thread-safe.</p>
+ */
+public interface IssuanceHandler {
+
+    /**
+     * Returns the Issuer protocol parameters of a new session, for instance
+     * after authenticating the client and looking up its attributes.
+     * @param request the elements of the client's request.
+     * @return the Issuer protocol parameters of the session.
+     * @throws IOException if the request can't be processed; the message
+     * is sent to the client.
+     * @throws SecurityException if the request is refused; the message is
+     * sent to the client.
+     */
+    IssuerProtocolParameters getProtocolParameters(byte[][] request)
+        throws IOException;
+}
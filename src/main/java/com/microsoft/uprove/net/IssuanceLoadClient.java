@@ -0,0 +1,202 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.uprove.Prover;
+import com.microsoft.uprove.ProverProtocolParameters;
+
+/**
+ * Generates issuance load against an {@link IssuanceServer} and measures
+ * its throughput and latency.
+ * <p>The client opens a number of connections and keeps a number of
+ * sessions in progress on each of them. Each session sends the request,
+ * answers the first message and obtains the tokens, verifying the Issuer
+ * signatures, so the measured latency covers the whole protocol.</p>
+ */
+public final class IssuanceLoadClient {
+
+    private final InetSocketAddress server;
+    private final ProverProtocolParameters parameters;
+    private final byte[][] request;
+    private final int connections;
+    private final int sessionsPerConnection;
+
+    /**
+     * Constructs a new load client.
+     * @param server the server address.
+     * @param parameters the Prover protocol parameters, matching what the
+     * server issues for <code>request</code>.
+     * @param request the request elements sent to start each session.
+     * @param connections the number of connections.
+     * @param sessionsPerConnection the number of sessions kept in progress
+     * on each connection.
+     */
+    public IssuanceLoadClient(final InetSocketAddress server,
+            final ProverProtocolParameters parameters, final byte[][] request,
+            final int connections, final int sessionsPerConnection) {
+        if (connections < 1 || sessionsPerConnection < 1) {
+            throw new IllegalArgumentException(
+                "connections and sessionsPerConnection must be > 0");
+        }
+        this.server = server;
+        this.parameters = parameters;
+        this.request = request;
+        this.connections = connections;
+        this.sessionsPerConnection = sessionsPerConnection;
+    }
+
+    /**
+     * Runs sessions until a given number completed or failed.
+     * @param sessions the total number of sessions.
+     * @return the report of the run.
+     * @throws IOException if the parameters are invalid or a connection
+     * fails.
+     * @throws InterruptedException if interrupted.
+     */
+    public LoadReport run(final int sessions)
+            throws IOException, InterruptedException {
+        parameters.validate();
+        final long[] latencies = new long[sessions];
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final IOException[] failure = new IOException[1];
+        final Thread[] threads = new Thread[connections];
+        final long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            // spread the sessions evenly
+            final int quota = (int) ((long) sessions * (c + 1) / connections
+                - (long) sessions * c / connections);
+            threads[c] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        runConnection(quota, latencies, completed, failed);
+                    } catch (IOException ioe) {
+                        synchronized (failure) {
+                            failure[0] = ioe;
+                        }
+                    }
+                }
+            }, "U-Prove load client-" + c);
+            threads[c].start();
+        }
+        for (int c = 0; c < connections; c++) {
+            threads[c].join();
+        }
+        final long elapsed = System.nanoTime() - start;
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        final long[] done = new long[(int) completed.get()];
+        System.arraycopy(latencies, 0, done, 0, done.length);
+        return new LoadReport(failed.get(), elapsed, done);
+    }
+
+    /**
+     * Runs sessions on one connection.
+     * @param quota the number of sessions to run.
+     * @param latencies receives the latencies of the completed sessions.
+     * @param completed the completed session count, indexing
+     * <code>latencies</code>.
+     * @param failed the failed session count.
+     * @throws IOException if the connection fails.
+     */
+    private void runConnection(final int quota, final long[] latencies,
+            final AtomicLong completed, final AtomicLong failed)
+            throws IOException {
+        final Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(server);
+            final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            final HashMap<Integer, Prover> provers = new HashMap<Integer, Prover>();
+            final HashMap<Integer, Long> starts = new HashMap<Integer, Long>();
+            int started = 0;
+            int ended = 0;
+            while (started < quota && started < sessionsPerConnection) {
+                startSession(started++, out, provers, starts);
+            }
+            out.flush();
+            while (ended < quota) {
+                final Frames.Frame frame = Frames.read(in);
+                final Integer session = Integer.valueOf(frame.session);
+                final Prover prover = provers.get(session);
+                if (prover == null) {
+                    throw new IOException("unknown session " + frame.session);
+                }
+                boolean done = true;
+                try {
+                    switch (frame.type) {
+                    case Frames.FIRST:
+                        Frames.write(out, frame.session, Frames.SECOND,
+                            prover.generateSecondMessage(frame.elements));
+                        done = false;
+                        break;
+                    case Frames.THIRD:
+                        prover.generateTokens(frame.elements);
+                        final long latency = System.nanoTime()
+                            - starts.get(session).longValue();
+                        latencies[(int) completed.getAndIncrement()] = latency;
+                        break;
+                    default:
+                        failed.incrementAndGet();
+                    }
+                } catch (RuntimeException re) {
+                    // an invalid message or response
+                    failed.incrementAndGet();
+                }
+                if (done) {
+                    provers.remove(session);
+                    starts.remove(session);
+                    ended++;
+                    if (started < quota) {
+                        startSession(started++, out, provers, starts);
+                    }
+                }
+                out.flush();
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Starts a session.
+     * @param session the session identifier.
+     * @param out the connection output.
+     * @param provers the Prover instances of the sessions in progress.
+     * @param starts the start times of the sessions in progress.
+     * @throws IOException if the request can't be sent.
+     */
+    private void startSession(final int session, final DataOutputStream out,
+            final HashMap<Integer, Prover> provers,
+            final HashMap<Integer, Long> starts) throws IOException {
+        final Integer key = Integer.valueOf(session);
+        starts.put(key, Long.valueOf(System.nanoTime()));
+        provers.put(key, parameters.generate());
+        Frames.write(out, session, Frames.REQUEST, request);
+    }
+}
@@ -0,0 +1,628 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.uprove.Issuer;
+import com.microsoft.uprove.IssuerSessionManager;
+
+/**
+ * A non-blocking issuance server.
+ * <p>The server accepts connections on a selector thread and multiplexes
+ * any number of issuance sessions per connection, using the framing
+ * described in the package documentation. The cryptographic work runs on a
+ * pool of worker threads. The server applies backpressure: it stops
+ * reading from a connection with too many requests in progress, and from
+ * all connections when the workers have too many requests queued, and
+ * from a connection whose responses the client doesn't read, so that the
+ * load on the server stays bounded whatever the clients send. The sessions
+ * waiting for their second message are held by an
+ * {@link IssuerSessionManager}, which bounds their memory and erases them
+ * when they expire or when their connection closes.</p>
+ * <p>Usage:</p>
+ * <pre>
+ * IssuanceServer server = new IssuanceServer(new InetSocketAddress(port),
+ *     handler, workerThreads);
+ * server.start();
+ * ...
+ * server.close();
+ * </pre>
+ */
+public final class IssuanceServer {
+
+    // the initial read buffer size of a connection
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    // the queued output size above which a connection isn't read from
+    private static final int MAX_QUEUED_OUTPUT = 256 * 1024;
+
+    // the number of open sessions above which a connection's requests are
+    // rejected
+    private static final int MAX_SESSIONS_PER_CONNECTION = 4096;
+
+    /**
+     * The default time, in milliseconds, after which a session waiting for
+     * its second message expires.
+     */
+    public static final long DEFAULT_SESSION_TTL = 60 * 1000;
+
+    /**
+     * The default memory budget, in bytes, of the sessions waiting for
+     * their second message.
+     */
+    public static final long DEFAULT_SESSION_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    /**
+     * A client connection.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final LinkedList<ByteBuffer> out = new LinkedList<ByteBuffer>();
+        // the number of queued output bytes, guarded by out
+        private int outBytes = 0;
+        // the session manager identifiers of the sessions waiting for their
+        // second message; a null value marks a session whose first message
+        // is being computed
+        private final HashMap<Integer, String> sessions =
+            new HashMap<Integer, String>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean closed = false;
+
+        Connection(final SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Indicates whether the connection may read more requests.
+         * @return <code>true</code> if reading is allowed.
+         */
+        boolean canRead() {
+            synchronized (out) {
+                if (outBytes >= MAX_QUEUED_OUTPUT) {
+                    return false;
+                }
+            }
+            return pending.get() < maxPendingPerConnection
+                && inFlight.get() < maxInFlight;
+        }
+
+        /**
+         * Indicates whether output is waiting to be written.
+         * @return <code>true</code> if output is queued.
+         */
+        boolean hasOutput() {
+            synchronized (out) {
+                return !out.isEmpty();
+            }
+        }
+
+        /**
+         * Queues a frame for writing and wakes the selector up.
+         * @param frame the encoded frame.
+         */
+        void send(final ByteBuffer frame) {
+            if (closed) {
+                return;
+            }
+            synchronized (out) {
+                out.addLast(frame);
+                outBytes += frame.remaining();
+            }
+            selector.wakeup();
+        }
+
+        /**
+         * Reads the available bytes and handles the complete frames.
+         * @throws IOException if the connection fails or a frame is
+         * malformed.
+         */
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new IOException("connection closed by peer");
+            }
+            drain();
+        }
+
+        /**
+         * Handles the complete frames already read, as long as the
+         * backpressure limits allow it.
+         * @throws IOException if a frame is malformed.
+         */
+        void drain() throws IOException {
+            in.flip();
+            Frames.Frame frame;
+            while (canRead() && (frame = Frames.decode(in)) != null) {
+                handle(this, frame);
+            }
+            // make room for the next frame
+            final int needed = Frames.frameLength(in);
+            in.compact();
+            if (needed > in.capacity()) {
+                final ByteBuffer larger = ByteBuffer.allocate(needed);
+                in.flip();
+                larger.put(in);
+                in = larger;
+            }
+        }
+
+        /**
+         * Indicates whether bytes were read but not handled yet.
+         * @return <code>true</code> if input is buffered.
+         */
+        boolean hasInput() {
+            return in.position() > 0;
+        }
+
+        /**
+         * Writes as much queued output as the channel accepts.
+         * @throws IOException if the connection fails.
+         */
+        void write() throws IOException {
+            synchronized (out) {
+                while (!out.isEmpty()) {
+                    final ByteBuffer frame = out.getFirst();
+                    outBytes -= channel.write(frame);
+                    if (frame.hasRemaining()) {
+                        return;
+                    }
+                    out.removeFirst();
+                }
+            }
+        }
+
+        /**
+         * Removes a session, erasing it if it is waiting for its second
+         * message.
+         * @param session the session number.
+         */
+        void drop(final Integer session) {
+            final String sessionID;
+            synchronized (sessions) {
+                sessionID = sessions.remove(session);
+            }
+            if (sessionID != null) {
+                issuerSessions.cancel(sessionID);
+            }
+        }
+
+        /**
+         * Closes the connection, erasing its sessions.
+         */
+        void close() {
+            final Object[] sessionIDs;
+            synchronized (sessions) {
+                closed = true;
+                sessionIDs = sessions.values().toArray();
+                sessions.clear();
+            }
+            for (int i = 0; i < sessionIDs.length; i++) {
+                if (sessionIDs[i] != null) {
+                    issuerSessions.cancel((String) sessionIDs[i]);
+                }
+            }
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                // nothing else to do
+            }
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final IssuanceHandler handler;
+    private final int maxPendingPerConnection;
+    private final int maxInFlight;
+    private final ExecutorService workers;
+    private final IssuerSessionManager issuerSessions;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread selectorThread;
+    private volatile boolean running = false;
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * Constructs a new server with default limits: 64 requests in progress
+     * per connection, 16 per worker thread overall, and the default session
+     * time to live and memory budget.
+     * @param address the address to listen on; port <code>0</code> picks
+     * an ephemeral port.
+     * @param handler the handler deciding what each session issues.
+     * @param workerThreads the number of worker threads.
+     */
+    public IssuanceServer(final InetSocketAddress address,
+            final IssuanceHandler handler, final int workerThreads) {
+        this(address, handler, workerThreads, 64, 16 * workerThreads);
+    }
+
+    /**
+     * Constructs a new server.
+     * @param address the address to listen on; port <code>0</code> picks
+     * an ephemeral port.
+     * @param handler the handler deciding what each session issues.
+     * @param workerThreads the number of worker threads.
+     * @param maxPendingPerConnection the number of requests in progress
+     * above which the server stops reading from a connection.
+     * @param maxInFlight the number of requests in progress above which the
+     * server stops reading from all connections.
+     */
+    public IssuanceServer(final InetSocketAddress address,
+            final IssuanceHandler handler, final int workerThreads,
+            final int maxPendingPerConnection, final int maxInFlight) {
+        this(address, handler, workerThreads, maxPendingPerConnection,
+            maxInFlight, DEFAULT_SESSION_TTL, DEFAULT_SESSION_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructs a new server.
+     * @param address the address to listen on; port <code>0</code> picks
+     * an ephemeral port.
+     * @param handler the handler deciding what each session issues.
+     * @param workerThreads the number of worker threads.
+     * @param maxPendingPerConnection the number of requests in progress
+     * above which the server stops reading from a connection.
+     * @param maxInFlight the number of requests in progress above which the
+     * server stops reading from all connections.
+     * @param sessionTTL the time, in milliseconds, after which a session
+     * waiting for its second message expires.
+     * @param sessionMemoryBudget the maximum estimated memory, in bytes,
+     * held by the sessions waiting for their second message; requests above
+     * it are rejected.
+     */
+    public IssuanceServer(final InetSocketAddress address,
+            final IssuanceHandler handler, final int workerThreads,
+            final int maxPendingPerConnection, final int maxInFlight,
+            final long sessionTTL, final long sessionMemoryBudget) {
+        if (workerThreads < 1 || maxPendingPerConnection < 1
+            || maxInFlight < 1) {
+            throw new IllegalArgumentException("limits must be > 0");
+        }
+        if (handler == null) {
+            throw new NullPointerException();
+        }
+        this.address = address;
+        this.handler = handler;
+        this.maxPendingPerConnection = maxPendingPerConnection;
+        this.maxInFlight = maxInFlight;
+        this.issuerSessions = new IssuerSessionManager(sessionTTL,
+            sessionMemoryBudget);
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads,
+            new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r,
+                        "U-Prove issuance worker-"
+                        + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    /**
+     * Binds the server and starts accepting connections.
+     * @throws IOException if the server can't be bound.
+     * @throws IllegalStateException if the server was already started.
+     */
+    public synchronized void start() throws IOException {
+        if (selector != null) {
+            throw new IllegalStateException("server already started");
+        }
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.socket().bind(address);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        selectorThread = new Thread(new Runnable() {
+            public void run() {
+                loop();
+            }
+        }, "U-Prove issuance selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     * @return the local port.
+     * @throws IllegalStateException if the server isn't started.
+     */
+    public int getLocalPort() {
+        if (server == null) {
+            throw new IllegalStateException("server not started");
+        }
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Stops the server, closing all connections and erasing the sessions
+     * in progress.
+     * @throws InterruptedException if interrupted while waiting for the
+     * selector thread.
+     */
+    public void close() throws InterruptedException {
+        running = false;
+        workers.shutdownNow();
+        final Thread t;
+        synchronized (this) {
+            t = selectorThread;
+        }
+        if (t != null) {
+            selector.wakeup();
+            t.join();
+        }
+        issuerSessions.close();
+    }
+
+    /**
+     * Returns the number of sessions completed with a third message.
+     * @return the completed session count.
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * Returns the number of sessions that ended with an error.
+     * @return the failed session count.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * The selector loop.
+     */
+    private void loop() {
+        try {
+            while (running) {
+                updateInterest();
+                selector.select();
+                final Iterator<SelectionKey> it =
+                    selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    final Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException ioe) {
+                        key.cancel();
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            // the selector failed; shut down below
+        } finally {
+            for (final SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException ioe) {
+                // nothing else to do
+            }
+        }
+    }
+
+    /**
+     * Accepts a pending connection.
+     * @throws IOException if the connection can't be set up.
+     */
+    private void accept() throws IOException {
+        final SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ,
+            new Connection(channel));
+    }
+
+    /**
+     * Updates the operations of interest of all connections, applying the
+     * backpressure limits.
+     */
+    private void updateInterest() {
+        for (final SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof Connection)) {
+                continue;
+            }
+            final Connection connection = (Connection) key.attachment();
+            int ops = 0;
+            if (connection.canRead()) {
+                ops |= SelectionKey.OP_READ;
+                if (connection.hasInput()) {
+                    // frames held back by the limits
+                    try {
+                        connection.drain();
+                    } catch (IOException ioe) {
+                        key.cancel();
+                        connection.close();
+                        continue;
+                    }
+                }
+            }
+            if (connection.hasOutput()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+    }
+
+    /**
+     * Handles a frame received on a connection.
+     * @param connection the connection.
+     * @param frame the frame.
+     */
+    private void handle(final Connection connection,
+            final Frames.Frame frame) {
+        final Integer session = Integer.valueOf(frame.session);
+        switch (frame.type) {
+        case Frames.REQUEST:
+            synchronized (connection.sessions) {
+                if (connection.sessions.containsKey(session)) {
+                    connection.send(Frames.encodeError(frame.session,
+                        "session already exists"));
+                    return;
+                }
+                if (connection.sessions.size()
+                    >= MAX_SESSIONS_PER_CONNECTION) {
+                    failedCount.incrementAndGet();
+                    connection.send(Frames.encodeError(frame.session,
+                        "too many sessions"));
+                    return;
+                }
+                connection.sessions.put(session, null);
+            }
+            submit(connection, frame.session, new Task() {
+                public ByteBuffer run() throws IOException {
+                    final Issuer issuer = handler.getProtocolParameters(
+                        frame.elements).generate();
+                    final byte[][] message1 = issuer.generateFirstMessage();
+                    // erases the issuer if the memory budget is exceeded
+                    final String sessionID = issuerSessions.add(issuer);
+                    synchronized (connection.sessions) {
+                        if (!connection.closed
+                            && connection.sessions.containsKey(session)) {
+                            connection.sessions.put(session, sessionID);
+                            return Frames.encode(frame.session,
+                                Frames.FIRST, message1);
+                        }
+                    }
+                    // the session was dropped meanwhile
+                    issuerSessions.cancel(sessionID);
+                    throw new IOException("session closed");
+                }
+            });
+            break;
+        case Frames.SECOND:
+            final String sessionID;
+            synchronized (connection.sessions) {
+                sessionID = connection.sessions.get(session);
+                if (sessionID != null) {
+                    // each session is answered once
+                    connection.sessions.remove(session);
+                }
+            }
+            if (sessionID == null) {
+                failedCount.incrementAndGet();
+                connection.send(Frames.encodeError(frame.session,
+                    "no such session"));
+                return;
+            }
+            submit(connection, frame.session, new Task() {
+                public ByteBuffer run() throws IOException {
+                    // fails if the session expired
+                    final ByteBuffer third = Frames.encode(frame.session,
+                        Frames.THIRD, issuerSessions.generateThirdMessage(
+                            sessionID, frame.elements));
+                    completedCount.incrementAndGet();
+                    return third;
+                }
+            });
+            break;
+        default:
+            connection.drop(session);
+            failedCount.incrementAndGet();
+            connection.send(Frames.encodeError(frame.session,
+                "unexpected frame type " + frame.type));
+        }
+    }
+
+    /**
+     * Work run on a worker thread.
+     */
+    private interface Task {
+        /**
+         * Runs the work.
+         * @return the response frame.
+         * @throws IOException if the work fails.
+         */
+        ByteBuffer run() throws IOException;
+    }
+
+    /**
+     * Submits work for a session to the workers. Failures end the session
+     * with an error frame.
+     * @param connection the connection.
+     * @param session the session identifier.
+     * @param task the work.
+     */
+    private void submit(final Connection connection, final int session,
+            final Task task) {
+        connection.pending.incrementAndGet();
+        inFlight.incrementAndGet();
+        try {
+            workers.execute(new Runnable() {
+                public void run() {
+                    ByteBuffer response;
+                    try {
+                        response = task.run();
+                    } catch (Exception e) {
+                        connection.drop(Integer.valueOf(session));
+                        failedCount.incrementAndGet();
+                        response = Frames.encodeError(session, e.getMessage());
+                    } finally {
+                        connection.pending.decrementAndGet();
+                        inFlight.decrementAndGet();
+                    }
+                    connection.send(response);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            connection.drop(Integer.valueOf(session));
+            connection.pending.decrementAndGet();
+            inFlight.decrementAndGet();
+            connection.send(Frames.encodeError(session, "server closing"));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove.net;
+
+import java.util.Arrays;
+
+/**
+ * The results of a run of the {@link IssuanceLoadClient}.
+ */
+public final class LoadReport {
+
+    private final long completed;
+    private final long failed;
+    private final long elapsedNanos;
+    private final long[] latencies;
+
+    /**
+     * Constructs a new report.
+     * @param failed the number of failed sessions.
+     * @param elapsedNanos the duration of the run, in nanoseconds.
+     * @param latencies the latencies of the completed sessions, in
+     * nanoseconds.
+     */
+    LoadReport(final long failed, final long elapsedNanos,
+            final long[] latencies) {
+        this.completed = latencies.length;
+        this.failed = failed;
+        this.elapsedNanos = elapsedNanos;
+        this.latencies = latencies.clone();
+        Arrays.sort(this.latencies);
+    }
+
+    /**
+     * Returns the number of sessions that obtained their tokens.
+     * @return the completed session count.
+     */
+    public long getCompletedCount() {
+        return completed;
+    }
+
+    /**
+     * Returns the number of sessions that ended with an error.
+     * @return the failed session count.
+     */
+    public long getFailedCount() {
+        return failed;
+    }
+
+    /**
+     * Returns the duration of the run.
+     * @return the duration, in milliseconds.
+     */
+    public double getElapsedMillis() {
+        return elapsedNanos / 1e6;
+    }
+
+    /**
+     * Returns the number of sessions completed per second.
+     * @return the throughput.
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0.0 : completed * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Returns a latency percentile, from the start of a session to the
+     * verification of its tokens.
+     * @param percentile the percentile, between <code>0</code> and
+     * <code>100</code>.
+     * @return the latency, in milliseconds, or <code>0</code> if no session
+     * completed.
+     */
+    public double getLatencyMillis(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("invalid percentile");
+        }
+        if (latencies.length == 0) {
+            return 0.0;
+        }
+        // nearest rank
+        final int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+        return latencies[Math.max(0, rank - 1)] / 1e6;
+    }
+
+    /**
+     * Returns a string representation of the report.
+     * @return a string representation of the report.
+     */
+    public String toString() {
+        return new StringBuffer("LoadReport[completed=").append(completed)
+            .append(", failed=").append(failed)
+            .append(", elapsed=").append(format(getElapsedMillis()))
+            .append("ms, throughput=").append(format(getThroughput()))
+            .append("/s, p50=").append(format(getLatencyMillis(50)))
+            .append("ms, p90=").append(format(getLatencyMillis(90)))
+            .append("ms, p99=").append(format(getLatencyMillis(99)))
+            .append("ms, max=").append(format(getLatencyMillis(100)))
+            .append("ms]").toString();
+    }
+
+    private static String format(final double value) {
+        return String.valueOf(Math.round(value * 10) / 10.0);
+    }
+}
@@ -0,0 +1,84 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+import com.microsoft.uprove.IssuerKeyAndParameters;
+import com.microsoft.uprove.IssuerProtocolParameters;
+import com.microsoft.uprove.IssuerSetupParameters;
+import com.microsoft.uprove.ProverProtocolParameters;
+import com.microsoft.uprove.net.IssuanceHandler;
+import com.microsoft.uprove.net.IssuanceLoadClient;
+import com.microsoft.uprove.net.IssuanceServer;
+
+import java.net.InetSocketAddress;
+
+/**
+ * This sample starts a local issuance server for fresh issuer parameters
+ * and reports on a load test against it.
+ * <pre>
+ * java IssuanceLoadSample
+ *     [sessions [connections [sessionsPerConnection [tokensPerSession [workerThreads]]]]]
+ * </pre>
+ */
+public class IssuanceLoadSample
+{
+
+    /**
+     * Runs the load test.
+     * @param args the number of sessions, connections, sessions per
+     * connection, tokens per session and server worker threads, all
+     * optional.
+     * @throws Exception if the test fails.
+     */
+    public static void main(final String[] args)
+        throws Exception
+    {
+        final int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int connections = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        final int perConnection = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        final int tokens = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        final int workers = args.length > 4 ? Integer.parseInt(args[4])
+            : Runtime.getRuntime().availableProcessors();
+
+        final IssuerSetupParameters isp = new IssuerSetupParameters();
+        isp.setEncodingBytes(new byte[] {1, 0});
+        isp.setHashAlgorithmUID("SHA-256");
+        isp.setParametersUID("load test".getBytes("UTF-8"));
+        isp.setSpecification("load test".getBytes("UTF-8"));
+        final IssuerKeyAndParameters ikap = isp.generate();
+        final byte[][] attributes = new byte[][] {
+            "attribute".getBytes("UTF-8"), new byte[] {1}};
+        final byte[] tokenInformation = "token information".getBytes("UTF-8");
+        final IssuerProtocolParameters ipp = new IssuerProtocolParameters(
+            tokens, ikap, attributes, tokenInformation, null);
+        ipp.validate();
+
+        final IssuanceServer server = new IssuanceServer(
+            new InetSocketAddress("127.0.0.1", 0), new IssuanceHandler() {
+                public IssuerProtocolParameters getProtocolParameters(
+                        final byte[][] request) {
+                    return ipp;
+                }
+            }, workers);
+        server.start();
+        try {
+            final IssuanceLoadClient client = new IssuanceLoadClient(
+                new InetSocketAddress("127.0.0.1", server.getLocalPort()),
+                new ProverProtocolParameters(tokens,
+                    ikap.getIssuerParameters(), attributes, tokenInformation,
+                    null),
+                new byte[0][], connections, perConnection);
+            System.out.println(client.run(sessions));
+        } finally {
+            server.close();
+        }
+    }
+
+}
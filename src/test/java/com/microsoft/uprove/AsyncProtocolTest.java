@@ -0,0 +1,97 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import junit.framework.TestCase;
+
+public class AsyncProtocolTest extends TestCase {
+
+    public AsyncProtocolTest(String name) {
+    	super(name);
+	}
+
+    public void testAsyncProtocol() throws Exception {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	final IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+
+    	// chained issuance and presentation
+    	final AsyncProtocol async = new AsyncProtocol();
+    	final Issuer issuer = new IssuerProtocolParameters(2, ikap, attributes, tokenInformation, null).generate();
+    	final Prover prover = new ProverProtocolParameters(2, ip, attributes, tokenInformation, null).generate();
+    	UProveKeyAndToken[] tokens = async.generateFirstMessageAsync(issuer)
+    		.thenCompose(new Function<byte[][], CompletableFuture<byte[][]>>() {
+    			public CompletableFuture<byte[][]> apply(byte[][] message1) {
+    				return async.generateSecondMessageAsync(prover, message1);
+    			}
+    		}).thenCompose(new Function<byte[][], CompletableFuture<byte[][]>>() {
+    			public CompletableFuture<byte[][]> apply(byte[][] message2) {
+    				return async.generateThirdMessageAsync(issuer, message2);
+    			}
+    		}).thenCompose(new Function<byte[][], CompletableFuture<UProveKeyAndToken[]>>() {
+    			public CompletableFuture<UProveKeyAndToken[]> apply(byte[][] message3) {
+    				return async.generateTokensAsync(prover, message3);
+    			}
+    		}).get();
+    	assertEquals(2, tokens.length);
+    	PresentationProof proof = async.generatePresentationProofAsync(ip, new int[] {1}, tokenInformation, new byte[0], tokens[0], attributes).get();
+    	async.verifyPresentationProofAsync(ip, new int[] {1}, tokenInformation, new byte[0], tokens[0].getToken(), proof).get();
+    	try {
+    		async.verifyPresentationProofAsync(ip, new int[] {1}, "other".getBytes(), new byte[0], tokens[0].getToken(), proof).get();
+    		fail("invalid proof accepted");
+    	} catch (ExecutionException ee) {
+    		assertTrue(ee.getCause() instanceof InvalidProofException);
+    	}
+
+    	// a cancelled or timed out operation doesn't run
+    	ExecutorService executor = Executors.newSingleThreadExecutor();
+    	final CountDownLatch blocked = new CountDownLatch(1);
+    	executor.execute(new Runnable() {
+    		public void run() {
+    			try {
+    				blocked.await();
+    			} catch (InterruptedException ie) {
+    				// done
+    			}
+    		}
+    	});
+    	AsyncProtocol bounded = new AsyncProtocol(executor, null);
+    	Issuer cancelled = new IssuerProtocolParameters(2, ikap, attributes, tokenInformation, null).generate();
+    	CompletableFuture<byte[][]> future = bounded.generateFirstMessageAsync(cancelled);
+    	assertTrue(future.cancel(true));
+    	bounded.setTimeout(20);
+    	Issuer timedOut = new IssuerProtocolParameters(2, ikap, attributes, tokenInformation, null).generate();
+    	future = bounded.generateFirstMessageAsync(timedOut);
+    	try {
+    		future.get();
+    		fail("timeout expected");
+    	} catch (ExecutionException ee) {
+    		assertTrue(ee.getCause() instanceof TimeoutException);
+    	}
+    	blocked.countDown();
+    	executor.shutdown();
+    	assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    	// neither instance left its initial state
+    	assertEquals(4, cancelled.generateFirstMessage().length);
+    	assertEquals(4, timedOut.generateFirstMessage().length);
+    }
+}
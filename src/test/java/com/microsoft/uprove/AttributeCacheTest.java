@@ -0,0 +1,119 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+
+import junit.framework.TestCase;
+
+public class AttributeCacheTest extends TestCase {
+
+    public AttributeCacheTest(String name) {
+    	super(name);
+	}
+
+    protected void tearDown() throws Exception {
+    	Config.setAttributeCacheSize(-1);
+    	super.tearDown();
+    }
+
+    private static IssuerKeyAndParameters generateIssuerKeyAndParameters(boolean supportDevice) throws IOException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerSetupParameters isp = new IssuerSetupParameters();
+    	isp.setEncodingBytes(new byte[] {1, 0, 1});
+    	isp.setHashAlgorithmUID("SHA-256");
+    	isp.setParametersUID("cache test UID".getBytes());
+    	isp.setSpecification("specification".getBytes());
+    	isp.setSupportDevice(supportDevice);
+    	return isp.generate();
+    }
+
+    public void testSameResults() throws IOException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = generateIssuerKeyAndParameters(false);
+    	byte[][] attributes = new byte[][] {"US".getBytes(), new byte[] {42}, null};
+    	byte[] tokenInformation = "campaign".getBytes();
+    	IssuerProtocolParameters ipp = new IssuerProtocolParameters(1, ikap, attributes, tokenInformation, null);
+
+    	Config.setAttributeCacheSize(0);
+    	GroupElement expected = IssuerFactory.computeInput(ipp).getGamma();
+
+    	Config.setAttributeCacheSize(1024 * 1024);
+    	assertEquals(expected, IssuerFactory.computeInput(ipp).getGamma());
+    	// second time around, everything comes from the cache
+    	assertEquals(expected, IssuerFactory.computeInput(ipp).getGamma());
+
+    	CacheStatistics stats = Config.getAttributeCacheStatistics();
+    	assertEquals(4, stats.getEntryCount());
+    	// each term is looked up once per computation
+    	assertEquals(4, stats.getMissCount());
+    	assertEquals(4, stats.getHitCount());
+    	assertTrue(stats.getWeight() <= stats.getMaximumWeight());
+    }
+
+    public void testIssuanceAndPresentation() throws IOException, NoSuchProviderException, NoSuchAlgorithmException, InvalidProofException {
+    	Config.setAttributeCacheSize(1024 * 1024);
+    	IssuerKeyAndParameters ikap = generateIssuerKeyAndParameters(false);
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"gold".getBytes(), new byte[] {18}, "a value".getBytes()};
+    	byte[] tokenInformation = "token information".getBytes();
+
+    	for (int round = 0; round < 2; round++) {
+	    	Issuer issuer = new IssuerProtocolParameters(2, ikap, attributes, tokenInformation, null).generate();
+	    	Prover prover = new ProverProtocolParameters(2, ip, attributes, tokenInformation, null).generate();
+	    	UProveKeyAndToken[] upkt = prover.generateTokens(issuer.generateThirdMessage(prover.generateSecondMessage(issuer.generateFirstMessage())));
+
+	    	int[] disclosed = new int[] {1, 3};
+	    	byte[] message = "message".getBytes();
+	    	PresentationProof proof = PresentationProtocol.generatePresentationProof(ip, disclosed, message, null, upkt[round], attributes);
+	    	PresentationProtocol.verifyPresentationProof(ip, disclosed, message, null, upkt[round].getToken(), proof);
+
+	    	// a different disclosed value must not be matched by the cache
+	    	proof.getDisclosedAttributes()[0] = "silver".getBytes();
+	    	try { PresentationProtocol.verifyPresentationProof(ip, disclosed, message, null, upkt[round].getToken(), proof); fail(); }
+	    	catch (InvalidProofException ipe) { }
+    	}
+    	assertTrue(Config.getAttributeCacheStatistics().getHitCount() > 0);
+    }
+
+    public void testEviction() {
+    	BoundedCache.Weigher<Integer, String> weigher = new BoundedCache.Weigher<Integer, String>() {
+    		public long weigh(Integer key, String value) {
+    			return 100;
+    		}
+    	};
+    	final int[] removed = new int[1];
+    	BoundedCache.RemovalListener<Integer, String> listener = new BoundedCache.RemovalListener<Integer, String>() {
+    		public void onRemoval(Integer key, String value) {
+    			removed[0]++;
+    		}
+    	};
+    	BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(1000, weigher, listener);
+    	for (int i = 0; i < 20; i++) {
+    		assertEquals("v" + i, cache.putIfAbsent(Integer.valueOf(i), "v" + i));
+    	}
+    	CacheStatistics stats = cache.getStatistics();
+    	assertEquals(10, stats.getEntryCount());
+    	assertEquals(10, stats.getEvictionCount());
+    	assertEquals(10, removed[0]);
+    	assertEquals(1000, stats.getWeight());
+
+    	// the oldest entries were evicted, the newest are still there
+    	assertNull(cache.get(Integer.valueOf(0)));
+    	assertEquals("v19", cache.get(Integer.valueOf(19)));
+    	assertEquals("v19", cache.putIfAbsent(Integer.valueOf(19), "other"));
+
+    	cache.clear();
+    	assertEquals(0, cache.getStatistics().getEntryCount());
+    	assertEquals(20, removed[0]);
+    }
+}
@@ -0,0 +1,76 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+
+import junit.framework.TestCase;
+
+public class BatchIssuanceTest extends TestCase {
+
+    public BatchIssuanceTest(String name) {
+    	super(name);
+	}
+
+    public void testBatchIssuance() throws IOException, InvalidProofException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+
+    	// four recipients, sharing some attribute values
+    	BatchIssuerProtocolParameters bipp = new BatchIssuerProtocolParameters(ikap);
+    	byte[][][] attributes = new byte[4][][];
+    	byte[][] tokenInformation = new byte[4][];
+    	for (int i = 0; i < 4; i++) {
+    		attributes[i] = new byte[][] {("user " + i).getBytes(), new byte[] {(byte) (i % 2)}};
+    		tokenInformation[i] = (i < 2 ? "first batch" : "second batch").getBytes();
+    		assertEquals(i, bipp.addToken(attributes[i], tokenInformation[i], null));
+    	}
+    	assertEquals(4, bipp.getNumberOfTokens());
+    	Issuer issuer = bipp.generate();
+    	byte[][] message1 = issuer.generateFirstMessage();
+    	assertEquals(8, message1.length);
+
+    	// each recipient runs the single-token protocol on its slice
+    	Prover[] provers = new Prover[4];
+    	byte[][] message2 = new byte[4][];
+    	for (int i = 0; i < 4; i++) {
+    		provers[i] = new ProverProtocolParameters(1, ip, attributes[i], tokenInformation[i], null).generate();
+    		message2[i] = provers[i].generateSecondMessage(new byte[][] {message1[2 * i], message1[2 * i + 1]})[0];
+    	}
+    	byte[][] message3 = issuer.generateThirdMessage(message2);
+    	for (int i = 0; i < 4; i++) {
+    		UProveKeyAndToken[] tokens = provers[i].generateTokens(new byte[][] {message3[i]});
+    		assertEquals(1, tokens.length);
+    		PresentationProof proof = PresentationProtocol.generatePresentationProof(ip, new int[] {1}, tokenInformation[i], new byte[0], tokens[0], attributes[i]);
+    		PresentationProtocol.verifyPresentationProof(ip, new int[] {1}, tokenInformation[i], new byte[0], tokens[0].getToken(), proof);
+    	}
+
+    	// a recipient can't get a token for another recipient's attributes
+    	issuer = bipp.generate();
+    	message1 = issuer.generateFirstMessage();
+    	Prover impostor = new ProverProtocolParameters(1, ip, attributes[0], tokenInformation[0], null).generate();
+    	message2 = new byte[4][];
+    	for (int i = 0; i < 4; i++) {
+    		message2[i] = new ProverProtocolParameters(1, ip, attributes[i], tokenInformation[i], null).generate()
+    			.generateSecondMessage(new byte[][] {message1[2 * i], message1[2 * i + 1]})[0];
+    	}
+    	message2[1] = impostor.generateSecondMessage(new byte[][] {message1[2], message1[3]})[0];
+    	try {
+    		impostor.generateTokens(new byte[][] {issuer.generateThirdMessage(message2)[1]});
+    		fail("token issued for the wrong attributes");
+    	} catch (IllegalStateException ise) {
+    		// expected
+    	}
+    }
+}
@@ -0,0 +1,73 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+
+import junit.framework.TestCase;
+
+public class BatchTokenVerificationTest extends TestCase {
+
+    public BatchTokenVerificationTest(String name) {
+    	super(name);
+	}
+
+    public void testBatchTokenVerification() throws IOException, InvalidProofException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	int numberOfTokens = 9;
+    	FieldZq Zq = ip.getGroup().getZq();
+    	byte[][] alpha = ProtocolHelper.getEncodedArray(Zq.getRandomElements(numberOfTokens, true));
+    	byte[][] beta1 = ProtocolHelper.getEncodedArray(Zq.getRandomElements(numberOfTokens, false));
+    	byte[][] beta2 = ProtocolHelper.getEncodedArray(Zq.getRandomElements(numberOfTokens, false));
+
+    	Issuer issuer = new IssuerProtocolParameters(numberOfTokens, ikap, attributes, tokenInformation, null).generate();
+    	byte[][] message1 = issuer.generateFirstMessage();
+    	ProverProtocolParameters ppp = new ProverProtocolParameters(numberOfTokens, ip, attributes, tokenInformation, null);
+    	ProverImpl prover = (ProverImpl) ppp.generate();
+    	prover.precomputation(alpha, beta1, beta2);
+    	byte[][] message2 = prover.generateSecondMessage(message1);
+    	byte[][] message3 = issuer.generateThirdMessage(message2);
+    	UProveKeyAndToken[] tokens = prover.generateTokens(message3);
+
+    	// same tokens when verified in a batch
+    	ppp.setBatchVerification(true);
+    	assertTrue(ppp.isBatchVerification());
+    	ProverImpl batch = (ProverImpl) ppp.generate();
+    	batch.precomputation(alpha, beta1, beta2);
+    	TestUtils.assertArrayEquals(message2, batch.generateSecondMessage(message1));
+    	UProveKeyAndToken[] batchTokens = batch.generateTokens(message3);
+    	for (int i = 0; i < numberOfTokens; i++) {
+    		assertEquals(tokens[i], batchTokens[i]);
+    		PresentationProtocol.verifyPresentationProof(ip, new int[] {1}, tokenInformation, null, batchTokens[i].getToken(),
+    				PresentationProtocol.generatePresentationProof(ip, new int[] {1}, tokenInformation, null, batchTokens[i], attributes));
+    	}
+
+    	// a single bad response fails the batch and is found individually
+    	batch = (ProverImpl) ppp.generate();
+    	batch.precomputation(alpha, beta1, beta2);
+    	batch.generateSecondMessage(message1);
+    	byte[][] badMessage3 = (byte[][]) message3.clone();
+    	badMessage3[4] = Zq.getElement(BigInteger.ONE).add(Zq.getPositiveElement(message3[4])).toByteArray();
+    	try {
+    		batch.generateTokens(badMessage3);
+    		fail("invalid response accepted");
+    	} catch (IllegalStateException ise) {
+    		// expected
+    	}
+    }
+}
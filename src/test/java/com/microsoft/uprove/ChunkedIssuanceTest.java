@@ -0,0 +1,63 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+
+import junit.framework.TestCase;
+
+public class ChunkedIssuanceTest extends TestCase {
+
+    public ChunkedIssuanceTest(String name) {
+    	super(name);
+	}
+
+    public void testChunkedIssuance() throws IOException, InvalidProofException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+
+    	ChunkedIssuer issuer = new IssuerProtocolParameters(7, ikap, attributes, tokenInformation, null).generateChunked(3);
+    	ChunkedProver prover = new ProverProtocolParameters(7, ip, attributes, tokenInformation, null).generateChunked(3);
+    	try {
+    		issuer.generateThirdMessage(new byte[3][]);
+    		fail("no chunk in progress");
+    	} catch (IllegalStateException ise) {
+    		// expected
+    	}
+    	int chunks = 0;
+    	UProveKeyAndToken[] tokens = new UProveKeyAndToken[7];
+    	while (issuer.hasNextChunk()) {
+    		byte[][] message1 = issuer.generateFirstMessage();
+    		assertEquals(2 * Math.min(3, 7 - issuer.getIssuedCount()), message1.length);
+    		UProveKeyAndToken[] chunk = prover.generateTokens(issuer.generateThirdMessage(prover.generateSecondMessage(message1)));
+    		System.arraycopy(chunk, 0, tokens, prover.getObtainedCount() - chunk.length, chunk.length);
+    		chunks++;
+    	}
+    	assertEquals(3, chunks);
+    	assertFalse(prover.hasNextChunk());
+    	assertEquals(7, issuer.getIssuedCount());
+    	for (int i = 0; i < tokens.length; i++) {
+    		PresentationProof proof = PresentationProtocol.generatePresentationProof(ip, new int[] {1}, tokenInformation, new byte[0], tokens[i], attributes);
+    		PresentationProtocol.verifyPresentationProof(ip, new int[] {1}, tokenInformation, new byte[0], tokens[i].getToken(), proof);
+    	}
+    	try {
+    		issuer.generateFirstMessage();
+    		fail("all chunks issued");
+    	} catch (IllegalStateException ise) {
+    		// expected
+    	}
+    }
+}
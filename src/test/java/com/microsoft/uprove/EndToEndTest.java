@@ -11,8 +11,16 @@
 
 package com.microsoft.uprove;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.util.Arrays;
@@ -259,4 +267,181 @@ public class EndToEndTest extends TestCase {
     	}
     }
 
+    public void testStreamingMessage() throws IOException, InvalidProofException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 1});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), "second".getBytes()};
+    	byte[] tokenInformation = "token information".getBytes();
+    	UProveKeyAndToken upkt = TestUtils.issueTokens(ikap, 1, attributes, tokenInformation)[0];
+    	int[] disclosed = new int[] {2};
+
+    	// a message spanning several read chunks
+    	byte[] message = RandomSource.getRandomBytes(100000);
+    	File file = File.createTempFile("uprove", ".msg");
+    	file.deleteOnExit();
+    	FileOutputStream fos = new FileOutputStream(file);
+    	fos.write(message);
+    	fos.close();
+
+    	// a proof on a streamed message is a proof on the same byte array
+    	PresentationProof proof = PresentationProtocol.generatePresentationProof(ip, disclosed, new ByteArrayInputStream(message), message.length, null, upkt, attributes);
+    	PresentationProtocol.verifyPresentationProof(ip, disclosed, message, null, upkt.getToken(), proof);
+
+    	RandomAccessFile raf = new RandomAccessFile(file, "r");
+    	try {
+    		FileChannel channel = raf.getChannel();
+    		PresentationProtocol.verifyPresentationProof(ip, disclosed, channel, null, upkt.getToken(), proof);
+    		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    		PresentationProtocol.verifyPresentationProof(ip, disclosed, mapped, null, upkt.getToken(), proof);
+    		// the buffer is left untouched, so it can be reused
+    		assertEquals(0, mapped.position());
+    		proof = PresentationProtocol.generatePresentationProof(ip, disclosed, mapped, null, upkt, attributes);
+    		PresentationProtocol.verifyPresentationProof(ip, disclosed, new ByteArrayInputStream(message), message.length, null, upkt.getToken(), proof);
+    	} finally {
+    		raf.close();
+    	}
+
+    	// a direct buffer with a different message
+    	ByteBuffer direct = ByteBuffer.allocateDirect(message.length);
+    	direct.put(message).flip();
+    	direct.put(0, (byte) (message[0] + 1));
+    	try { PresentationProtocol.verifyPresentationProof(ip, disclosed, direct, null, upkt.getToken(), proof); fail(); }
+    	catch (InvalidProofException ipe) { }
+
+    	// a stream shorter than announced
+    	try { PresentationProtocol.verifyPresentationProof(ip, disclosed, new ByteArrayInputStream(message), message.length + 1, null, upkt.getToken(), proof); fail(); }
+    	catch (IOException ioe) { }
+    }
+
+    public void testAttributeSources() throws IOException, InvalidProofException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+
+    	// a large blob stored at an offset in a file
+    	byte[] photo = RandomSource.getRandomBytes(200000);
+    	byte[] header = "header".getBytes();
+    	File file = File.createTempFile("uprove", ".attr");
+    	file.deleteOnExit();
+    	FileOutputStream fos = new FileOutputStream(file);
+    	fos.write(header);
+    	fos.write(photo);
+    	fos.close();
+    	byte[][] attributes = new byte[][] {photo, "name".getBytes(), new byte[] {7}};
+    	ByteBuffer name = ByteBuffer.allocateDirect(4);
+    	name.put(attributes[1]).flip();
+    	AttributeSource[] sources = new AttributeSource[] {
+    			AttributeSource.fromFile(file, header.length, photo.length),
+    			AttributeSource.fromBuffer(name),
+    			AttributeSource.fromStream(new ByteArrayInputStream(attributes[2]), 1)};
+    	byte[] tokenInformation = "token information".getBytes();
+
+    	// the Issuer reads the attributes from their sources, the Prover from arrays
+    	IssuerProtocolParameters ipp = new IssuerProtocolParameters();
+    	ipp.setIssuerKeyAndParameters(ikap);
+    	ipp.setTokenAttributeSources(sources);
+    	ipp.setTokenInformation(tokenInformation);
+    	Issuer issuer = ipp.generate();
+    	Prover prover = new ProverProtocolParameters(1, ip, attributes, tokenInformation, null).generate();
+    	UProveKeyAndToken upkt = prover.generateTokens(issuer.generateThirdMessage(prover.generateSecondMessage(issuer.generateFirstMessage())))[0];
+
+    	// present from sources: the undisclosed photo is hashed from the mapped
+    	// file; the stream source was consumed by the issuance, so replace it
+    	sources[2] = AttributeSource.fromStream(new ByteArrayInputStream(attributes[2]), 1);
+    	int[] disclosed = new int[] {2, 3};
+    	byte[] message = "message".getBytes();
+    	PresentationProof proof = PresentationProtocol.generatePresentationProof(ip, disclosed, message, null, upkt, sources);
+    	assertTrue(Arrays.equals(attributes[1], proof.getDisclosedAttributes()[0]));
+    	assertTrue(Arrays.equals(attributes[2], proof.getDisclosedAttributes()[1]));
+    	PresentationProtocol.verifyPresentationProof(ip, disclosed, message, null, upkt.getToken(), proof);
+
+    	// a stream source can only be used once
+    	try { PresentationProtocol.generatePresentationProof(ip, disclosed, message, null, upkt, sources); fail(); }
+    	catch (IllegalStateException ise) { }
+    }
+
+    public void testPreparedToken() throws IOException, InvalidProofException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0, 1});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}, null};
+    	byte[] tokenInformation = "token information".getBytes();
+    	UProveKeyAndToken upkt = TestUtils.issueTokens(ikap, 1, attributes, tokenInformation)[0];
+
+    	PreparedToken pt = PresentationProtocol.prepareToken(ip, upkt, attributes);
+    	assertSame(upkt, pt.getKeyAndToken());
+    	byte[] message = "message".getBytes();
+    	int[][] disclosedSets = new int[][] { {}, {1}, {2, 3}, {1, 2, 3} };
+    	for (int i = 0; i < disclosedSets.length; i++) {
+    		int[] disclosed = disclosedSets[i];
+    		PresentationProof proof = PresentationProtocol.generatePresentationProof(pt, disclosed, message, null);
+    		PresentationProtocol.verifyPresentationProof(ip, disclosed, message, null, upkt.getToken(), proof);
+
+    		// same randomness, same proof as without preparation
+    		byte[][] w = ProtocolHelper.getEncodedArray(ip.getGroup().getZq().getRandomElements(4 - disclosed.length, false));
+    		PresentationProof expected = PresentationProtocol.generatePresentationProof(ip, disclosed, message, null, upkt, attributes, w);
+    		assertEquals(expected, PresentationProtocol.generatePresentationProof(pt, disclosed, message, null, w));
+    	}
+    }
+
+    public void testBufferMessages() throws IOException, InvalidProofException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	IssuerProtocolParameters ipp = new IssuerProtocolParameters(4, ikap, attributes, tokenInformation, null);
+    	ProverProtocolParameters ppp = new ProverProtocolParameters(4, ip, attributes, tokenInformation, null);
+
+    	for (int round = 0; round < 2; round++) {
+    		Issuer issuer = ipp.generate();
+    		Prover prover = ppp.generate();
+    		int length = issuer.getFirstMessageLength() + prover.getSecondMessageLength() + issuer.getThirdMessageLength();
+    		// one buffer holding the three messages back to back
+    		ByteBuffer buffer = round == 0 ? ByteBuffer.allocate(length) : ByteBuffer.allocateDirect(length);
+    		try {
+    			issuer.generateFirstMessage(ByteBuffer.allocate(issuer.getFirstMessageLength() - 1));
+    			fail("short buffer accepted");
+    		} catch (BufferOverflowException boe) {
+    			// expected
+    		}
+    		issuer.generateFirstMessage(buffer);
+    		assertEquals(issuer.getFirstMessageLength(), buffer.position());
+    		ByteBuffer message1 = buffer.duplicate();
+    		message1.flip();
+    		prover.generateSecondMessage(message1, buffer);
+    		assertFalse(message1.hasRemaining());
+    		ByteBuffer message2 = buffer.duplicate();
+    		message2.limit(buffer.position());
+    		message2.position(issuer.getFirstMessageLength());
+    		issuer.generateThirdMessage(message2, buffer);
+    		assertFalse(buffer.hasRemaining());
+    		buffer.position(length - issuer.getThirdMessageLength());
+    		UProveKeyAndToken[] tokens = prover.generateTokens(buffer);
+    		assertEquals(4, tokens.length);
+    		for (int i = 0; i < tokens.length; i++) {
+    			PresentationProof proof = PresentationProtocol.generatePresentationProof(ip, new int[] {1}, tokenInformation, new byte[0], tokens[i], attributes);
+    			PresentationProtocol.verifyPresentationProof(ip, new int[] {1}, tokenInformation, new byte[0], tokens[i].getToken(), proof);
+    		}
+    	}
+
+    	// the array and buffer forms can be mixed
+    	Issuer issuer = ipp.generate();
+    	Prover prover = ppp.generate();
+    	ByteBuffer message2 = ByteBuffer.allocate(prover.getSecondMessageLength());
+    	byte[][] message1 = issuer.generateFirstMessage();
+    	prover.generateSecondMessage(encodeFixedWidth(message1, ip.getGroup().getMaxEncodedElementSize()), message2);
+    	message2.flip();
+    	ByteBuffer message3 = ByteBuffer.allocate(issuer.getThirdMessageLength());
+    	issuer.generateThirdMessage(message2, message3);
+    	message3.flip();
+    	assertEquals(4, prover.generateTokens(message3).length);
+    }
+
+    private static ByteBuffer encodeFixedWidth(byte[][] elements, int width) {
+    	ByteBuffer buffer = ByteBuffer.allocate(elements.length * width);
+    	for (int i = 0; i < elements.length; i++) {
+    		buffer.position((i + 1) * width - elements[i].length);
+    		buffer.put(elements[i]);
+    	}
+    	buffer.flip();
+    	return buffer;
+    }
 }
@@ -0,0 +1,59 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class FusedIssuanceTest extends TestCase {
+
+    public FusedIssuanceTest(String name) {
+    	super(name);
+	}
+
+    public void testFusedIssuance() throws IOException, InvalidProofException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	IssuerProtocolParameters ipp = new IssuerProtocolParameters(3, ikap, attributes, tokenInformation, null);
+    	ProverProtocolParameters ppp = new ProverProtocolParameters(3, ip, attributes, tokenInformation, null);
+    	ppp.setProverInformation("prover information".getBytes());
+
+    	UProveKeyAndToken[] tokens = FusedIssuance.issue(ipp, ppp);
+    	assertEquals(3, tokens.length);
+    	Prover prover = ppp.generate();
+    	Issuer issuer = ipp.generate();
+    	UProveToken regular = prover.generateTokens(issuer.generateThirdMessage(prover.generateSecondMessage(issuer.generateFirstMessage())))[0].getToken();
+    	for (int i = 0; i < tokens.length; i++) {
+    		UProveToken token = tokens[i].getToken();
+    		assertTrue(Arrays.equals(regular.getIssuerParametersUID(), token.getIssuerParametersUID()));
+    		assertTrue(Arrays.equals(regular.getTokenInformation(), token.getTokenInformation()));
+    		assertTrue(Arrays.equals(regular.getProverInformation(), token.getProverInformation()));
+    		PresentationProof proof = PresentationProtocol.generatePresentationProof(ip, new int[] {1}, tokenInformation, new byte[0], tokens[i], attributes);
+    		PresentationProtocol.verifyPresentationProof(ip, new int[] {1}, tokenInformation, new byte[0], token, proof);
+    	}
+
+    	// mismatched parameters are rejected
+    	ProverProtocolParameters other = new ProverProtocolParameters(3, ip, new byte[][] {"other".getBytes(), new byte[] {1, 2, 3}}, tokenInformation, null);
+    	try {
+    		FusedIssuance.issue(ipp, other);
+    		fail("mismatched parameters accepted");
+    	} catch (IllegalArgumentException iae) {
+    		// expected
+    	}
+    }
+}
@@ -0,0 +1,84 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class IssuerParametersCacheTest extends TestCase {
+
+    public IssuerParametersCacheTest(String name) {
+    	super(name);
+	}
+
+    public void testIssuerParametersCache() throws Exception {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	final IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	try {
+    		Config.setIssuerParametersCacheSize(1024 * 1024);
+    		ip.validate();
+    		UProveKeyAndToken[] tokens = TestUtils.issueTokens(ikap, 1, attributes, tokenInformation);
+    		PresentationProof proof = PresentationProtocol.generatePresentationProof(ip, new int[] {1}, tokenInformation, null, tokens[0], attributes);
+    		PresentationProtocol.verifyPresentationProof(ip, new int[] {1}, tokenInformation, null, tokens[0].getToken(), proof);
+    		CacheStatistics stats = Config.getIssuerParametersCacheStatistics();
+    		assertEquals(1, stats.getEntryCount());
+    		assertEquals(1, stats.getMissCount());
+    		assertTrue(stats.getHitCount() >= 4);
+
+    		// concurrent first uses share one prepared instance
+    		Config.setIssuerParametersCacheSize(1024 * 1024);
+    		final IssuerParametersInternal[] prepared = new IssuerParametersInternal[4];
+    		Thread[] threads = new Thread[prepared.length];
+    		for (int i = 0; i < threads.length; i++) {
+    			final int index = i;
+    			threads[i] = new Thread(new Runnable() {
+    				public void run() {
+    					try {
+    						prepared[index] = IssuerParametersInternal.generate(ip);
+    					} catch (IOException ioe) {
+    						// checked below
+    					}
+    				}
+    			});
+    			threads[i].start();
+    		}
+    		for (int i = 0; i < threads.length; i++) {
+    			threads[i].join();
+    			assertSame(prepared[0], prepared[i]);
+    		}
+
+    		// modified parameters are prepared anew, and the cached ones are unaffected
+    		IssuerParameters other = new IssuerParameters();
+    		other.setParametersUID(ip.getParametersUID());
+    		other.setGroup(ip.getGroup());
+    		other.setHashAlgorithmUID(ip.getHashAlgorithmUID());
+    		other.setPublicKey(ip.getPublicKey());
+    		other.setEncodingBytes(ip.getEncodingBytes());
+    		other.setProverIssuanceValues(ip.getProverIssuanceValues());
+    		other.setSpecification("other".getBytes());
+    		assertNotSame(prepared[0], IssuerParametersInternal.generate(other));
+    		assertSame(prepared[0], IssuerParametersInternal.generate(ip));
+    		assertTrue(Arrays.equals("specification".getBytes(), prepared[0].getSpecification()));
+
+    		// a disabled cache prepares the parameters on every use
+    		Config.setIssuerParametersCacheSize(0);
+    		assertNotSame(IssuerParametersInternal.generate(ip), IssuerParametersInternal.generate(ip));
+    		assertEquals(0, Config.getIssuerParametersCacheStatistics().getMaximumWeight());
+    	} finally {
+    		Config.setIssuerParametersCacheSize(-1);
+    	}
+    }
+}
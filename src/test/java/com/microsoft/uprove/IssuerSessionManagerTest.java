@@ -0,0 +1,131 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+
+import junit.framework.TestCase;
+
+public class IssuerSessionManagerTest extends TestCase {
+
+    public IssuerSessionManagerTest(String name) {
+    	super(name);
+	}
+
+    public void testSessionManager() throws IOException, InterruptedException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	IssuerProtocolParameters ipp = new IssuerProtocolParameters(2, ikap, attributes, tokenInformation, null);
+    	ProverProtocolParameters ppp = new ProverProtocolParameters(2, ip, attributes, tokenInformation, null);
+
+    	// completed session
+    	IssuerSessionManager manager = new IssuerSessionManager(60000, 1 << 20);
+    	Issuer issuer = ipp.generate();
+    	Prover prover = ppp.generate();
+    	byte[][] message1 = issuer.generateFirstMessage();
+    	String sessionID = manager.add(issuer);
+    	assertEquals(1, manager.getActiveCount());
+    	assertTrue(manager.getMemoryUsage() > 0);
+    	assertEquals(2, prover.generateTokens(manager.generateThirdMessage(sessionID, prover.generateSecondMessage(message1))).length);
+    	assertEquals(0, manager.getActiveCount());
+    	assertEquals(1, manager.getCompletedCount());
+    	assertEquals(0, manager.getMemoryUsage());
+    	try {
+    		manager.generateThirdMessage(sessionID, new byte[2][]);
+    		fail("session answered twice");
+    	} catch (IllegalStateException ise) {
+    		// expected
+    	}
+
+    	// cancelled session
+    	issuer = ipp.generate();
+    	issuer.generateFirstMessage();
+    	sessionID = manager.add(issuer);
+    	assertTrue(manager.cancel(sessionID));
+    	assertFalse(manager.cancel(sessionID));
+    	assertEquals(1, manager.getCancelledCount());
+
+    	// load shedding
+    	issuer = ipp.generate();
+    	issuer.generateFirstMessage();
+    	IssuerSessionManager small = new IssuerSessionManager(60000, manager.getMemoryBudget());
+    	small.add(issuer);
+    	long usage = small.getMemoryUsage();
+    	small.close();
+    	small = new IssuerSessionManager(60000, usage + usage / 2);
+    	issuer = ipp.generate();
+    	issuer.generateFirstMessage();
+    	small.add(issuer);
+    	issuer = ipp.generate();
+    	issuer.generateFirstMessage();
+    	try {
+    		small.add(issuer);
+    		fail("budget exceeded");
+    	} catch (IllegalStateException ise) {
+    		// expected
+    	}
+    	assertEquals(1, small.getRejectedCount());
+    	assertEquals(1, small.getActiveCount());
+    	small.close();
+    	assertEquals(0, small.getActiveCount());
+
+    	// expired sessions are collected by the timer
+    	manager.close();
+    	manager = new IssuerSessionManager(50, 1 << 20);
+    	for (int i = 0; i < 3; i++) {
+    		issuer = ipp.generate();
+    		issuer.generateFirstMessage();
+    		manager.add(issuer);
+    	}
+    	for (int i = 0; i < 200 && manager.getExpiredCount() < 3; i++) {
+    		Thread.sleep(10);
+    	}
+    	assertEquals(3, manager.getExpiredCount());
+    	assertEquals(0, manager.getActiveCount());
+    	assertEquals(0, manager.getMemoryUsage());
+    	manager.close();
+    }
+
+    public void testAddRacingClose() throws IOException, InterruptedException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	IssuerProtocolParameters ipp = new IssuerProtocolParameters(1, ikap, attributes, "token information".getBytes(), null);
+    	final Issuer[] issuers = new Issuer[64];
+    	for (int i = 0; i < issuers.length; i++) {
+    		issuers[i] = ipp.generate();
+    		issuers[i].generateFirstMessage();
+    	}
+
+    	// every session added before close() returns is erased by it
+    	final IssuerSessionManager manager = new IssuerSessionManager(60000, 1 << 24);
+    	Thread adder = new Thread() {
+    		public void run() {
+    			try {
+    				for (int i = 0; i < issuers.length; i++) {
+    					manager.add(issuers[i]);
+    				}
+    			} catch (IllegalStateException ise) {
+    				// closed
+    			}
+    		}
+    	};
+    	adder.start();
+    	manager.close();
+    	adder.join();
+    	assertEquals(0, manager.getActiveCount());
+    	assertEquals(0, manager.getMemoryUsage());
+    }
+}
@@ -0,0 +1,216 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class IssuerSessionsTest extends TestCase {
+
+    public IssuerSessionsTest(String name) {
+    	super(name);
+	}
+
+    public void testSuspendResume() throws IOException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	byte[] key = new byte[16];
+    	Arrays.fill(key, (byte) 7);
+
+    	File file = File.createTempFile("sessions", ".dat");
+    	file.deleteOnExit();
+    	MappedFileSessionStore mappedStore = new MappedFileSessionStore(file, 8, 1024);
+    	SessionStore[] stores = new SessionStore[] {new InMemorySessionStore(), mappedStore};
+    	for (int s = 0; s < stores.length; s++) {
+    		// the session is suspended on one node and resumed on another
+    		IssuerSessions node1 = new IssuerSessions(stores[s], key);
+    		IssuerSessions node2 = new IssuerSessions(stores[s], key);
+    		Issuer issuer = new IssuerProtocolParameters(3, ikap, attributes, tokenInformation, null).generate();
+    		Prover prover = new ProverProtocolParameters(3, ip, attributes, tokenInformation, null).generate();
+    		byte[][] message1 = issuer.generateFirstMessage();
+    		String sessionID = node1.suspend(issuer);
+    		try {
+    			issuer.generateThirdMessage(prover.generateSecondMessage(message1));
+    			fail("suspended session used");
+    		} catch (IllegalStateException ise) {
+    			// expected
+    		}
+    		prover = new ProverProtocolParameters(3, ip, attributes, tokenInformation, null).generate();
+    		byte[][] message2 = prover.generateSecondMessage(message1);
+    		Issuer resumed = node2.resume(sessionID, ikap);
+    		assertEquals(3, prover.generateTokens(resumed.generateThirdMessage(message2)).length);
+
+    		// a session is resumed only once
+    		try {
+    			node1.resume(sessionID, ikap);
+    			fail("session resumed twice");
+    		} catch (IllegalStateException ise) {
+    			// expected
+    		}
+
+    		// a tampered state is rejected
+    		issuer = new IssuerProtocolParameters(3, ikap, attributes, tokenInformation, null).generate();
+    		issuer.generateFirstMessage();
+    		sessionID = node1.suspend(issuer);
+    		byte[] state = stores[s].remove(sessionID);
+    		state[state.length / 2] ^= 1;
+    		stores[s].put(sessionID, state, Long.MAX_VALUE);
+    		try {
+    			node2.resume(sessionID, ikap);
+    			fail("tampered state accepted");
+    		} catch (IOException ioe) {
+    			// expected
+    		}
+
+    		// a state sealed under another key is rejected
+    		issuer = new IssuerProtocolParameters(3, ikap, attributes, tokenInformation, null).generate();
+    		issuer.generateFirstMessage();
+    		sessionID = new IssuerSessions(stores[s], new byte[16]).suspend(issuer);
+    		try {
+    			node2.resume(sessionID, ikap);
+    			fail("foreign state accepted");
+    		} catch (IOException ioe) {
+    			// expected
+    		}
+    	}
+
+    	// the mapped store survives a restart
+    	Issuer issuer = new IssuerProtocolParameters(2, ikap, attributes, tokenInformation, null).generate();
+    	byte[][] message1 = issuer.generateFirstMessage();
+    	String sessionID = new IssuerSessions(mappedStore, key).suspend(issuer);
+    	mappedStore.close();
+    	mappedStore = new MappedFileSessionStore(file, 8, 1024);
+    	Prover prover = new ProverProtocolParameters(2, ip, attributes, tokenInformation, null).generate();
+    	byte[][] message2 = prover.generateSecondMessage(message1);
+    	Issuer resumed = new IssuerSessions(mappedStore, key).resume(sessionID, ikap);
+    	assertEquals(2, prover.generateTokens(resumed.generateThirdMessage(message2)).length);
+    	mappedStore.close();
+    }
+
+    public void testSingleThirdMessage() throws IOException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	IssuerSessions sessions = new IssuerSessions(new InMemorySessionStore(), new byte[16]);
+    	Issuer issuer = new IssuerProtocolParameters(2, ikap, attributes, tokenInformation, null).generate();
+    	byte[][] message1 = issuer.generateFirstMessage();
+    	Issuer resumed = sessions.resume(sessions.suspend(issuer), ikap);
+    	Prover prover = new ProverProtocolParameters(2, ip, attributes, tokenInformation, null).generate();
+    	assertEquals(2, prover.generateTokens(resumed.generateThirdMessage(prover.generateSecondMessage(message1))).length);
+
+    	// a retry with another second message would reveal the private key
+    	prover = new ProverProtocolParameters(2, ip, attributes, tokenInformation, null).generate();
+    	try {
+    		resumed.generateThirdMessage(prover.generateSecondMessage(message1));
+    		fail("session answered twice");
+    	} catch (IllegalStateException ise) {
+    		// expected
+    	}
+    }
+
+    public void testExpiry() throws IOException, InterruptedException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	File file = File.createTempFile("sessions", ".dat");
+    	file.deleteOnExit();
+    	MappedFileSessionStore mappedStore = new MappedFileSessionStore(file, 2, 1024);
+    	IssuerSessions sessions = new IssuerSessions(mappedStore, new byte[16], 50);
+    	assertEquals(50, sessions.getTimeToLive());
+
+    	// abandoned sessions fill the store
+    	String[] abandoned = new String[2];
+    	for (int i = 0; i < abandoned.length; i++) {
+    		Issuer issuer = new IssuerProtocolParameters(1, ikap, attributes, tokenInformation, null).generate();
+    		issuer.generateFirstMessage();
+    		abandoned[i] = sessions.suspend(issuer);
+    	}
+    	Issuer issuer = new IssuerProtocolParameters(1, ikap, attributes, tokenInformation, null).generate();
+    	issuer.generateFirstMessage();
+    	try {
+    		sessions.suspend(issuer);
+    		fail("full store accepted a session");
+    	} catch (IOException ioe) {
+    		// expected
+    	}
+
+    	// once expired, their slots are reclaimed
+    	Thread.sleep(100);
+    	issuer = new IssuerProtocolParameters(1, ikap, attributes, tokenInformation, null).generate();
+    	issuer.generateFirstMessage();
+    	assertNotNull(sessions.suspend(issuer));
+    	for (int i = 0; i < abandoned.length; i++) {
+    		try {
+    			sessions.resume(abandoned[i], ikap);
+    			fail("expired session resumed");
+    		} catch (IllegalStateException ise) {
+    			// expected
+    		}
+    	}
+    	mappedStore.close();
+
+    	// the in-memory store purges expired sessions
+    	InMemorySessionStore memoryStore = new InMemorySessionStore();
+    	memoryStore.put("expired", new byte[] {1}, System.currentTimeMillis() - 1);
+    	memoryStore.put("live", new byte[] {2}, Long.MAX_VALUE);
+    	assertEquals(2, memoryStore.size());
+    	assertEquals(1, memoryStore.purge());
+    	assertEquals(1, memoryStore.size());
+    	assertNull(memoryStore.remove("expired"));
+    	assertTrue(Arrays.equals(new byte[] {2}, memoryStore.remove("live")));
+
+    	// a state is rejected after its time to live, whatever the store
+    	issuer = new IssuerProtocolParameters(1, ikap, attributes, tokenInformation, null).generate();
+    	issuer.generateFirstMessage();
+    	byte[] state = sessions.seal(issuer, "session");
+    	Thread.sleep(100);
+    	try {
+    		sessions.unseal(state, "session", ikap);
+    		fail("expired state unsealed");
+    	} catch (IllegalStateException ise) {
+    		// expected
+    	}
+    }
+
+    public void testMappedStoreRemove() throws IOException {
+    	File file = File.createTempFile("sessions", ".dat");
+    	file.deleteOnExit();
+    	MappedFileSessionStore store = new MappedFileSessionStore(file, 4, 16);
+    	for (int i = 0; i < 4; i++) {
+    		store.put("session " + i, new byte[] {(byte) i}, Long.MAX_VALUE);
+    	}
+    	for (int i = 0; i < 4; i++) {
+    		assertTrue(Arrays.equals(new byte[] {(byte) i}, store.remove("session " + i)));
+    		assertNull(store.remove("session " + i));
+    	}
+    	store.close();
+
+    	// removed slots leave no state and no tombstones behind
+    	byte[] contents = new byte[(int) file.length()];
+    	RandomAccessFile raf = new RandomAccessFile(file, "r");
+    	try {
+    		raf.readFully(contents);
+    	} finally {
+    		raf.close();
+    	}
+    	assertTrue(Arrays.equals(new byte[contents.length], contents));
+    }
+}
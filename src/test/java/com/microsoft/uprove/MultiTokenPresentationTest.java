@@ -0,0 +1,104 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import junit.framework.TestCase;
+
+public class MultiTokenPresentationTest extends TestCase {
+
+    public MultiTokenPresentationTest(String name) {
+    	super(name);
+	}
+
+    public void testMultiTokenPresentation() throws Exception {
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	IssuerParameters[] ip = new IssuerParameters[2];
+    	UProveKeyAndToken[][] tokens = new UProveKeyAndToken[2][];
+    	for (int i = 0; i < ip.length; i++) {
+    		IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID " + i, new byte[] {1, 0});
+    		ip[i] = ikap.getIssuerParameters();
+    		tokens[i] = TestUtils.issueTokens(ikap, 2, attributes, tokenInformation);
+    	}
+
+    	// two tokens of the first issuer and one of the second
+    	PreparedToken[] prepared = new PreparedToken[] {
+    		PresentationProtocol.prepareToken(ip[0], tokens[0][0], attributes),
+    		PresentationProtocol.prepareToken(ip[0], tokens[0][1], attributes),
+    		PresentationProtocol.prepareToken(ip[1], tokens[1][0], attributes)};
+    	IssuerParameters[] issuers = new IssuerParameters[] {ip[0], ip[0], ip[1]};
+    	UProveToken[] upt = new UProveToken[] {tokens[0][0].getToken(), tokens[0][1].getToken(), tokens[1][0].getToken()};
+    	int[][] disclosed = new int[][] {{1}, {1}, {2}};
+    	byte[] message = "message".getBytes();
+    	try {
+    		Config.setParallelThreads(2);
+    		PresentationProof[] proofs = PresentationProtocol.generatePresentationProofs(prepared, disclosed, message, null);
+    		assertEquals(3, proofs.length);
+    		for (int i = 0; i < proofs.length; i++) {
+    			PresentationProtocol.verifyPresentationProof(issuers[i], disclosed[i], message, null, upt[i], proofs[i]);
+    		}
+    		PresentationProtocol.verifyPresentationProofs(issuers, disclosed, message, null, upt, proofs);
+
+    		// the proofs are bound to the message and to their token
+    		try {
+    			PresentationProtocol.verifyPresentationProofs(issuers, disclosed, "other".getBytes(), null, upt, proofs);
+    			fail("proofs verified on another message");
+    		} catch (InvalidProofException ipe) {
+    			assertTrue(ipe.getMessage().startsWith("proof 0"));
+    		}
+    		PresentationProof[] swapped = new PresentationProof[] {proofs[0], proofs[0], proofs[2]};
+    		try {
+    			PresentationProtocol.verifyPresentationProofs(issuers, disclosed, message, null, upt, swapped);
+    			fail("proof verified for another token");
+    		} catch (InvalidProofException ipe) {
+    			assertTrue(ipe.getMessage().startsWith("proof 1"));
+    		}
+    	} finally {
+    		Config.setParallelThreads(-1);
+    	}
+    }
+
+    public void testEqualIssuerParameters() throws Exception {
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	UProveKeyAndToken[] tokens = TestUtils.issueTokens(ikap, 2, attributes, tokenInformation);
+
+    	// an equal but distinct copy, as decoded from another message
+    	IssuerParameters ip2 = new IssuerParameters();
+    	ip2.setParametersUID(ip.getParametersUID());
+    	ip2.setEncodingBytes(ip.getEncodingBytes());
+    	ip2.setGroup(ip.getGroup());
+    	ip2.setHashAlgorithmUID(ip.getHashAlgorithmUID());
+    	ip2.setProverIssuanceValues(ip.getProverIssuanceValues());
+    	ip2.setPublicKey(ip.getPublicKey());
+    	ip2.setSpecification(ip.getSpecification());
+    	assertNotSame(ip, ip2);
+    	assertEquals(ip, ip2);
+
+    	IssuerParameters[] issuers = new IssuerParameters[] {ip, ip2, ip2};
+    	int[][] disclosed = new int[][] {{1}, {1}, {2}};
+    	VerificationPolicy[] policies = PresentationProtocol.getVerificationPolicies(issuers, disclosed);
+    	assertSame(policies[0], policies[1]);
+    	assertNotSame(policies[0], policies[2]);
+
+    	PreparedToken[] prepared = new PreparedToken[] {
+    		PresentationProtocol.prepareToken(ip, tokens[0], attributes),
+    		PresentationProtocol.prepareToken(ip2, tokens[1], attributes),
+    		PresentationProtocol.prepareToken(ip2, tokens[0], attributes)};
+    	UProveToken[] upt = new UProveToken[] {tokens[0].getToken(), tokens[1].getToken(), tokens[0].getToken()};
+    	byte[] message = "message".getBytes();
+    	PresentationProof[] proofs = PresentationProtocol.generatePresentationProofs(prepared, disclosed, message, null);
+    	PresentationProtocol.verifyPresentationProofs(issuers, disclosed, message, null, upt, proofs);
+    }
+}
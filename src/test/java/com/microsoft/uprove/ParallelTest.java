@@ -0,0 +1,126 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class ParallelTest extends TestCase {
+
+    public ParallelTest(String name) {
+    	super(name);
+	}
+
+    public void testParallelIssuance() throws IOException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	int numberOfTokens = 13;
+    	byte[][] w = ProtocolHelper.getEncodedArray(ip.getGroup().getZq().getRandomElements(numberOfTokens, false));
+
+    	// sequential reference
+    	IssuerImpl issuer = (IssuerImpl) new IssuerProtocolParameters(numberOfTokens, ikap, attributes, tokenInformation, null).generate();
+    	issuer.precomputation(w);
+    	byte[][] message1 = issuer.generateFirstMessage();
+    	Prover prover = new ProverProtocolParameters(numberOfTokens, ip, attributes, tokenInformation, null).generate();
+    	byte[][] message2 = prover.generateSecondMessage(message1);
+    	byte[][] message3 = issuer.generateThirdMessage(message2);
+    	assertEquals(numberOfTokens, prover.generateTokens(message3).length);
+
+    	// explicit executor
+    	ExecutorService executor = Executors.newFixedThreadPool(4);
+    	try {
+    		IssuerProtocolParameters ipp = new IssuerProtocolParameters(numberOfTokens, ikap, attributes, tokenInformation, null);
+    		ipp.setExecutor(executor);
+    		assertSame(executor, ipp.getExecutor());
+    		IssuerImpl parallel = (IssuerImpl) ipp.generate();
+    		parallel.precomputation(w);
+    		TestUtils.assertArrayEquals(message1, parallel.generateFirstMessage());
+    		TestUtils.assertArrayEquals(message3, parallel.generateThirdMessage(message2));
+    	} finally {
+    		executor.shutdown();
+    	}
+
+    	// SDK-wide pool
+    	Config.setParallelThreads(3);
+    	try {
+    		assertEquals(3, Config.getParallelThreads());
+    		IssuerImpl parallel = (IssuerImpl) new IssuerProtocolParameters(numberOfTokens, ikap, attributes, tokenInformation, null).generate();
+    		parallel.precomputation(w);
+    		TestUtils.assertArrayEquals(message1, parallel.generateFirstMessage());
+    		TestUtils.assertArrayEquals(message3, parallel.generateThirdMessage(message2));
+    	} finally {
+    		Config.setParallelThreads(-1);
+    	}
+    	assertEquals(1, Config.getParallelThreads());
+    }
+
+    public void testParallelProver() throws IOException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	byte[] proverInformation = "prover information".getBytes();
+    	int numberOfTokens = 11;
+    	FieldZq Zq = ip.getGroup().getZq();
+    	byte[][] alpha = ProtocolHelper.getEncodedArray(Zq.getRandomElements(numberOfTokens, true));
+    	byte[][] beta1 = ProtocolHelper.getEncodedArray(Zq.getRandomElements(numberOfTokens, false));
+    	byte[][] beta2 = ProtocolHelper.getEncodedArray(Zq.getRandomElements(numberOfTokens, false));
+
+    	Issuer issuer = new IssuerProtocolParameters(numberOfTokens, ikap, attributes, tokenInformation, null).generate();
+    	byte[][] message1 = issuer.generateFirstMessage();
+
+    	// sequential reference
+    	ProverProtocolParameters ppp = new ProverProtocolParameters(numberOfTokens, ip, attributes, tokenInformation, null);
+    	ppp.setProverInformation(proverInformation);
+    	ProverImpl prover = (ProverImpl) ppp.generate();
+    	prover.precomputation(alpha, beta1, beta2);
+    	byte[][] message2 = prover.generateSecondMessage(message1);
+    	byte[][] message3 = issuer.generateThirdMessage(message2);
+    	UProveKeyAndToken[] tokens = prover.generateTokens(message3);
+
+    	ExecutorService executor = Executors.newFixedThreadPool(4);
+    	try {
+    		ppp.setExecutor(executor);
+    		assertSame(executor, ppp.getExecutor());
+    		ProverImpl parallel = (ProverImpl) ppp.generate();
+    		parallel.precomputation(alpha, beta1, beta2);
+    		TestUtils.assertArrayEquals(message2, parallel.generateSecondMessage(message1));
+    		UProveKeyAndToken[] parallelTokens = parallel.generateTokens(message3);
+    		assertEquals(numberOfTokens, parallelTokens.length);
+    		for (int i = 0; i < numberOfTokens; i++) {
+    			assertEquals(tokens[i], parallelTokens[i]);
+    		}
+
+    		// a bad response is still detected
+    		parallel = (ProverImpl) ppp.generate();
+    		parallel.precomputation(alpha, beta1, beta2);
+    		parallel.generateSecondMessage(message1);
+    		byte[][] badMessage3 = (byte[][]) message3.clone();
+    		badMessage3[numberOfTokens - 1] = message3[0];
+    		try {
+    			parallel.generateTokens(badMessage3);
+    			fail("invalid response accepted");
+    		} catch (IllegalStateException ise) {
+    			// expected
+    		}
+    	} finally {
+    		executor.shutdown();
+    	}
+    }
+}
@@ -0,0 +1,109 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+
+import junit.framework.TestCase;
+
+public class PrecomputationPoolTest extends TestCase {
+
+    public PrecomputationPoolTest(String name) {
+    	super(name);
+	}
+
+    public void testIssuerPrecomputationPool() throws IOException, InterruptedException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+
+    	IssuerPrecomputationPool pool = new IssuerPrecomputationPool(ip, 2, 8);
+    	assertEquals(0, pool.size());
+    	pool.fill();
+    	assertEquals(8, pool.size());
+    	IssuerProtocolParameters ipp = new IssuerProtocolParameters(5, ikap, attributes, tokenInformation, null);
+    	ipp.setPrecomputationPool(pool);
+    	assertSame(pool, ipp.getPrecomputationPool());
+    	ProverProtocolParameters ppp = new ProverProtocolParameters(5, ip, attributes, tokenInformation, null);
+
+    	// served from the pool
+    	Issuer issuer = ipp.generate();
+    	Prover prover = ppp.generate();
+    	assertEquals(5, prover.generateTokens(issuer.generateThirdMessage(prover.generateSecondMessage(issuer.generateFirstMessage()))).length);
+    	assertEquals(3, pool.size());
+    	PoolStatistics stats = pool.getStatistics();
+    	assertEquals(5, stats.getServedCount());
+    	assertEquals(0, stats.getInlineCount());
+    	assertEquals(8, stats.getGeneratedCount());
+
+    	// partly generated inline, then refilled in the background
+    	issuer = ipp.generate();
+    	prover = ppp.generate();
+    	assertEquals(5, prover.generateTokens(issuer.generateThirdMessage(prover.generateSecondMessage(issuer.generateFirstMessage()))).length);
+    	stats = pool.getStatistics();
+    	assertEquals(8, stats.getServedCount());
+    	assertEquals(2, stats.getInlineCount());
+    	for (int i = 0; i < 600 && pool.size() < 8; i++) {
+    		Thread.sleep(50);
+    	}
+    	assertEquals(8, pool.size());
+
+    	// closing erases the pooled pairs
+    	pool.close();
+    	assertEquals(0, pool.size());
+    	assertEquals(8, pool.getStatistics().getDiscardedCount());
+    	try {
+    		ipp.generate().generateFirstMessage();
+    		fail("closed pool used");
+    	} catch (IllegalStateException ise) {
+    		// expected
+    	}
+    }
+
+    public void testProverPrecomputationPool() throws IOException, InvalidProofException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+
+    	ProverPrecomputationPool pool = new ProverPrecomputationPool(ip, 1, 4);
+    	pool.fill();
+    	assertEquals(4, pool.size());
+    	ProverProtocolParameters ppp = new ProverProtocolParameters(3, ip, attributes, tokenInformation, null);
+    	ppp.setPrecomputationPool(pool);
+    	assertSame(pool, ppp.getPrecomputationPool());
+    	Issuer issuer = new IssuerProtocolParameters(3, ikap, attributes, tokenInformation, null).generate();
+    	Prover prover = ppp.generate();
+    	UProveKeyAndToken[] tokens = prover.generateTokens(issuer.generateThirdMessage(prover.generateSecondMessage(issuer.generateFirstMessage())));
+    	assertEquals(1, pool.size());
+    	assertEquals(3, pool.getStatistics().getServedCount());
+    	for (int i = 0; i < tokens.length; i++) {
+    		PresentationProof proof = PresentationProtocol.generatePresentationProof(ip, new int[] {2}, tokenInformation, null, tokens[i], attributes);
+    		PresentationProtocol.verifyPresentationProof(ip, new int[] {2}, tokenInformation, null, tokens[i].getToken(), proof);
+    	}
+
+    	// a pool for other issuer parameters is rejected
+    	ProverPrecomputationPool otherPool = new ProverPrecomputationPool(TestUtils.generateIssuerKeyAndParameters("other UID", new byte[] {1, 0}).getIssuerParameters(), 1, 4);
+    	ppp.setPrecomputationPool(otherPool);
+    	try {
+    		ppp.generate().precomputation();
+    		fail("mismatched pool used");
+    	} catch (IllegalArgumentException iae) {
+    		// expected
+    	}
+    	otherPool.close();
+    	pool.close();
+    }
+}
@@ -0,0 +1,72 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class PresentationBatchVerifierTest extends TestCase {
+
+    public PresentationBatchVerifierTest(String name) {
+    	super(name);
+	}
+
+    public void testPresentationBatchVerifier() throws IOException, InvalidProofException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	UProveKeyAndToken[] tokens = TestUtils.issueTokens(ikap, 3, attributes, tokenInformation);
+
+    	// a token whose signature was tampered with
+    	UProveToken forged = tokens[2].getToken();
+    	byte[] sigmaR = (byte[]) forged.getSigmaR().clone();
+    	sigmaR[sigmaR.length - 1] ^= 1;
+    	forged = new UProveToken(forged.getIssuerParametersUID(), forged.getPublicKey(), forged.getTokenInformation(), forged.getProverInformation(), forged.getSigmaZ(), forged.getSigmaC(), sigmaR, forged.isDeviceProtected());
+
+    	VerificationPolicy first = new VerificationPolicy(ip, new int[] {1});
+    	VerificationPolicy second = new VerificationPolicy(ip, new int[] {2});
+    	ExecutorService executor = Executors.newFixedThreadPool(2);
+    	try {
+    		for (int round = 0; round < 2; round++) {
+    			PresentationBatchVerifier batch = new PresentationBatchVerifier();
+    			batch.setExecutor(round == 0 ? null : executor);
+    			byte[] message = "message".getBytes();
+    			for (int i = 0; i < tokens.length; i++) {
+    				UProveToken token = i == 2 ? forged : tokens[i].getToken();
+    				batch.add(first, message, null, token, PresentationProtocol.generatePresentationProof(ip, new int[] {1}, message, null, tokens[i], attributes));
+    				batch.add(second, message, null, token, PresentationProtocol.generatePresentationProof(ip, new int[] {2}, message, null, tokens[i], attributes));
+    			}
+    			// a proof for another message and one for another policy
+    			batch.add(first, "other".getBytes(), null, tokens[0].getToken(), PresentationProtocol.generatePresentationProof(ip, new int[] {1}, message, null, tokens[0], attributes));
+    			batch.add(first, message, null, tokens[1].getToken(), PresentationProtocol.generatePresentationProof(ip, new int[] {2}, message, null, tokens[1], attributes));
+    			assertEquals(8, batch.size());
+
+    			int[] failed = batch.verify();
+    			assertTrue(Arrays.equals(new int[] {4, 5, 6, 7}, failed));
+    			for (int i = 0; i < 4; i++) {
+    				assertNull(batch.getFailure(i));
+    			}
+    			assertTrue(batch.getFailure(4) instanceof InvalidProofException);
+    			assertTrue(batch.getFailure(6) instanceof InvalidProofException);
+    		}
+    	} finally {
+    		executor.shutdown();
+    	}
+    }
+}
@@ -0,0 +1,90 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class PresentationCouponTest extends TestCase {
+
+    public PresentationCouponTest(String name) {
+    	super(name);
+	}
+
+    public void testPresentationCoupons() throws Exception {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0, 1});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}, "third".getBytes()};
+    	byte[] tokenInformation = "token information".getBytes();
+    	UProveKeyAndToken[] tokens = TestUtils.issueTokens(ikap, 1, attributes, tokenInformation);
+    	PreparedToken pt = PresentationProtocol.prepareToken(ip, tokens[0], attributes);
+
+    	int[] disclosed = new int[] {2};
+    	PresentationCoupon[] coupons = PresentationProtocol.generateCoupons(pt, disclosed, 3);
+    	assertEquals(3, coupons.length);
+    	for (int i = 0; i < coupons.length; i++) {
+    		assertFalse(coupons[i].isUsed());
+    		assertSame(pt, coupons[i].getPreparedToken());
+    		assertTrue(Arrays.equals(disclosed, coupons[i].getDisclosed()));
+    		byte[] message = ("message " + i).getBytes();
+    		PresentationProof proof = PresentationProtocol.generatePresentationProof(coupons[i], message, null);
+    		assertTrue(coupons[i].isUsed());
+    		assertTrue(Arrays.equals(attributes[1], proof.getDisclosedAttributes()[0]));
+    		PresentationProtocol.verifyPresentationProof(ip, disclosed, message, null, tokens[0].getToken(), proof);
+    	}
+
+    	// a coupon is consumed exactly once
+    	try {
+    		PresentationProtocol.generatePresentationProof(coupons[0], "again".getBytes(), null);
+    		fail("coupon used twice");
+    	} catch (IllegalStateException ise) {
+    		// expected
+    	}
+    	PresentationCoupon unused = PresentationProtocol.generateCoupons(pt, new int[0], 1)[0];
+    	unused.erase();
+    	assertTrue(unused.isUsed());
+    	try {
+    		PresentationProtocol.generatePresentationProof(unused, "message".getBytes(), null);
+    		fail("erased coupon used");
+    	} catch (IllegalStateException ise) {
+    		// expected
+    	}
+
+    	// concurrent uses of a coupon produce a single proof
+    	final PresentationCoupon shared = PresentationProtocol.generateCoupons(pt, disclosed, 1)[0];
+    	final int[] proofs = new int[1];
+    	Thread[] threads = new Thread[4];
+    	for (int i = 0; i < threads.length; i++) {
+    		threads[i] = new Thread(new Runnable() {
+    			public void run() {
+    				try {
+    					PresentationProtocol.generatePresentationProof(shared, "message".getBytes(), null);
+    					synchronized (proofs) {
+    						proofs[0]++;
+    					}
+    				} catch (IllegalStateException ise) {
+    					// expected for all threads but one
+    				} catch (IOException ioe) {
+    					// counted as no proof
+    				}
+    			}
+    		});
+    		threads[i].start();
+    	}
+    	for (int i = 0; i < threads.length; i++) {
+    		threads[i].join();
+    	}
+    	assertEquals(1, proofs[0]);
+    }
+}
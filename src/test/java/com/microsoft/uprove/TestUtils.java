@@ -11,8 +11,15 @@
 
 package com.microsoft.uprove;
 
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.Arrays;
+
 import javax.crypto.ShortBufferException;
 
+import junit.framework.Assert;
+
 /**
  * Utility methods for various tests.
  */
@@ -85,4 +92,48 @@ public class TestUtils {
             out[offset + i / 2] = (byte) (b1 << 4 | b2);
         }
     }
+
+    /**
+     * Generates the Issuer key and parameters used by the protocol tests:
+     * SHA-256, the default group and the given attribute encodings.
+     * @param uid the issuer parameters UID.
+     * @param encodingBytes the attribute encoding bytes.
+     * @return the Issuer key and parameters.
+     */
+    public static IssuerKeyAndParameters generateIssuerKeyAndParameters(String uid, byte[] encodingBytes)
+    throws IOException, NoSuchProviderException, NoSuchAlgorithmException {
+        IssuerSetupParameters isp = new IssuerSetupParameters();
+        isp.setEncodingBytes(encodingBytes);
+        isp.setHashAlgorithmUID("SHA-256");
+        isp.setParametersUID(uid.getBytes());
+        isp.setSpecification("specification".getBytes());
+        return isp.generate();
+    }
+
+    /**
+     * Runs the issuance protocol with default protocol parameters.
+     * @param ikap the Issuer key and parameters.
+     * @param numberOfTokens the number of tokens to issue.
+     * @param attributes the token attributes.
+     * @param tokenInformation the token information field.
+     * @return the issued U-Prove keys and tokens.
+     */
+    public static UProveKeyAndToken[] issueTokens(IssuerKeyAndParameters ikap, int numberOfTokens, byte[][] attributes, byte[] tokenInformation)
+    throws IOException {
+        Issuer issuer = new IssuerProtocolParameters(numberOfTokens, ikap, attributes, tokenInformation, null).generate();
+        Prover prover = new ProverProtocolParameters(numberOfTokens, ikap.getIssuerParameters(), attributes, tokenInformation, null).generate();
+        return prover.generateTokens(issuer.generateThirdMessage(prover.generateSecondMessage(issuer.generateFirstMessage())));
+    }
+
+    /**
+     * Asserts that two arrays of byte arrays have equal elements.
+     * @param expected the expected arrays.
+     * @param actual the actual arrays.
+     */
+    public static void assertArrayEquals(byte[][] expected, byte[][] actual) {
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertTrue("element " + i, Arrays.equals(expected[i], actual[i]));
+        }
+    }
 }
@@ -0,0 +1,74 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class TokenBatchVerifierTest extends TestCase {
+
+    public TokenBatchVerifierTest(String name) {
+    	super(name);
+	}
+
+    public void testTokenBatchVerifier() throws IOException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	UProveKeyAndToken[] tokens = TestUtils.issueTokens(ikap, 4, attributes, tokenInformation);
+
+    	// a token whose signature was tampered with, and one from other issuer parameters
+    	UProveToken token = tokens[1].getToken();
+    	byte[] sigmaC = (byte[]) token.getSigmaC().clone();
+    	sigmaC[sigmaC.length - 1] ^= 1;
+    	UProveToken forged = new UProveToken(token.getIssuerParametersUID(), token.getPublicKey(), token.getTokenInformation(), token.getProverInformation(), token.getSigmaZ(), sigmaC, token.getSigmaR(), token.isDeviceProtected());
+    	UProveToken foreign = new UProveToken("other UID".getBytes(), token.getPublicKey(), token.getTokenInformation(), token.getProverInformation(), token.getSigmaZ(), token.getSigmaC(), token.getSigmaR(), token.isDeviceProtected());
+
+    	ExecutorService executor = Executors.newFixedThreadPool(2);
+    	try {
+    		for (int round = 0; round < 2; round++) {
+    			TokenBatchVerifier batch = new TokenBatchVerifier(ip);
+    			batch.setExecutor(round == 0 ? null : executor);
+    			for (int i = 0; i < tokens.length; i++) {
+    				assertEquals(i, batch.add(tokens[i].getToken()));
+    			}
+    			batch.add(forged);
+    			batch.add(tokens[0].getToken());
+    			batch.add(foreign);
+    			batch.add(forged);
+    			assertEquals(8, batch.size());
+    			try {
+    				batch.getFailure(0);
+    				fail("batch not verified");
+    			} catch (IllegalStateException ise) {
+    				// expected
+    			}
+
+    			int[] failed = batch.verify();
+    			assertTrue(Arrays.equals(new int[] {4, 6, 7}, failed));
+    			assertNull(batch.getFailure(5));
+    			assertTrue(batch.getFailure(4) instanceof InvalidProofException);
+    			assertTrue(batch.getFailure(6) instanceof IllegalArgumentException);
+    			assertTrue(batch.getFailure(7) instanceof InvalidProofException);
+    		}
+    	} finally {
+    		executor.shutdown();
+    	}
+    }
+}
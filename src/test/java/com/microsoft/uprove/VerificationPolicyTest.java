@@ -0,0 +1,78 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class VerificationPolicyTest extends TestCase {
+
+    public VerificationPolicyTest(String name) {
+    	super(name);
+	}
+
+    public void testVerificationPolicy() throws IOException, InvalidProofException, NoSuchProviderException, NoSuchAlgorithmException {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0, 1});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}, "third".getBytes()};
+    	byte[] tokenInformation = "token information".getBytes();
+    	UProveKeyAndToken[] tokens = TestUtils.issueTokens(ikap, 3, attributes, tokenInformation);
+
+    	int[] disclosed = new int[] {1, 3};
+    	VerificationPolicy policy = new VerificationPolicy(ip, disclosed);
+    	assertTrue(Arrays.equals(new int[] {2}, policy.getUndisclosed()));
+    	byte[] message = "message".getBytes();
+    	try {
+    		for (int round = 0; round < 2; round++) {
+    			// with and without the attribute cache
+    			Config.setAttributeCacheSize(round == 0 ? 0 : 1024 * 1024);
+    			for (int i = 0; i < tokens.length; i++) {
+    				PresentationProof proof = PresentationProtocol.generatePresentationProof(ip, disclosed, message, null, tokens[i], attributes);
+    				policy.verify(message, null, tokens[i].getToken(), proof);
+    				policy.verify(ByteBuffer.wrap(message), null, tokens[i].getToken(), proof);
+    				PresentationProtocol.verifyPresentationProof(policy, message, null, tokens[i].getToken(), proof);
+    				try {
+    					policy.verify("other".getBytes(), null, tokens[i].getToken(), proof);
+    					fail("proof accepted for another message");
+    				} catch (InvalidProofException ipe) {
+    					// expected
+    				}
+    				// a proof for another disclosure set is rejected
+    				PresentationProof other = PresentationProtocol.generatePresentationProof(ip, new int[] {1}, message, null, tokens[i], attributes);
+    				try {
+    					policy.verify(message, null, tokens[i].getToken(), other);
+    					fail("proof accepted for another policy");
+    				} catch (InvalidProofException ipe) {
+    					// expected
+    				}
+    			}
+    		}
+    	} finally {
+    		Config.setAttributeCacheSize(-1);
+    	}
+
+    	int[][] invalid = new int[][] {{0}, {4}, {3, 1}, {2, 2}};
+    	for (int i = 0; i < invalid.length; i++) {
+    		try {
+    			new VerificationPolicy(ip, invalid[i]);
+    			fail("invalid indices accepted");
+    		} catch (IllegalArgumentException iae) {
+    			// expected
+    		}
+    	}
+    }
+}
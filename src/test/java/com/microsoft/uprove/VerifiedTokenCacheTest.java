@@ -0,0 +1,74 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove;
+
+import junit.framework.TestCase;
+
+public class VerifiedTokenCacheTest extends TestCase {
+
+    public VerifiedTokenCacheTest(String name) {
+    	super(name);
+	}
+
+    public void testVerifiedTokenCache() throws Exception {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	IssuerParameters ip = ikap.getIssuerParameters();
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	byte[] proverInformation = "prover information".getBytes();
+    	Issuer issuer = new IssuerProtocolParameters(1, ikap, attributes, tokenInformation, null).generate();
+    	ProverProtocolParameters ppp = new ProverProtocolParameters(1, ip, attributes, tokenInformation, null);
+    	ppp.setProverInformation("prover information".getBytes());
+    	Prover prover = ppp.generate();
+    	UProveKeyAndToken[] tokens = prover.generateTokens(issuer.generateThirdMessage(prover.generateSecondMessage(issuer.generateFirstMessage())));
+    	UProveToken token = tokens[0].getToken();
+    	byte[] message = "message".getBytes();
+    	PresentationProof proof = PresentationProtocol.generatePresentationProof(ip, new int[] {1}, message, null, tokens[0], attributes);
+
+    	// disabled by default
+    	assertEquals(0, Config.getVerifiedTokenCacheSize());
+    	try {
+    		Config.setVerifiedTokenCacheSize(64 * 1024);
+    		Config.setVerifiedTokenCacheTimeToLive(200);
+    		assertEquals(200, Config.getVerifiedTokenCacheTimeToLive());
+    		PresentationProtocol.verifyPresentationProof(ip, new int[] {1}, message, null, token, proof);
+    		PresentationProtocol.verifyPresentationProof(ip, new int[] {1}, message, null, token, proof);
+    		CacheStatistics stats = Config.getVerifiedTokenCacheStatistics();
+    		assertEquals(1, stats.getEntryCount());
+    		assertEquals(1, stats.getMissCount());
+    		assertEquals(1, stats.getHitCount());
+
+    		// a token sharing the identifier of the cached one, but not its
+    		// Prover information, has its signature verified
+    		UProveToken altered = new UProveToken(token.getIssuerParametersUID(), token.getPublicKey(), token.getTokenInformation(), "other information".getBytes(), token.getSigmaZ(), token.getSigmaC(), token.getSigmaR(), token.isDeviceProtected());
+    		try {
+    			PresentationProtocol.verifyPresentationProof(ip, new int[] {1}, message, null, altered, proof);
+    			fail("altered token accepted");
+    		} catch (InvalidProofException ipe) {
+    			// expected
+    		}
+    		assertEquals(1, Config.getVerifiedTokenCacheStatistics().getEntryCount());
+
+    		// an expired token is verified again
+    		Thread.sleep(300);
+    		PresentationProtocol.verifyPresentationProof(ip, new int[] {1}, message, null, token, proof);
+    		stats = Config.getVerifiedTokenCacheStatistics();
+    		assertEquals(3, stats.getMissCount());
+    		assertEquals(1, stats.getHitCount());
+    		assertEquals(1, stats.getEntryCount());
+    	} finally {
+    		Config.setVerifiedTokenCacheSize(-1);
+    		Config.setVerifiedTokenCacheTimeToLive(-1);
+    	}
+    	assertEquals(0, Config.getVerifiedTokenCacheStatistics().getEntryCount());
+    }
+}
@@ -0,0 +1,118 @@
+//*********************************************************
+//
+//    Copyright (c) Microsoft. All rights reserved.
+//    This code is licensed under the Apache License Version 2.0.
+//    THIS CODE IS PROVIDED *AS IS* WITHOUT WARRANTY OF
+//    ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING ANY
+//    IMPLIED WARRANTIES OF FITNESS FOR A PARTICULAR
+//    PURPOSE, MERCHANTABILITY, OR NON-INFRINGEMENT.
+//
+//*********************************************************
+
+package com.microsoft.uprove.net;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.microsoft.uprove.IssuerKeyAndParameters;
+import com.microsoft.uprove.IssuerProtocolParameters;
+import com.microsoft.uprove.ProverProtocolParameters;
+import com.microsoft.uprove.TestUtils;
+
+public class IssuanceServerTest extends TestCase {
+
+    public IssuanceServerTest(String name) {
+    	super(name);
+	}
+
+    public void testIssuanceServer() throws Exception {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	final IssuerProtocolParameters ipp = new IssuerProtocolParameters(2, ikap, attributes, tokenInformation, null);
+    	final byte[] expected = "request".getBytes();
+
+    	IssuanceServer server = new IssuanceServer(new InetSocketAddress("127.0.0.1", 0), new IssuanceHandler() {
+    		public IssuerProtocolParameters getProtocolParameters(byte[][] request) throws IOException {
+    			if (request.length != 1 || !Arrays.equals(expected, request[0])) {
+    				throw new IOException("unexpected request");
+    			}
+    			return ipp;
+    		}
+    	}, 2);
+    	server.start();
+    	try {
+    		InetSocketAddress address = new InetSocketAddress("127.0.0.1", server.getLocalPort());
+    		ProverProtocolParameters ppp = new ProverProtocolParameters(2, ikap.getIssuerParameters(), attributes, tokenInformation, null);
+    		LoadReport report = new IssuanceLoadClient(address, ppp, new byte[][] {expected}, 2, 3).run(10);
+    		assertEquals(10, report.getCompletedCount());
+    		assertEquals(0, report.getFailedCount());
+    		assertTrue(report.getLatencyMillis(50) <= report.getLatencyMillis(100));
+
+    		// rejected requests end with an error frame
+    		report = new IssuanceLoadClient(address, ppp, new byte[][] {"other".getBytes()}, 1, 2).run(3);
+    		assertEquals(0, report.getCompletedCount());
+    		assertEquals(3, report.getFailedCount());
+    		assertEquals(10, server.getCompletedCount());
+    		assertEquals(3, server.getFailedCount());
+    	} finally {
+    		server.close();
+    	}
+    }
+
+    public void testSessionLimits() throws Exception {
+    	IssuerKeyAndParameters ikap = TestUtils.generateIssuerKeyAndParameters("unique UID", new byte[] {1, 0});
+    	byte[][] attributes = new byte[][] {"first".getBytes(), new byte[] {1, 2, 3}};
+    	byte[] tokenInformation = "token information".getBytes();
+    	final IssuerProtocolParameters ipp = new IssuerProtocolParameters(1, ikap, attributes, tokenInformation, null);
+    	IssuanceHandler handler = new IssuanceHandler() {
+    		public IssuerProtocolParameters getProtocolParameters(byte[][] request) {
+    			return ipp;
+    		}
+    	};
+    	ProverProtocolParameters ppp = new ProverProtocolParameters(1, ikap.getIssuerParameters(), attributes, tokenInformation, null);
+
+    	// a session answered after it expired fails
+    	IssuanceServer server = new IssuanceServer(new InetSocketAddress("127.0.0.1", 0), handler, 1, 4, 4, 100, 1 << 20);
+    	server.start();
+    	try {
+    		Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+    		try {
+    			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+    			DataInputStream in = new DataInputStream(socket.getInputStream());
+    			Frames.write(out, 1, Frames.REQUEST, new byte[0][]);
+    			out.flush();
+    			Frames.Frame first = Frames.read(in);
+    			assertEquals(Frames.FIRST, first.type);
+    			Thread.sleep(300);
+    			Frames.write(out, 1, Frames.SECOND, ppp.generate().generateSecondMessage(first.elements));
+    			out.flush();
+    			assertEquals(Frames.ERROR, Frames.read(in).type);
+    		} finally {
+    			socket.close();
+    		}
+    		assertEquals(0, server.getCompletedCount());
+    		assertEquals(1, server.getFailedCount());
+    	} finally {
+    		server.close();
+    	}
+
+    	// requests above the session memory budget are rejected
+    	server = new IssuanceServer(new InetSocketAddress("127.0.0.1", 0), handler, 1, 4, 4, 60000, 1);
+    	server.start();
+    	try {
+    		InetSocketAddress address = new InetSocketAddress("127.0.0.1", server.getLocalPort());
+    		LoadReport report = new IssuanceLoadClient(address, ppp, new byte[0][], 1, 1).run(2);
+    		assertEquals(0, report.getCompletedCount());
+    		assertEquals(2, report.getFailedCount());
+    	} finally {
+    		server.close();
+    	}
+    }
+}